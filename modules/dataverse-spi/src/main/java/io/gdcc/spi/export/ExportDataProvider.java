@@ -2,9 +2,12 @@ package io.gdcc.spi.export;
 
 import java.io.InputStream;
 import java.util.Optional;
+import java.util.stream.Stream;
 
+import javax.json.Json;
 import javax.json.JsonArray;
 import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
 
 /**
  * Provides all the metadata Dataverse has about a given dataset that can then
@@ -71,6 +74,73 @@ public interface ExportDataProvider {
      */
     String getDataCiteXml();
 
+    /**
+     * @return - the same as getDatasetJson(), without the "files" array of its
+     *         "datasetVersion".
+     * @apiNote - For datasets with many files, the files take up most of the
+     *          dataset JSON. Exporters that go through the files one at a time,
+     *          with streamDatasetFiles() or streamDatasetFileDetails(), should use
+     *          this method in place of getDatasetJson(), so that the metadata of
+     *          all the files never has to be held in memory at once.
+     */
+    default JsonObject getDatasetJsonWithoutFiles() {
+        return removeFromObject(getDatasetJson(), "datasetVersion", "files");
+    }
+
+    /**
+     * @return - the entries of the "files" array of getDatasetJson(), one file
+     *         at a time, in the same order.
+     * @apiNote - Each call starts over from the first file. The Dataverse
+     *          implementation reads the files from the database in pages, as the
+     *          stream is consumed.
+     */
+    default Stream<JsonObject> streamDatasetFiles() {
+        JsonObject datasetVersion = getDatasetJson().getJsonObject("datasetVersion");
+        if (datasetVersion == null || !datasetVersion.containsKey("files")) {
+            return Stream.empty();
+        }
+        return datasetVersion.getJsonArray("files").getValuesAs(JsonObject.class).stream();
+    }
+
+    /**
+     * @return - the entries of getDatasetFileDetails(), one file at a time, in
+     *         the same order.
+     * @apiNote - Each call starts over from the first file. The Dataverse
+     *          implementation reads the files from the database in pages, as the
+     *          stream is consumed.
+     */
+    default Stream<JsonObject> streamDatasetFileDetails() {
+        return getDatasetFileDetails().getValuesAs(JsonObject.class).stream();
+    }
+
+    /**
+     * @return - the same as getDatasetORE(), without the "ore:aggregates" and
+     *         "schema:hasPart" entries of its "ore:describes" aggregation.
+     * @apiNote - The "@context" still covers the terms used by the aggregated
+     *          resources, so that they can be added back in, one at a time, from
+     *          streamDatasetOREAggregatedResources().
+     */
+    default JsonObject getDatasetOREWithoutFiles() {
+        return removeFromObject(removeFromObject(getDatasetORE(), "ore:describes", "ore:aggregates"),
+                "ore:describes", "schema:hasPart");
+    }
+
+    /**
+     * @return - the entries of the "ore:aggregates" array of getDatasetORE() (one
+     *         per file, whose "@id" is the matching entry of "schema:hasPart"),
+     *         one file at a time, in the same order.
+     * @apiNote - Each call starts over from the first file. The Dataverse
+     *          implementation reads the files from the database in pages, as the
+     *          stream is consumed.
+     */
+    default Stream<JsonObject> streamDatasetOREAggregatedResources() {
+        JsonObject describes = getDatasetORE().getJsonObject("ore:describes");
+        if (describes == null || !describes.containsKey("ore:aggregates")) {
+            return Stream.empty();
+        }
+        return describes.getJsonArray("ore:aggregates").getValuesAs(JsonObject.class).stream();
+    }
+
     /**
      * If an Exporter has specified a prerequisite format name via the
      * getPrerequisiteFormatName() method, it can call this method to retrieve
@@ -93,4 +163,20 @@ public interface ExportDataProvider {
         return Optional.empty();
     }
 
+    /**
+     * @return - a copy of the object, without the given key of the given child
+     *         object (if there is one).
+     */
+    private static JsonObject removeFromObject(JsonObject object, String child, String key) {
+        JsonObject childObject = object.getJsonObject(child);
+        if (childObject == null || !childObject.containsKey(key)) {
+            return object;
+        }
+        JsonObjectBuilder childBuilder = Json.createObjectBuilder(childObject);
+        childBuilder.remove(key);
+        JsonObjectBuilder builder = Json.createObjectBuilder(object);
+        builder.add(child, childBuilder);
+        return builder.build();
+    }
+
 }
@@ -162,6 +162,10 @@ public class DataFile extends DvObject implements Comparable {
     @Column(nullable=true)
     private Long filesize;      // Number of bytes in file.  Allows 0 and null, negative numbers not permitted
 
+    // CRC-32 of the file, as needed in zip files; saved the first time it is worked out
+    @Column(nullable=true)
+    private Long crc32;
+
     @Expose
     private boolean restricted;
     
@@ -590,7 +594,8 @@ public class DataFile extends DvObject implements Comparable {
     /**
      * Set property filesize in bytes
      * 
-     * Allow nulls, but not negative numbers.
+     * Allow nulls, but not negative numbers. A new size means new content, 
+     * so the saved CRC-32 is cleared. 
      * 
      * @param filesize new value of property filesize.
      */
@@ -598,6 +603,9 @@ public class DataFile extends DvObject implements Comparable {
         if (filesize < 0){
             return;
         }
+        if (this.filesize == null || this.filesize != filesize) {
+            this.crc32 = null;
+        }
        this.filesize = filesize;
     }
 
@@ -614,6 +622,18 @@ public class DataFile extends DvObject implements Comparable {
         }
     }
 
+    /**
+     * @return the CRC-32 of the stored file, or {@code null} if it hasn't been
+     * worked out yet.
+     */
+    public Long getCrc32() {
+        return crc32;
+    }
+
+    public void setCrc32(Long crc32) {
+        this.crc32 = crc32;
+    }
+
     public boolean isRestricted() {
         return restricted;
     }
@@ -1,6 +1,7 @@
 package edu.harvard.iq.dataverse;
 
 import edu.harvard.iq.dataverse.dataaccess.DataAccess;
+import edu.harvard.iq.dataverse.dataaccess.DeterministicZip;
 import edu.harvard.iq.dataverse.dataaccess.ImageThumbConverter;
 import edu.harvard.iq.dataverse.dataaccess.StorageIO;
 import edu.harvard.iq.dataverse.harvest.client.HarvestingClient;
@@ -21,6 +22,7 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
@@ -234,6 +236,40 @@ public class DataFileServiceBean implements java.io.Serializable {
         }
     }
     
+    /**
+     * Keyset pagination over the ids of the files in a dataset version,
+     * without loading the files themselves.
+     *
+     * @param afterId Only ids greater than this one are returned; pass the
+     * last id of the previous page, or 0 for the first one.
+     */
+    public List<Long> findFileIdsByDatasetVersionId(Long datasetVersionId, long afterId, int maxResults) {
+        return em.createQuery("SELECT fm.dataFile.id FROM FileMetadata fm WHERE fm.datasetVersion.id = :datasetVersionId AND fm.dataFile.id > :afterId ORDER BY fm.dataFile.id", Long.class)
+                .setParameter("datasetVersionId", datasetVersionId)
+                .setParameter("afterId", afterId)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
+
+    /**
+     * Keyset pagination over the file metadatas of a dataset version, in the
+     * same order as {@link DatasetVersion#getFileMetadatas()} (by label; then
+     * by id, for the files with the same label).
+     *
+     * @param afterLabel,afterId Only the file metadatas after this label and
+     * id are returned; pass those of the last one of the previous page, or ""
+     * and 0 for the first page.
+     */
+    public List<FileMetadata> findFileMetadatasByDatasetVersionId(Long datasetVersionId, String afterLabel, long afterId, int maxResults) {
+        return em.createQuery("SELECT fm FROM FileMetadata fm WHERE fm.datasetVersion.id = :datasetVersionId AND (fm.label > :afterLabel OR (fm.label = :afterLabel AND fm.id > :afterId)) ORDER BY fm.label, fm.id", FileMetadata.class)
+                .setParameter("datasetVersionId", datasetVersionId)
+                .setParameter("afterLabel", afterLabel)
+                .setParameter("afterId", afterId)
+                .setHint("eclipselink.left-join-fetch", "fm.dataFile")
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
+
     public List<FileMetadata> findFileMetadataByDatasetVersionId(Long datasetVersionId, int maxResults, String userSuppliedSortField, String userSuppliedSortOrder) {
         FileSortFieldAndOrder sortFieldAndOrder = new FileSortFieldAndOrder(userSuppliedSortField, userSuppliedSortOrder);
         String sortField = sortFieldAndOrder.getSortField();
@@ -670,6 +706,45 @@ public class DataFileServiceBean implements java.io.Serializable {
 				.executeUpdate();
     }
 
+    /**
+     * Saves the CRC-32 of a file (or of its saved original), once it has been
+     * worked out for a zipped download; without merging (or touching the
+     * rest of) the DataFile. Not saved if the size of the file has changed
+     * in the meantime (e.g. the file was ingested, or uningested, while it
+     * was being downloaded).
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void saveCrc32(DataFile dataFile, boolean original, long crc32) {
+        if (original) {
+            dataFile.getDataTable().setOriginalFileCrc32(crc32);
+            em.createQuery("UPDATE DataTable t SET t.originalFileCrc32 = :crc32 WHERE t.id = :id AND t.originalFileSize = :size")
+                    .setParameter("crc32", crc32).setParameter("id", dataFile.getDataTable().getId())
+                    .setParameter("size", dataFile.getDataTable().getOriginalFileSize())
+                    .executeUpdate();
+        } else {
+            dataFile.setCrc32(crc32);
+            em.createQuery("UPDATE DataFile f SET f.crc32 = :crc32 WHERE f.id = :id AND f.filesize = :size")
+                    .setParameter("crc32", crc32).setParameter("id", dataFile.getId())
+                    .setParameter("size", dataFile.getFilesize())
+                    .executeUpdate();
+        }
+    }
+
+    /**
+     * Works out, in the background, the CRC-32s of the files that a Range of
+     * a deterministic zip needs, and that aren't known yet; each is saved (see
+     * saveCrc32()) once worked out, for the Range to be requested again.
+     */
+    @Asynchronous
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void computeZipCrc32s(DeterministicZip zip, long first, long last) {
+        try {
+            zip.computeMissingCrcs(first, last);
+        } catch (IOException | RuntimeException ex) {
+            logger.log(Level.WARNING, "Failed to work out the CRC-32s of the files of a zip", ex);
+        }
+    }
+
     /* 
      Convenience methods for merging and removingindividual file metadatas, 
      without touching the rest of the DataFile object:
@@ -109,6 +109,13 @@ public class DataTable implements Serializable {
     
     private Long originalFileSize; 
     
+    /*
+     * CRC-32 of the original file, as needed in zip files; saved the first 
+     * time it is worked out:
+     */
+    
+    private Long originalFileCrc32; 
+    
     /**
      * originalFileName: the file name upon upload/ingest
      */
@@ -189,9 +196,21 @@ public class DataTable implements Serializable {
     }
     
     public void setOriginalFileSize(Long originalFileSize) {
+        // (the CRC-32 saved for a different size is of some other file)
+        if (!Objects.equals(this.originalFileSize, originalFileSize)) {
+            this.originalFileCrc32 = null;
+        }
         this.originalFileSize = originalFileSize;
     }
     
+    public Long getOriginalFileCrc32() {
+        return originalFileCrc32; 
+    }
+    
+    public void setOriginalFileCrc32(Long originalFileCrc32) {
+        this.originalFileCrc32 = originalFileCrc32;
+    }
+    
     
     public String getOriginalFormatVersion() {
         return originalFormatVersion;
@@ -7,6 +7,7 @@ import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 import java.text.MessageFormat;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -48,6 +49,7 @@ import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
+import edu.harvard.iq.dataverse.util.LruCache;
 
 /**
  *
@@ -62,6 +64,13 @@ public class DatasetFieldServiceBean implements java.io.Serializable {
     
     private static final Logger logger = Logger.getLogger(DatasetFieldServiceBean.class.getCanonicalName());
 
+    /**
+     * Ids of the dataset field types (or {@code null}, for missing ones), by
+     * name. The types themselves are looked up by id, so that they're managed
+     * by the calling transaction.
+     */
+    public static final LruCache<String, Long> idCache = new LruCache<>("datasetFieldTypeIds", 4096, Duration.ofMinutes(10));
+
     @EJB
     SettingsServiceBean settingsService;
 
@@ -116,12 +125,23 @@ public class DatasetFieldServiceBean implements java.io.Serializable {
     }
 
     public DatasetFieldType findByName(String name) {
-        try {
-            return  (DatasetFieldType) em.createQuery(NAME_QUERY).setParameter("fieldName", name).getSingleResult();
-        } catch (NoResultException e) {
+        Long id = idCache.get(name, key -> {
+            try {
+                return ((DatasetFieldType) em.createQuery(NAME_QUERY).setParameter("fieldName", name).getSingleResult()).getId();
+            } catch (NoResultException e) {
+                return null;
+            }
+        });
+        if (id == null) {
             return null;
         }
-       
+        DatasetFieldType dsfType = find(id);
+        if (dsfType == null) {
+            // deleted since it was cached
+            idCache.invalidateAfterCompletion(name);
+            return findByName(name);
+        }
+        return dsfType;
     }
 
     /**
@@ -133,13 +153,7 @@ public class DatasetFieldServiceBean implements java.io.Serializable {
      * @see #findByName(java.lang.String)
      */
     public DatasetFieldType findByNameOpt(String name) {
-        try {
-            return em.createNamedQuery("DatasetFieldType.findByName", DatasetFieldType.class)
-                    .setParameter("name", name)
-                    .getSingleResult();
-        } catch (NoResultException nre) {
-            return null;
-        }
+        return findByName(name);
     }
 
     /* 
@@ -243,11 +257,15 @@ public class DatasetFieldServiceBean implements java.io.Serializable {
     }
 
     public DatasetFieldType save(DatasetFieldType dsfType) {
-        return em.merge(dsfType);
+        DatasetFieldType merged = em.merge(dsfType);
+        idCache.invalidateAfterCompletion();
+        return merged;
     }
 
     public MetadataBlock save(MetadataBlock mdb) {
-        return em.merge(mdb);
+        MetadataBlock merged = em.merge(mdb);
+        MetadataBlockServiceBean.idCache.invalidateAfterCompletion();
+        return merged;
     }
 
     public ControlledVocabularyValue save(ControlledVocabularyValue cvv) {
@@ -715,6 +715,8 @@ public class DatasetPage implements java.io.Serializable {
             searchResultsIdSet = null;
         }
 
+        // (for the file table, which asks FileDownloadHelper itself)
+        checkDownloadPermissions();
         final List<FileMetadata> md = workingVersion.getFileMetadatas();
         final List<FileMetadata> retList;
         if (searchResultsIdSet == null) {
@@ -1133,7 +1135,7 @@ public class DatasetPage implements java.io.Serializable {
 
     public boolean canComputeAllFiles(boolean isCartCompute){
         for (FileMetadata fmd : workingVersion.getFileMetadatas()) {
-             if (!fileDownloadHelper.canDownloadFile(fmd)) {
+             if (!canDownloadFile(fmd)) {
                  //RequestContext requestContext = RequestContext.getCurrentInstance();
                  PrimeFaces.current().executeScript("PF('computeInvalid').show()");
                  return false;
@@ -1149,6 +1151,29 @@ public class DatasetPage implements java.io.Serializable {
         return true;
     }
     
+    private DatasetVersion downloadPermissionsCheckedFor = null;
+    private int downloadPermissionsCheckedFiles = 0;
+
+    /**
+     * Whether the user can download a file of the page. The download
+     * permissions of all the files of the working version are checked at once,
+     * the first time one is asked for, and again when the working version or
+     * its files change.
+     */
+    private boolean canDownloadFile(FileMetadata fileMetadata) {
+        checkDownloadPermissions();
+        return fileDownloadHelper.canDownloadFile(fileMetadata);
+    }
+
+    private void checkDownloadPermissions() {
+        if (workingVersion != null && (workingVersion != downloadPermissionsCheckedFor
+                || workingVersion.getFileMetadatas().size() != downloadPermissionsCheckedFiles)) {
+            fileDownloadHelper.checkDownloadPermissions(workingVersion.getFileMetadatas());
+            downloadPermissionsCheckedFor = workingVersion;
+            downloadPermissionsCheckedFiles = workingVersion.getFileMetadatas().size();
+        }
+    }
+
     Boolean canDownloadFiles = null;
 
     //caching can download files to limit trips to File Download Helper
@@ -1156,7 +1181,7 @@ public class DatasetPage implements java.io.Serializable {
         if (canDownloadFiles == null) {
             canDownloadFiles = false;
             for (FileMetadata fmd : workingVersion.getFileMetadatas()) {
-                if (fileDownloadHelper.canDownloadFile(fmd)) {
+                if (canDownloadFile(fmd)) {
                     canDownloadFiles = true;
                     break;
                 }
@@ -1324,7 +1349,7 @@ public class DatasetPage implements java.io.Serializable {
             return false;
         }
 
-        if (!this.fileDownloadHelper.canDownloadFile(fileMetadata)) {
+        if (!canDownloadFile(fileMetadata)) {
             datafileThumbnailsMap.put(dataFileId, "");
             return false;
         }
@@ -3180,7 +3205,7 @@ public class DatasetPage implements java.io.Serializable {
         }
 
         for (FileMetadata fmd : this.selectedFiles) {
-            if (this.fileDownloadHelper.canDownloadFile(fmd)) {
+            if (canDownloadFile(fmd)) {
                 getSelectedDownloadableFiles().add(fmd);
                 DataFile dataFile = fmd.getDataFile();
                 if (downloadOriginal && dataFile.isTabularData()) {
@@ -5076,7 +5101,7 @@ public class DatasetPage implements java.io.Serializable {
         }
 
         for (FileMetadata fmd : workingVersion.getFileMetadatas()) {
-            if (this.fileDownloadHelper.canDownloadFile(fmd)) {
+            if (canDownloadFile(fmd)) {
                 downloadButtonAvailable = true;
                 return true;
             }
@@ -5098,7 +5123,7 @@ public class DatasetPage implements java.io.Serializable {
         for (FileMetadata fmd : workingVersion.getFileMetadatas()){
             AuthenticatedUser authenticatedUser = (AuthenticatedUser) session.getUser();
             //Change here so that if all restricted files have pending requests there's no Request Button
-            if ((!this.fileDownloadHelper.canDownloadFile(fmd) && !fmd.getDataFile().containsFileAccessRequestFromUser(authenticatedUser))) {
+            if ((!canDownloadFile(fmd) && !fmd.getDataFile().containsFileAccessRequestFromUser(authenticatedUser))) {
                 return true;
             }
         }
@@ -5113,7 +5138,7 @@ public class DatasetPage implements java.io.Serializable {
             return false;
         }
         for (FileMetadata fmd : this.selectedRestrictedFiles){
-            if (!this.fileDownloadHelper.canDownloadFile(fmd)){
+            if (!canDownloadFile(fmd)){
                 return true;
             }
         }
@@ -5126,7 +5151,7 @@ public class DatasetPage implements java.io.Serializable {
 
         if (downloadButtonAllEnabled == null) {
             for (FileMetadata fmd : workingVersion.getFileMetadatas()) {
-                if (!this.fileDownloadHelper.canDownloadFile(fmd)) {
+                if (!canDownloadFile(fmd)) {
                     downloadButtonAllEnabled = false;
                     break;
                 }
@@ -5142,7 +5167,7 @@ public class DatasetPage implements java.io.Serializable {
             return false;
         }
         for (FileMetadata fmd : this.selectedFiles){
-            if (this.fileDownloadHelper.canDownloadFile(fmd)){
+            if (canDownloadFile(fmd)){
                 return true;
             }
         }
@@ -5158,7 +5183,7 @@ public class DatasetPage implements java.io.Serializable {
             return false;
         }
         for (FileMetadata fmd : workingVersion.getFileMetadatas()){
-            if (!this.fileDownloadHelper.canDownloadFile(fmd) && !FileUtil.isActivelyEmbargoed(fmd)){
+            if (!canDownloadFile(fmd) && !FileUtil.isActivelyEmbargoed(fmd)){
                 return true;
             }
         }
@@ -5177,7 +5202,7 @@ public class DatasetPage implements java.io.Serializable {
             return false;
         }
         for (FileMetadata fmd : this.selectedRestrictedFiles){
-            if (!this.fileDownloadHelper.canDownloadFile(fmd)&& !FileUtil.isActivelyEmbargoed(fmd)){
+            if (!canDownloadFile(fmd)&& !FileUtil.isActivelyEmbargoed(fmd)){
                 return true;
             }
         }
@@ -18,6 +18,7 @@ import edu.harvard.iq.dataverse.engine.command.impl.FinalizeDatasetPublicationCo
 import edu.harvard.iq.dataverse.engine.command.impl.GetDatasetStorageSizeCommand;
 import edu.harvard.iq.dataverse.export.ExportService;
 import edu.harvard.iq.dataverse.globus.GlobusServiceBean;
+import edu.harvard.iq.dataverse.harvest.client.DeferredHarvestIndexing;
 import edu.harvard.iq.dataverse.harvest.server.OAIRecordServiceBean;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
@@ -261,27 +262,34 @@ public class DatasetServiceBean implements java.io.Serializable {
         return typedQuery.getResultList();
     }
 
-        /**
+    public List<Long> findAllOrSubsetOrderByFilesOwned(boolean skipIndexed) {
+        return findAllOrSubsetOrderByFilesOwned(1, 0, skipIndexed);
+    }
+
+    /**
      * For docs, see the equivalent method on the DataverseServiceBean.
      * @param numPartitions
      * @param partitionId
      * @param skipIndexed
-     * @return a list of datasets
+     * @return a list of dataset ids, smallest datasets (by number of files) first
      * @see DataverseServiceBean#findAllOrSubset(long, long, boolean)
      */
-    public List<Long> findAllOrSubsetOrderByFilesOwned(boolean skipIndexed) {
+    public List<Long> findAllOrSubsetOrderByFilesOwned(long numPartitions, long partitionId, boolean skipIndexed) {
         /*
         Disregards deleted or replaced files when determining 'size' of dataset.
         Could possibly make more efficient by getting file metadata counts
         of latest published/draft version.
-        Also disregards partitioning which is no longer supported.
         SEK - 11/09/2021
         */
-
+        if (numPartitions < 1) {
+            numPartitions = 1;
+        }
         String skipClause = skipIndexed ? "AND o.indexTime is null " : "";
+        String partitionClause = numPartitions > 1 ? "AND mod(o.id, " + numPartitions + ") = " + partitionId + " " : "";
         Query query = em.createNativeQuery(" Select distinct(o.id), count(f.id) as numFiles FROM dvobject o " +
             "left join dvobject f on f.owner_id = o.id  where o.dtype = 'Dataset' "
                 + skipClause
+                + partitionClause
                 + " group by o.id "
                 + "ORDER BY count(f.id) asc, o.id");
 
@@ -743,7 +751,7 @@ public class DatasetServiceBean implements java.io.Serializable {
                         countAll++;
                         try {
                             recordService.exportAllFormatsInNewTransaction(dataset);
-                            exportLogger.info("Success exporting dataset: " + dataset.getDisplayName() + " " + dataset.getGlobalId().asString());
+                            exportLogger.info("Scheduled the export of dataset: " + dataset.getDisplayName() + " " + dataset.getGlobalId().asString());
                             countSuccess++;
                         } catch (Exception ex) {
                             exportLogger.log(Level.INFO, "Error exporting dataset: " + dataset.getDisplayName() + " " + dataset.getGlobalId().asString() + "; " + ex.getMessage(), ex);
@@ -754,7 +762,7 @@ public class DatasetServiceBean implements java.io.Serializable {
             }
         }
         exportLogger.info("Datasets processed: " + countAll.toString());
-        exportLogger.info("Datasets exported successfully: " + countSuccess.toString());
+        exportLogger.info("Datasets scheduled for export: " + countSuccess.toString());
         exportLogger.info("Datasets failures: " + countError.toString());
         exportLogger.info("Finished export-all job.");
 
@@ -782,7 +790,7 @@ public class DatasetServiceBean implements java.io.Serializable {
                         || dataset.getLastExportTime().before(publicationDate)))) {
                     try {
                         recordService.exportAllFormatsInNewTransaction(dataset);
-                        logger.info("Success exporting dataset: " + dataset.getDisplayName() + " " + dataset.getGlobalId().asString());
+                        logger.info("Scheduled the export of dataset: " + dataset.getDisplayName() + " " + dataset.getGlobalId().asString());
                     } catch (Exception ex) {
                         logger.log(Level.INFO, "Error exporting dataset: " + dataset.getDisplayName() + " " + dataset.getGlobalId().asString() + "; " + ex.getMessage(), ex);
                     }
@@ -1103,12 +1111,17 @@ public class DatasetServiceBean implements java.io.Serializable {
      * @param dataset
      * @param request DataverseRequest (for initializing the DestroyDatasetCommand)
      * @param hdLogger logger object (in practice, this will be a separate log file created for a specific harvesting job)
+     * @param deferredIndexing where to leave the removal of the dataset from the index, for the harvest to do in bulk; null to do it right away
      */
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
-    public void deleteHarvestedDataset(Dataset dataset, DataverseRequest request, Logger hdLogger) {
+    public void deleteHarvestedDataset(Dataset dataset, DataverseRequest request, Logger hdLogger, DeferredHarvestIndexing deferredIndexing) {
         // Purge all the SOLR documents associated with this client from the
         // index server:
-        indexService.deleteHarvestedDocuments(dataset);
+        if (deferredIndexing != null) {
+            deferredIndexing.deleteLater(indexService.getHarvestedDocumentIds(dataset));
+        } else {
+            indexService.deleteHarvestedDocuments(dataset);
+        }
 
         try {
             // files from harvested datasets are removed unceremoniously,
@@ -1121,7 +1134,7 @@ public class DatasetServiceBean implements java.io.Serializable {
             }
             dataset.setFiles(null);
             Dataset merged = em.merge(dataset);
-            commandEngine.submit(new DestroyDatasetCommand(merged, request));
+            commandEngine.submit(new DestroyDatasetCommand(merged, request, deferredIndexing));
             hdLogger.info("Successfully destroyed the dataset");
         } catch (Exception ex) {
             hdLogger.warning("Failed to destroy the dataset");
@@ -17,7 +17,7 @@ import javax.persistence.PersistenceContext;
 @Named
 public class DataverseFacetServiceBean implements java.io.Serializable {
     
-    public static final LruCache<Long,List<DataverseFacet>> cache = new LruCache<>();
+    public static final LruCache<Long,List<DataverseFacet>> cache = new LruCache<>("dataverseFacets", 128, null);
     
     @PersistenceContext(unitName = "VDCNet-ejbPU")
     private EntityManager em;
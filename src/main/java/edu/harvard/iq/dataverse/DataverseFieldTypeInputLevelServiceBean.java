@@ -24,7 +24,7 @@ import javax.persistence.Query;
 public class DataverseFieldTypeInputLevelServiceBean {
 
 //    private static final Logger logger = Logger.getLogger(DataverseFieldTypeInputLevelServiceBean.class.getCanonicalName());
-    public static final LruCache<Long, List<DataverseFieldTypeInputLevel>> cache = new LruCache<>();
+    public static final LruCache<Long, List<DataverseFieldTypeInputLevel>> cache = new LruCache<>("dataverseFieldTypeInputLevels", 128, null);
 
     @PersistenceContext(unitName = "VDCNet-ejbPU")
     private EntityManager em;
@@ -9,10 +9,14 @@ import edu.harvard.iq.dataverse.search.IndexAsync;
 import edu.harvard.iq.dataverse.search.IndexResponse;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
 import edu.harvard.iq.dataverse.search.SolrIndexServiceBean;
+import edu.harvard.iq.dataverse.util.LruCache;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -21,6 +25,7 @@ import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
+import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.TypedQuery;
 //import javax.validation.constraints.NotNull;
@@ -35,6 +40,12 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
 
     private static final Logger logger = Logger.getLogger(DataverseRoleServiceBean.class.getCanonicalName());
 
+    /**
+     * Ids of the built-in roles, by alias. The roles themselves are looked up
+     * by id, so that they're managed by the calling transaction.
+     */
+    public static final LruCache<String, Long> builtinRoleIdCache = new LruCache<>("builtinRoleIds", 128, Duration.ofMinutes(10));
+
     @PersistenceContext(unitName = "VDCNet-ejbPU")
     private EntityManager em;
 
@@ -48,6 +59,8 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
     IndexAsync indexAsync;
 
     public DataverseRole save(DataverseRole aRole) {
+        builtinRoleIdCache.invalidateAfterCompletion();
+        PermissionCache.invalidateAll();
         if (aRole.getId() == null) {
             em.persist(aRole);
             /**
@@ -71,6 +84,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
     }
     
     public RoleAssignment save(RoleAssignment assignment, boolean createIndex) {
+        PermissionCache.invalidateAll();
         if (assignment.getId() == null) {
             em.persist(assignment);
         } else {
@@ -106,6 +120,8 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
         em.createNamedQuery("DataverseRole.deleteById", DataverseRole.class)
             .setParameter("id", id)
             .executeUpdate();
+        builtinRoleIdCache.invalidateAfterCompletion();
+        PermissionCache.invalidateAll();
     }
 
     public List<DataverseRole> findByOwnerId(Long ownerId) {
@@ -119,10 +135,20 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
             .getResultList();
     }
 
+    /**
+     * @throws NoResultException if there is no built-in role with that alias.
+     */
     public DataverseRole findBuiltinRoleByAlias(String alias) {
-        return em.createNamedQuery("DataverseRole.findBuiltinRoleByAlias", DataverseRole.class)
+        Long id = builtinRoleIdCache.get(alias, key -> em.createNamedQuery("DataverseRole.findBuiltinRoleByAlias", DataverseRole.class)
             .setParameter("alias", alias)
-            .getSingleResult();
+            .getSingleResult().getId());
+        DataverseRole role = find(id);
+        if (role == null) {
+            // deleted since it was cached
+            builtinRoleIdCache.invalidateAfterCompletion(alias);
+            return findBuiltinRoleByAlias(alias);
+        }
+        return role;
     }
     
     public DataverseRole findCustomRoleByAliasAndOwner(String alias, Long ownerId) {
@@ -133,6 +159,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
     }
 
     public void revoke(Set<DataverseRole> roles, RoleAssignee assignee, DvObject defPoint) {
+        PermissionCache.invalidateAll();
         for (DataverseRole role : roles) {
             em.createNamedQuery("RoleAssignment.deleteByAssigneeIdentifier_RoleIdDefinition_PointId")
                 .setParameter("assigneeIdentifier", assignee.getIdentifier())
@@ -145,6 +172,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
     }
 
     public void revoke(RoleAssignment ra) {
+        PermissionCache.invalidateAll();
         if (!em.contains(ra)) {
             ra = em.merge(ra);
         }
@@ -160,6 +188,7 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
     // on which the roles were assigned - need to be reindexed for permissions
     // once the role assignments are removed!
     public void revokeAll(RoleAssignee assignee) {
+        PermissionCache.invalidateAll();
         Set<DvObject> reindexSet = new HashSet<>();
 
         for (RoleAssignment ra : roleAssigneeService.getAssignmentsFor(assignee.getIdentifier())) {
@@ -290,6 +319,25 @@ public class DataverseRoleServiceBean implements java.io.Serializable {
         return query.getResultList();
     }
 
+    /**
+     * Retrieves the role assignments defined directly on any of the given
+     * objects with a single query, mapped by definition point id. Objects
+     * without assignments are not in the map.
+     */
+    public Map<Long, List<RoleAssignment>> directRoleAssignments(Collection<Long> definitionPointIds) {
+        Map<Long, List<RoleAssignment>> byDefinitionPoint = new HashMap<>();
+        if (definitionPointIds.isEmpty()) {
+            return byDefinitionPoint;
+        }
+        List<RoleAssignment> assignments = em.createQuery("SELECT r FROM RoleAssignment r WHERE r.definitionPoint.id IN :definitionPointIds", RoleAssignment.class)
+                .setParameter("definitionPointIds", definitionPointIds)
+                .getResultList();
+        for (RoleAssignment assignment : assignments) {
+            byDefinitionPoint.computeIfAbsent(assignment.getDefinitionPoint().getId(), id -> new ArrayList<>()).add(assignment);
+        }
+        return byDefinitionPoint;
+    }
+
     /**
      * Get all the available roles in a given dataverse, mapped by the dataverse
      * that defines them. Map entries are ordered by reversed hierarchy (root is
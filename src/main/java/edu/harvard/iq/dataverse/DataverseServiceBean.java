@@ -179,6 +179,23 @@ public class DataverseServiceBean implements java.io.Serializable {
         
     }
 
+    /**
+     * Same as {@link #findDataverseIdsForIndexing(boolean)}, but limited to the
+     * ids falling into the given partition.
+     *
+     * @see #findAllOrSubset(long, long, boolean)
+     */
+    public List<Long> findDataverseIdsForIndexing(long numPartitions, long partitionId, boolean skipIndexed) {
+        if (numPartitions <= 1) {
+            return findDataverseIdsForIndexing(skipIndexed);
+        }
+        String skipClause = skipIndexed ? "AND o.indexTime IS null " : "";
+        return em.createQuery("SELECT o.id FROM Dataverse o WHERE MOD(o.id, :numPartitions) = :partitionId " + skipClause + "ORDER BY o.id", Long.class)
+                .setParameter("numPartitions", numPartitions)
+                .setParameter("partitionId", partitionId)
+                .getResultList();
+    }
+
     public List<Dataverse> findByCreatorId(Long creatorId) {
         return em.createNamedQuery("Dataverse.findByCreatorId").setParameter("creatorId", creatorId).getResultList();
     }
@@ -22,6 +22,7 @@ import javax.persistence.NonUniqueResultException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 import javax.persistence.StoredProcedureQuery;
+import javax.persistence.TypedQuery;
 
 import org.apache.commons.lang3.StringUtils;
 import org.ocpsoft.common.util.Strings;
@@ -223,6 +224,41 @@ public class DvObjectServiceBean implements java.io.Serializable {
         return savedDvObject;
     }
 
+    /**
+     * Sets the permission index time of many objects with a single update,
+     * e.g. after their permissions were sent to Solr in a batch.
+     */
+    public int updatePermissionIndexTime(List<Long> dvObjectIds) {
+        if (dvObjectIds.isEmpty()) {
+            return 0;
+        }
+        return em.createQuery("UPDATE DvObject o SET o.permissionIndexTime = :permissionIndexTime WHERE o.id IN :dvObjectIds")
+                .setParameter("permissionIndexTime", new Timestamp(new Date().getTime()))
+                .setParameter("dvObjectIds", dvObjectIds)
+                .executeUpdate();
+    }
+
+    /**
+     * Keyset pagination over the ids of the objects of one type, optionally
+     * restricted to the children of one owner.
+     *
+     * @param ownerId May be null, for objects of any owner.
+     * @param afterId Only ids greater than this one are returned; pass the
+     * last id of the previous page, or 0 for the first one.
+     */
+    public List<Long> findIdsByDtype(DvObject.DType dtype, Long ownerId, long afterId, int maxResults) {
+        String ownerClause = ownerId != null ? "AND o.owner.id = :ownerId " : "";
+        TypedQuery<Long> query = em.createQuery("SELECT o.id FROM DvObject o WHERE o.dtype = :dtype AND o.id > :afterId "
+                + ownerClause + "ORDER BY o.id", Long.class)
+                .setParameter("dtype", dtype.getDType())
+                .setParameter("afterId", afterId)
+                .setMaxResults(maxResults);
+        if (ownerId != null) {
+            query.setParameter("ownerId", ownerId);
+        }
+        return query.getResultList();
+    }
+
     @TransactionAttribute(REQUIRES_NEW)
     public int clearAllIndexTimes() {
         Query clearIndexTimes = em.createQuery("UPDATE DvObject o SET o.indexTime = NULL, o.permissionIndexTime = NULL");
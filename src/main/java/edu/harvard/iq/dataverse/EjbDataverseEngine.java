@@ -2,6 +2,7 @@ package edu.harvard.iq.dataverse;
 
 import edu.harvard.iq.dataverse.actionlogging.ActionLogRecord;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogServiceBean;
+import edu.harvard.iq.dataverse.actionlogging.ActionLogWriter;
 import edu.harvard.iq.dataverse.authorization.AuthenticationServiceBean;
 import edu.harvard.iq.dataverse.authorization.providers.builtin.BuiltinUserServiceBean;
 import edu.harvard.iq.dataverse.engine.DataverseEngine;
@@ -176,6 +177,9 @@ public class EjbDataverseEngine {
     @EJB
     ActionLogServiceBean logSvc;
     
+    @EJB
+    ActionLogWriter actionLogWriter;
+    
     @EJB
     WorkflowServiceBean workflowService;
     
@@ -325,7 +329,7 @@ public class EjbDataverseEngine {
                 }                  
             }
             logRec.setEndTime(new java.util.Date());
-            logSvc.log(logRec);
+            actionLogWriter.log(logRec);
         }
     }
     
@@ -14,10 +14,13 @@ import edu.harvard.iq.dataverse.util.FileUtil;
 import edu.harvard.iq.dataverse.util.JsfHelper;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import javax.ejb.EJB;
 import javax.faces.view.ViewScoped;
 import javax.inject.Inject;
@@ -246,6 +249,37 @@ public class FileDownloadHelper implements java.io.Serializable {
         return false;
     }
 
+    /**
+     * Works out {@link #canDownloadFile(FileMetadata)} ahead of time for the
+     * restricted (or embargoed) files among {@code fileMetadatas}, e.g. all the
+     * files of the version shown on the dataset page, with a bulk permission
+     * lookup rather than one (or more) per file.
+     */
+    public void checkDownloadPermissions(Collection<FileMetadata> fileMetadatas) {
+        if (session.getUser() instanceof PrivateUrlUser) {
+            return;
+        }
+        List<FileMetadata> toCheck = new ArrayList<>();
+        for (FileMetadata fileMetadata : fileMetadatas) {
+            if (fileMetadata.getId() == null || fileMetadata.getDataFile().getId() == null
+                    || fileDownloadPermissionMap.containsKey(fileMetadata.getId())
+                    || fileMetadata.getDatasetVersion().isDeaccessioned()) {
+                continue;
+            }
+            if (fileMetadata.isRestricted() || fileMetadata.getDataFile().isRestricted() || FileUtil.isActivelyEmbargoed(fileMetadata)) {
+                toCheck.add(fileMetadata);
+            }
+        }
+        if (toCheck.isEmpty()) {
+            return;
+        }
+        Set<DataFile> permitted = permissionService.whichHavePermissionFor(dvRequestService.getDataverseRequest(),
+                toCheck.stream().map(FileMetadata::getDataFile).collect(Collectors.toList()), Permission.DownloadFile);
+        for (FileMetadata fileMetadata : toCheck) {
+            fileDownloadPermissionMap.put(fileMetadata.getId(), permitted.contains(fileMetadata.getDataFile()));
+        }
+    }
+
     public boolean isRestrictedOrEmbargoed(FileMetadata fileMetadata) {
         return fileMetadata.isRestricted() || FileUtil.isActivelyEmbargoed(fileMetadata);
     }
@@ -1,5 +1,7 @@
 package edu.harvard.iq.dataverse;
 
+import edu.harvard.iq.dataverse.util.LruCache;
+import java.time.Duration;
 import java.util.List;
 import javax.ejb.Stateless;
 import javax.inject.Named;
@@ -15,11 +17,20 @@ import javax.persistence.PersistenceContext;
 @Named
 public class MetadataBlockServiceBean {
     
+    /**
+     * Ids of the metadata blocks (or {@code null}, for missing ones), by name.
+     * The blocks themselves are looked up by id, so that they're managed by the
+     * calling transaction.
+     */
+    public static final LruCache<String, Long> idCache = new LruCache<>("metadataBlockIds", 256, Duration.ofMinutes(10));
+    
     @PersistenceContext(unitName = "VDCNet-ejbPU")
     private EntityManager em;
     
     public MetadataBlock save(MetadataBlock mdb) {
-       return em.merge(mdb);
+       MetadataBlock merged = em.merge(mdb);
+       idCache.invalidateAfterCompletion();
+       return merged;
     }   
     
     
@@ -32,12 +43,24 @@ public class MetadataBlockServiceBean {
     }
     
     public MetadataBlock findByName( String name ) {
-        try {
-            return em.createNamedQuery("MetadataBlock.findByName", MetadataBlock.class)
-                        .setParameter("name", name)
-                        .getSingleResult();
-        } catch ( NoResultException nre ) {
+        Long id = idCache.get(name, key -> {
+            try {
+                return em.createNamedQuery("MetadataBlock.findByName", MetadataBlock.class)
+                            .setParameter("name", name)
+                            .getSingleResult().getId();
+            } catch ( NoResultException nre ) {
+                return null;
+            }
+        });
+        if ( id == null ) {
             return null;
         }
+        MetadataBlock mdb = em.find(MetadataBlock.class, id);
+        if ( mdb == null ) {
+            // deleted since it was cached
+            idCache.invalidateAfterCompletion(name);
+            return findByName(name);
+        }
+        return mdb;
     }
 }
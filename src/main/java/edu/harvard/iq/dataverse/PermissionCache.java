@@ -0,0 +1,281 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.authorization.Permission;
+import edu.harvard.iq.dataverse.authorization.RoleAssignee;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.LruCache;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * The permissions already worked out by the {@link PermissionServiceBean}
+ * during a request (see
+ * {@link edu.harvard.iq.dataverse.engine.command.DataverseRequest#getPermissionCache()}),
+ * so that e.g. listing the thousands of files of a dataset doesn't look up the
+ * groups of the user, and the role assignments on the dataset and its
+ * collections, for every file. Kept are:
+ * <ul>
+ * <li>the role assignees a request acts as (the user and their groups), per
+ * collection;</li>
+ * <li>the permissions granted to a set of role assignees by role assignments on
+ * an object and its ancestors, up to the permission root;</li>
+ * <li>the ids of the files in a released dataset version.</li>
+ * </ul>
+ *
+ * The granted permissions can also be shared across requests for a few
+ * seconds, by setting {@link JvmSettings#PERMISSIONS_CACHE_TTL}. Whatever
+ * changes role assignments, roles, groups or the permission roots must call
+ * {@link #invalidateAll()}.
+ */
+public class PermissionCache {
+
+    private static final Logger logger = Logger.getLogger(PermissionCache.class.getCanonicalName());
+
+    /** Past this many entries, a cache is emptied, e.g. for long-lived requests of batch jobs. */
+    static final int MAX_ENTRIES = 100_000;
+
+    private static final int SHARED_CACHE_SIZE = 50_000;
+
+    /** Incremented by {@link #invalidateAll()}; the caches of the requests started before it get emptied. */
+    private static final AtomicLong epoch = new AtomicLong();
+
+    private static final LruCache<GrantKey, Set<Permission>> sharedGrants = createSharedCache();
+
+    private static final LongAdder requests = new LongAdder();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder releasedFileHits = new LongAdder();
+    private static final LongAdder releasedFileMisses = new LongAdder();
+    private static final LongAdder invalidations = new LongAdder();
+
+    /** The context of the groups that apply anywhere (see {@link #getAssignees(Long, Supplier)}). */
+    private static final Long NO_CONTEXT = -1L;
+
+    private long cachedEpoch = epoch.get();
+    private final Map<Long, Assignees> assignees = new ConcurrentHashMap<>();
+    private final Map<GrantKey, Set<Permission>> grants = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Long>> releasedFileIds = new ConcurrentHashMap<>();
+
+    /**
+     * The role assignees a request acts as, with a key made of their
+     * identifiers.
+     */
+    public static final class Assignees {
+        private final Set<RoleAssignee> roleAssignees;
+        private final String key;
+
+        public Assignees(Set<RoleAssignee> roleAssignees) {
+            this.roleAssignees = Collections.unmodifiableSet(roleAssignees);
+            Set<String> identifiers = new TreeSet<>();
+            for (RoleAssignee ra : roleAssignees) {
+                identifiers.add(ra.getIdentifier());
+            }
+            this.key = String.join(" ", identifiers);
+        }
+
+        public Set<RoleAssignee> getRoleAssignees() {
+            return roleAssignees;
+        }
+
+        String getKey() {
+            return key;
+        }
+    }
+
+    private static final class GrantKey {
+        private final String assignees;
+        private final long dvObjectId;
+
+        GrantKey(String assignees, long dvObjectId) {
+            this.assignees = assignees;
+            this.dvObjectId = dvObjectId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof GrantKey)) {
+                return false;
+            }
+            GrantKey other = (GrantKey) obj;
+            return dvObjectId == other.dvObjectId && assignees.equals(other.assignees);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(assignees, dvObjectId);
+        }
+    }
+
+    public PermissionCache() {
+        requests.increment();
+    }
+
+    private static LruCache<GrantKey, Set<Permission>> createSharedCache() {
+        long ttlSeconds = JvmSettings.PERMISSIONS_CACHE_TTL.lookupOptional(Long.class).orElse(0L);
+        return (ttlSeconds > 0) ? new LruCache<>("permissions", SHARED_CACHE_SIZE, Duration.ofSeconds(ttlSeconds)) : null;
+    }
+
+    /**
+     * @param contextId the id of the collection whose groups apply; {@code null} for the groups that apply anywhere.
+     * @param loader finds the role assignees, if they are not cached yet.
+     */
+    Assignees getAssignees(Long contextId, Supplier<Assignees> loader) {
+        checkEpoch();
+        Long key = (contextId != null) ? contextId : NO_CONTEXT;
+        Assignees cached = assignees.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        return put(assignees, key, loader.get());
+    }
+
+    /**
+     * @return the permissions granted to {@code assignees} over the object,
+     * or {@code null} if they're not known yet. {@code cache} may be
+     * {@code null}, for queries made outside of a request.
+     */
+    static Set<Permission> getGrants(PermissionCache cache, Assignees assignees, DvObject dvo) {
+        if (dvo.getId() == null) {
+            return null;
+        }
+        GrantKey key = new GrantKey(assignees.getKey(), dvo.getId());
+        Set<Permission> granted = null;
+        if (cache != null) {
+            cache.checkEpoch();
+            granted = cache.grants.get(key);
+        }
+        if (granted == null && sharedGrants != null) {
+            granted = sharedGrants.get(key);
+            if (granted != null && cache != null) {
+                put(cache.grants, key, granted);
+            }
+        }
+        if (granted != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return granted;
+    }
+
+    static void putGrants(PermissionCache cache, Assignees assignees, DvObject dvo, Set<Permission> granted) {
+        if (dvo.getId() == null) {
+            return;
+        }
+        GrantKey key = new GrantKey(assignees.getKey(), dvo.getId());
+        granted = Collections.unmodifiableSet(granted);
+        if (cache != null) {
+            put(cache.grants, key, granted);
+        }
+        if (sharedGrants != null) {
+            sharedGrants.put(key, granted);
+        }
+    }
+
+    /**
+     * @param version a released dataset version.
+     * @param loader lists the ids of the files in the version, if they are not cached yet.
+     */
+    Set<Long> getReleasedFileIds(DatasetVersion version, Supplier<Set<Long>> loader) {
+        checkEpoch();
+        Set<Long> cached = releasedFileIds.get(version.getId());
+        if (cached != null) {
+            releasedFileHits.increment();
+            return cached;
+        }
+        releasedFileMisses.increment();
+        return put(releasedFileIds, version.getId(), loader.get());
+    }
+
+    private static <K, V> V put(Map<K, V> map, K key, V value) {
+        if (map.size() >= MAX_ENTRIES) {
+            map.clear();
+        }
+        map.put(key, value);
+        return value;
+    }
+
+    private void checkEpoch() {
+        long current = epoch.get();
+        if (current != cachedEpoch) {
+            synchronized (this) {
+                if (current != cachedEpoch) {
+                    assignees.clear();
+                    grants.clear();
+                    releasedFileIds.clear();
+                    cachedEpoch = current;
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets all the permissions worked out so far, by the ongoing requests
+     * and, if shared, across requests (telling the
+     * {@link edu.harvard.iq.dataverse.util.CacheRegistry} listeners). As what
+     * gets worked out until the transaction of the caller is over may still be
+     * stale, or not be committed at all, it is forgotten again then.
+     */
+    public static void invalidateAll() {
+        invalidateNow();
+        try {
+            TransactionSynchronizationRegistry registry = (TransactionSynchronizationRegistry) new InitialContext()
+                    .lookup("java:comp/TransactionSynchronizationRegistry");
+            if (registry.getTransactionStatus() == Status.STATUS_ACTIVE) {
+                registry.registerInterposedSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+
+                    @Override
+                    public void afterCompletion(int status) {
+                        invalidateNow();
+                    }
+                });
+            }
+        } catch (NamingException | IllegalStateException ex) {
+            // not in a transaction
+            logger.fine("Permission caches invalidated outside of a transaction: " + ex.getMessage());
+        }
+    }
+
+    private static void invalidateNow() {
+        epoch.incrementAndGet();
+        invalidations.increment();
+        if (sharedGrants != null) {
+            sharedGrants.invalidate();
+        }
+    }
+
+    /**
+     * @return the hits and misses of the caches of the requests, since the
+     * start of the server. The shared cache, if any, is listed on its own, as
+     * {@code permissions}.
+     */
+    public static JsonObjectBuilder getStatistics() {
+        return Json.createObjectBuilder()
+                .add("name", "permissionsPerRequest")
+                .add("requests", requests.sum())
+                .add("hits", hits.sum())
+                .add("misses", misses.sum())
+                .add("releasedFileSetHits", releasedFileHits.sum())
+                .add("releasedFileSetMisses", releasedFileMisses.sum())
+                .add("invalidations", invalidations.sum());
+    }
+}
@@ -34,10 +34,15 @@ import edu.harvard.iq.dataverse.util.BundleUtil;
 import edu.harvard.iq.dataverse.workflow.PendingWorkflowInvocation;
 import edu.harvard.iq.dataverse.workflow.WorkflowServiceBean;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import static java.util.stream.Collectors.toList;
@@ -62,6 +67,9 @@ public class PermissionServiceBean {
                     .filter(Permission::requiresAuthenticatedUser)
                     .collect(Collectors.toList()));
 
+    /** How many objects to look up the role assignments of with a single query. */
+    static final int ASSIGNMENT_QUERY_BATCH_SIZE = 1000;
+
     @EJB
     BuiltinUserServiceBean userService;
 
@@ -261,22 +269,25 @@ public class PermissionServiceBean {
         }
               
         // Actually look at permissions
-        Set<DvObject> parents = getPermissionAncestors(dvo);
-        Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(req));
-        ras.add(user);
-        List<RoleAssignment> parentsAsignments = roleService.directRoleAssignments(ras, parents);
+        PermissionCache cache = req.getPermissionCache();
+        PermissionCache.Assignees assignees = cache.getAssignees(null, () -> {
+            Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(req));
+            ras.add(user);
+            return new PermissionCache.Assignees(ras);
+        });
+        Set<Permission> parentGrants = grantedPermissions(assignees, dvo, cache);
         
-        for (RoleAssignment asmnt : parentsAsignments) {
-            required.removeAll(asmnt.getRole().permissions());
-        }
-        if (required.isEmpty()) {
+        Set<Permission> missing = EnumSet.noneOf(Permission.class);
+        missing.addAll(required);
+        missing.removeAll(parentGrants);
+        if (missing.isEmpty()) {
             // All permissions are met by role assignments on the request
             return children;
         }
         
         // Looking at each child at a time now.
         // 1. Map childs to permissions
-        List<RoleAssignment> childrenAssignments = roleService.directRoleAssignments(ras, 
+        List<RoleAssignment> childrenAssignments = roleService.directRoleAssignments(assignees.getRoleAssignees(), 
                 includeReleased ? children.stream().filter( child ->
                     (!child.isReleased())).collect( toList()) : children);
         
@@ -294,7 +305,7 @@ public class PermissionServiceBean {
         return children.stream().filter( child -> 
                 ((includeReleased && child.isReleased()) 
                         || ((roleMap.containsKey(child)) &&
-                            (roleMap.get(child).containsAll(required.stream().filter(perm -> perm.appliesTo(child.getClass())).collect(Collectors.toSet())))))
+                            (roleMap.get(child).containsAll(missing.stream().filter(perm -> perm.appliesTo(child.getClass())).collect(Collectors.toSet())))))
         ).collect( toList() );
         
     }
@@ -324,9 +335,8 @@ public class PermissionServiceBean {
             }
         }
         
-        Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(req, dvo));
-        ras.add(user);
-        return hasGroupPermissionsFor(ras, dvo, required);
+        PermissionCache cache = req.getPermissionCache();
+        return hasGroupPermissionsFor(assigneesFor(req, dvo, cache), dvo, required, cache);
     }
 
     public boolean hasPermissionsFor(RoleAssignee ra, DvObject dvo, Set<Permission> required) {
@@ -342,21 +352,57 @@ public class PermissionServiceBean {
                 }
             }
         }
-        required.removeAll(getInferredPermissions(dvo));
+        required.removeAll(getInferredPermissions(dvo, null));
         if (required.isEmpty()) {
             return true;
         }
         
         Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(ra, dvo));
         ras.add(ra);
-        return hasGroupPermissionsFor(ras, dvo, required);
+        return hasGroupPermissionsFor(new PermissionCache.Assignees(ras), dvo, required, null);
     }
     
-    private boolean hasGroupPermissionsFor(Set<RoleAssignee> ras, DvObject dvo, Set<Permission> required) {
-        for (RoleAssignment asmnt : assignmentsFor(ras, dvo)) {
-            required.removeAll(asmnt.getRole().permissions());
+    /**
+     * Finds which of {@code dvos} the user of {@code req} has {@code permission}
+     * over, in the context of {@code req}. Same as calling
+     * {@link #hasPermissionsFor(edu.harvard.iq.dataverse.engine.command.DataverseRequest, edu.harvard.iq.dataverse.DvObject, java.util.Set)}
+     * for each of them, but rather than one or more queries per object, the
+     * groups of the user are looked up once per collection, and the role
+     * assignments with a query per {@value #ASSIGNMENT_QUERY_BATCH_SIZE}
+     * objects (that are not already cached for the request).
+     *
+     * @param req The request whose permissions are queried
+     * @param dvos The objects to check, e.g. the files to download
+     * @param permission The permission required
+     * @return The objects of {@code dvos} with {@code permission}, in the same order.
+     */
+    public <T extends DvObject> Set<T> whichHavePermissionFor(DataverseRequest req, Collection<T> dvos, Permission permission) {
+        User user = req.getUser();
+        if (user.isSuperuser()) {
+            return new LinkedHashSet<>(dvos);
+        } else if (!user.isAuthenticated() && PERMISSIONS_FOR_AUTHENTICATED_USERS_ONLY.contains(permission)) {
+            return new LinkedHashSet<>();
+        }
+
+        PermissionCache cache = req.getPermissionCache();
+        Map<PermissionCache.Assignees, List<T>> byAssignees = new IdentityHashMap<>();
+        for (T dvo : dvos) {
+            byAssignees.computeIfAbsent(assigneesFor(req, dvo, cache), a -> new ArrayList<>()).add(dvo);
+        }
+        Set<T> permitted = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Map.Entry<PermissionCache.Assignees, List<T>> group : byAssignees.entrySet()) {
+            Map<DvObject, Set<Permission>> granted = grantedPermissions(group.getKey(), group.getValue(), cache);
+            for (T dvo : group.getValue()) {
+                if (granted.get(dvo).contains(permission)) {
+                    permitted.add(dvo);
+                }
+            }
         }
-        return required.isEmpty();
+        return dvos.stream().filter(permitted::contains).collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    private boolean hasGroupPermissionsFor(PermissionCache.Assignees assignees, DvObject dvo, Set<Permission> required, PermissionCache cache) {
+        return grantedPermissions(assignees, dvo, cache).containsAll(required);
     }
 
     /**
@@ -372,12 +418,11 @@ public class PermissionServiceBean {
             return EnumSet.allOf(Permission.class);
         }
 
-        Set<Permission> permissions = getInferredPermissions(dvo);
+        PermissionCache cache = req.getPermissionCache();
+        Set<Permission> permissions = getInferredPermissions(dvo, cache);
 
         // Add permissions gained from ras
-        Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(req, dvo));
-        ras.add(req.getUser());
-        addGroupPermissionsFor(ras, dvo, permissions);
+        permissions.addAll(grantedPermissions(assigneesFor(req, dvo, cache), dvo, cache));
 
         if (!req.getUser().isAuthenticated()) {
             permissions.removeAll(PERMISSIONS_FOR_AUTHENTICATED_USERS_ONLY);
@@ -399,36 +444,126 @@ public class PermissionServiceBean {
             return EnumSet.allOf(Permission.class);
         }
 
-        Set<Permission> permissions = getInferredPermissions(dvo);
+        Set<Permission> permissions = getInferredPermissions(dvo, null);
 
         Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(ra, dvo));
         ras.add(ra);
-        addGroupPermissionsFor(ras, dvo, permissions);
+        permissions.addAll(grantedPermissions(new PermissionCache.Assignees(ras), dvo, null));
 
         if ((ra instanceof User) && (!((User) ra).isAuthenticated())) {
             permissions.removeAll(PERMISSIONS_FOR_AUTHENTICATED_USERS_ONLY);
         }
         return permissions;
     }
-    
-    private void addGroupPermissionsFor(Set<RoleAssignee> ras, DvObject dvo, Set<Permission> permissions) {
-        for (RoleAssignment asmnt : assignmentsFor(ras, dvo)) {
-            permissions.addAll(asmnt.getRole().permissions());
+
+    /**
+     * The role assignees {@code req} acts as over {@code dvo}: its user, and
+     * the groups of the user in the context of {@code dvo}. As explicit groups
+     * are defined in collections, these are the same for all the datasets and
+     * files of a collection.
+     */
+    private PermissionCache.Assignees assigneesFor(DataverseRequest req, DvObject dvo, PermissionCache cache) {
+        Supplier<PermissionCache.Assignees> loader = () -> {
+            Set<RoleAssignee> ras = new HashSet<>(groupService.groupsFor(req, dvo));
+            ras.add(req.getUser());
+            return new PermissionCache.Assignees(ras);
+        };
+        DvObject collection = dvo;
+        while (collection != null && !(collection instanceof Dataverse)) {
+            collection = collection.getOwner();
         }
+        if (collection == null || collection.getId() == null) {
+            return loader.get();
+        }
+        return cache.getAssignees(collection.getId(), loader);
     }
 
+    /**
+     * The permissions granted to the role assignees by the roles assigned to
+     * them on {@code dvo} and its permission ancestors (see
+     * {@link #getPermissionAncestors(edu.harvard.iq.dataverse.DvObject)}).
+     *
+     * @param cache the cache of the request; {@code null} outside of a request.
+     * @return the granted permissions; not to be modified.
+     */
+    private Set<Permission> grantedPermissions(PermissionCache.Assignees assignees, DvObject dvo, PermissionCache cache) {
+        return grantedPermissions(assignees, Collections.singletonList(dvo), cache).get(dvo);
+    }
+
+    /**
+     * The permissions granted to the role assignees over each of {@code dvos}.
+     * The objects (and ancestors) whose grants aren't cached yet have their
+     * role assignments looked up together, with a query per
+     * {@value #ASSIGNMENT_QUERY_BATCH_SIZE} objects, and get cached too.
+     *
+     * @param cache the cache of the request; {@code null} outside of a request.
+     * @return the granted permissions of each object (and of its ancestors); not to be modified.
+     */
+    private Map<DvObject, Set<Permission>> grantedPermissions(PermissionCache.Assignees assignees, Collection<? extends DvObject> dvos, PermissionCache cache) {
+        Map<DvObject, Set<Permission>> granted = new IdentityHashMap<>();
+        Set<DvObject> uncached = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (DvObject dvo : dvos) {
+            for (DvObject d = dvo; d != null && !granted.containsKey(d) && !uncached.contains(d); d = d.getOwner()) {
+                Set<Permission> cached = PermissionCache.getGrants(cache, assignees, d);
+                if (cached != null) {
+                    granted.put(d, cached);
+                    break;
+                }
+                uncached.add(d);
+                if (d instanceof Dataverse && ((Dataverse) d).isEffectivelyPermissionRoot()) {
+                    break;
+                }
+            }
+        }
+        if (uncached.isEmpty()) {
+            return granted;
+        }
+
+        Map<Long, Set<Permission>> direct = new HashMap<>();
+        List<DvObject> toQuery = new ArrayList<>(uncached);
+        for (int i = 0; i < toQuery.size(); i += ASSIGNMENT_QUERY_BATCH_SIZE) {
+            List<DvObject> batch = toQuery.subList(i, Math.min(i + ASSIGNMENT_QUERY_BATCH_SIZE, toQuery.size()));
+            for (RoleAssignment asmnt : roleService.directRoleAssignments(assignees.getRoleAssignees(), batch)) {
+                direct.computeIfAbsent(asmnt.getDefinitionPoint().getId(), id -> EnumSet.noneOf(Permission.class))
+                        .addAll(asmnt.getRole().permissions());
+            }
+        }
+        for (DvObject dvo : dvos) {
+            addGrantedPermissions(assignees, dvo, direct, granted, cache);
+        }
+        return granted;
+    }
+
+    private Set<Permission> addGrantedPermissions(PermissionCache.Assignees assignees, DvObject d, Map<Long, Set<Permission>> direct,
+            Map<DvObject, Set<Permission>> granted, PermissionCache cache) {
+        Set<Permission> known = granted.get(d);
+        if (known != null) {
+            return known;
+        }
+        Set<Permission> grantedOnD = EnumSet.noneOf(Permission.class);
+        if (!(d instanceof Dataverse && ((Dataverse) d).isEffectivelyPermissionRoot()) && d.getOwner() != null) {
+            grantedOnD.addAll(addGrantedPermissions(assignees, d.getOwner(), direct, granted, cache));
+        }
+        if (d.getId() != null) {
+            grantedOnD.addAll(direct.getOrDefault(d.getId(), Collections.emptySet()));
+        }
+        PermissionCache.putGrants(cache, assignees, d, grantedOnD);
+        granted.put(d, grantedOnD);
+        return grantedOnD;
+    }
 
     /**
      * Calculates permissions based on object state and other context
      *
      * @param dvo
+     * @param cache the cache of the request; {@code null} outside of a request.
      * @return
      */
-    private Set<Permission> getInferredPermissions(DvObject dvo) {
+    private Set<Permission> getInferredPermissions(DvObject dvo, PermissionCache cache) {
 
         Set<Permission> permissions = EnumSet.noneOf(Permission.class);
 
-        if (isPublicallyDownloadable(dvo)) {
+        if (isPublicallyDownloadable(dvo, cache)) {
             permissions.add(Permission.DownloadFile);
         }
 
@@ -439,7 +574,7 @@ public class PermissionServiceBean {
      * unrestricted files that are part of a release dataset automatically get
      * download permission for everybody:
      */
-    private boolean isPublicallyDownloadable(DvObject dvo) {
+    private boolean isPublicallyDownloadable(DvObject dvo, PermissionCache cache) {
         if (dvo instanceof DataFile) {
             // unrestricted files that are part of a release dataset 
             // automatically get download permission for everybody:
@@ -448,12 +583,15 @@ public class PermissionServiceBean {
             DataFile df = (DataFile) dvo;
 
             if (!df.isRestricted()) {
-                if (df.getOwner().getReleasedVersion() != null) {
-                    if (df.getOwner().getReleasedVersion().getFileMetadatas() != null) {
-                        for (FileMetadata fm : df.getOwner().getReleasedVersion().getFileMetadatas()) {
-                            if (df.equals(fm.getDataFile())) {
-                                return true;
-                            }
+                DatasetVersion releasedVersion = df.getOwner().getReleasedVersion();
+                if (releasedVersion != null && releasedVersion.getFileMetadatas() != null) {
+                    if (df.getId() != null && releasedVersion.getId() != null && cache != null) {
+                        // (looked up once per request, rather than for each file of the version)
+                        return cache.getReleasedFileIds(releasedVersion, () -> getFileIds(releasedVersion)).contains(df.getId());
+                    }
+                    for (FileMetadata fm : releasedVersion.getFileMetadatas()) {
+                        if (df.equals(fm.getDataFile())) {
+                            return true;
                         }
                     }
                 }
@@ -462,6 +600,16 @@ public class PermissionServiceBean {
         return false;
     }
 
+    private static Set<Long> getFileIds(DatasetVersion version) {
+        Set<Long> fileIds = new HashSet<>();
+        for (FileMetadata fm : version.getFileMetadatas()) {
+            if (fm.getDataFile() != null && fm.getDataFile().getId() != null) {
+                fileIds.add(fm.getDataFile().getId());
+            }
+        }
+        return fileIds;
+    }
+
     /**
      * Returns all the role assignments that are effective for {@code ra} over
      * {@code d}. Traverses the containment hierarchy of the {@code d}.
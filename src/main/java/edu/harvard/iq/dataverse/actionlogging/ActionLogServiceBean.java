@@ -23,6 +23,11 @@ public class ActionLogServiceBean {
      */
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public void log( ActionLogRecord rec ) {
+        setDefaults(rec);
+        em.persist(rec);
+    }
+    
+    static void setDefaults( ActionLogRecord rec ) {
         if ( rec.getEndTime() == null ) {
             rec.setEndTime( new Date() );
         }
@@ -30,7 +35,6 @@ public class ActionLogServiceBean {
                 && rec.getActionType() != ActionLogRecord.ActionType.Command ) {
             rec.setActionResult(ActionLogRecord.Result.OK);
         }
-        em.persist(rec);
     }
 
     //Switches all actions from one identifier to another identifier, via native query
@@ -0,0 +1,307 @@
+package edu.harvard.iq.dataverse.actionlogging;
+
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.DependsOn;
+import javax.ejb.EJB;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionManagement;
+import javax.ejb.TransactionManagementType;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.sql.DataSource;
+
+/**
+ * Writes {@link ActionLogRecord}s in the background: the records are kept in a
+ * bounded queue, and inserted with JDBC batches of up to
+ * dataverse.action-log.batch-size records, as soon as that many are waiting or
+ * every dataverse.action-log.flush-interval milliseconds. Unlike
+ * {@link ActionLogServiceBean#log(ActionLogRecord)}, logging a record then
+ * costs neither a connection nor a transaction of its own.
+ * <p>
+ * What happens to a record when the queue is full is set by
+ * dataverse.action-log.overflow-policy (see {@link OverflowPolicy}). Whatever
+ * is queued is written when the application is shut down; records that are
+ * still queued when a server crashes are lost. Setting
+ * dataverse.action-log.queue-size to 0 writes every record right away, as
+ * before.
+ */
+@Singleton
+@Startup
+@DependsOn("StartupFlywayMigrator")
+@Lock(LockType.READ)
+@TransactionManagement(TransactionManagementType.BEAN)
+public class ActionLogWriter {
+
+    private static final Logger logger = Logger.getLogger(ActionLogWriter.class.getCanonicalName());
+
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+    static final String INSERT = "INSERT INTO actionlogrecord (id, actionresult, actionsubtype, actiontype, endtime, info, starttime, useridentifier) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * What to do with a record that doesn't fit in the queue.
+     */
+    public enum OverflowPolicy {
+        /** Write it right away, in a transaction of its own (as if the queue was off). */
+        SYNC,
+        /** Wait for the queue to make room, for up to the flush interval; then write it right away. */
+        BLOCK,
+        /** Leave it out of the action log, counting it as dropped. */
+        DROP
+    }
+
+    @Resource(lookup = "java:app/jdbc/dataverse")
+    DataSource dataSource;
+    @Resource
+    TimerService timerService;
+    @Resource
+    ManagedExecutorService executor;
+    @EJB
+    ActionLogServiceBean actionLogSvc;
+
+    /** {@code null} when the records are written right away. */
+    private BlockingQueue<ActionLogRecord> queue;
+    private int batchSize;
+    private long flushIntervalMillis;
+    private OverflowPolicy overflowPolicy;
+    private volatile boolean closed;
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder writtenDirectly = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        int queueSize = JvmSettings.ACTION_LOG_QUEUE_SIZE.lookupOptional(Integer.class).orElse(DEFAULT_QUEUE_SIZE);
+        int batch = JvmSettings.ACTION_LOG_BATCH_SIZE.lookupOptional(Integer.class).orElse(DEFAULT_BATCH_SIZE);
+        long flushInterval = JvmSettings.ACTION_LOG_FLUSH_INTERVAL.lookupOptional(Long.class).orElse(DEFAULT_FLUSH_INTERVAL_MILLIS);
+        OverflowPolicy policy = OverflowPolicy.SYNC;
+        String policyName = JvmSettings.ACTION_LOG_OVERFLOW_POLICY.lookupOptional().orElse(null);
+        if (policyName != null) {
+            try {
+                policy = OverflowPolicy.valueOf(policyName.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                logger.warning("Unknown dataverse.action-log.overflow-policy " + policyName + ", using " + policy.name().toLowerCase(Locale.ROOT));
+            }
+        }
+        configure(queueSize, batch, flushInterval, policy);
+        if (queue == null) {
+            logger.info("Writing the action log right away (dataverse.action-log.queue-size is " + queueSize + ")");
+            return;
+        }
+        timerService.createIntervalTimer(flushIntervalMillis, flushIntervalMillis, new TimerConfig("action log", false));
+    }
+
+    void configure(int queueSize, int batch, long flushInterval, OverflowPolicy policy) {
+        queue = (queueSize > 0) ? new ArrayBlockingQueue<>(queueSize) : null;
+        batchSize = Math.max(1, batch);
+        flushIntervalMillis = Math.max(1, flushInterval);
+        overflowPolicy = policy;
+    }
+
+    /**
+     * Logs the record, setting the same defaults as
+     * {@link ActionLogServiceBean#log(ActionLogRecord)}. It is written with
+     * the next batch, regardless of whether the transaction of the caller (if
+     * any) commits.
+     *
+     * @param rec the record; it must not be changed afterwards.
+     */
+    public void log(ActionLogRecord rec) {
+        ActionLogServiceBean.setDefaults(rec);
+        if (queue == null || closed) {
+            actionLogSvc.log(rec);
+            return;
+        }
+        if (rec.getId() == null) {
+            // (Set by the entity when persisted, which the batches don't do.)
+            rec.setId(UUID.randomUUID().toString());
+        }
+        if (!queue.offer(rec) && !overflow(rec)) {
+            return;
+        }
+        if (queue.size() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            try {
+                executor.submit(() -> {
+                    try {
+                        flush(false);
+                    } finally {
+                        flushScheduled.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                // The timer gets to it.
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    /*
+     * Handles a record that didn't fit in the queue; returns whether it was
+     * queued after all.
+     */
+    private boolean overflow(ActionLogRecord rec) {
+        overflowed.increment();
+        switch (overflowPolicy) {
+            case DROP:
+                dropped.increment();
+                logger.fine(() -> "Action log queue full, dropped " + rec);
+                return false;
+            case BLOCK:
+                try {
+                    if (queue.offer(rec, flushIntervalMillis, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                // fall through
+            default:
+                actionLogSvc.log(rec);
+                writtenDirectly.increment();
+                return false;
+        }
+    }
+
+    @Timeout
+    public void flushQueue() {
+        // Exceptions thrown from here would make the container retry the timeout.
+        try {
+            flush(false);
+        } catch (Exception ex) {
+            logger.log(Level.WARNING, "Failed to write the action log", ex);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        closed = true;
+        if (queue != null) {
+            flush(true);
+            logger.fine(() -> "Action log flushed on shutdown, " + written.sum() + " records written in " + batches.sum() + " batches");
+        }
+    }
+
+    /**
+     * Writes the queued records, a batch at a time, until the queue is empty.
+     *
+     * @param wait whether to wait for a flush under way to finish first,
+     * rather than leave the queue to it.
+     */
+    void flush(boolean wait) {
+        if (wait) {
+            flushLock.lock();
+        } else if (!flushLock.tryLock()) {
+            return;
+        }
+        try {
+            List<ActionLogRecord> batch = new ArrayList<>(batchSize);
+            while (queue.drainTo(batch, batchSize) > 0) {
+                write(batch);
+                batch.clear();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void write(List<ActionLogRecord> batch) {
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement(INSERT)) {
+                for (ActionLogRecord rec : batch) {
+                    insert.setString(1, rec.getId());
+                    insert.setString(2, (rec.getActionResult() != null) ? rec.getActionResult().name() : null);
+                    insert.setString(3, rec.getActionSubType());
+                    insert.setString(4, (rec.getActionType() != null) ? rec.getActionType().name() : null);
+                    insert.setTimestamp(5, timestamp(rec.getEndTime()));
+                    insert.setString(6, rec.getInfo());
+                    insert.setTimestamp(7, timestamp(rec.getStartTime()));
+                    insert.setString(8, rec.getUserIdentifier());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+                connection.commit();
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            written.add(batch.size());
+            batches.increment();
+        } catch (SQLException ex) {
+            // One bad record (or a lost connection) shouldn't cost the others:
+            logger.log(Level.WARNING, "Could not write a batch of " + batch.size() + " action log records, writing them one at a time", ex);
+            for (ActionLogRecord rec : batch) {
+                try {
+                    actionLogSvc.log(rec);
+                    writtenDirectly.increment();
+                } catch (Exception e) {
+                    failed.increment();
+                    logger.log(Level.WARNING, "Could not write action log record " + rec + " (" + rec.getInfo() + ")", e);
+                }
+            }
+        }
+    }
+
+    private static Timestamp timestamp(Date date) {
+        return (date != null) ? new Timestamp(date.getTime()) : null;
+    }
+
+    public JsonObjectBuilder getStatistics() {
+        JsonObjectBuilder stats = Json.createObjectBuilder()
+                .add("async", queue != null)
+                .add("overflowPolicy", overflowPolicy.name().toLowerCase(Locale.ROOT))
+                .add("written", written.sum())
+                .add("batches", batches.sum())
+                .add("writtenDirectly", writtenDirectly.sum())
+                .add("overflowed", overflowed.sum())
+                .add("dropped", dropped.sum())
+                .add("failed", failed.sum());
+        if (queue != null) {
+            stats.add("queued", queue.size())
+                    .add("capacity", queue.size() + queue.remainingCapacity());
+        }
+        return stats;
+    }
+
+}
@@ -46,6 +46,8 @@ import edu.harvard.iq.dataverse.dataaccess.DataAccess;
 import edu.harvard.iq.dataverse.dataaccess.DataAccessRequest;
 import edu.harvard.iq.dataverse.dataaccess.StorageIO;
 import edu.harvard.iq.dataverse.dataaccess.DataFileZipper;
+import edu.harvard.iq.dataverse.dataaccess.DeterministicZip;
+import edu.harvard.iq.dataverse.dataaccess.Range;
 import edu.harvard.iq.dataverse.dataaccess.OptionalAccessService;
 import edu.harvard.iq.dataverse.dataaccess.ImageThumbConverter;
 import edu.harvard.iq.dataverse.datavariable.DataVariable;
@@ -73,7 +75,9 @@ import edu.harvard.iq.dataverse.util.SystemConfig;
 import edu.harvard.iq.dataverse.util.json.NullSafeJsonBuilder;
 
 import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.ejb.EJB;
+import javax.enterprise.concurrent.ManagedThreadFactory;
 import java.io.InputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -83,6 +87,12 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
@@ -153,6 +163,9 @@ import edu.harvard.iq.dataverse.api.exceptions.AuthorizationRequiredException;
 @Path("access")
 public class Access extends AbstractApiBean {
     private static final Logger logger = Logger.getLogger(Access.class.getCanonicalName());
+    // (how fast the files of a zip are expected to be read for their CRC-32s)
+    private static final long ZIP_CRC_BYTES_PER_SECOND = 100L * 1024 * 1024;
+    private static final long MIN_ZIP_CRC_RETRY_AFTER_SECONDS = 5;
         
     @EJB
     DataFileServiceBean dataFileService;
@@ -190,6 +203,8 @@ public class Access extends AbstractApiBean {
     PermissionsWrapper permissionsWrapper;
     @Inject
     MakeDataCountLoggingServiceBean mdcLogService;
+    @Resource
+    ManagedThreadFactory managedThreadFactory;
     
     //@EJB
     
@@ -806,11 +821,15 @@ public class Access extends AbstractApiBean {
         User apiTokenUser = findAPITokenUser(user); //for use in adding gb records if necessary
         
         Boolean getOrig = false;
+        boolean deterministic = false;
         for (String key : uriInfo.getQueryParameters().keySet()) {
             String value = uriInfo.getQueryParameters().getFirst(key);
             if("format".equals(key) && "original".equals(value)) {
                 getOrig = true;
             }
+            if ("deterministic".equals(key) && "true".equals(value)) {
+                deterministic = true;
+            }
         }
         
         if (useCustomZipService) {
@@ -827,6 +846,10 @@ public class Access extends AbstractApiBean {
 
         }
         
+        if (deterministic) {
+            return downloadDeterministicZip(user, fileIds, getOrig, donotwriteGBResponse, apiTokenUser, zipDownloadSizeLimit, uriInfo, headers);
+        }
+        
         // Not using the "custom service" - API will zip the file,  
         // and stream the output, in the "normal" manner:
         
@@ -842,124 +865,145 @@ public class Access extends AbstractApiBean {
                 String fileManifest = "";
                 long sizeTotal = 0L;
                 
-                if (fileIdParams != null && fileIdParams.length > 0) {
-                    logger.fine(fileIdParams.length + " tokens;");
-                    for (int i = 0; i < fileIdParams.length; i++) {
-                        logger.fine("token: " + fileIdParams[i]);
-                        Long fileId = null;
-                        try {
-                            fileId = Long.parseLong(fileIdParams[i]);
-                        } catch (NumberFormatException nfe) {
-                            fileId = null;
+                try {
+                    if (fileIdParams != null && fileIdParams.length > 0) {
+                        logger.fine(fileIdParams.length + " tokens;");
+                        Map<Long, DataFile> requestedFiles = findRequestedFiles(fileIdParams);
+                        Set<DataFile> authorizedFiles = findAccessAuthorized(user, requestedFiles.values());
+                        // the files to zip, in order, to be read ahead: 
+                        List<DataFile> filesToZip = new ArrayList<>();
+                        for (String fileIdParam : fileIdParams) {
+                            try {
+                                DataFile file = requestedFiles.get(Long.parseLong(fileIdParam));
+                                if (file != null && authorizedFiles.contains(file)) {
+                                    filesToZip.add(file);
+                                }
+                            } catch (NumberFormatException nfe) {
+                                // skipped below as well
+                            }
                         }
-                        if (fileId != null) {
-                            logger.fine("attempting to look up file id " + fileId);
-                            DataFile file = dataFileService.find(fileId);
-                            if (file != null) {
-                                if (isAccessAuthorized(user, file)) {
-
-                                    logger.fine("adding datafile (id=" + file.getId() + ") to the download list of the ZippedDownloadInstance.");
-                                    //downloadInstance.addDataFile(file);
-                                    if (donotwriteGBResponse != true && file.isReleased()){
-                                        GuestbookResponse  gbr = guestbookResponseService.initAPIGuestbookResponse(file.getOwner(), file, session, apiTokenUser);
-                                        guestbookResponseService.save(gbr);
-                                        MakeDataCountEntry entry = new MakeDataCountEntry(uriInfo, headers, dvRequestService, file);                                        
-                                        mdcLogService.logEntry(entry);
-                                    }
+                        for (int i = 0; i < fileIdParams.length; i++) {
+                            logger.fine("token: " + fileIdParams[i]);
+                            Long fileId = null;
+                            try {
+                                fileId = Long.parseLong(fileIdParams[i]);
+                            } catch (NumberFormatException nfe) {
+                                fileId = null;
+                            }
+                            if (fileId != null) {
+                                logger.fine("attempting to look up file id " + fileId);
+                                DataFile file = requestedFiles.get(fileId);
+                                if (file != null) {
+                                    if (authorizedFiles.contains(file)) {
+
+                                        logger.fine("adding datafile (id=" + file.getId() + ") to the download list of the ZippedDownloadInstance.");
+                                        //downloadInstance.addDataFile(file);
+                                        if (donotwriteGBResponse != true && file.isReleased()){
+                                            GuestbookResponse  gbr = guestbookResponseService.initAPIGuestbookResponse(file.getOwner(), file, session, apiTokenUser);
+                                            guestbookResponseService.save(gbr);
+                                            MakeDataCountEntry entry = new MakeDataCountEntry(uriInfo, headers, dvRequestService, file);                                        
+                                            mdcLogService.logEntry(entry);
+                                        }
                                     
-                                    if (zipper == null) {
-                                        // This is the first file we can serve - so we now know that we are going to be able 
-                                        // to produce some output.
-                                        zipper = new DataFileZipper(os);
-                                        zipper.setFileManifest(fileManifest);
-                                        response.setHeader("Content-disposition", "attachment; filename=\"dataverse_files.zip\"");
-                                        response.setHeader("Content-Type", "application/zip; name=\"dataverse_files.zip\"");
-                                    }
+                                        if (zipper == null) {
+                                            // This is the first file we can serve - so we now know that we are going to be able 
+                                            // to produce some output.
+                                            zipper = new DataFileZipper(os);
+                                            zipper.setFileManifest(fileManifest);
+                                            zipper.prefetch(filesToZip, getOriginal, managedThreadFactory);
+                                            response.setHeader("Content-disposition", "attachment; filename=\"dataverse_files.zip\"");
+                                            response.setHeader("Content-Type", "application/zip; name=\"dataverse_files.zip\"");
+                                        }
                                     
-                                    long size = 0L;
-                                    // is the original format requested, and is this a tabular datafile, with a preserved original?
-                                    if (getOriginal 
-                                            && file.isTabularData() 
-                                            && !StringUtil.isEmpty(file.getDataTable().getOriginalFileFormat())) {
-                                        //This size check is probably fairly inefficient as we have to get all the AccessObjects
-                                        //We do this again inside the zipper. I don't think there is a better solution
-                                        //without doing a large deal of rewriting or architecture redo.
-                                        //The previous size checks for non-original download is still quick.
-                                        //-MAD 4.9.2
-                                        // OK, here's the better solution: we now store the size of the original file in 
-                                        // the database (in DataTable), so we get it for free. 
-                                        // However, there may still be legacy datatables for which the size is not saved. 
-                                        // so the "inefficient" code is kept, below, as a fallback solution. 
-                                        // -- L.A., 4.10
+                                        long size = 0L;
+                                        // is the original format requested, and is this a tabular datafile, with a preserved original?
+                                        if (getOriginal 
+                                                && file.isTabularData() 
+                                                && !StringUtil.isEmpty(file.getDataTable().getOriginalFileFormat())) {
+                                            //This size check is probably fairly inefficient as we have to get all the AccessObjects
+                                            //We do this again inside the zipper. I don't think there is a better solution
+                                            //without doing a large deal of rewriting or architecture redo.
+                                            //The previous size checks for non-original download is still quick.
+                                            //-MAD 4.9.2
+                                            // OK, here's the better solution: we now store the size of the original file in 
+                                            // the database (in DataTable), so we get it for free. 
+                                            // However, there may still be legacy datatables for which the size is not saved. 
+                                            // so the "inefficient" code is kept, below, as a fallback solution. 
+                                            // -- L.A., 4.10
                                         
-                                        if (file.getDataTable().getOriginalFileSize() != null) {
-                                            size = file.getDataTable().getOriginalFileSize();
+                                            if (file.getDataTable().getOriginalFileSize() != null) {
+                                                size = file.getDataTable().getOriginalFileSize();
+                                            } else {
+                                                DataAccessRequest daReq = new DataAccessRequest();
+                                                StorageIO<DataFile> storageIO = DataAccess.getStorageIO(file, daReq);
+                                                storageIO.open();
+                                                size = storageIO.getAuxObjectSize(FileUtil.SAVED_ORIGINAL_FILENAME_EXTENSION);
+
+                                                // save it permanently: 
+                                                file.getDataTable().setOriginalFileSize(size);
+                                                fileService.saveDataTable(file.getDataTable());
+                                            }
+                                            if (size == 0L){
+                                                throw new IOException("Invalid file size or accessObject when checking limits of zip file");
+                                            }
                                         } else {
-                                            DataAccessRequest daReq = new DataAccessRequest();
-                                            StorageIO<DataFile> storageIO = DataAccess.getStorageIO(file, daReq);
-                                            storageIO.open();
-                                            size = storageIO.getAuxObjectSize(FileUtil.SAVED_ORIGINAL_FILENAME_EXTENSION);
-
-                                            // save it permanently: 
-                                            file.getDataTable().setOriginalFileSize(size);
-                                            fileService.saveDataTable(file.getDataTable());
+                                            size = file.getFilesize();
                                         }
-                                        if (size == 0L){
-                                            throw new IOException("Invalid file size or accessObject when checking limits of zip file");
-                                        }
-                                    } else {
-                                        size = file.getFilesize();
-                                    }
-                                    if (sizeTotal + size < zipDownloadSizeLimit) {
-                                        sizeTotal += zipper.addFileToZipStream(file, getOriginal);
-                                    } else {
-                                        String fileName = file.getFileMetadata().getLabel();
-                                        String mimeType = file.getContentType();
+                                        if (sizeTotal + size < zipDownloadSizeLimit) {
+                                            sizeTotal += zipper.addFileToZipStream(file, getOriginal);
+                                        } else {
+                                            String fileName = file.getFileMetadata().getLabel();
+                                            String mimeType = file.getContentType();
                                         
-                                        zipper.addToManifest(fileName + " (" + mimeType + ") " + " skipped because the total size of the download bundle exceeded the limit of " + zipDownloadSizeLimit + " bytes.\r\n");
-                                    }
-                                } else { 
-                                    boolean embargoed = FileUtil.isActivelyEmbargoed(file);
-                                    if (file.isRestricted() || embargoed) {
-                                        if (zipper == null) {
-                                            fileManifest = fileManifest + file.getFileMetadata().getLabel() + " IS "
-                                                    + (embargoed ? "EMBARGOED" : "RESTRICTED")
-                                                    + " AND CANNOT BE DOWNLOADED\r\n";
+                                            zipper.addToManifest(fileName + " (" + mimeType + ") " + " skipped because the total size of the download bundle exceeded the limit of " + zipDownloadSizeLimit + " bytes.\r\n");
+                                        }
+                                    } else { 
+                                        boolean embargoed = FileUtil.isActivelyEmbargoed(file);
+                                        if (file.isRestricted() || embargoed) {
+                                            if (zipper == null) {
+                                                fileManifest = fileManifest + file.getFileMetadata().getLabel() + " IS "
+                                                        + (embargoed ? "EMBARGOED" : "RESTRICTED")
+                                                        + " AND CANNOT BE DOWNLOADED\r\n";
+                                            } else {
+                                                zipper.addToManifest(file.getFileMetadata().getLabel() + " IS "
+                                                        + (embargoed ? "EMBARGOED" : "RESTRICTED")
+                                                        + " AND CANNOT BE DOWNLOADED\r\n");
+                                            }
                                         } else {
-                                            zipper.addToManifest(file.getFileMetadata().getLabel() + " IS "
-                                                    + (embargoed ? "EMBARGOED" : "RESTRICTED")
-                                                    + " AND CANNOT BE DOWNLOADED\r\n");
+                                            fileId = null;
                                         }
-                                    } else {
-                                        fileId = null;
                                     }
-                                }
                             
-                            } if (null == fileId) {
-                                // As of now this errors out.
-                                // This is bad because the user ends up with a broken zip and manifest
-                                // This is good in that the zip ends early so the user does not wait for the results
-                                String errorMessage = "Datafile " + fileId + ": no such object available";
-                                throw new NotFoundException(errorMessage);
+                                } if (null == fileId) {
+                                    // As of now this errors out.
+                                    // This is bad because the user ends up with a broken zip and manifest
+                                    // This is good in that the zip ends early so the user does not wait for the results
+                                    String errorMessage = "Datafile " + fileId + ": no such object available";
+                                    throw new NotFoundException(errorMessage);
+                                }
                             }
                         }
+                    } else {
+                        throw new BadRequestException();
                     }
-                } else {
-                    throw new BadRequestException();
-                }
 
-                if (zipper == null) {
-                    // If the DataFileZipper object is still NULL, it means that 
-                    // there were file ids supplied - but none of the corresponding 
-                    // files were accessible for this user. 
-                    // In which casew we don't bother generating any output, and 
-                    // just give them a 403:
-                    throw new ForbiddenException();
-                }
+                    if (zipper == null) {
+                        // If the DataFileZipper object is still NULL, it means that 
+                        // there were file ids supplied - but none of the corresponding 
+                        // files were accessible for this user. 
+                        // In which casew we don't bother generating any output, and 
+                        // just give them a 403:
+                        throw new ForbiddenException();
+                    }
 
-                // This will add the generated File Manifest to the zipped output, 
-                // then flush and close the stream:
-                zipper.finalizeZipStream();
+                    // This will add the generated File Manifest to the zipped output, 
+                    // then flush and close the stream:
+                    zipper.finalizeZipStream();
+                } finally {
+                    if (zipper != null) {
+                        zipper.stopPrefetching();
+                    }
+                }
                 
                 //os.flush();
                 //os.close();
@@ -968,6 +1012,160 @@ public class Access extends AbstractApiBean {
         return Response.ok(stream).build();
     }
     
+    /**
+     * Serves the files as a {@link DeterministicZip}: with STORED entries laid 
+     * out before anything is written, so that the length of the zip is known 
+     * (and sent as the Content-Length), and a Range of it can be served, e.g. 
+     * to resume a download, or to download parts of it in parallel. The 
+     * guestbook responses and MDC entries are only written for the requests 
+     * that start at the beginning of the zip, so that the parts of a download 
+     * aren't counted as downloads of their own.
+     */
+    private Response downloadDeterministicZip(User user, String fileIds, boolean getOriginal, boolean donotwriteGBResponse, User apiTokenUser, long zipDownloadSizeLimit, UriInfo uriInfo, HttpHeaders headers) throws WebApplicationException {
+        String fileIdParams[] = fileIds.split(",");
+        Map<Long, DataFile> requestedFiles = findRequestedFiles(fileIdParams);
+        Set<DataFile> authorizedFiles = findAccessAuthorized(user, requestedFiles.values());
+        
+        DataFileZipper zipper = new DataFileZipper();
+        List<DataFile> zippedFiles = new ArrayList<>();
+        long sizeTotal = 0L;
+        for (String fileIdParam : fileIdParams) {
+            DataFile file;
+            try {
+                file = requestedFiles.get(Long.parseLong(fileIdParam));
+            } catch (NumberFormatException nfe) {
+                // (as in the streamed zips, e.g. the trailing "\n" of a POST)
+                continue;
+            }
+            if (file == null) {
+                throw new NotFoundException("Datafile " + fileIdParam + ": no such object available");
+            }
+            if (!authorizedFiles.contains(file)) {
+                boolean embargoed = FileUtil.isActivelyEmbargoed(file);
+                if (!file.isRestricted() && !embargoed) {
+                    throw new NotFoundException("Datafile " + fileIdParam + ": no such object available");
+                }
+                zipper.addToManifest(file.getFileMetadata().getLabel() + " IS "
+                        + (embargoed ? "EMBARGOED" : "RESTRICTED")
+                        + " AND CANNOT BE DOWNLOADED\r\n");
+                continue;
+            }
+            long size;
+            if (getOriginal
+                    && file.isTabularData()
+                    && !StringUtil.isEmpty(file.getDataTable().getOriginalFileFormat())) {
+                if (file.getDataTable().getOriginalFileSize() == null) {
+                    // (legacy datatables, without the size of the original saved) 
+                    try {
+                        StorageIO<DataFile> storageIO = DataAccess.getStorageIO(file, new DataAccessRequest());
+                        storageIO.open();
+                        file.getDataTable().setOriginalFileSize(storageIO.getAuxObjectSize(FileUtil.SAVED_ORIGINAL_FILENAME_EXTENSION));
+                        fileService.saveDataTable(file.getDataTable());
+                    } catch (IOException ioex) {
+                        logger.warning("Failed to look up the size of the original of file " + file.getId() + ": " + ioex.getMessage());
+                    }
+                }
+                size = (file.getDataTable().getOriginalFileSize() != null) ? file.getDataTable().getOriginalFileSize() : -1;
+            } else {
+                size = file.getFilesize();
+            }
+            if (size < 0) {
+                zipper.addToManifest(file.getFileMetadata().getLabel() + " (" + file.getContentType() + ") "
+                        + " skipped because its size is not known.\r\n");
+            } else if (sizeTotal + size < zipDownloadSizeLimit) {
+                long entrySize = zipper.addFileToDeterministicZip(file, getOriginal, fileService::saveCrc32);
+                if (entrySize >= 0) {
+                    sizeTotal += entrySize;
+                    zippedFiles.add(file);
+                }
+            } else {
+                zipper.addToManifest(file.getFileMetadata().getLabel() + " (" + file.getContentType() + ") "
+                        + " skipped because the total size of the download bundle exceeded the limit of " + zipDownloadSizeLimit + " bytes.\r\n");
+            }
+        }
+        if (zippedFiles.isEmpty()) {
+            throw new ForbiddenException();
+        }
+        return serveDeterministicZip(zipper.finalizeDeterministicZip(), zippedFiles, donotwriteGBResponse, apiTokenUser, uriInfo, headers);
+    }
+    
+    /**
+     * Serves the laid out zip, or the Range of it requested (if any, and if 
+     * the If-Range, if any, matches the ETag of the zip). A Range that can't 
+     * be written yet, for lack of the CRC-32s of some of the files, gets a 503 
+     * with a Retry-After. 
+     */
+    Response serveDeterministicZip(DeterministicZip zip, List<DataFile> zippedFiles, boolean donotwriteGBResponse, User apiTokenUser, UriInfo uriInfo, HttpHeaders headers) {
+        long length = zip.getLength();
+        String etag = zip.getETag();
+        
+        Range range = null;
+        String rangeHeader = headers.getHeaderString("Range");
+        String ifRange = headers.getHeaderString("If-Range");
+        if (rangeHeader != null && (ifRange == null || ifRange.equals(etag))) {
+            try {
+                List<Range> ranges = new DownloadInstanceWriter().getRanges(rangeHeader, length);
+                range = ranges.isEmpty() ? null : ranges.get(0);
+            } catch (Exception ex) {
+                logger.fine("Exception caught processing Range header: " + ex.getLocalizedMessage());
+                return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header("Content-Range", "bytes */" + length).build();
+            }
+        }
+        
+        if (range != null) {
+            // A Range that needs the CRC-32 of a file it doesn't include all of
+            // is put off until the file has been read for it, in the background.
+            long missingCrcBytes = zip.getMissingCrcBytes(range.getStart(), range.getEnd());
+            if (missingCrcBytes > 0) {
+                fileService.computeZipCrc32s(zip, range.getStart(), range.getEnd());
+                return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                        .header("Retry-After", Math.max(MIN_ZIP_CRC_RETRY_AFTER_SECONDS, missingCrcBytes / ZIP_CRC_BYTES_PER_SECOND))
+                        .header("Accept-Ranges", "bytes")
+                        .header("ETag", etag)
+                        .build();
+            }
+        }
+        
+        if (!donotwriteGBResponse && (range == null || range.getStart() == 0)) {
+            writeZipGuestbookResponses(zippedFiles, apiTokenUser, uriInfo, headers);
+        }
+        
+        final Range requestedRange = range;
+        StreamingOutput stream = new StreamingOutput() {
+            @Override
+            public void write(OutputStream os) throws IOException, WebApplicationException {
+                if (requestedRange != null) {
+                    zip.write(os, requestedRange.getStart(), requestedRange.getEnd());
+                } else {
+                    zip.write(os);
+                }
+            }
+        };
+        Response.ResponseBuilder builder = (range != null) 
+                ? Response.status(Response.Status.PARTIAL_CONTENT)
+                        .header("Content-Range", "bytes " + range.getStart() + "-" + range.getEnd() + "/" + length)
+                        .header("Content-Length", range.getLength())
+                : Response.ok().header("Content-Length", length);
+        return builder.entity(stream)
+                .header("Accept-Ranges", "bytes")
+                .header("ETag", etag)
+                .header("Content-disposition", "attachment; filename=\"dataverse_files.zip\"")
+                .header("Content-Type", "application/zip; name=\"dataverse_files.zip\"")
+                .build();
+    }
+    
+    void writeZipGuestbookResponses(List<DataFile> zippedFiles, User apiTokenUser, UriInfo uriInfo, HttpHeaders headers) {
+        for (DataFile file : zippedFiles) {
+            if (file.isReleased()) {
+                GuestbookResponse gbr = guestbookResponseService.initAPIGuestbookResponse(file.getOwner(), file, session, apiTokenUser);
+                guestbookResponseService.save(gbr);
+                MakeDataCountEntry entry = new MakeDataCountEntry(uriInfo, headers, dvRequestService, file);
+                mdcLogService.logEntry(entry);
+            }
+        }
+    }
+    
     /* 
      * Geting rid of the tempPreview API - it's always been a big, fat hack. 
      * the edit files page is now using the Base64 image strings in the preview 
@@ -1692,84 +1890,136 @@ public class Access extends AbstractApiBean {
     
 
     private boolean isAccessAuthorized(User requestUser, DataFile df) {
-    // First, check if the file belongs to a released Dataset version: 
-        
-        boolean published = false; 
-        
-        //True if there's an embargo that hasn't yet expired
-        //In this state, we block access as though the file is restricted (even if it is not restricted)
-        boolean embargoed = FileUtil.isActivelyEmbargoed(df);
-        
-        
-        /*
-        SEK 7/26/2018 for 3661 relying on the version state of the dataset versions
-            to which this file is attached check to see if at least one is  RELEASED
-        */
-        for (FileMetadata fm : df.getFileMetadatas()){
-            if(fm.getDatasetVersion().isPublished()){
-                 published = true; 
-                 break;
+        return !findAccessAuthorized(requestUser, Collections.singletonList(df)).isEmpty();
+    }
+
+    /**
+     * Looks up the requested files, each id once (e.g. for the zipped
+     * downloads of many files, whose access is then checked in bulk).
+     *
+     * @return the files by id; the ids that aren't numbers are left out, those
+     * of files that don't exist are mapped to {@code null}.
+     */
+    private Map<Long, DataFile> findRequestedFiles(String[] fileIdParams) {
+        Map<Long, DataFile> requestedFiles = new HashMap<>();
+        for (String fileIdParam : fileIdParams) {
+            try {
+                Long fileId = Long.parseLong(fileIdParam);
+                if (!requestedFiles.containsKey(fileId)) {
+                    requestedFiles.put(fileId, dataFileService.find(fileId));
+                }
+            } catch (NumberFormatException nfe) {
+                // skipped here, reported by the callers
             }
         }
+        return requestedFiles;
+    }
 
-        // TODO: (IMPORTANT!)
-        // Business logic like this should NOT be maintained in individual 
-        // application fragments. 
-        // At the moment it is duplicated here, and inside the Dataset page.
-        // There are also stubs for file-level permission lookups and caching
-        // inside Gustavo's view-scoped PermissionsWrapper. 
-        // All this logic needs to be moved to the PermissionServiceBean where it will be 
-        // centrally maintained; with the PermissionsWrapper providing 
-        // efficient cached lookups to the pages (that often need to make 
-        // repeated lookups on the same files). Care will need to be taken 
-        // to preserve the slight differences in logic utilized by the page and 
-        // this Access call (the page checks the restriction flag on the
-        // filemetadata, not the datafile - as it needs to reflect the permission 
-        // status of the file in the version history).  
-        // I will open a 4.[34] ticket. 
-        //
-        // -- L.A. 4.2.1
-        
-        
-        // We don't need to check permissions on files that are 
-        // from released Dataset versions and not restricted: 
-        
-        boolean restricted = false; 
-        
-        if (df.isRestricted()) {
-            restricted = true;
-        } else {
-        
-        // There is also a special case of a restricted file that only exists 
-        // in a draft version (i.e., a new file, that hasn't been published yet).
-        // Such files must be considered restricted, for access purposes. I.e., 
-        // users with no download access to this particular file, but with the 
-        // permission to ViewUnpublished on the dataset, should NOT be allowed 
-        // to download it. 
-        // Up until 4.2.1 restricting unpublished files was only restricting them 
-        // in their Draft version fileMetadata, but not in the DataFile object. 
-        // (this is what we still want to do for published files; restricting those
-        // only restricts them in the new draft FileMetadata; until it becomes the 
-        // published version, the restriction flag on the DataFile is what governs
-        // the download authorization).
-        
-            //if (!published && df.getOwner().getVersions().size() == 1 && df.getOwner().getLatestVersion().isDraft()) {
-            // !df.isReleased() really means just this: new file, only exists in a Draft version!
-            if (!df.isReleased()) {
-                if (df.getFileMetadata().isRestricted()) {
-                    restricted = true;
+    /**
+     * The bulk version of {@link #isAccessAuthorized(User, DataFile)}: the
+     * user is found, and their permissions are looked up, once for all the
+     * files.
+     *
+     * @param files may contain {@code null}s, which are skipped.
+     * @return the files the user may download.
+     */
+    private Set<DataFile> findAccessAuthorized(User requestUser, Collection<DataFile> files) {
+        Set<DataFile> authorized = new HashSet<>();
+        // not published, restricted/embargoed or not: need ViewUnpublishedDataset on the dataset
+        List<DataFile> unpublishedFiles = new ArrayList<>();
+        // published and restricted/embargoed: need DownloadFile on the file
+        List<DataFile> restrictedFiles = new ArrayList<>();
+
+        for (DataFile df : files) {
+            if (df == null) {
+                continue;
+            }
+            // First, check if the file belongs to a released Dataset version: 
+
+            boolean published = false; 
+
+            //True if there's an embargo that hasn't yet expired
+            //In this state, we block access as though the file is restricted (even if it is not restricted)
+            boolean embargoed = FileUtil.isActivelyEmbargoed(df);
+
+
+            /*
+            SEK 7/26/2018 for 3661 relying on the version state of the dataset versions
+                to which this file is attached check to see if at least one is  RELEASED
+            */
+            for (FileMetadata fm : df.getFileMetadatas()){
+                if(fm.getDatasetVersion().isPublished()){
+                     published = true; 
+                     break;
                 }
             }
-        }
-        
-        
 
-        //The one case where we don't need to check permissions
-        if (!restricted && !embargoed && published) {
-            // If they are not published, they can still be downloaded, if the user
-            // has the permission to view unpublished versions! (this case will 
-            // be handled below)
-            return true;
+            // TODO: (IMPORTANT!)
+            // Business logic like this should NOT be maintained in individual 
+            // application fragments. 
+            // At the moment it is duplicated here, and inside the Dataset page.
+            // There are also stubs for file-level permission lookups and caching
+            // inside Gustavo's view-scoped PermissionsWrapper. 
+            // All this logic needs to be moved to the PermissionServiceBean where it will be 
+            // centrally maintained; with the PermissionsWrapper providing 
+            // efficient cached lookups to the pages (that often need to make 
+            // repeated lookups on the same files). Care will need to be taken 
+            // to preserve the slight differences in logic utilized by the page and 
+            // this Access call (the page checks the restriction flag on the
+            // filemetadata, not the datafile - as it needs to reflect the permission 
+            // status of the file in the version history).  
+            // I will open a 4.[34] ticket. 
+            //
+            // -- L.A. 4.2.1
+
+
+            // We don't need to check permissions on files that are 
+            // from released Dataset versions and not restricted: 
+
+            boolean restricted = false; 
+
+            if (df.isRestricted()) {
+                restricted = true;
+            } else {
+
+            // There is also a special case of a restricted file that only exists 
+            // in a draft version (i.e., a new file, that hasn't been published yet).
+            // Such files must be considered restricted, for access purposes. I.e., 
+            // users with no download access to this particular file, but with the 
+            // permission to ViewUnpublished on the dataset, should NOT be allowed 
+            // to download it. 
+            // Up until 4.2.1 restricting unpublished files was only restricting them 
+            // in their Draft version fileMetadata, but not in the DataFile object. 
+            // (this is what we still want to do for published files; restricting those
+            // only restricts them in the new draft FileMetadata; until it becomes the 
+            // published version, the restriction flag on the DataFile is what governs
+            // the download authorization).
+
+                //if (!published && df.getOwner().getVersions().size() == 1 && df.getOwner().getLatestVersion().isDraft()) {
+                // !df.isReleased() really means just this: new file, only exists in a Draft version!
+                if (!df.isReleased()) {
+                    if (df.getFileMetadata().isRestricted()) {
+                        restricted = true;
+                    }
+                }
+            }
+
+
+
+            //The one case where we don't need to check permissions
+            if (!restricted && !embargoed && published) {
+                // If they are not published, they can still be downloaded, if the user
+                // has the permission to view unpublished versions! (this case will 
+                // be handled below)
+                authorized.add(df);
+            } else if (!published) {
+                unpublishedFiles.add(df);
+            } else {
+                restrictedFiles.add(df);
+            }
+        }
+        if (unpublishedFiles.isEmpty() && restrictedFiles.isEmpty()) {
+            return authorized;
         }
         
         //For permissions check decide if we have a session user, or an API user
@@ -1812,7 +2062,7 @@ public class Access extends AbstractApiBean {
         //If we don't have a user, nothing more to do. (Note session could have returned GuestUser)
         if (sessionUser == null && apiUser == null) {
             logger.warning("Unable to find a user via session or with a token.");
-            return false;
+            return authorized;
         }
 
         /*
@@ -1829,33 +2079,46 @@ public class Access extends AbstractApiBean {
             // used in JSF context, user may be Guest
             dvr = dvRequestService.getDataverseRequest();
         }
-        if (!published) { // and restricted or embargoed (implied by earlier processing)
+        int deniedCount = 0;
+        if (!unpublishedFiles.isEmpty()) {
             // If the file is not published, they can still download the file, if the user
             // has the permission to view unpublished versions:
 
             // This line handles all three authenticated session user, token user, and guest cases.
-            if (permissionService.requestOn(dvr, df.getOwner()).has(Permission.ViewUnpublishedDataset)) {
-                // it's not unthinkable, that a GuestUser could be given
-                // the ViewUnpublished permission!
-                logger.log(Level.FINE,
-                        "Session-based auth: user {0} has access rights on the non-restricted, unpublished datafile.",
-                        dvr.getUser().getIdentifier());
-                return true;
-            }
-        } else { // published and restricted and/or embargoed
-            // This line also handles all three authenticated session user, token user, and guest cases.
-            if (permissionService.requestOn(dvr, df).has(Permission.DownloadFile)) {
-                return true;
+            Set<Dataset> viewable = permissionService.whichHavePermissionFor(dvr,
+                    unpublishedFiles.stream().map(DataFile::getOwner).collect(Collectors.toSet()),
+                    Permission.ViewUnpublishedDataset);
+            for (DataFile df : unpublishedFiles) {
+                if (viewable.contains(df.getOwner())) {
+                    // it's not unthinkable, that a GuestUser could be given
+                    // the ViewUnpublished permission!
+                    logger.log(Level.FINE,
+                            "Session-based auth: user {0} has access rights on the non-restricted, unpublished datafile.",
+                            dvr.getUser().getIdentifier());
+                    authorized.add(df);
+                } else {
+                    deniedCount++;
+                }
             }
         }
-        if (sessionUser != null) {
-            logger.log(Level.FINE, "Session-based auth: user {0} has NO access rights on the requested datafile.", sessionUser.getIdentifier());
-        } 
-        
-        if (apiUser != null) {
-            logger.log(Level.FINE, "Token-based auth: user {0} has NO access rights on the requested datafile.", apiUser.getIdentifier());
-        } 
-        return false; 
+        if (!restrictedFiles.isEmpty()) { // published and restricted and/or embargoed
+            // This line also handles all three authenticated session user, token user, and guest cases.
+            Set<DataFile> downloadable = permissionService.whichHavePermissionFor(dvr, restrictedFiles, Permission.DownloadFile);
+            authorized.addAll(downloadable);
+            deniedCount += restrictedFiles.size() - downloadable.size();
+        }
+        if (deniedCount > 0) {
+            if (sessionUser != null) {
+                logger.log(Level.FINE, "Session-based auth: user {0} has NO access rights on {1} of the requested datafile(s).",
+                        new Object[]{sessionUser.getIdentifier(), deniedCount});
+            } 
+
+            if (apiUser != null) {
+                logger.log(Level.FINE, "Token-based auth: user {0} has NO access rights on {1} of the requested datafile(s).",
+                        new Object[]{apiUser.getIdentifier(), deniedCount});
+            } 
+        }
+        return authorized; 
     }   
     
 
@@ -1890,6 +2153,8 @@ public class Access extends AbstractApiBean {
             throw new BadRequestException();
         }
         
+        Map<Long, DataFile> requestedFiles = findRequestedFiles(fileIdParams);
+        Set<DataFile> authorizedFiles = findAccessAuthorized(user, requestedFiles.values());
         for (int i = 0; i < fileIdParams.length; i++) {
             Long fileId = null;
             try {
@@ -1899,10 +2164,10 @@ public class Access extends AbstractApiBean {
                 fileId = null;
             }
             if (fileId != null) {
-                DataFile file = dataFileService.find(fileId);
+                DataFile file = requestedFiles.get(fileId);
                 if (file != null) {
                     validFileCount++;
-                    if (isAccessAuthorized(user, file)) {
+                    if (authorizedFiles.contains(file)) {
                         logger.fine("adding datafile (id=" + file.getId() + ") to the download list of the ZippedDownloadInstance.");
                         if (donotwriteGBResponse != true && file.isReleased()) {
                             GuestbookResponse gbr = guestbookResponseService.initAPIGuestbookResponse(file.getOwner(), file, session, apiTokenUser);
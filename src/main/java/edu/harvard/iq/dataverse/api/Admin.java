@@ -20,10 +20,12 @@ import edu.harvard.iq.dataverse.validation.EMailValidator;
 import edu.harvard.iq.dataverse.EjbDataverseEngine;
 import edu.harvard.iq.dataverse.GlobalId;
 import edu.harvard.iq.dataverse.HandlenetServiceBean;
+import edu.harvard.iq.dataverse.PermissionCache;
 import edu.harvard.iq.dataverse.Template;
 import edu.harvard.iq.dataverse.TemplateServiceBean;
 import edu.harvard.iq.dataverse.UserServiceBean;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogRecord;
+import edu.harvard.iq.dataverse.actionlogging.ActionLogWriter;
 import edu.harvard.iq.dataverse.api.dto.RoleDTO;
 import edu.harvard.iq.dataverse.authorization.AuthenticatedUserDisplayInfo;
 import edu.harvard.iq.dataverse.authorization.AuthenticationProvider;
@@ -47,6 +49,8 @@ import edu.harvard.iq.dataverse.dataaccess.DataAccessOption;
 import edu.harvard.iq.dataverse.dataaccess.StorageIO;
 import edu.harvard.iq.dataverse.engine.command.impl.AbstractSubmitToArchiveCommand;
 import edu.harvard.iq.dataverse.engine.command.impl.PublishDataverseCommand;
+import edu.harvard.iq.dataverse.harvest.server.OAIRequestStatistics;
+import edu.harvard.iq.dataverse.harvest.server.xoai.MetadataFragments;
 import edu.harvard.iq.dataverse.settings.Setting;
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
@@ -89,6 +93,7 @@ import edu.harvard.iq.dataverse.authorization.UserRecordIdentifier;
 import edu.harvard.iq.dataverse.authorization.groups.impl.explicit.ExplicitGroupServiceBean;
 import edu.harvard.iq.dataverse.authorization.users.User;
 import edu.harvard.iq.dataverse.dataaccess.ImageThumbConverter;
+import edu.harvard.iq.dataverse.dataaccess.RotatedImageCache;
 import edu.harvard.iq.dataverse.dataset.DatasetThumbnail;
 import edu.harvard.iq.dataverse.dataset.DatasetUtil;
 import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
@@ -104,6 +109,8 @@ import edu.harvard.iq.dataverse.userdata.UserListMaker;
 import edu.harvard.iq.dataverse.userdata.UserListResult;
 import edu.harvard.iq.dataverse.util.ArchiverUtil;
 import edu.harvard.iq.dataverse.util.BundleUtil;
+import edu.harvard.iq.dataverse.util.CacheRegistry;
+import edu.harvard.iq.dataverse.settings.SettingsCache;
 import edu.harvard.iq.dataverse.util.FileUtil;
 import edu.harvard.iq.dataverse.util.SystemConfig;
 import edu.harvard.iq.dataverse.util.UrlSignerUtil;
@@ -164,6 +171,10 @@ public class Admin extends AbstractApiBean {
         @EJB
         SettingsServiceBean settingsService;
         @EJB
+        SettingsCache settingsCache;
+        @EJB
+        ActionLogWriter actionLogWriter;
+        @EJB
         DatasetVersionServiceBean datasetVersionService;
         @EJB
         ExplicitGroupServiceBean explicitGroupService;
@@ -1364,6 +1375,65 @@ public class Admin extends AbstractApiBean {
 		return ok(info);
 	}
 
+    @Path("datafiles/rotatedImageCache")
+    @GET
+    public Response getRotatedImageCacheStatistics() {
+        return ok(RotatedImageCache.getStatistics());
+    }
+
+    @Path("oai/statistics")
+    @GET
+    public Response getOaiRequestStatistics() {
+        return ok(OAIRequestStatistics.getStatistics());
+    }
+
+    @Path("oai/streamRecords")
+    @GET
+    public Response getOaiStreamRecordsStatus() {
+        JsonArrayBuilder disabled = Json.createArrayBuilder();
+        MetadataFragments.getDisabledFormats().forEach(disabled::add);
+        return ok(Json.createObjectBuilder()
+                .add("enabled", MetadataFragments.isEnabled())
+                .add("disabledFormats", disabled));
+    }
+
+    @Path("oai/streamRecords/disabled")
+    @DELETE
+    public Response enableOaiStreamRecords() {
+        MetadataFragments.enableAll();
+        return ok("Metadata records of all formats are served as they are stored again");
+    }
+
+    @Path("caches")
+    @GET
+    public Response getCacheStatistics() {
+        return ok(CacheRegistry.getStatistics().add(settingsCache.getStatistics()).add(PermissionCache.getStatistics()));
+    }
+
+    @Path("actionLog")
+    @GET
+    public Response getActionLogStatistics() {
+        return ok(actionLogWriter.getStatistics());
+    }
+
+    @Path("caches/{name}")
+    @DELETE
+    public Response invalidateCache(@PathParam("name") String name) {
+        if ("settings".equals(name)) {
+            settingsCache.refresh();
+            return ok("Settings reloaded");
+        }
+        if ("permissions".equals(name)) {
+            PermissionCache.invalidateAll();
+            return ok("Permission caches invalidated");
+        }
+        if (CacheRegistry.getCache(name) == null) {
+            return notFound("No cache named " + name);
+        }
+        CacheRegistry.getCache(name).invalidate();
+        return ok("Cache " + name + " invalidated");
+    }
+
 	@Path("datafiles/integrity/fixmissingoriginaltypes")
 	@GET
 	public Response fixMissingOriginalTypes() {
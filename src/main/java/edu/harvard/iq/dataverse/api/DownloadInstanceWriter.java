@@ -38,6 +38,7 @@ import java.io.FileInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -320,6 +321,7 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                             if (di.getExtraArguments() != null && di.getExtraArguments().size() > 0) {
                                 logger.fine("processing extra arguments list of length " + di.getExtraArguments().size());
                                 List<Integer> variablePositionIndex = new ArrayList<>();
+                                List<DataVariable> subsetVariables = new ArrayList<>();
                                 String subsetVariableHeader = null;
                                 for (int i = 0; i < di.getExtraArguments().size(); i++) {
                                     DataVariable variable = (DataVariable) di.getExtraArguments().get(i);
@@ -327,6 +329,7 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                                         if (variable.getDataTable().getDataFile().getId().equals(dataFile.getId())) {
                                             logger.fine("adding variable id " + variable.getId() + " to the list.");
                                             variablePositionIndex.add(variable.getFileOrder());
+                                            subsetVariables.add(variable);
                                             if (subsetVariableHeader == null) {
                                                 subsetVariableHeader = variable.getName();
                                             } else {
@@ -342,15 +345,32 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                                 if (variablePositionIndex.size() > 0) {
 
                                     try {
-                                        File tempSubsetFile = File.createTempFile("tempSubsetFile", ".tmp");
-                                        TabularSubsetGenerator tabularSubsetGenerator = new TabularSubsetGenerator();
-                                        tabularSubsetGenerator.subsetFile(storageIO.getInputStream(), tempSubsetFile.getAbsolutePath(), variablePositionIndex, dataFile.getDataTable().getCaseQuantity(), "\t");
-
-                                        if (tempSubsetFile.exists()) {
-                                            FileInputStream subsetStream = new FileInputStream(tempSubsetFile);
-                                            long subsetSize = tempSubsetFile.length();
+                                        InputStreamIO subsetStreamIO = null;
+                                        
+                                        // The subset is normally served straight from the 
+                                        // memory-mapped rotated image of the tab file; it is 
+                                        // generated on the fly, so its size is not known 
+                                        // in advance. 
+                                        try {
+                                            TabularSubsetInputStream subsetStream = new TabularSubsetInputStream(dataFile, subsetVariables);
+                                            subsetStreamIO = new InputStreamIO(subsetStream, -1L);
+                                            storageIO.closeInputStream();
+                                        } catch (IOException ioex) {
+                                            logger.log(Level.WARNING, "Failed to subset the rotated image of datafile " + dataFile.getId() + "; subsetting the tab file instead", ioex);
+                                        }
+                                        
+                                        if (subsetStreamIO == null) {
+                                            File tempSubsetFile = File.createTempFile("tempSubsetFile", ".tmp");
+                                            TabularSubsetGenerator tabularSubsetGenerator = new TabularSubsetGenerator();
+                                            tabularSubsetGenerator.subsetFile(storageIO.getInputStream(), tempSubsetFile.getAbsolutePath(), variablePositionIndex, dataFile.getDataTable().getCaseQuantity(), "\t");
+
+                                            if (tempSubsetFile.exists()) {
+                                                FileInputStream subsetStream = new FileInputStream(tempSubsetFile);
+                                                subsetStreamIO = new InputStreamIO(subsetStream, tempSubsetFile.length());
+                                            }
+                                        }
 
-                                            InputStreamIO subsetStreamIO = new InputStreamIO(subsetStream, subsetSize);
+                                        if (subsetStreamIO != null) {
                                             logger.fine("successfully created subset output stream.");
                                             subsetVariableHeader = subsetVariableHeader.concat("\n");
                                             subsetStreamIO.setVarHeader(subsetVariableHeader);
@@ -531,14 +551,18 @@ public class DownloadInstanceWriter implements MessageBodyWriter<DownloadInstanc
                         // Dynamic streams, etc. Normal operation. No leftToRead.
                         if (ranges.isEmpty()) {
                             logger.fine("Normal, non-range request of file id " + dataFile.getId());
-                            while ((bufsize = instream.read(bffr)) != -1) {
-                                outstream.write(bffr, 0, bufsize);
+                            if (instream instanceof TabularSubsetInputStream) {
+                                ((TabularSubsetInputStream) instream).writeTo(Channels.newChannel(outstream));
+                            } else {
+                                while ((bufsize = instream.read(bffr)) != -1) {
+                                    outstream.write(bffr, 0, bufsize);
+                                }
                             }
                         } else if (leftToRead > 0) {
                             // This is a rangeHeader request, and we still have bytes to read 
                             // (for a tabular file, we may have already written enough
                             // bytes from the variable header!)
-                            storageIO.setOffset(offset);
+                            storageIO.setRange(offset, leftToRead);
                             // Thinking about it, we could just do instream.skip(offset) 
                             // here... But I would like to have this offset functionality 
                             // in StorageIO, for any future cases where we may not 
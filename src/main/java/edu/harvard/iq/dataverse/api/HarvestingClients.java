@@ -300,6 +300,18 @@ public class HarvestingClients extends AbstractApiBean {
             if (newHarvestingClient.getCustomHttpHeaders() != null) {
                 harvestingClient.setCustomHttpHeaders(newHarvestingClient.getCustomHttpHeaders());
             }
+            if (json.containsKey("concurrentRequests")) {
+                harvestingClient.setConcurrentRequests(newHarvestingClient.getConcurrentRequests());
+            }
+            if (json.containsKey("maxRequestsPerSecond")) {
+                harvestingClient.setMaxRequestsPerSecond(newHarvestingClient.getMaxRequestsPerSecond());
+            }
+            if (json.containsKey("useListRecords")) {
+                harvestingClient.setUseListRecords(newHarvestingClient.isUseListRecords());
+            }
+            if (json.containsKey("deferIndexing")) {
+                harvestingClient.setDeferIndexing(newHarvestingClient.isDeferIndexing());
+            }
             // TODO: Make schedule configurable via this API too. 
             
             harvestingClient = execCommand( new UpdateHarvestingClientCommand(req, harvestingClient));
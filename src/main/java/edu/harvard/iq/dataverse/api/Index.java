@@ -27,7 +27,10 @@ import edu.harvard.iq.dataverse.batch.util.LoggingUtil;
 import edu.harvard.iq.dataverse.search.DvObjectSolrDoc;
 import edu.harvard.iq.dataverse.search.FacetCategory;
 import edu.harvard.iq.dataverse.search.FileView;
+import edu.harvard.iq.dataverse.search.IndexBatchProgress;
 import edu.harvard.iq.dataverse.search.IndexBatchServiceBean;
+import edu.harvard.iq.dataverse.search.IndexQueueConsumer;
+import edu.harvard.iq.dataverse.search.IndexQueueServiceBean;
 import edu.harvard.iq.dataverse.search.IndexResponse;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
 import edu.harvard.iq.dataverse.search.IndexUtil;
@@ -79,6 +82,10 @@ public class Index extends AbstractApiBean {
     @EJB
     IndexBatchServiceBean indexBatchService;
     @EJB
+    IndexQueueServiceBean indexQueueService;
+    @EJB
+    IndexQueueConsumer indexQueueConsumer;
+    @EJB
     SolrIndexServiceBean solrIndexService;
     @EJB
     DataverseServiceBean dataverseService;
@@ -376,17 +383,38 @@ public class Index extends AbstractApiBean {
     @Path("status")
     public Response indexStatus(@QueryParam("sync") String sync) {
         Future<JsonObjectBuilder> result = indexBatchService.indexStatus();
+        IndexBatchProgress indexAllProgress = IndexBatchServiceBean.getIndexAllProgress();
         if (sync != null) {
             try {
                 JsonObjectBuilder status = result.get();
+                if (indexAllProgress != null) {
+                    status.add("indexAllProgress", indexAllProgress.toJson());
+                }
                 return ok(status);
             } catch (InterruptedException | ExecutionException e) {
                 return AbstractApiBean.error(Status.INTERNAL_SERVER_ERROR, "indexStatus method interrupted: " + e.getLocalizedMessage());
             }
         } else {
-            return ok("Index Status Batch Job initiated, check log for job status.");
+            JsonObjectBuilder response = Json.createObjectBuilder()
+                    .add("message", "Index Status Batch Job initiated, check log for job status.");
+            if (indexAllProgress != null) {
+                response.add("indexAllProgress", indexAllProgress.toJson());
+            }
+            return ok(response);
         }
     }
+    /**
+     * Reports the number of datasets waiting in the index queue, and what the
+     * consumers of this node have done so far.
+     */
+    @GET
+    @Path("queue")
+    public Response indexQueueStatus() {
+        return ok(Json.createObjectBuilder()
+                .add("queue", indexQueueService.getStatistics())
+                .add("consumer", indexQueueConsumer.getStatistics()));
+    }
+
      /**
      * Deletes "orphan" Solr documents (that don't match anything in the database).
      * @param sync - optional parameter, if set, then run the command 
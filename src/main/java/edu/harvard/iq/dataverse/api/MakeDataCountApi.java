@@ -6,6 +6,7 @@ import edu.harvard.iq.dataverse.makedatacount.DatasetExternalCitations;
 import edu.harvard.iq.dataverse.makedatacount.DatasetExternalCitationsServiceBean;
 import edu.harvard.iq.dataverse.makedatacount.DatasetMetrics;
 import edu.harvard.iq.dataverse.makedatacount.DatasetMetricsServiceBean;
+import edu.harvard.iq.dataverse.makedatacount.MakeDataCountLogWriter;
 import edu.harvard.iq.dataverse.settings.JvmSettings;
 import edu.harvard.iq.dataverse.util.SystemConfig;
 
@@ -25,6 +26,7 @@ import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.json.JsonValue;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -48,6 +50,8 @@ public class MakeDataCountApi extends AbstractApiBean {
     DatasetServiceBean datasetService;
     @EJB
     SystemConfig systemConfig;
+    @EJB
+    MakeDataCountLogWriter logWriter;
 
     /**
      * TODO: For each dataset, send the following:
@@ -79,6 +83,12 @@ public class MakeDataCountApi extends AbstractApiBean {
         return ok(msg);
     }
 
+    @GET
+    @Path("logWriter")
+    public Response getLogWriterStatistics() {
+        return ok(logWriter.getStatistics());
+    }
+
     @POST
     @Path("{id}/addUsageMetricsFromSushiReport")
     public Response addUsageMetricsFromSushiReport(@PathParam("id") String id, @QueryParam("reportOnDisk") String reportOnDisk) {
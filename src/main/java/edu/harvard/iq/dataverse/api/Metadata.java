@@ -21,6 +21,8 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response;
 
 import edu.harvard.iq.dataverse.DatasetVersion;
+import edu.harvard.iq.dataverse.export.ExportQueueConsumer;
+import edu.harvard.iq.dataverse.export.ExportQueueServiceBean;
 import edu.harvard.iq.dataverse.harvest.server.OAISetServiceBean;
 import edu.harvard.iq.dataverse.harvest.server.OAISet;
 import org.apache.solr.client.solrj.SolrServerException;
@@ -41,6 +43,12 @@ public class Metadata extends AbstractApiBean {
     @EJB
     DatasetServiceBean datasetService;
 
+    @EJB
+    ExportQueueServiceBean exportQueueService;
+
+    @EJB
+    ExportQueueConsumer exportQueueConsumer;
+
     // The following 2 commands start export all jobs in the background, 
     // asynchronously. 
     // (These API calls should probably not be here;
@@ -79,6 +87,32 @@ public class Metadata extends AbstractApiBean {
         }
     }
 
+    /**
+     * Reports the status of the exports of a dataset, in each format.
+     */
+    @GET
+    @Path("{id}/exportStatus")
+    public Response exportStatus(@PathParam("id") String id) {
+        try {
+            Dataset dataset = findDatasetOrDie(id);
+            return ok(exportQueueService.getStatuses(dataset.getId()));
+        } catch (WrappedResponse wr) {
+            return wr.getResponse();
+        }
+    }
+
+    /**
+     * Reports the number of exports in the export queue, by status, and what
+     * the workers of this node have done so far.
+     */
+    @GET
+    @Path("exportQueue")
+    public Response exportQueueStatus() {
+        return ok(Json.createObjectBuilder()
+                .add("queue", exportQueueService.getStatistics())
+                .add("consumer", exportQueueConsumer.getStatistics()));
+    }
+
     @GET
     @Path("clearExportTimestamps")
     public Response clearExportTimestamps() {
@@ -7,6 +7,7 @@ import javax.ejb.Stateless;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
@@ -19,12 +20,12 @@ public class SiteMap extends AbstractApiBean {
 
     @POST
     @Produces(MediaType.APPLICATION_JSON)
-    public Response updateSiteMap() {
+    public Response updateSiteMap(@QueryParam("incremental") boolean incremental) {
         boolean stageFileExists = SiteMapUtil.stageFileExists();
         if (stageFileExists) {
             return error(Response.Status.BAD_REQUEST, "Sitemap cannot be updated because staged file exists.");
         }
-        siteMapSvc.updateSiteMap(dataverseSvc.findAll(), datasetSvc.findAll());
+        siteMapSvc.updateSiteMap(incremental);
         return ok("Sitemap update has begun. Check logs for status.");
     }
 
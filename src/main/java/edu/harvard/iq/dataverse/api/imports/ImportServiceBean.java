@@ -30,6 +30,7 @@ import edu.harvard.iq.dataverse.engine.command.impl.CreateDataverseCommand;
 import edu.harvard.iq.dataverse.engine.command.impl.CreateHarvestedDatasetCommand;
 import edu.harvard.iq.dataverse.engine.command.impl.CreateNewDatasetCommand;
 import edu.harvard.iq.dataverse.engine.command.impl.DestroyDatasetCommand;
+import edu.harvard.iq.dataverse.harvest.client.DeferredHarvestIndexing;
 import edu.harvard.iq.dataverse.harvest.client.HarvestingClient;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
@@ -198,8 +199,14 @@ public class ImportServiceBean {
         }
     }
 
+    /**
+     * @param deferredIndexing where to leave the removal of a replaced dataset
+     * from the index, for the harvest to do in bulk; null to index right away.
+     * (If not null, the imported dataset isn't indexed either: that is up to
+     * the harvest, once this transaction has committed.)
+     */
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
-    public Dataset doImportHarvestedDataset(DataverseRequest dataverseRequest, HarvestingClient harvestingClient, String harvestIdentifier, String metadataFormat, File metadataFile, Date oaiDateStamp, PrintWriter cleanupLog) throws ImportException, IOException {
+    public Dataset doImportHarvestedDataset(DataverseRequest dataverseRequest, HarvestingClient harvestingClient, String harvestIdentifier, String metadataFormat, File metadataFile, Date oaiDateStamp, PrintWriter cleanupLog, DeferredHarvestIndexing deferredIndexing) throws ImportException, IOException {
         if (harvestingClient == null || harvestingClient.getDataverse() == null) {
             throw new ImportException("importHarvestedDataset called wiht a null harvestingClient, or an invalid harvestingClient.");
         }
@@ -353,7 +360,11 @@ public class ImportServiceBean {
                 }
                 // Purge all the SOLR documents associated with this client from the 
                 // index server: 
-                indexService.deleteHarvestedDocuments(existingDs);
+                if (deferredIndexing != null) {
+                    deferredIndexing.deleteLater(indexService.getHarvestedDocumentIds(existingDs));
+                } else {
+                    indexService.deleteHarvestedDocuments(existingDs);
+                }
                 // files from harvested datasets are removed unceremoniously, 
                 // directly in the database. no need to bother calling the 
                 // DeleteFileCommand on them.
@@ -368,10 +379,10 @@ public class ImportServiceBean {
                 existingDs.setFiles(null);
                 Dataset merged = em.merge(existingDs);
                 // harvested datasets don't have physical files - so no need to worry about that.
-                engineSvc.submit(new DestroyDatasetCommand(merged, dataverseRequest));
+                engineSvc.submit(new DestroyDatasetCommand(merged, dataverseRequest, deferredIndexing));
             }
             
-            importedDataset = engineSvc.submit(new CreateHarvestedDatasetCommand(ds, dataverseRequest));
+            importedDataset = engineSvc.submit(new CreateHarvestedDatasetCommand(ds, dataverseRequest, deferredIndexing != null));
 
         } catch (JsonParseException | ImportException | CommandException ex) {
             logger.fine("Failed to import harvested dataset: " + ex.getClass() + ": " + ex.getMessage());
@@ -24,12 +24,19 @@ import java.io.IOException;
 
 
 import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import java.io.BufferedOutputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -42,6 +49,17 @@ public class DataFileZipper {
     
     private static final Logger logger = Logger.getLogger(DataFileZipper.class.getCanonicalName());
     private static final String MANIFEST_FILE_NAME = "MANIFEST.TXT";
+    private static final int BUFFER_SIZE = ZipEntryPrefetcher.CHUNK_SIZE;
+    private static final int DEFAULT_PREFETCH_FILES = 4;
+    
+    // Content types that are compressed already, and that deflating again
+    // would only take time for no gain: 
+    private static final Set<String> COMPRESSED_CONTENT_TYPES = Set.of(
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-bzip2",
+            "application/x-xz", "application/zstd", "application/x-7z-compressed",
+            "application/x-rar-compressed", "application/vnd.rar",
+            "image/jpeg", "image/png", "image/gif", "image/webp",
+            "audio/mpeg", "audio/mp4", "audio/ogg", "audio/aac", "audio/flac");
     
     private OutputStream outputStream = null; 
     private ZipOutputStream zipOutputStream = null;
@@ -52,6 +70,19 @@ public class DataFileZipper {
     private String fileManifest = "";
     
     private Set<String> zippedFolders = null; 
+    
+    private ZipEntryPrefetcher prefetcher = null;
+    
+    private List<DeterministicZip.Entry> deterministicEntries = null;
+    private Date latestFileTime = null;
+    
+    /**
+     * Saves the CRC-32 of a file (or of its saved original), once worked out 
+     * for a {@link DeterministicZip}, so that it isn't worked out again.
+     */
+    public interface Crc32Store {
+        void saveCrc32(DataFile dataFile, boolean original, long crc32);
+    }
 
     public DataFileZipper() {
         fileNameList = new ArrayList<>();
@@ -86,7 +117,39 @@ public class DataFileZipper {
         if (outputStream == null) {
             throw new IOException("Attempted to create a ZipOutputStream from a NULL OutputStream.");
         }
-        this.zipOutputStream = new ZipOutputStream(outputStream);
+        this.zipOutputStream = new ZipOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+    }
+    
+    /**
+     * Starts reading the files that are going to be added to the zip (with 
+     * {@link #addFileToZipStream(DataFile, boolean)}, with the same 
+     * getOriginal, and in the same order) ahead of time, 
+     * {@link JvmSettings#ZIP_PREFETCH_FILES} of them at once, on threads from 
+     * threadFactory. Once the zip is done, or if it fails, 
+     * {@link #stopPrefetching()} must be called. 
+     */
+    public void prefetch(List<DataFile> dataFiles, boolean getOriginal, ThreadFactory threadFactory) {
+        int prefetchFiles = JvmSettings.ZIP_PREFETCH_FILES.lookupOptional(Integer.class).orElse(DEFAULT_PREFETCH_FILES);
+        if (prefetchFiles <= 0 || dataFiles.isEmpty()) {
+            return;
+        }
+        if (getOriginal) {
+            // (the tables are loaded here, rather than by the prefetching threads)
+            for (DataFile dataFile : dataFiles) {
+                if (dataFile.isTabularData()) {
+                    dataFile.getDataTable().getOriginalFileFormat();
+                }
+            }
+        }
+        stopPrefetching();
+        prefetcher = new ZipEntryPrefetcher(threadFactory, prefetchFiles, dataFiles, dataFile -> openStorageIO(dataFile, getOriginal));
+    }
+    
+    public void stopPrefetching() {
+        if (prefetcher != null) {
+            prefetcher.shutdown();
+            prefetcher = null;
+        }
     }
     
     public long addFileToZipStream(DataFile dataFile) throws IOException {
@@ -100,23 +163,10 @@ public class DataFileZipper {
 
         boolean createManifest = fileManifest != null;
         
-        DataAccessRequest daReq = new DataAccessRequest();
-        StorageIO<DataFile> accessObject = DataAccess.getStorageIO(dataFile, daReq);
+        ZipEntryPrefetcher.Entry prefetched = (prefetcher != null) ? prefetcher.take(dataFile) : null;
+        StorageIO<DataFile> accessObject = (prefetched != null) ? prefetched.awaitOpened() : openStorageIO(dataFile, getOriginal);
 
         if (accessObject != null) {
-            Boolean gotOriginal = false;
-            if(getOriginal) {
-                StoredOriginalFile sof = new StoredOriginalFile();
-                StorageIO<DataFile> tempAccessObject = sof.retreive(accessObject);
-                if(null != tempAccessObject) { //If there is an original, use it
-                    gotOriginal = true;
-                    accessObject = tempAccessObject; 
-                } 
-            }
-            if(!gotOriginal) { //if we didn't get this from sof.retreive we have to open it
-                accessObject.open();
-            }
-
             long byteSize = 0;
 
             String fileName = accessObject.getFileName();
@@ -128,7 +178,12 @@ public class DataFileZipper {
             //if (sizeTotal + fileSize < sizeLimit) {
             Boolean Success = true;
 
-            InputStream instream = accessObject.getInputStream();
+            InputStream instream;
+            if (prefetched != null) {
+                instream = prefetched.isReadable() ? prefetched.getInputStream() : null;
+            } else {
+                instream = accessObject.getInputStream();
+            }
             if (instream == null) {
                 if (createManifest) {
                     addToManifest(fileName
@@ -162,32 +217,41 @@ public class DataFileZipper {
                 String zipEntryName = checkZipEntryName(fileName);
                 
                 ZipEntry e = new ZipEntry(zipEntryName);
+                boolean compressed = COMPRESSED_CONTENT_TYPES.contains(mimeType);
+                if (compressed && prefetched != null && prefetched.isComplete()) {
+                    // Already read in full, so the size and CRC needed ahead 
+                    // of the content of a STORED entry are known: 
+                    e.setMethod(ZipEntry.STORED);
+                    e.setSize(prefetched.getSize());
+                    e.setCompressedSize(prefetched.getSize());
+                    e.setCrc(prefetched.getCrc());
+                } else if (compressed) {
+                    zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
+                }
                 logger.fine("created new zip entry for " + zipEntryName);
 
                 zipOutputStream.putNextEntry(e);
 
                 // before writing out any bytes from the input stream, flush
                 // any extra content, such as the variable header for the 
-                // subsettable files:
+                // subsettable files (the prefetched content starts with it):
                 String varHeaderLine = accessObject.getVarHeader();
-                if (varHeaderLine != null) {
+                if (varHeaderLine != null && prefetched == null) {
                     zipOutputStream.write(varHeaderLine.getBytes());
                     byteSize += (varHeaderLine.getBytes().length);
                 }
 
-                byte[] data = new byte[8192];
+                byte[] data = new byte[BUFFER_SIZE];
 
                 int i = 0;
                 while ((i = instream.read(data)) > 0) {
                     zipOutputStream.write(data, 0, i);
-                    logger.fine("wrote " + i + " bytes;");
-
                     byteSize += i;
-                    zipOutputStream.flush();
                 }
                 instream.close();
                 zipOutputStream.closeEntry();
-                logger.fine("closed zip entry for " + zipEntryName);
+                zipOutputStream.setLevel(Deflater.DEFAULT_COMPRESSION);
+                logger.fine("closed zip entry for " + zipEntryName + ", " + byteSize + " bytes");
 
                 if (createManifest) {
                     addToManifest(zipEntryName + " (" + mimeType + ") " + byteSize + " bytes.\r\n");
@@ -205,6 +269,157 @@ public class DataFileZipper {
         return 0L;
     }
     
+    /**
+     * Adds a file to the {@link DeterministicZip} returned by 
+     * {@link #finalizeDeterministicZip()}, in place of 
+     * {@link #addFileToZipStream(DataFile, boolean)}: only its size (and 
+     * CRC-32, if known) is looked up, the file isn't opened until the zip is 
+     * written. 
+     * 
+     * @return the size of the entry; or -1 if the size of the file isn't 
+     * known, in which case the zip can't be laid out ahead of time (and 
+     * nothing is added). 
+     */
+    public long addFileToDeterministicZip(DataFile dataFile, boolean getOriginal, Crc32Store crc32Store) {
+        if (deterministicEntries == null) {
+            deterministicEntries = new ArrayList<>();
+        }
+        boolean createManifest = fileManifest != null;
+        
+        // same as in openStorageIO(), the saved original is zipped if there 
+        // is one, and the variable header is only added to the tab files: 
+        boolean original = getOriginal 
+                && dataFile.isTabularData() 
+                && dataFile.getDataTable().getOriginalFileFormat() != null 
+                && !dataFile.getDataTable().getOriginalFileFormat().isEmpty();
+        String fileName;
+        String mimeType;
+        long size;
+        Long crc32;
+        byte[] header = new byte[0];
+        if (original) {
+            fileName = dataFile.getOriginalFileName();
+            mimeType = StoredOriginalFile.getOriginalMimeType(dataFile.getDataTable().getOriginalFileFormat());
+            size = (dataFile.getDataTable().getOriginalFileSize() != null) ? dataFile.getDataTable().getOriginalFileSize() : -1;
+            crc32 = dataFile.getDataTable().getOriginalFileCrc32();
+        } else {
+            fileName = dataFile.getFileMetadata().getLabel();
+            mimeType = dataFile.getContentType();
+            size = dataFile.getFilesize();
+            crc32 = dataFile.getCrc32();
+            if ("text/tab-separated-values".equals(mimeType)
+                    && dataFile.isTabularData()
+                    && dataFile.getDataTable() != null) {
+                String varHeaderLine = StorageIO.generateVariableHeader(dataFile.getDataTable().getDataVariables());
+                if (varHeaderLine != null) {
+                    header = varHeaderLine.getBytes();
+                }
+            }
+        }
+        if (size < 0) {
+            return -1;
+        }
+        if (mimeType == null || mimeType.equals("")) {
+            mimeType = "application/octet-stream";
+        }
+        Date time = dataFile.getCreateDate();
+        if (time != null && (latestFileTime == null || time.after(latestFileTime))) {
+            latestFileTime = time;
+        }
+        
+        String folderName = dataFile.getFileMetadata().getDirectoryLabel(); 
+        if (folderName != null) {
+            while (folderName.startsWith("/")) {
+                folderName = folderName.substring(1);
+            }
+            if (!"".equals(folderName)) {
+                if (!zippedFolders.contains(folderName)) {
+                    deterministicEntries.add(DeterministicZip.directory(folderName + "/", time));
+                    zippedFolders.add(folderName);
+                }
+                fileName = folderName + "/" + fileName;
+            }
+        }
+        String zipEntryName = checkZipEntryName(fileName);
+        
+        DeterministicZip.Source source = new DeterministicZip.Source() {
+            @Override
+            public InputStream open(long offset, long length) throws IOException {
+                StorageIO<DataFile> accessObject = openStorageIO(dataFile, original);
+                if (accessObject != null && (offset > 0 || length < size)) {
+                    accessObject.setRange(offset, length);
+                }
+                InputStream instream = (accessObject != null) ? accessObject.getInputStream() : null;
+                if (instream == null) {
+                    throw new IOException("Failed to open file " + dataFile.getId() + " for zipping");
+                }
+                return instream;
+            }
+
+            @Override
+            public void crcComputed(long crc) {
+                try {
+                    crc32Store.saveCrc32(dataFile, original, crc);
+                } catch (RuntimeException ex) {
+                    // (worked out again next time)
+                    logger.log(Level.WARNING, "Failed to save the CRC-32 of file " + dataFile.getId(), ex);
+                }
+            }
+        };
+        String identity = dataFile.getId() + ":" + dataFile.getChecksumValue() + (original ? ":original" : "");
+        DeterministicZip.Entry entry = DeterministicZip.file(zipEntryName, identity, time, header, source, size, crc32);
+        deterministicEntries.add(entry);
+        logger.fine("laid out zip entry for " + zipEntryName + ", " + entry.getSize() + " bytes");
+        
+        if (createManifest) {
+            addToManifest(zipEntryName + " (" + mimeType + ") " + entry.getSize() + " bytes.\r\n");
+        }
+        zippedFilesList.add(dataFile.getId());
+        return entry.getSize();
+    }
+    
+    /**
+     * @return the zip of the files added with 
+     * {@link #addFileToDeterministicZip(DataFile, boolean, Crc32Store)}, and 
+     * of the manifest. 
+     */
+    public DeterministicZip finalizeDeterministicZip() {
+        List<DeterministicZip.Entry> entries = (deterministicEntries != null) ? deterministicEntries : new ArrayList<>();
+        if (fileManifest != null) {
+            String manifestEntry = MANIFEST_FILE_NAME; 
+            while (fileNameList.contains(manifestEntry)) {
+                manifestEntry = "0".concat(manifestEntry); 
+            }
+            entries.add(DeterministicZip.content(manifestEntry, latestFileTime, fileManifest.getBytes(StandardCharsets.UTF_8)));
+        }
+        return new DeterministicZip(entries);
+    }
+    
+    /**
+     * @return the opened storage of the file (or of its saved original, if 
+     * requested and there is one); {@code null} if there is none.
+     */
+    StorageIO<DataFile> openStorageIO(DataFile dataFile, boolean getOriginal) throws IOException {
+        DataAccessRequest daReq = new DataAccessRequest();
+        StorageIO<DataFile> accessObject = DataAccess.getStorageIO(dataFile, daReq);
+
+        if (accessObject != null) {
+            Boolean gotOriginal = false;
+            if(getOriginal) {
+                StoredOriginalFile sof = new StoredOriginalFile();
+                StorageIO<DataFile> tempAccessObject = sof.retreive(accessObject);
+                if(null != tempAccessObject) { //If there is an original, use it
+                    gotOriginal = true;
+                    accessObject = tempAccessObject; 
+                } 
+            }
+            if(!gotOriginal) { //if we didn't get this from sof.retreive we have to open it
+                accessObject.open();
+            }
+        }
+        return accessObject;
+    }
+    
     public void finalizeZipStream() throws IOException {
         boolean createManifest = fileManifest != null;
         
@@ -225,6 +440,7 @@ public class DataFileZipper {
             zipOutputStream.closeEntry();
         }
 
+        stopPrefetching();
         zipOutputStream.flush();
         zipOutputStream.close();
     }
@@ -0,0 +1,690 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A zip whose every byte is known before any is written, so that its length
+ * and the position of each entry can be worked out up front, and any range of
+ * it served, e.g. to resume a download, or to download parts of it in
+ * parallel. The same files always give the same zip:
+ * <ul>
+ * <li>the entries are STORED (not compressed), with sizes known ahead of
+ * time;</li>
+ * <li>each entry is followed by a data descriptor with its CRC-32, so that the
+ * local headers don't depend on the content;</li>
+ * <li>the times of the entries come from the files, not from the clock;</li>
+ * <li>entries, and zips, over 4 GB are written in the Zip64 format.</li>
+ * </ul>
+ *
+ * Only the part of a file within the range being written is read. The CRC-32
+ * of a file is worked out as it is written in full, and passed on to
+ * {@link Source#crcComputed(long)} to be remembered. A range that includes the
+ * data descriptor of a file, or its entry in the central directory, but not all
+ * of its content, needs its CRC-32 to be known already: see
+ * {@link #getMissingCrcBytes(long, long)} and
+ * {@link #computeMissingCrcs(long, long)}.
+ *
+ * The zip is meant to be read through its central directory (as by unzip,
+ * 7-Zip, or {@link java.util.zip.ZipFile}): readers that only go through the
+ * local headers, such as {@link java.util.zip.ZipInputStream}, don't accept
+ * STORED entries with a data descriptor.
+ */
+public class DeterministicZip {
+
+    private static final Logger logger = Logger.getLogger(DeterministicZip.class.getCanonicalName());
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final short ZIP64_EXTRA_ID = 0x0001;
+    private static final short VERSION = 20;
+    private static final short VERSION_ZIP64 = 45;
+    // bit 3: CRC-32 in a data descriptor; bit 11: UTF-8 names
+    private static final short FLAGS = 0x0808;
+    private static final short METHOD_STORED = 0;
+    private static final int MSDOS_DIRECTORY_ATTRIBUTE = 0x10;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The files whose CRC-32 is being worked out, by their identity. */
+    private static final Set<String> computingCrcs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Where the content of a file entry comes from.
+     */
+    public interface Source {
+        /**
+         * @return the content of the file, from {@code offset}; only the next
+         * {@code length} bytes of it are read.
+         */
+        InputStream open(long offset, long length) throws IOException;
+
+        /**
+         * Called with the CRC-32 of the content, once it's known.
+         */
+        void crcComputed(long crc);
+    }
+
+    /**
+     * An entry of the zip: a file, a directory, or content held in memory
+     * (e.g. a manifest).
+     */
+    public static final class Entry {
+        private final String name;
+        private final byte[] nameBytes;
+        private final String identity;
+        private final long dosTime;
+        private final boolean directory;
+        // written before the content of the source, e.g. the variable header of a tabular file
+        private final byte[] header;
+        private final byte[] content;
+        private final Source source;
+        private final long sourceSize;
+        private Long sourceCrc;
+
+        private long offset;
+
+        private Entry(String name, String identity, Date time, boolean directory, byte[] header, byte[] content,
+                Source source, long sourceSize, Long sourceCrc) {
+            this.name = name;
+            this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            this.identity = identity;
+            this.dosTime = toDosTime(time);
+            this.directory = directory;
+            this.header = header;
+            this.content = content;
+            this.source = source;
+            this.sourceSize = sourceSize;
+            this.sourceCrc = sourceCrc;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return header.length + ((content != null) ? content.length : sourceSize);
+        }
+
+        boolean isZip64() {
+            return getSize() >= ZIP64_MAGIC;
+        }
+
+        int getLocalHeaderLength() {
+            return 30 + nameBytes.length + (isZip64() ? 20 : 0);
+        }
+
+        int getDescriptorLength() {
+            return isZip64() ? 24 : 16;
+        }
+
+        long getDataOffset() {
+            return offset + getLocalHeaderLength();
+        }
+
+        long getEnd() {
+            return getDataOffset() + getSize() + getDescriptorLength();
+        }
+
+        boolean isCrcKnown() {
+            return source == null || sourceSize == 0 || sourceCrc != null;
+        }
+
+        long getSourceStart() {
+            return getDataOffset() + header.length;
+        }
+
+        long getSourceEnd() {
+            return getDataOffset() + getSize();
+        }
+
+        long getCrc() {
+            CRC32 crc = new CRC32();
+            crc.update(header);
+            if (content != null) {
+                crc.update(content);
+                return crc.getValue();
+            }
+            if (source == null || sourceSize == 0) {
+                return crc.getValue();
+            }
+            return crc32Combine(crc.getValue(), sourceCrc, sourceSize);
+        }
+    }
+
+    /**
+     * @param identity stands for the content of the file (e.g. its id and
+     * checksum), for the {@link #getETag() ETag} of the zip.
+     * @param header written before the content of the source; may be empty.
+     * @param sourceSize the size of the content of the source.
+     * @param sourceCrc the CRC-32 of the content of the source, if known.
+     */
+    public static Entry file(String name, String identity, Date time, byte[] header, Source source, long sourceSize, Long sourceCrc) {
+        return new Entry(name, identity, time, false, header, null, source, sourceSize, sourceCrc);
+    }
+
+    public static Entry content(String name, Date time, byte[] content) {
+        return new Entry(name, null, time, false, new byte[0], content, null, 0, null);
+    }
+
+    /**
+     * @param name ends with a "/".
+     */
+    public static Entry directory(String name, Date time) {
+        return new Entry(name, null, time, true, new byte[0], new byte[0], null, 0, null);
+    }
+
+    private final List<Entry> entries;
+    private final long centralDirectoryOffset;
+    private final long centralDirectoryLength;
+    private final boolean zip64End;
+    private final long length;
+
+    public DeterministicZip(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+        long offset = 0;
+        for (Entry entry : this.entries) {
+            entry.offset = offset;
+            offset = entry.getEnd();
+        }
+        centralDirectoryOffset = offset;
+        long centralDirectoryLength = 0;
+        for (Entry entry : this.entries) {
+            centralDirectoryLength += getCentralHeaderLength(entry);
+        }
+        this.centralDirectoryLength = centralDirectoryLength;
+        zip64End = this.entries.size() >= ZIP64_MAGIC_COUNT
+                || centralDirectoryOffset >= ZIP64_MAGIC || centralDirectoryLength >= ZIP64_MAGIC;
+        length = centralDirectoryOffset + centralDirectoryLength + (zip64End ? 56 + 20 : 0) + 22;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the length of the zip, in bytes.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return a (quoted) HTTP entity tag, the same for the same files and
+     * names, in the same order.
+     */
+    public String getETag() {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            for (Entry entry : entries) {
+                md.update(entry.nameBytes);
+                md.update((byte) 0);
+                md.update(String.valueOf(entry.getSize()).getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+                md.update(String.valueOf(entry.dosTime).getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+                if (entry.identity != null) {
+                    md.update(entry.identity.getBytes(StandardCharsets.UTF_8));
+                }
+                md.update(entry.header);
+                if (entry.content != null) {
+                    md.update(entry.content);
+                }
+                md.update((byte) 0);
+            }
+            StringBuilder etag = new StringBuilder("\"");
+            for (byte b : md.digest()) {
+                etag.append(String.format("%02x", b));
+            }
+            return etag.append("\"").toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @return the size of the files that have to be read for their CRC-32
+     * before the bytes from {@code first} to {@code last} can be written; 0 if
+     * none.
+     */
+    public long getMissingCrcBytes(long first, long last) {
+        long bytes = 0;
+        for (Entry entry : getEntriesMissingCrc(first, last)) {
+            bytes += entry.sourceSize;
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads the files that the bytes from {@code first} to {@code last} need
+     * the CRC-32 of, and don't have yet, for it; except those already being
+     * read (e.g. for another request).
+     */
+    public void computeMissingCrcs(long first, long last) throws IOException {
+        for (Entry entry : getEntriesMissingCrc(first, last)) {
+            if (entry.identity != null && !computingCrcs.add(entry.identity)) {
+                continue;
+            }
+            try {
+                computeSourceCrc(entry);
+            } finally {
+                if (entry.identity != null) {
+                    computingCrcs.remove(entry.identity);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the files whose data descriptor, or entry in the central
+     * directory, is within the range, and whose CRC-32 isn't known; except
+     * those read from the start to the end within the range, for which it is
+     * worked out as they are written.
+     */
+    private List<Entry> getEntriesMissingCrc(long first, long last) {
+        List<Entry> missing = new ArrayList<>();
+        long centralHeaderOffset = centralDirectoryOffset;
+        for (Entry entry : entries) {
+            long centralHeaderEnd = centralHeaderOffset + getCentralHeaderLength(entry);
+            if (!entry.isCrcKnown()) {
+                boolean descriptorInRange = first < entry.getEnd() && last >= entry.getSourceEnd();
+                boolean centralHeaderInRange = first < centralHeaderEnd && last >= centralHeaderOffset;
+                boolean readInFull = first <= entry.getSourceStart() && last >= entry.getSourceEnd() - 1;
+                if ((descriptorInRange || centralHeaderInRange) && !readInFull) {
+                    missing.add(entry);
+                }
+            }
+            centralHeaderOffset = centralHeaderEnd;
+        }
+        return missing;
+    }
+
+    /**
+     * Writes the whole zip.
+     */
+    public void write(OutputStream out) throws IOException {
+        write(out, 0, length - 1);
+    }
+
+    /**
+     * Writes the bytes of the zip from {@code first} to {@code last},
+     * inclusive.
+     *
+     * @throws IllegalStateException if the range needs a CRC-32 that isn't
+     * known, see {@link #getMissingCrcBytes(long, long)}.
+     */
+    public void write(OutputStream out, long first, long last) throws IOException {
+        if (first < 0 || last >= length || first > last) {
+            throw new IllegalArgumentException("Invalid range " + first + "-" + last + " of a zip of " + length + " bytes");
+        }
+        RangeOutput range = new RangeOutput(out, first, last);
+        for (Entry entry : entries) {
+            if (range.isPast()) {
+                break;
+            }
+            if (!range.overlaps(entry.getEnd() - entry.offset)) {
+                range.skip(entry.getEnd() - entry.offset);
+                continue;
+            }
+            range.write(localHeader(entry));
+            writeContent(entry, range);
+            if (range.overlaps(entry.getDescriptorLength())) {
+                range.write(dataDescriptor(entry));
+            } else {
+                range.skip(entry.getDescriptorLength());
+            }
+        }
+        if (range.overlaps(centralDirectoryLength)) {
+            for (Entry entry : entries) {
+                int headerLength = getCentralHeaderLength(entry);
+                if (range.overlaps(headerLength)) {
+                    range.write(centralHeader(entry));
+                } else {
+                    range.skip(headerLength);
+                }
+            }
+        } else {
+            range.skip(centralDirectoryLength);
+        }
+        range.write(end());
+        out.flush();
+    }
+
+    private void writeContent(Entry entry, RangeOutput range) throws IOException {
+        range.write(entry.header);
+        if (entry.content != null) {
+            range.write(entry.content);
+            return;
+        }
+        if (entry.source == null) {
+            return;
+        }
+        if (!range.overlaps(entry.sourceSize)) {
+            range.skip(entry.sourceSize);
+            return;
+        }
+        // (the part before the range is not read)
+        long before = range.before(entry.sourceSize);
+        range.skip(before);
+        long left = Math.min(entry.sourceSize - before, range.last - (entry.getSourceStart() + before) + 1);
+        // all of the file is in the range:
+        boolean computeCrc = entry.sourceCrc == null && before == 0 && left == entry.sourceSize;
+        CRC32 crc = computeCrc ? new CRC32() : null;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long after = entry.sourceSize - before - left;
+        try (InputStream in = entry.source.open(before, left)) {
+            while (left > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+                if (n < 0) {
+                    throw new IOException("Content of zip entry " + entry.name + " ended " + left + " bytes short of " + entry.sourceSize);
+                }
+                if (crc != null) {
+                    crc.update(buffer, 0, n);
+                }
+                range.write(buffer, 0, n);
+                left -= n;
+            }
+        }
+        range.skip(after);
+        if (computeCrc) {
+            setSourceCrc(entry, crc.getValue());
+        }
+    }
+
+    /**
+     * Reads the content of a file, outside of the range being written, for
+     * its CRC-32.
+     */
+    private void computeSourceCrc(Entry entry) throws IOException {
+        logger.fine("Reading zip entry " + entry.name + " for its CRC-32");
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long read = 0;
+        try (InputStream in = entry.source.open(0, entry.sourceSize)) {
+            int n;
+            while (read < entry.sourceSize && (n = in.read(buffer, 0, (int) Math.min(buffer.length, entry.sourceSize - read))) >= 0) {
+                crc.update(buffer, 0, n);
+                read += n;
+            }
+        }
+        if (read < entry.sourceSize) {
+            throw new IOException("Content of zip entry " + entry.name + " ended " + (entry.sourceSize - read) + " bytes short of " + entry.sourceSize);
+        }
+        setSourceCrc(entry, crc.getValue());
+    }
+
+    private void setSourceCrc(Entry entry, long crc) {
+        entry.sourceCrc = crc;
+        entry.source.crcComputed(crc);
+    }
+
+    private long crcOf(Entry entry) {
+        if (!entry.isCrcKnown()) {
+            throw new IllegalStateException("The CRC-32 of zip entry " + entry.name + " is not known yet");
+        }
+        return entry.getCrc();
+    }
+
+    private byte[] localHeader(Entry entry) {
+        ByteBuffer b = buffer(entry.getLocalHeaderLength());
+        b.putInt(LOCAL_HEADER_SIGNATURE);
+        b.putShort(entry.isZip64() ? VERSION_ZIP64 : VERSION);
+        b.putShort(FLAGS);
+        b.putShort(METHOD_STORED);
+        b.putInt((int) entry.dosTime);
+        // (the CRC-32 is in the data descriptor)
+        b.putInt(0);
+        long size = entry.isZip64() ? ZIP64_MAGIC : entry.getSize();
+        b.putInt((int) size);
+        b.putInt((int) size);
+        b.putShort((short) entry.nameBytes.length);
+        b.putShort((short) (entry.isZip64() ? 20 : 0));
+        b.put(entry.nameBytes);
+        if (entry.isZip64()) {
+            b.putShort(ZIP64_EXTRA_ID);
+            b.putShort((short) 16);
+            b.putLong(entry.getSize());
+            b.putLong(entry.getSize());
+        }
+        return b.array();
+    }
+
+    private byte[] dataDescriptor(Entry entry) {
+        ByteBuffer b = buffer(entry.getDescriptorLength());
+        b.putInt(DATA_DESCRIPTOR_SIGNATURE);
+        b.putInt((int) crcOf(entry));
+        if (entry.isZip64()) {
+            b.putLong(entry.getSize());
+            b.putLong(entry.getSize());
+        } else {
+            b.putInt((int) entry.getSize());
+            b.putInt((int) entry.getSize());
+        }
+        return b.array();
+    }
+
+    private static int getCentralExtraLength(Entry entry) {
+        int fields = (entry.isZip64() ? 2 : 0) + ((entry.offset >= ZIP64_MAGIC) ? 1 : 0);
+        return (fields > 0) ? 4 + 8 * fields : 0;
+    }
+
+    private static int getCentralHeaderLength(Entry entry) {
+        return 46 + entry.nameBytes.length + getCentralExtraLength(entry);
+    }
+
+    private byte[] centralHeader(Entry entry) {
+        int extraLength = getCentralExtraLength(entry);
+        short version = (extraLength > 0) ? VERSION_ZIP64 : VERSION;
+        ByteBuffer b = buffer(getCentralHeaderLength(entry));
+        b.putInt(CENTRAL_HEADER_SIGNATURE);
+        b.putShort(version);
+        b.putShort(version);
+        b.putShort(FLAGS);
+        b.putShort(METHOD_STORED);
+        b.putInt((int) entry.dosTime);
+        b.putInt((int) crcOf(entry));
+        long size = entry.isZip64() ? ZIP64_MAGIC : entry.getSize();
+        b.putInt((int) size);
+        b.putInt((int) size);
+        b.putShort((short) entry.nameBytes.length);
+        b.putShort((short) extraLength);
+        // comment length, disk, internal attributes
+        b.putShort((short) 0);
+        b.putShort((short) 0);
+        b.putShort((short) 0);
+        b.putInt(entry.directory ? MSDOS_DIRECTORY_ATTRIBUTE : 0);
+        b.putInt((int) Math.min(entry.offset, ZIP64_MAGIC));
+        b.put(entry.nameBytes);
+        if (extraLength > 0) {
+            b.putShort(ZIP64_EXTRA_ID);
+            b.putShort((short) (extraLength - 4));
+            if (entry.isZip64()) {
+                b.putLong(entry.getSize());
+                b.putLong(entry.getSize());
+            }
+            if (entry.offset >= ZIP64_MAGIC) {
+                b.putLong(entry.offset);
+            }
+        }
+        return b.array();
+    }
+
+    private byte[] end() {
+        ByteBuffer b = buffer((zip64End ? 56 + 20 : 0) + 22);
+        if (zip64End) {
+            long zip64EndOffset = centralDirectoryOffset + centralDirectoryLength;
+            b.putInt(ZIP64_END_SIGNATURE);
+            b.putLong(44);
+            b.putShort(VERSION_ZIP64);
+            b.putShort(VERSION_ZIP64);
+            b.putInt(0);
+            b.putInt(0);
+            b.putLong(entries.size());
+            b.putLong(entries.size());
+            b.putLong(centralDirectoryLength);
+            b.putLong(centralDirectoryOffset);
+
+            b.putInt(ZIP64_LOCATOR_SIGNATURE);
+            b.putInt(0);
+            b.putLong(zip64EndOffset);
+            b.putInt(1);
+        }
+        b.putInt(END_SIGNATURE);
+        b.putShort((short) 0);
+        b.putShort((short) 0);
+        b.putShort((short) Math.min(entries.size(), ZIP64_MAGIC_COUNT));
+        b.putShort((short) Math.min(entries.size(), ZIP64_MAGIC_COUNT));
+        b.putInt((int) Math.min(centralDirectoryLength, ZIP64_MAGIC));
+        b.putInt((int) Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+        b.putShort((short) 0);
+        return b.array();
+    }
+
+    private static ByteBuffer buffer(int length) {
+        return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return the MS-DOS date (high 16 bits) and time (low 16 bits) of
+     * {@code time}, in UTC so that it's the same on every server.
+     */
+    static long toDosTime(Date time) {
+        LocalDateTime t = (time != null) ? LocalDateTime.ofInstant(time.toInstant(), ZoneOffset.UTC) : null;
+        if (t == null || t.getYear() < 1980) {
+            t = LocalDateTime.of(1980, 1, 1, 0, 0);
+        }
+        return ((long) (t.getYear() - 1980) << 25) | ((long) t.getMonthValue() << 21) | ((long) t.getDayOfMonth() << 16)
+                | ((long) t.getHour() << 11) | ((long) t.getMinute() << 5) | (t.getSecond() >> 1);
+    }
+
+    /**
+     * @return the CRC-32 of the content of which {@code crc1} is the CRC-32 of
+     * the first part, and {@code crc2} that of the second, {@code length2}
+     * bytes long (as zlib's crc32_combine()).
+     */
+    static long crc32Combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        // the operator for one zero bit
+        odd[0] = 0xEDB88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // two zero bits, then four
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+        // apply length2 zero bytes to crc1
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+
+    /**
+     * The part of the output within a range of the zip.
+     */
+    private static final class RangeOutput {
+        private final OutputStream out;
+        private final long first;
+        private final long last;
+        private long position = 0;
+
+        RangeOutput(OutputStream out, long first, long last) {
+            this.out = out;
+            this.first = first;
+            this.last = last;
+        }
+
+        boolean isPast() {
+            return position > last;
+        }
+
+        /**
+         * @return whether the next {@code length} bytes are (partly) in the range.
+         */
+        boolean overlaps(long length) {
+            return position + length > first && position <= last;
+        }
+
+        void skip(long length) {
+            position += length;
+        }
+
+        /**
+         * @return how many of the next {@code length} bytes come before the
+         * range.
+         */
+        long before(long length) {
+            return Math.min(length, Math.max(0, first - position));
+        }
+
+        void write(byte[] b) throws IOException {
+            write(b, 0, b.length);
+        }
+
+        void write(byte[] b, int off, int len) throws IOException {
+            long from = Math.max(position, first);
+            long to = Math.min(position + len - 1, last);
+            if (from <= to) {
+                out.write(b, off + (int) (from - position), (int) (to - from + 1));
+            }
+            position += len;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.util.BitSet;
+
+/**
+ * A column of integer values of a tabular file, stored as primitive longs,
+ * with missing values kept in a separate bitmap. See
+ * {@link DoubleColumnVector}.
+ *
+ * @see TabularSubsetGenerator#subsetLongColumn(java.io.InputStream, int, int)
+ */
+public class LongColumnVector {
+
+    private final long[] values;
+    private final BitSet missing;
+
+    public LongColumnVector(int size) {
+        values = new long[size];
+        missing = new BitSet(size);
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public long get(int index) {
+        return values[index];
+    }
+
+    public void set(int index, long value) {
+        values[index] = value;
+        missing.clear(index);
+    }
+
+    public boolean isMissing(int index) {
+        return missing.get(index);
+    }
+
+    public void setMissing(int index) {
+        values[index] = 0;
+        missing.set(index);
+    }
+
+    public int getMissingCount() {
+        return missing.cardinality();
+    }
+
+    /**
+     * @return The values themselves (not a copy), with 0 for the missing
+     * ones. Not to be modified.
+     */
+    public long[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return The values, with missing values as nulls, for the APIs that
+     * need boxed arrays (UNF calculation of a vector with missing values,
+     * etc.)
+     */
+    public Long[] toLongArray() {
+        Long[] boxed = new Long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            boxed[i] = missing.get(i) ? null : values[i];
+        }
+        return boxed;
+    }
+
+}
@@ -0,0 +1,228 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.FileUtil;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Manages the rotated ("90d") images of tabular files, used for subsetting
+ * (see {@link TabularSubsetGenerator}).
+ *
+ * A rotated image is generated once per file and stored next to it, as an
+ * auxiliary object of the file in its StorageIO; so it is shared by all the
+ * nodes, and deleted with the file (or when the file is uningested). Images
+ * are memory-mapped for subsetting, so for files in non-local stores (S3,
+ * etc.) every node keeps local copies of the images it has used in a cache
+ * directory, bounded by dataverse.files.rotated-image-cache-size; the least
+ * recently used images are evicted from it first.
+ */
+public class RotatedImageCache {
+
+    private static final Logger logger = Logger.getLogger(RotatedImageCache.class.getCanonicalName());
+
+    public static final String AUX_TAG = "90d";
+
+    public static final long DEFAULT_CACHE_SIZE_MB = 10240;
+    public static final long DEFAULT_PREGENERATE_MIN_SIZE_MB = 100;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong sharedHits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Returns the rotated image of a tabular data file, as a local file that
+     * can be memory-mapped, generating it first if necessary.
+     */
+    public static File getRotatedImage(DataFile datafile) throws IOException {
+        StorageIO<DataFile> storageIO = datafile.getStorageIO();
+
+        if (storageIO.isLocalFile()) {
+            File rotatedImageFile = storageIO.getAuxObjectAsPath(AUX_TAG).toFile();
+            if (rotatedImageFile.exists()) {
+                hits.incrementAndGet();
+                return rotatedImageFile;
+            }
+            misses.incrementAndGet();
+            return generateRotatedImage(datafile, storageIO);
+        }
+
+        File cachedImageFile = getCacheDirectory().resolve(getCachedImageName(datafile)).toFile();
+        if (cachedImageFile.exists()) {
+            // (the modification time is the "last used" time of the images
+            // in the cache)
+            cachedImageFile.setLastModified(System.currentTimeMillis());
+            hits.incrementAndGet();
+            return cachedImageFile;
+        }
+
+        File tempImageFile = File.createTempFile("tempRotatedImage.", ".tmp", getCacheDirectory().toFile());
+        try {
+            if (storageIO.isAuxObjectCached(AUX_TAG)) {
+                sharedHits.incrementAndGet();
+                try (InputStream in = storageIO.getAuxFileAsInputStream(AUX_TAG)) {
+                    Files.copy(in, tempImageFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } else {
+                misses.incrementAndGet();
+                File generatedImageFile = generateRotatedImage(datafile, storageIO);
+                Files.move(generatedImageFile.toPath(), tempImageFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            // (concurrent requests may be caching the same image; whichever
+            // finishes last replaces the other one in place)
+            Files.move(tempImageFile.toPath(), cachedImageFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tempImageFile.delete();
+        }
+
+        evictLeastRecentlyUsed(cachedImageFile);
+        return cachedImageFile;
+    }
+
+    /**
+     * Generates the rotated image of a freshly ingested tabular file, unless
+     * it is smaller than dataverse.files.rotated-image-pregenerate-min-size,
+     * so that the first subset request on a large file does not have to wait
+     * for it.
+     */
+    public static void pregenerateRotatedImage(DataFile datafile) {
+        long minSizeMb = JvmSettings.ROTATED_IMAGE_PREGENERATE_MIN_SIZE.lookupOptional(Long.class).orElse(DEFAULT_PREGENERATE_MIN_SIZE_MB);
+        if (minSizeMb < 0 || datafile.getFilesize() < minSizeMb * 1024 * 1024 || !datafile.isTabularData()) {
+            return;
+        }
+        try {
+            StorageIO<DataFile> storageIO = datafile.getStorageIO();
+            if (storageIO.isLocalFile() ? storageIO.getAuxObjectAsPath(AUX_TAG).toFile().exists() : storageIO.isAuxObjectCached(AUX_TAG)) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            File generatedImageFile = generateRotatedImage(datafile, storageIO);
+            if (!storageIO.isLocalFile()) {
+                generatedImageFile.delete();
+            }
+            logger.fine("Generated the rotated image of datafile " + datafile.getId() + " in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Failed to generate the rotated image of datafile " + datafile.getId(), ex);
+        }
+    }
+
+    public static JsonObjectBuilder getStatistics() {
+        long cachedBytes = 0;
+        File[] cachedImages = listCachedImages();
+        for (File cachedImage : cachedImages) {
+            cachedBytes += cachedImage.length();
+        }
+        return Json.createObjectBuilder()
+                .add("hits", hits.get())
+                .add("sharedHits", sharedHits.get())
+                .add("misses", misses.get())
+                .add("evictions", evictions.get())
+                .add("cachedImages", cachedImages.length)
+                .add("cachedBytes", cachedBytes);
+    }
+
+    /*
+     * Generates the image from the tab file, and saves it as an aux object.
+     * Returns the generated image: the aux file itself for local files, a
+     * temp file that the caller has to dispose of otherwise.
+     */
+    private static File generateRotatedImage(DataFile datafile, StorageIO<DataFile> storageIO) throws IOException {
+        int varcount = datafile.getDataTable().getVarQuantity().intValue();
+        int casecount = datafile.getDataTable().getCaseQuantity().intValue();
+
+        File tabFile = DataConverter.downloadFromStorageIO(storageIO);
+        if (tabFile == null) {
+            throw new IOException("Could not read the tab file of datafile " + datafile.getId());
+        }
+
+        // For local files, the image is generated straight into its aux
+        // location (next to the tab file, with the "90d" extension):
+        if (storageIO.isLocalFile()) {
+            return new TabularSubsetGenerator().generateRotatedImage(tabFile, varcount, casecount);
+        }
+
+        try {
+            File generatedImageFile = new TabularSubsetGenerator().generateRotatedImage(tabFile, varcount, casecount);
+            try {
+                storageIO.savePathAsAux(generatedImageFile.toPath(), AUX_TAG);
+            } catch (IOException ex) {
+                // The image can still be used on this node.
+                logger.log(Level.WARNING, "Failed to save the rotated image of datafile " + datafile.getId() + " as an aux object", ex);
+            }
+            return generatedImageFile;
+        } finally {
+            tabFile.delete();
+        }
+    }
+
+    /*
+     * The data table is created anew whenever the file is (re)ingested, so
+     * its id tells the cached images of the old and new tab files apart.
+     */
+    private static String getCachedImageName(DataFile datafile) {
+        return datafile.getId() + "-" + datafile.getDataTable().getId() + "." + AUX_TAG;
+    }
+
+    private static Path getCacheDirectory() throws IOException {
+        Path cacheDirectory = Paths.get(FileUtil.getFilesTempDirectory(), "rotated");
+        Files.createDirectories(cacheDirectory);
+        return cacheDirectory;
+    }
+
+    private static File[] listCachedImages() {
+        File[] cachedImages = null;
+        try {
+            cachedImages = getCacheDirectory().toFile().listFiles((dir, name) -> name.endsWith("." + AUX_TAG));
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Failed to list the rotated image cache", ex);
+        }
+        return cachedImages == null ? new File[0] : cachedImages;
+    }
+
+    /*
+     * Evicts the least recently used images until the cache fits in its
+     * maximum size again; except for the image that was just added.
+     */
+    private static synchronized void evictLeastRecentlyUsed(File addedImageFile) {
+        long maxBytes = JvmSettings.ROTATED_IMAGE_CACHE_SIZE.lookupOptional(Long.class).orElse(DEFAULT_CACHE_SIZE_MB) * 1024 * 1024;
+
+        File[] cachedImages = listCachedImages();
+        long cachedBytes = 0;
+        for (File cachedImage : cachedImages) {
+            cachedBytes += cachedImage.length();
+        }
+        if (cachedBytes <= maxBytes) {
+            return;
+        }
+
+        // (an image evicted while it is mapped stays readable until it is
+        // unmapped; only its directory entry is removed)
+        Arrays.sort(cachedImages, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < cachedImages.length && cachedBytes > maxBytes; i++) {
+            if (cachedImages[i].equals(addedImageFile)) {
+                continue;
+            }
+            long size = cachedImages[i].length();
+            if (cachedImages[i].delete()) {
+                cachedBytes -= size;
+                evictions.incrementAndGet();
+                logger.fine("Evicted " + cachedImages[i].getName() + " from the rotated image cache");
+            }
+        }
+    }
+
+}
@@ -39,12 +39,10 @@ import edu.harvard.iq.dataverse.Dataset;
 import edu.harvard.iq.dataverse.Dataverse;
 import edu.harvard.iq.dataverse.DvObject;
 import edu.harvard.iq.dataverse.datavariable.DataVariable;
-import edu.harvard.iq.dataverse.util.FileUtil;
 import opennlp.tools.util.StringUtil;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -54,13 +52,12 @@ import java.nio.channels.Channel;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Random;
 import java.util.function.Predicate;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -93,6 +90,8 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
 
     private static HashMap<String, AmazonS3> driverClientMap = new HashMap<String,AmazonS3>();
     private static HashMap<String, TransferManager> driverTMMap = new HashMap<String,TransferManager>();
+    private static HashMap<String, S3StreamUploader> driverUploaderMap = new HashMap<String,S3StreamUploader>();
+    private static HashMap<String, S3RangedReader> driverReaderMap = new HashMap<String,S3RangedReader>();
 
     public S3AccessIO(T dvObject, DataAccessRequest req, String driverId) {
         super(dvObject, req, driverId);
@@ -103,6 +102,8 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
             minPartSize = getMinPartSize(driverId);
             s3=getClient(driverId);
             tm=getTransferManager(driverId);
+            uploader=getStreamUploader(driverId);
+            reader=getRangedReader(driverId);
             endpoint = System.getProperty("dataverse.files." + driverId + ".custom-endpoint-url", "");
             proxy = System.getProperty("dataverse.files." + driverId + ".proxy-url", "");
             if(!StringUtil.isEmpty(proxy)&&StringUtil.isEmpty(endpoint)) {
@@ -138,10 +139,14 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         bucketName = getBucketName(driverId);
         this.setIsLocalFile(false);
         this.s3 = s3client;
+        this.uploader = S3StreamUploader.forDriver(driverId, s3client);
+        this.reader = S3RangedReader.forDriver(driverId, s3client);
     }
     
     private AmazonS3 s3 = null;
     private TransferManager tm = null;
+    private S3StreamUploader uploader = null;
+    private S3RangedReader reader = null;
     private String bucketName = null;
     private String key = null;
     private long minPartSize;
@@ -284,9 +289,21 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         }
     }
 
+    /**
+     * Large objects (over download-chunk-size bytes) are read in ranges, over 
+     * download-concurrency connections at the same time (see S3RangedReader). 
+     * Skipping bytes of the stream, e.g. for a Range request in setRange(), 
+     * only fetches the bytes after those. 
+     */
     @Override
     public InputStream getInputStream() throws IOException {
         if(super.getInputStream()==null) {
+            if (reader != null && reader.isParallel(getSize())) {
+                S3RangedReader.RangedChannel rangedChannel = reader.open(bucketName, key, 0, getSize());
+                setInputStream(rangedChannel.asInputStream());
+                setChannel(rangedChannel);
+                return super.getInputStream();
+            }
             try {
                 setInputStream(s3.getObject(new GetObjectRequest(bucketName, key)).getObjectContent());
             } catch (SdkClientException sce) {
@@ -298,11 +315,24 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
             throw new IOException("Cannot get InputStream for S3 Object" + key);
         }
 
-        setChannel(Channels.newChannel(super.getInputStream()));
+        if (!(super.getChannel() instanceof S3RangedReader.RangedChannel)) {
+            setChannel(Channels.newChannel(super.getInputStream()));
+        }
 
         return super.getInputStream();
     }
     
+    /**
+     * Only fetches the bytes of the range, if the object is read in ranges.
+     */
+    @Override
+    public void setRange(long offset, long length) throws IOException {
+        setOffset(offset);
+        if (super.getChannel() instanceof S3RangedReader.RangedChannel) {
+            ((S3RangedReader.RangedChannel) super.getChannel()).limit(offset + length);
+        }
+    }
+
     @Override
     public Channel getChannel() throws IOException {
         if(super.getChannel()==null) {
@@ -353,18 +383,10 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
 
     /**
      * Implements the StorageIO saveInputStream() method. 
-     * This implementation is somewhat problematic, because S3 cannot save an object of 
-     * an unknown length. This effectively nullifies any benefits of streaming; 
-     * as we cannot start saving until we have read the entire stream. 
-     * One way of solving this would be to buffer the entire stream as byte[], 
-     * in memory, then save it... Which of course would be limited by the amount 
-     * of memory available, and thus would not work for streams larger than that. 
-     * So we have eventually decided to save save the stream to a temp file, then 
-     * save to S3. This is slower, but guaranteed to work on any size stream. 
-     * An alternative we may want to consider is to not implement this method 
-     * in the S3 driver, and make it throw the UnsupportedDataAccessOperationException, 
-     * similarly to how we handle attempts to open OutputStreams, in this and the 
-     * Swift driver. 
+     * S3 cannot save an object of an unknown length in a single request, so 
+     * when the filesize is not known the stream is uploaded as it is read, 
+     * in parts (see S3StreamUploader and the upload-part-size, upload-buffers 
+     * and upload-concurrency options of the store). 
      * 
      * @param inputStream InputStream we want to save
      * @param filesize Long representing the filesize
@@ -400,26 +422,10 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         if (!this.canWrite()) {
             open(DataAccessOption.WRITE_ACCESS);
         }
-        String directoryString = FileUtil.getFilesTempDirectory();
-
-        Random rand = new Random();
-        Path tempPath = Paths.get(directoryString, Integer.toString(rand.nextInt(Integer.MAX_VALUE)));
-        File tempFile = createTempFile(tempPath, inputStream);
-        
         try {
-            s3.putObject(bucketName, key, tempFile);
-        } catch (SdkClientException ioex) {
-            String failureMsg = ioex.getMessage();
-            if (failureMsg == null) {
-                failureMsg = "S3AccessIO: Unknown exception occured while uploading a local file into S3 Storage.";
-            }
-            tempFile.delete();
-            throw new IOException(failureMsg);
-        }
-        tempFile.delete();
-        ObjectMetadata objectMetadata = s3.getObjectMetadata(bucketName, key);
-        if (objectMetadata != null) {
-            setSize(objectMetadata.getContentLength());
+            setSize(uploader.upload(bucketName, key, inputStream));
+        } finally {
+            IOUtils.closeQuietly(inputStream);
         }
     }
     
@@ -523,12 +529,13 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
             open(DataAccessOption.WRITE_ACCESS);
         }
         String destinationKey = getDestinationKey(auxItemTag);
-        try {
-            File inputFile = fileSystemPath.toFile();
-            s3.putObject(new PutObjectRequest(bucketName, destinationKey, inputFile));            
-        } catch (AmazonClientException ase) {
-            logger.warning("Caught an AmazonClientException in S3AccessIO.savePathAsAux():    " + ase.getMessage());
-            throw new IOException("S3AccessIO: Failed to save path as an auxiliary object.");
+        // (the files generated by ingest and exports can be large: they are
+        // streamed in parts, rather than sent in a single PUT)
+        try (InputStream in = Files.newInputStream(fileSystemPath)) {
+            uploader.upload(bucketName, destinationKey, in);
+        } catch (IOException ioex) {
+            logger.warning("Caught an IOException in S3AccessIO.savePathAsAux():    " + ioex.getMessage());
+            throw new IOException("S3AccessIO: Failed to save path as an auxiliary object.", ioex);
         }
     }
 
@@ -558,18 +565,8 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
     
     /**
      * Implements the StorageIO saveInputStreamAsAux() method. 
-     * This implementation is problematic, because S3 cannot save an object of 
-     * an unknown length. This effectively nullifies any benefits of streaming; 
-     * as we cannot start saving until we have read the entire stream. 
-     * One way of solving this would be to buffer the entire stream as byte[], 
-     * in memory, then save it... Which of course would be limited by the amount 
-     * of memory available, and thus would not work for streams larger than that. 
-     * So we have eventually decided to save save the stream to a temp file, then 
-     * save to S3. This is slower, but guaranteed to work on any size stream. 
-     * An alternative we may want to consider is to not implement this method 
-     * in the S3 driver, and make it throw the UnsupportedDataAccessOperationException, 
-     * similarly to how we handle attempts to open OutputStreams, in this and the 
-     * Swift driver. 
+     * As in saveInputStream(), a stream of an unknown length is uploaded as 
+     * it is read, in parts. 
      * 
      * @param inputStream InputStream we want to save
      * @param auxItemTag String representing this Auxiliary type ("extension")
@@ -580,48 +577,13 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
         if (!this.canWrite()) {
             open(DataAccessOption.WRITE_ACCESS);
         }
-
-        String directoryString = FileUtil.getFilesTempDirectory();
-
-        Random rand = new Random();
-        String pathNum = Integer.toString(rand.nextInt(Integer.MAX_VALUE));
-        Path tempPath = Paths.get(directoryString, pathNum);
-        File tempFile = createTempFile(tempPath, inputStream);
-        
         String destinationKey = getDestinationKey(auxItemTag);
-        
         try {
-            s3.putObject(bucketName, destinationKey, tempFile);
-        } catch (SdkClientException ioex) {
-            String failureMsg = ioex.getMessage();
-
-            if (failureMsg == null) {
-                failureMsg = "S3AccessIO: SdkClientException occured while saving a local InputStream as S3Object";
-            }
-            tempFile.delete();
-            throw new IOException(failureMsg);
-        }
-        tempFile.delete();
-    }
-    
-    //Helper method for supporting saving streams with unknown length to S3
-    //We save those streams to a file and then upload the file
-    private File createTempFile(Path path, InputStream inputStream) throws IOException {
-
-        File targetFile = new File(path.toUri()); // File needs a name
-        try (OutputStream outStream = new FileOutputStream(targetFile);) {
-
-            byte[] buffer = new byte[8 * 1024];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outStream.write(buffer, 0, bytesRead);
-            }
-
+            uploader.upload(bucketName, destinationKey, inputStream);
         } finally {
             IOUtils.closeQuietly(inputStream);
         }
-        return targetFile;
-    } 
+    }
     
     @Override
     public List<String> listAuxObjects() throws IOException {
@@ -1130,6 +1092,28 @@ public class S3AccessIO<T extends DvObject> extends StorageIO<T> {
     }
 
 
+    private static S3StreamUploader getStreamUploader(String driverId) {
+        if(driverUploaderMap.containsKey(driverId)) {
+            return driverUploaderMap.get(driverId);
+        } else {
+            // streams of unknown length are uploaded in parts, from a pool of buffers shared by the uploads to the store
+            S3StreamUploader streamUploader = S3StreamUploader.forDriver(driverId, getClient(driverId));
+            driverUploaderMap.put(driverId, streamUploader);
+            return streamUploader;
+        }
+    }
+
+    private static S3RangedReader getRangedReader(String driverId) {
+        if(driverReaderMap.containsKey(driverId)) {
+            return driverReaderMap.get(driverId);
+        } else {
+            // large objects are read in ranges, by a pool of threads shared by the downloads from the store
+            S3RangedReader rangedReader = S3RangedReader.forDriver(driverId, getClient(driverId));
+            driverReaderMap.put(driverId, rangedReader);
+            return rangedReader;
+        }
+    }
+
     private static AmazonS3 getClient(String driverId) {
         if(driverClientMap.containsKey(driverId)) {
             return driverClientMap.get(driverId);
@@ -0,0 +1,451 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Reads large S3 objects over several connections. The object is fetched in
+ * chunks, with ranged GETs sent at the same time, and handed out in order by
+ * a {@link RangedChannel} (or its InputStream): the chunks that arrive early
+ * wait in the window of chunks being fetched until their turn. The window
+ * starts with a single chunk and doubles with each chunk read, up to the
+ * concurrency, so that reading the first bytes (or a short range) of an
+ * object doesn't fetch much more than that.
+ * <p>
+ * Skipping bytes moves the position of the next chunks, so that a range
+ * (e.g. of a partial download, see StorageIO.setRange()) is read without
+ * fetching what comes before it; {@link RangedChannel#limit(long)} keeps it
+ * from fetching what comes after.
+ * <p>
+ * The chunks held in memory, fetched or being fetched, are bounded for all
+ * the objects of a store together: each takes one of a number of buffers,
+ * until it is read or dropped and its fetch (even if cancelled) is over. A
+ * channel that can't get a buffer for its next chunk reads the rest of its
+ * range over a single connection, as a plain GET would.
+ */
+class S3RangedReader {
+
+    private static final Logger logger = Logger.getLogger(S3RangedReader.class.getCanonicalName());
+
+    static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    static final int DEFAULT_CONCURRENCY = 4;
+    static final int DEFAULT_THREADS = 32;
+    static final int DEFAULT_BUFFERS = 16;
+    // Retries of a chunk that failed, e.g. when its connection was reset:
+    static final int RETRIES = 1;
+
+    private final AmazonS3 s3;
+    private final ExecutorService executor;
+    private final int chunkSize;
+    private final int concurrency;
+    private final Semaphore buffers;
+
+    S3RangedReader(AmazonS3 s3, int chunkSize, int concurrency, int threads) {
+        this(s3, chunkSize, concurrency, threads, DEFAULT_BUFFERS);
+    }
+
+    /**
+     * @param s3 the client of the store.
+     * @param chunkSize the size of the ranges read.
+     * @param concurrency the number of ranges of an object read at the same
+     * time.
+     * @param threads the number of ranges read at the same time, all objects
+     * together.
+     * @param buffers the number of chunks held in memory, all objects
+     * together.
+     */
+    S3RangedReader(AmazonS3 s3, int chunkSize, int concurrency, int threads, int buffers) {
+        this.s3 = s3;
+        this.chunkSize = chunkSize;
+        this.concurrency = Math.max(1, concurrency);
+        this.buffers = new Semaphore(Math.max(1, buffers));
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "s3-download-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        threadPool.allowCoreThreadTimeOut(true);
+        this.executor = threadPool;
+    }
+
+    /**
+     * Builds a reader from the dataverse.files.&lt;id&gt;.download-chunk-size,
+     * download-concurrency, download-threads and download-buffers options of
+     * a store.
+     */
+    static S3RangedReader forDriver(String driverId, AmazonS3 s3) {
+        String prefix = "dataverse.files." + driverId + ".";
+        int chunkSize = Integer.getInteger(prefix + "download-chunk-size", DEFAULT_CHUNK_SIZE);
+        if (chunkSize < 64 * 1024) {
+            logger.warning(prefix + "download-chunk-size must be at least 65536, using " + DEFAULT_CHUNK_SIZE);
+            chunkSize = DEFAULT_CHUNK_SIZE;
+        }
+        int concurrency = Integer.getInteger(prefix + "download-concurrency", DEFAULT_CONCURRENCY);
+        int threads = Math.max(1, Integer.getInteger(prefix + "download-threads", DEFAULT_THREADS));
+        int buffers = Math.max(1, Integer.getInteger(prefix + "download-buffers", DEFAULT_BUFFERS));
+        return new S3RangedReader(s3, chunkSize, concurrency, threads, buffers);
+    }
+
+    int getAvailableBuffers() {
+        return buffers.availablePermits();
+    }
+
+    /**
+     * @return whether an object of this size is worth reading in ranges.
+     */
+    boolean isParallel(long size) {
+        return concurrency > 1 && size > chunkSize;
+    }
+
+    /**
+     * Opens the bytes of an object from start (inclusive) to end (exclusive).
+     * Nothing is fetched until the channel is read.
+     */
+    RangedChannel open(String bucketName, String key, long start, long end) {
+        return new RangedChannel(bucketName, key, start, end);
+    }
+
+    /*
+     * Reads a range of an object, retrying once.
+     */
+    private byte[] fetch(String bucketName, String key, long from, int length) throws IOException {
+        for (int attempt = 0;; attempt++) {
+            GetObjectRequest request = new GetObjectRequest(bucketName, key).withRange(from, from + length - 1);
+            try (S3Object object = s3.getObject(request); InputStream in = object.getObjectContent()) {
+                byte[] chunk = new byte[length];
+                int read = 0;
+                while (read < length) {
+                    int n = in.read(chunk, read, length - read);
+                    if (n == -1) {
+                        throw new IOException("S3 object " + key + " ended at " + (from + read) + ", expected " + (from + length));
+                    }
+                    read += n;
+                }
+                return chunk;
+            } catch (SdkClientException | IOException ex) {
+                if (attempt >= RETRIES || Thread.currentThread().isInterrupted()) {
+                    throw (ex instanceof IOException) ? (IOException) ex
+                            : new IOException("Cannot get S3 object " + key + " (" + ex.getMessage() + ")", ex);
+                }
+                logger.fine("Retrying bytes " + from + "-" + (from + length - 1) + " of " + key + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The bytes of an object, in order. Not to be read by several threads at
+     * the same time.
+     */
+    class RangedChannel implements ReadableByteChannel {
+
+        private final String bucketName;
+        private final String key;
+        private long end;
+        // The chunks being fetched, in the order of the object, each with a
+        // buffer of the reader (as is the current one):
+        private final Deque<Chunk> window = new ArrayDeque<>();
+        private long position;
+        private long nextFetch;
+        private int chunksRead = 0;
+        private Chunk currentChunk = null;
+        private ByteBuffer current = null;
+        // The rest of the range over a single connection, once the buffers ran
+        // out:
+        private S3Object single = null;
+        private ReadableByteChannel singleChannel = null;
+        private boolean open = true;
+
+        private RangedChannel(String bucketName, String key, long start, long end) {
+            this.bucketName = bucketName;
+            this.key = key;
+            this.end = end;
+            this.position = start;
+            this.nextFetch = start;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (position >= end) {
+                return -1;
+            }
+            if (singleChannel != null) {
+                return readSingle(dst);
+            }
+            if (current == null || !current.hasRemaining()) {
+                current = nextChunk();
+                if (current == null) {
+                    logger.fine("No buffer left to read " + key + " in ranges, reading bytes " + position + "-" + (end - 1) + " at once");
+                    openSingle();
+                    return readSingle(dst);
+                }
+            }
+            int n = Math.min(dst.remaining(), current.remaining());
+            ByteBuffer slice = current.duplicate();
+            slice.limit(slice.position() + n);
+            dst.put(slice);
+            current.position(current.position() + n);
+            position += n;
+            return n;
+        }
+
+        /**
+         * Moves forward, without fetching what's skipped.
+         *
+         * @return the number of bytes skipped.
+         */
+        long skip(long n) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (n <= 0) {
+                return 0;
+            }
+            long target = position + Math.min(n, end - position);
+            long skipped = target - position;
+            if (current != null && skipped <= current.remaining()) {
+                current.position(current.position() + (int) skipped);
+            } else {
+                cancelFetches();
+                releaseCurrent();
+                closeSingle();
+                nextFetch = target;
+            }
+            position = target;
+            return skipped;
+        }
+
+        /**
+         * Reads no further than a position, e.g. the end of the range of a
+         * partial download, so that nothing after it is fetched. To be called
+         * before the channel is read.
+         */
+        void limit(long newEnd) {
+            if (!window.isEmpty() || current != null || singleChannel != null) {
+                throw new IllegalStateException("The range of " + key + " can only be limited before it is read");
+            }
+            end = Math.max(position, Math.min(end, newEnd));
+        }
+
+        long remaining() {
+            return end - position;
+        }
+
+        /*
+         * Returns null if there's no buffer for the next chunk.
+         */
+        private ByteBuffer nextChunk() throws IOException {
+            releaseCurrent();
+            fillWindow();
+            Chunk chunk = window.poll();
+            if (chunk == null) {
+                return null;
+            }
+            chunksRead++;
+            // so that the next chunks are on their way while this one is read:
+            fillWindow();
+            try {
+                ByteBuffer bytes = ByteBuffer.wrap(await(chunk.future));
+                currentChunk = chunk;
+                return bytes;
+            } catch (IOException ex) {
+                chunk.drop();
+                throw ex;
+            }
+        }
+
+        private void fillWindow() {
+            int size = (int) Math.min(concurrency, 1L << Math.min(chunksRead, 30));
+            while (window.size() < size && nextFetch < end && buffers.tryAcquire()) {
+                long from = nextFetch;
+                int length = (int) Math.min(chunkSize, end - from);
+                window.add(new Chunk(bucketName, key, from, length));
+                nextFetch += length;
+            }
+        }
+
+        private byte[] await(Future<byte[]> chunk) throws IOException {
+            try {
+                return chunk.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading S3 object " + key);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Cannot get S3 object " + key + " (" + cause.getMessage() + ")", cause);
+            }
+        }
+
+        private void cancelFetches() {
+            for (Chunk chunk : window) {
+                chunk.drop();
+            }
+            window.clear();
+        }
+
+        private void releaseCurrent() {
+            if (currentChunk != null) {
+                currentChunk.drop();
+                currentChunk = null;
+            }
+            current = null;
+        }
+
+        private void openSingle() throws IOException {
+            GetObjectRequest request = new GetObjectRequest(bucketName, key).withRange(position, end - 1);
+            try {
+                single = s3.getObject(request);
+            } catch (SdkClientException ex) {
+                throw new IOException("Cannot get S3 object " + key + " (" + ex.getMessage() + ")", ex);
+            }
+            singleChannel = Channels.newChannel(single.getObjectContent());
+        }
+
+        private int readSingle(ByteBuffer dst) throws IOException {
+            int n = singleChannel.read(dst);
+            if (n == -1) {
+                throw new IOException("S3 object " + key + " ended at " + position + ", expected " + end);
+            }
+            position += n;
+            return n;
+        }
+
+        private void closeSingle() {
+            if (single != null) {
+                try {
+                    single.close();
+                } catch (IOException ex) {
+                    logger.fine("Could not close S3 object " + key + ": " + ex.getMessage());
+                }
+                single = null;
+                singleChannel = null;
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            if (open) {
+                open = false;
+                cancelFetches();
+                releaseCurrent();
+                closeSingle();
+            }
+        }
+
+        /**
+         * @return the channel as an InputStream, with a skip() that doesn't
+         * fetch what's skipped.
+         */
+        InputStream asInputStream() {
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return (read(b, 0, 1) == -1) ? -1 : b[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    return RangedChannel.this.read(ByteBuffer.wrap(b, off, len));
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    return RangedChannel.this.skip(n);
+                }
+
+                @Override
+                public int available() {
+                    return (current != null) ? current.remaining() : 0;
+                }
+
+                @Override
+                public void close() {
+                    RangedChannel.this.close();
+                }
+            };
+        }
+    }
+
+    /**
+     * A chunk being fetched, with its buffer. The buffer is given back once
+     * the chunk is read or dropped, and its fetch is over: a cancelled fetch
+     * may still be reading the bytes of its range until its connection gives
+     * up, and holds them until then.
+     */
+    private final class Chunk {
+
+        private final Future<byte[]> future;
+        private final AtomicBoolean started = new AtomicBoolean();
+        // The reader of the chunk and its fetch:
+        private final AtomicInteger holders = new AtomicInteger(2);
+
+        private Chunk(String bucketName, String key, long from, int length) {
+            future = executor.submit(() -> {
+                if (!started.compareAndSet(false, true)) {
+                    // dropped before it was fetched
+                    return null;
+                }
+                try {
+                    return fetch(bucketName, key, from, length);
+                } finally {
+                    release();
+                }
+            });
+        }
+
+        /**
+         * Gives up the chunk, once read or no longer needed.
+         */
+        void drop() {
+            future.cancel(true);
+            if (started.compareAndSet(false, true)) {
+                // (it won't be fetched)
+                release();
+            }
+            release();
+        }
+
+        private void release() {
+            if (holders.decrementAndGet() == 0) {
+                buffers.release();
+            }
+        }
+    }
+
+}
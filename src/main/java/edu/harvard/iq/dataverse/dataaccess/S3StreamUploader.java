@@ -0,0 +1,319 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Uploads streams of unknown length to S3 as they are read, without saving
+ * them in a temp file first. The stream is cut into parts of a fixed size,
+ * each read into a buffer from a bounded pool shared by all the uploads of a
+ * store, and up to a number of parts of an upload are sent at the same time
+ * while the next one is read. A stream that fits in a single part is saved
+ * with a plain PUT; anything longer becomes a multipart upload, which is
+ * aborted if reading the stream or sending a part fails.
+ * <p>
+ * The memory used is at most the part size times the number of buffers in
+ * the pool: an upload waits for a buffer when they are all in use.
+ */
+class S3StreamUploader {
+
+    private static final Logger logger = Logger.getLogger(S3StreamUploader.class.getCanonicalName());
+
+    // The limits of S3 multipart uploads:
+    static final long MIN_PART_SIZE = 5 * 1024 * 1024L;
+    static final long MAX_PART_SIZE = 2047 * 1024 * 1024L;
+    static final int MAX_PARTS = 10000;
+
+    static final long DEFAULT_PART_SIZE = 8 * 1024 * 1024L;
+    static final int DEFAULT_CONCURRENCY = 4;
+    static final int DEFAULT_BUFFERS = 16;
+
+    private final AmazonS3 s3;
+    private final PartBufferPool pool;
+    private final ExecutorService executor;
+    private final int concurrency;
+
+    /**
+     * @param s3 the client of the store.
+     * @param partSize the size of the parts, and of the pooled buffers.
+     * @param buffers the number of buffers in the pool.
+     * @param concurrency the number of parts of an upload that are sent at
+     * the same time.
+     */
+    S3StreamUploader(AmazonS3 s3, long partSize, int buffers, int concurrency) {
+        this.s3 = s3;
+        this.pool = new PartBufferPool((int) partSize, buffers);
+        this.concurrency = Math.max(1, Math.min(concurrency, buffers));
+        // A thread per buffer, as there can't be more parts in flight than that:
+        AtomicInteger threads = new AtomicInteger();
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(buffers, buffers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "s3-upload-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        threadPool.allowCoreThreadTimeOut(true);
+        this.executor = threadPool;
+    }
+
+    /**
+     * Builds an uploader from the dataverse.files.&lt;id&gt;.upload-part-size,
+     * upload-buffers and upload-concurrency options of a store.
+     */
+    static S3StreamUploader forDriver(String driverId, AmazonS3 s3) {
+        String prefix = "dataverse.files." + driverId + ".";
+        long partSize = Long.getLong(prefix + "upload-part-size", DEFAULT_PART_SIZE);
+        if (partSize < MIN_PART_SIZE || partSize > MAX_PART_SIZE) {
+            logger.warning(prefix + "upload-part-size must be between " + MIN_PART_SIZE + " and " + MAX_PART_SIZE + ", using " + DEFAULT_PART_SIZE);
+            partSize = DEFAULT_PART_SIZE;
+        }
+        int buffers = Math.max(1, Integer.getInteger(prefix + "upload-buffers", DEFAULT_BUFFERS));
+        int concurrency = Integer.getInteger(prefix + "upload-concurrency", DEFAULT_CONCURRENCY);
+        return new S3StreamUploader(s3, partSize, buffers, concurrency);
+    }
+
+    long getPartSize() {
+        return pool.partSize;
+    }
+
+    int getAvailableBuffers() {
+        return pool.available();
+    }
+
+    /**
+     * Saves the stream (read to its end, but not closed) as an object.
+     *
+     * @return the size of the object.
+     * @throws IOException if the stream can't be read, or the object can't be
+     * saved; nothing is left in the store then.
+     */
+    long upload(String bucketName, String key, InputStream inputStream) throws IOException {
+        byte[] buffer = pool.acquire();
+        int length;
+        try {
+            length = fill(inputStream, buffer);
+            if (length < buffer.length) {
+                putObject(bucketName, key, buffer, length);
+                return length;
+            }
+        } catch (IOException | RuntimeException ex) {
+            pool.release(buffer);
+            throw ex;
+        }
+        // The buffer is released once its part is sent:
+        return uploadParts(bucketName, key, inputStream, buffer);
+    }
+
+    private void putObject(String bucketName, String key, byte[] buffer, int length) throws IOException {
+        try {
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(length);
+            s3.putObject(new PutObjectRequest(bucketName, key, new ByteArrayInputStream(buffer, 0, length), metadata));
+        } catch (SdkClientException ex) {
+            throw new IOException("Failed to save " + key + ": " + ex.getMessage(), ex);
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    private long uploadParts(String bucketName, String key, InputStream inputStream, byte[] first) throws IOException {
+        String uploadId;
+        try {
+            uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key)).getUploadId();
+        } catch (SdkClientException ex) {
+            pool.release(first);
+            throw new IOException("Failed to start the upload of " + key + ": " + ex.getMessage(), ex);
+        }
+        AtomicBoolean failed = new AtomicBoolean();
+        Deque<Future<PartETag>> inFlight = new ArrayDeque<>();
+        List<PartETag> etags = new ArrayList<>();
+        long size = 0;
+        try {
+            byte[] buffer = first;
+            int length = buffer.length;
+            int partNumber = 1;
+            while (true) {
+                inFlight.add(executor.submit(new Part(bucketName, key, uploadId, partNumber, buffer, length, failed)));
+                size += length;
+                if (length < pool.partSize) {
+                    break;
+                }
+                while (inFlight.size() >= concurrency) {
+                    etags.add(await(inFlight.poll()));
+                }
+                buffer = pool.acquire();
+                try {
+                    length = fill(inputStream, buffer);
+                } catch (IOException | RuntimeException ex) {
+                    pool.release(buffer);
+                    throw ex;
+                }
+                if (length == 0) {
+                    pool.release(buffer);
+                    break;
+                }
+                if (++partNumber > MAX_PARTS) {
+                    pool.release(buffer);
+                    throw new IOException("Cannot save more than " + MAX_PARTS + " parts of " + pool.partSize + " bytes as " + key);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                etags.add(await(inFlight.poll()));
+            }
+            s3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, key, uploadId, etags));
+            return size;
+        } catch (IOException | RuntimeException ex) {
+            failed.set(true);
+            // Let the parts that are being sent finish (the others are
+            // skipped), so that their buffers go back to the pool:
+            for (Future<PartETag> part : inFlight) {
+                try {
+                    part.get();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException ee) {
+                    // already failing
+                }
+            }
+            try {
+                s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+            } catch (SdkClientException ae) {
+                logger.log(Level.WARNING, "Could not abort the upload " + uploadId + " of " + key, ae);
+            }
+            if (ex instanceof SdkClientException) {
+                throw new IOException("Failed to save " + key + ": " + ex.getMessage(), ex);
+            }
+            throw ex;
+        }
+    }
+
+    private static PartETag await(Future<PartETag> part) throws IOException {
+        try {
+            return part.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a part to be saved");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Reads until the buffer is full or the stream ends.
+     *
+     * @return the number of bytes read.
+     */
+    private static int fill(InputStream inputStream, byte[] buffer) throws IOException {
+        int length = 0;
+        while (length < buffer.length) {
+            int read = inputStream.read(buffer, length, buffer.length - length);
+            if (read == -1) {
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+
+    /*
+     * Sends a part, and gives its buffer back.
+     */
+    private class Part implements Callable<PartETag> {
+
+        private final UploadPartRequest request;
+        private final byte[] buffer;
+        private final AtomicBoolean failed;
+
+        Part(String bucketName, String key, String uploadId, int partNumber, byte[] buffer, int length, AtomicBoolean failed) {
+            this.request = new UploadPartRequest()
+                    .withBucketName(bucketName)
+                    .withKey(key)
+                    .withUploadId(uploadId)
+                    .withPartNumber(partNumber)
+                    .withInputStream(new ByteArrayInputStream(buffer, 0, length))
+                    .withPartSize(length);
+            this.buffer = buffer;
+            this.failed = failed;
+        }
+
+        @Override
+        public PartETag call() {
+            try {
+                if (failed.get()) {
+                    return null;
+                }
+                return s3.uploadPart(request).getPartETag();
+            } finally {
+                pool.release(buffer);
+            }
+        }
+    }
+
+    /*
+     * Buffers of a part each, made when needed, up to a number of them.
+     */
+    static class PartBufferPool {
+
+        final int partSize;
+        private final Semaphore permits;
+        private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<>();
+
+        PartBufferPool(int partSize, int buffers) {
+            this.partSize = partSize;
+            this.permits = new Semaphore(buffers, true);
+        }
+
+        byte[] acquire() throws InterruptedIOException {
+            try {
+                permits.acquire();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for an upload buffer");
+            }
+            byte[] buffer = free.poll();
+            return (buffer != null) ? buffer : new byte[partSize];
+        }
+
+        void release(byte[] buffer) {
+            free.add(buffer);
+            permits.release();
+        }
+
+        int available() {
+            return permits.availablePermits();
+        }
+    }
+
+}
@@ -418,6 +418,12 @@ public abstract class StorageIO<T extends DvObject> {
         }
     }
 
+    // As setOffset(), for a range of the given length: the storage may then
+    // avoid fetching what comes after it.
+    public void setRange(long offset, long length) throws IOException {
+        setOffset(offset);
+    }
+
     public void setInputStream(InputStream is) {
         in = is;
     }
@@ -529,7 +535,7 @@ public abstract class StorageIO<T extends DvObject> {
         }
     }
     
-    public String generateVariableHeader(List<DataVariable> dvs) {
+    public static String generateVariableHeader(List<DataVariable> dvs) {
         String varHeader = null;
 
         if (dvs != null) {
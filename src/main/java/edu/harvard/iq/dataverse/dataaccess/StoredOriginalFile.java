@@ -75,15 +75,7 @@ public class StoredOriginalFile {
             return null;
         }
 
-        if (originalMimeType != null && !originalMimeType.isEmpty()) {
-            if (originalMimeType.matches("application/x-dvn-.*-zip")) {
-                inputStreamIO.setMimeType("application/zip");
-            } else {
-                inputStreamIO.setMimeType(originalMimeType);
-            }
-        } else {
-            inputStreamIO.setMimeType("application/x-unknown");
-        }
+        inputStreamIO.setMimeType(getOriginalMimeType(originalMimeType));
 
         inputStreamIO.setFileName(dataFile.getOriginalFileName());
 
@@ -91,6 +83,20 @@ public class StoredOriginalFile {
 
     }
 
+    /**
+     * @return the mime type to serve a stored original file with, given its 
+     * original format, as saved in the DataTable.
+     */
+    public static String getOriginalMimeType(String originalFileFormat) {
+        if (originalFileFormat != null && !originalFileFormat.isEmpty()) {
+            if (originalFileFormat.matches("application/x-dvn-.*-zip")) {
+                return "application/zip";
+            }
+            return originalFileFormat;
+        }
+        return "application/x-unknown";
+    }
+
     /* 
             DataFile.getOriginalFileName() method replaces this code
     private static String generateOriginalExtension(String fileType) {
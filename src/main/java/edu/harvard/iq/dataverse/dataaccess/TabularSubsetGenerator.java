@@ -41,8 +41,12 @@ import java.math.BigDecimal;
 import java.math.MathContext;
 import java.math.RoundingMode;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -67,24 +71,23 @@ public class TabularSubsetGenerator implements SubsetGenerator {
     private static int COLUMN_TYPE_DOUBLE = 3; 
     private static int COLUMN_TYPE_FLOAT = 4; 
     
-    private static int MAX_COLUMN_BUFFER = 8192;
+    private static final byte TAB = '\t';
+    private static final byte NEWLINE = '\n';
     
+    private static int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    
+    /*
+     * The subsetting state of an instance created for a subset request: the
+     * requested columns are read straight out of the memory-mapped rotated
+     * image of the tab file (see generateRotatedImage()), each one through
+     * its own view of the mapping, positioned at the next entry to be read.
+     */
     private FileChannel fileChannel = null; 
+    private ByteBuffer[] columnBuffers;
     
-    private int varcount; 
     private int casecount; 
-    private int subsetcount;
-    
-    private byte[][] columnEntries = null; 
-
-    
-    private ByteBuffer[] columnByteBuffers;
-    private int[] columnBufferSizes;
-    private int[] columnBufferOffsets;
-    
-    private long[] columnStartOffsets; 
-    private long[] columnTotalOffsets;
-    private long[] columnTotalLengths;
+    private int casesRead = 0;
+    private int currentColumn = 0;
     
     public TabularSubsetGenerator() {
         
@@ -94,262 +97,175 @@ public class TabularSubsetGenerator implements SubsetGenerator {
         if (!datafile.isTabularData()) {
             throw new IOException("DataFile is not tabular data.");
         }
-         
-        setVarCount(datafile.getDataTable().getVarQuantity().intValue()); 
-        setCaseCount(datafile.getDataTable().getCaseQuantity().intValue()); 
         
-           
-        
-        StorageIO<DataFile> dataAccess = datafile.getStorageIO();
-        if (!dataAccess.isLocalFile()) {
-            throw new IOException("Subsetting is supported on local files only!");
+        if (variables == null || variables.size() < 1) {
+            throw new IOException("Illegal number of variables in the subset request");
         }
         
-        //File tabfile = datafile.getFileSystemLocation().toFile();
-        File tabfile = dataAccess.getFileSystemPath().toFile();
-        
-        File rotatedImageFile = getRotatedImage(tabfile, getVarCount(), getCaseCount());
-        long[] columnEndOffsets = extractColumnOffsets(rotatedImageFile, getVarCount(), getCaseCount()); 
+        List<Integer> columns = new ArrayList<>(); 
+        for (DataVariable var : variables) {
+            if (!datafile.getDataTable().getId().equals(var.getDataTable().getId())) {
+                throw new IOException("Variable in the subset request does not belong to the datafile.");
+            }
+            columns.add(var.getFileOrder());
+        }
         
-        fileChannel = (FileChannel.open(Paths.get(rotatedImageFile.getAbsolutePath()), StandardOpenOption.READ));
+        int varcount = datafile.getDataTable().getVarQuantity().intValue();
+        int casecount = datafile.getDataTable().getCaseQuantity().intValue();
         
-        if (variables == null || variables.size() < 1 || variables.size() > getVarCount()) {
+        mapColumns(RotatedImageCache.getRotatedImage(datafile), varcount, casecount, columns);
+    }
+    
+    /*
+     * Subsets a local tab file; the rotated image is created next to it, if 
+     * it doesn't exist yet.
+     */
+    TabularSubsetGenerator (File tabfile, int varcount, int casecount, List<Integer> columns) throws IOException {
+        mapColumns(getRotatedImage(tabfile, varcount, casecount), varcount, casecount, columns);
+    }
+    
+    private void mapColumns(File rotatedImageFile, int varcount, int casecount, List<Integer> columns) throws IOException {
+        if (columns == null || columns.size() < 1) {
             throw new IOException("Illegal number of variables in the subset request");
         }
         
-        subsetcount = variables.size();
-        columnTotalOffsets = new long[subsetcount];
-        columnTotalLengths = new long[subsetcount];
-        columnByteBuffers = new ByteBuffer[subsetcount];
-
-
+        this.casecount = casecount; 
+        long[] columnEndOffsets = extractColumnOffsets(rotatedImageFile, varcount, casecount);
         
-        if (subsetcount == 1) {
-            if (!datafile.getDataTable().getId().equals(variables.get(0).getDataTable().getId())) {
-                throw new IOException("Variable in the subset request does not belong to the datafile.");
+        fileChannel = FileChannel.open(rotatedImageFile.toPath(), StandardOpenOption.READ);
+        try {
+            // A single mapping of the whole image serves all the columns, 
+            // unless the image is too large to be addressed by one buffer; 
+            // then every column gets a mapping of its own. 
+            long imageSize = fileChannel.size();
+            MappedByteBuffer image = null; 
+            if (imageSize <= Integer.MAX_VALUE) {
+                image = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, imageSize);
             }
-            dbgLog.fine("single variable subset; setting fileChannel position to "+extractColumnOffset(columnEndOffsets, variables.get(0).getFileOrder()));
-            fileChannel.position(extractColumnOffset(columnEndOffsets, variables.get(0).getFileOrder()));
-            columnTotalLengths[0] = extractColumnLength(columnEndOffsets, variables.get(0).getFileOrder());
-            columnTotalOffsets[0] = 0;
-        } else {
-            columnEntries = new byte[subsetcount][];
 
-            columnBufferSizes = new int[subsetcount];
-            columnBufferOffsets = new int[subsetcount];
-            columnStartOffsets = new long[subsetcount];
-
-            int i = 0;
-            for (DataVariable var : variables) {
-                if (!datafile.getDataTable().getId().equals(var.getDataTable().getId())) {
-                    throw new IOException("Variable in the subset request does not belong to the datafile.");
+            columnBuffers = new ByteBuffer[columns.size()];
+            for (int i = 0; i < columns.size(); i++) {
+                int column = columns.get(i);
+                if (column < 0 || column >= varcount) {
+                    throw new IOException("Column " + column + " is out of bounds in the subset request.");
                 }
-                columnByteBuffers[i] = ByteBuffer.allocate(MAX_COLUMN_BUFFER);
-                columnTotalLengths[i] = extractColumnLength(columnEndOffsets, var.getFileOrder());
-                columnStartOffsets[i] = extractColumnOffset(columnEndOffsets, var.getFileOrder());
-                if (columnTotalLengths[i] < MAX_COLUMN_BUFFER) {
-                    columnByteBuffers[i].limit((int)columnTotalLengths[i]);
+                long columnOffset = column > 0 ? columnEndOffsets[column - 1] : varcount * 8L;
+                long columnLength = columnEndOffsets[column] - columnOffset;
+
+                if (image != null) {
+                    ByteBuffer columnBuffer = image.duplicate();
+                    columnBuffer.position((int) columnOffset);
+                    columnBuffer.limit((int) (columnOffset + columnLength));
+                    columnBuffers[i] = columnBuffer.slice();
+                } else if (columnLength <= Integer.MAX_VALUE) {
+                    columnBuffers[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, columnOffset, columnLength);
+                } else {
+                    throw new IOException("Column " + column + " is too large to be subset (" + columnLength + " bytes).");
                 }
-                fileChannel.position(columnStartOffsets[i]);
-                columnBufferSizes[i] = fileChannel.read(columnByteBuffers[i]);
-                columnBufferOffsets[i] = 0;
-                columnTotalOffsets[i] = columnBufferSizes[i];
-                i++;
             }
+        } catch (IOException ioe) {
+            close();
+            throw ioe; 
         }
     }
     
-    private int getVarCount() {
-        return varcount;
-    }
-    
-    private void setVarCount(int varcount) {
-        this.varcount = varcount; 
-    }
-    
-    private int getCaseCount() {
-        return casecount;
-    }
-    
-    private void setCaseCount(int casecount) {
-        this.casecount = casecount; 
-    }
-    
-    
-    /* 
-     * Note that this method operates on the *absolute* column number, i.e.
-     * the number of the physical column in the tabular file. This is stored
-     * in DataVariable.FileOrder. 
-     * This "column number" should not be confused with the number of column 
-     * in the subset request; a user can request any number of variable 
-     * columns, in an order that doesn't have to follow the physical order
-     * of the columns in the file. 
-    */
-    private long extractColumnOffset(long[] columnEndOffsets, int column) throws IOException {
-        if (columnEndOffsets == null || columnEndOffsets.length <= column) {
-            throw new IOException("Offsets table not initialized; or column out of bounds.");
-        }
-        long columnOffset;
-        
-        if (column > 0) {
-            columnOffset = columnEndOffsets[column - 1];
-        } else {
-            columnOffset = getVarCount() * 8; 
-        }
-        return columnOffset; 
-    }
-    
-    /* 
-     * See the comment for the method above. 
+    /**
+     * Copies the next bytes of the subset into dst: the requested columns, 
+     * tab-delimited, one line per case. 
+     * 
+     * @return the number of bytes copied, or -1 if the entire subset has
+     * already been read. 
      */
-    private long extractColumnLength(long[] columnEndOffsets, int column) throws IOException {
-        if (columnEndOffsets == null || columnEndOffsets.length <= column) {
-            throw new IOException("Offsets table not initialized; or column out of bounds.");
-        }
-        long columnLength; 
-        
-        if (column > 0) {
-            columnLength = columnEndOffsets[column] - columnEndOffsets[column - 1];
-        } else {
-            columnLength = columnEndOffsets[0] - varcount * 8;  
-        }
+    public int read(ByteBuffer dst) throws IOException {
+        int start = dst.position();
         
-        return columnLength; 
-    }
-      
-    
-    private void bufferMoreColumnBytes(int column) throws IOException {
-        if (columnTotalOffsets[column] >= columnTotalLengths[column]) {
-            throw new IOException("attempt to buffer bytes past the column boundary");
+        if (columnBuffers.length == 1) {
+            // The column vector is already laid out as it is supposed 
+            // to be served - one entry per line:
+            ByteBuffer column = columnBuffers[0];
+            if (!column.hasRemaining()) {
+                return -1;
+            }
+            ByteBuffer chunk = column.duplicate();
+            chunk.limit(chunk.position() + Math.min(chunk.remaining(), dst.remaining()));
+            dst.put(chunk);
+            column.position(chunk.position());
+            return dst.position() - start;
         }
-        fileChannel.position(columnStartOffsets[column] + columnTotalOffsets[column]);
         
-        columnByteBuffers[column].clear();
-        if (columnTotalLengths[column] < columnTotalOffsets[column] + MAX_COLUMN_BUFFER) {
-            dbgLog.fine("Limiting the buffer to "+(columnTotalLengths[column] - columnTotalOffsets[column])+" bytes");
-            columnByteBuffers[column].limit((int) (columnTotalLengths[column] - columnTotalOffsets[column]));
+        if (casesRead >= casecount) {
+            return -1;
         }
-        columnBufferSizes[column] = fileChannel.read(columnByteBuffers[column]);
-        dbgLog.fine("Read "+columnBufferSizes[column]+" bytes for subset column "+column);
-        columnBufferOffsets[column] = 0;
-        columnTotalOffsets[column] += columnBufferSizes[column];
-    }
-    
-    public byte[] readColumnEntryBytes(int column) {
-        return readColumnEntryBytes(column, true);
-    }
-    
-    
-    public byte[] readColumnEntryBytes(int column, boolean addTabs) {
-        byte[] leftover = null; 
-        byte[] ret = null; 
         
-        if (columnBufferOffsets[column] >= columnBufferSizes[column]) {
-            try {
-                bufferMoreColumnBytes(column);
-                if (columnBufferSizes[column] < 1) {
-                    return null;
-                }
-            } catch (IOException ioe) {
-                return null; 
+        while (dst.hasRemaining() && casesRead < casecount) {
+            ByteBuffer column = columnBuffers[currentColumn];
+            int entryEnd = findEntryEnd(column);
+            if (entryEnd < 0) {
+                throw new IOException("Rotated image has fewer entries than the stored number of cases in subset column " + currentColumn);
             }
-        }
-        
-        int byteindex = columnBufferOffsets[column];
-        try {
-            while (columnByteBuffers[column].array()[byteindex] != '\n') {
-                byteindex++;
-                if (byteindex == columnBufferSizes[column]) {
-                    // save the leftover: 
-                    if (leftover == null) {
-                        leftover = new byte[columnBufferSizes[column] - columnBufferOffsets[column]];
-                        System.arraycopy(columnByteBuffers[column].array(), columnBufferOffsets[column], leftover, 0, columnBufferSizes[column] - columnBufferOffsets[column]);
-                    } else {
-                        byte[] merged = new byte[leftover.length + columnBufferSizes[column]];
-                        
-                        System.arraycopy(leftover, 0, merged, 0, leftover.length);
-                        System.arraycopy(columnByteBuffers[column].array(), 0, merged, leftover.length, columnBufferSizes[column]);
-                        leftover = merged;
-                        merged = null; 
-                    }
-                    // read more bytes:
-                    bufferMoreColumnBytes(column);
-                    if (columnBufferSizes[column] < 1) {
-                        return null;
-                    }
-                    byteindex = 0;
-                }
+            
+            // (the entry may be copied over several calls, if it doesn't 
+            // fit in the remaining space of dst)
+            int length = Math.min(entryEnd - column.position(), dst.remaining());
+            if (length > 0) {
+                ByteBuffer entry = column.duplicate();
+                entry.limit(column.position() + length);
+                dst.put(entry);
+                column.position(entry.position());
             }
-
-            // presumably, we have found our '\n':
-            if (leftover == null) {
-                ret = new byte[byteindex - columnBufferOffsets[column] + 1];
-                System.arraycopy(columnByteBuffers[column].array(), columnBufferOffsets[column], ret, 0, byteindex - columnBufferOffsets[column] + 1);
-            } else {
-                ret = new byte[leftover.length + byteindex + 1];
-                System.arraycopy(leftover, 0, ret, 0, leftover.length);
-                System.arraycopy(columnByteBuffers[column].array(), 0, ret, leftover.length, byteindex + 1);
+            if (!dst.hasRemaining()) {
+                break;
+            }
+            
+            dst.put(currentColumn < columnBuffers.length - 1 ? TAB : NEWLINE);
+            column.position(entryEnd + 1);
+            if (++currentColumn == columnBuffers.length) {
+                currentColumn = 0; 
+                casesRead++; 
             }
-
-        } catch (IOException ioe) {
-            return null;
-        }
-
-        columnBufferOffsets[column] = (byteindex + 1);
-
-        if (column < columnBufferOffsets.length - 1) {
-            ret[ret.length - 1] = '\t';
         }
-        return ret;
+        
+        return dst.position() - start;
     }
     
-    public int readSingleColumnSubset(byte[] buffer) throws IOException {
-        if (columnTotalOffsets[0] == columnTotalLengths[0]) {
-            return -1;
+    /**
+     * Writes the rest of the subset to out, straight from the mapped column
+     * vectors.
+     */
+    public void writeSubset(WritableByteChannel out) throws IOException {
+        if (columnBuffers.length == 1) {
+            ByteBuffer column = columnBuffers[0];
+            while (column.hasRemaining()) {
+                out.write(column);
+            }
+            return;
         }
         
-        if (columnByteBuffers[0] == null) {
-            dbgLog.fine("allocating single column subset buffer.");
-            columnByteBuffers[0] = ByteBuffer.allocate(buffer.length);
-        }
-                
-        int bytesread = fileChannel.read(columnByteBuffers[0]);
-        dbgLog.fine("single column subset: read "+bytesread+" bytes.");
-        if (columnTotalOffsets[0] + bytesread > columnTotalLengths[0]) {
-            bytesread = (int)(columnTotalLengths[0] - columnTotalOffsets[0]);
+        ByteBuffer buffer = ByteBuffer.allocate(OUTPUT_BUFFER_SIZE);
+        while (read(buffer) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
         }
-        System.arraycopy(columnByteBuffers[0].array(), 0, buffer, 0, bytesread);
-
-        columnTotalOffsets[0] += bytesread;
-        columnByteBuffers[0].clear();
-        return bytesread > 0 ? bytesread : -1;
     }
     
-    
-    public byte[] readSubsetLineBytes() throws IOException {
-        byte[] ret = null; 
-        int total = 0; 
-        
-        for (int i = 0; i < subsetcount; i++) {
-            columnEntries[i] = readColumnEntryBytes(i);
-            if (columnEntries[i] == null) {
-                throw new IOException("Failed to read subset line entry");
+    /*
+     * Finds the newline that terminates the entry at the current position of
+     * a column buffer.
+     */
+    private static int findEntryEnd(ByteBuffer column) {
+        for (int i = column.position(); i < column.limit(); i++) {
+            if (column.get(i) == NEWLINE) {
+                return i;
             }
-            total += columnEntries[i].length;
         }
-        
-        ret = new byte[total];
-        int offset = 0;
-        for (int i = 0; i < subsetcount; i++) {
-            System.arraycopy(columnEntries[i], 0, ret, offset, columnEntries[i].length);
-            offset += columnEntries[i].length;
-        }
-        dbgLog.fine("line: "+new String(ret));
-        return ret;
-    } 
-    
+        return -1; 
+    }
     
     public void close() {
+        columnBuffers = null;
         if (fileChannel != null) {
             try {
                 fileChannel.close();
@@ -545,6 +461,116 @@ public class TabularSubsetGenerator implements SubsetGenerator {
 
     }
     
+    /*
+     * The primitive-typed counterparts of the 3 methods above; they parse the
+     * values in exactly the same way, but store them in primitive arrays, 
+     * with a bitmap of the missing values, instead of allocating a wrapper 
+     * object for every case. Use these on vectors that may be long (summary 
+     * statistics on ingest, etc.) 
+     */
+    public static DoubleColumnVector subsetDoubleColumn(InputStream in, int column, int numCases) {
+        DoubleColumnVector retVector = new DoubleColumnVector(numCases);
+        subsetColumnTokens(in, column, numCases, (caseIndex, token) -> {
+            if ("inf".equalsIgnoreCase(token) || "+inf".equalsIgnoreCase(token)) {
+                retVector.set(caseIndex, java.lang.Double.POSITIVE_INFINITY);
+            } else if ("-inf".equalsIgnoreCase(token)) {
+                retVector.set(caseIndex, java.lang.Double.NEGATIVE_INFINITY);
+            } else if (token.equals("")) {
+                // missing value:
+                retVector.setMissing(caseIndex);
+            } else {
+                try {
+                    retVector.set(caseIndex, java.lang.Double.parseDouble(token));
+                } catch (NumberFormatException ex) {
+                    retVector.setMissing(caseIndex); // missing value
+                }
+            }
+        });
+        return retVector;
+    }
+    
+    /*
+     * Float values are stored widened to doubles; use 
+     * DoubleColumnVector.toFloatArray() to get them back as Floats. 
+     */
+    public static DoubleColumnVector subsetFloatColumn(InputStream in, int column, int numCases) {
+        DoubleColumnVector retVector = new DoubleColumnVector(numCases);
+        subsetColumnTokens(in, column, numCases, (caseIndex, token) -> {
+            if ("inf".equalsIgnoreCase(token) || "+inf".equalsIgnoreCase(token)) {
+                retVector.set(caseIndex, java.lang.Float.POSITIVE_INFINITY);
+            } else if ("-inf".equalsIgnoreCase(token)) {
+                retVector.set(caseIndex, java.lang.Float.NEGATIVE_INFINITY);
+            } else if (token.equals("")) {
+                // missing value:
+                retVector.setMissing(caseIndex);
+            } else {
+                try {
+                    retVector.set(caseIndex, java.lang.Float.parseFloat(token));
+                } catch (NumberFormatException ex) {
+                    retVector.setMissing(caseIndex); // missing value
+                }
+            }
+        });
+        return retVector;
+    }
+    
+    public static LongColumnVector subsetLongColumn(InputStream in, int column, int numCases) {
+        LongColumnVector retVector = new LongColumnVector(numCases);
+        subsetColumnTokens(in, column, numCases, (caseIndex, token) -> {
+            try {
+                retVector.set(caseIndex, java.lang.Long.parseLong(token));
+            } catch (NumberFormatException ex) {
+                retVector.setMissing(caseIndex); // assume missing value
+            }
+        });
+        return retVector;
+    }
+    
+    private interface ColumnTokenConsumer {
+        void accept(int caseIndex, String token);
+    }
+    
+    /*
+     * Passes the tokens of one column of a tab file to the consumer, one case
+     * at a time. Only the requested token is extracted from each line, rather
+     * than splitting the line into all of its columns. 
+     */
+    private static void subsetColumnTokens(InputStream in, int column, int numCases, ColumnTokenConsumer consumer) {
+        try (Scanner scanner = new Scanner(in)) {
+            scanner.useDelimiter("\\n");
+
+            for (int caseIndex = 0; caseIndex < numCases; caseIndex++) {
+                if (scanner.hasNext()) {
+                    consumer.accept(caseIndex, extractColumnToken(scanner.next(), column));
+                } else {
+                    throw new RuntimeException("Tab file has fewer rows than the stored number of cases!");
+                }
+            }
+
+            int tailIndex = numCases;
+            while (scanner.hasNext()) {
+                String nextLine = scanner.next();
+                if (!"".equals(nextLine)) {
+                    throw new RuntimeException("Column "+column+": tab file has more nonempty rows than the stored number of cases ("+numCases+")! current index: "+tailIndex+", line: "+nextLine);
+                }
+                tailIndex++;
+            }
+        }
+    }
+    
+    private static String extractColumnToken(String line, int column) {
+        int start = 0;
+        for (int i = 0; i < column; i++) {
+            start = line.indexOf('\t', start) + 1;
+            if (start == 0) {
+                // (same as line.split("\t", -1)[column] would) 
+                throw new ArrayIndexOutOfBoundsException("Column " + column + " not found in line: " + line);
+            }
+        }
+        int end = line.indexOf('\t', start);
+        return end < 0 ? line.substring(start) : line.substring(start, end);
+    }
+
     /*
      * Same deal as with the method above - straightforward, but (potentially) slow. 
      * Not a resource hog though - will only try to store one vector in memory. 
@@ -1105,7 +1131,7 @@ public class TabularSubsetGenerator implements SubsetGenerator {
         
     }
     
-    private File generateRotatedImage (File tabfile, int varcount, int casecount) throws IOException {
+    File generateRotatedImage (File tabfile, int varcount, int casecount) throws IOException {
         // TODO: throw exceptions if bad file, zero varcount, etc. ...
         
         String fileName = tabfile.getAbsolutePath();
@@ -1220,7 +1246,7 @@ public class TabularSubsetGenerator implements SubsetGenerator {
         // rotated image file. 
         
         try (BufferedOutputStream finalOut = new BufferedOutputStream(
-                new FileOutputStream(new File(rotatedImageFileName)))) {
+                new FileOutputStream(new File(rotatedImageFileName + ".tmp")))) {
 
             // but first we should create the offset header and write it out into
             // the final file; because it should be at the head, doh!
@@ -1274,6 +1300,10 @@ public class TabularSubsetGenerator implements SubsetGenerator {
             }
         }
         
+        // (the image only appears under its final name once it is complete,
+        // since it may be generated while other requests are looking for it)
+        Files.move(Paths.get(rotatedImageFileName + ".tmp"), Paths.get(rotatedImageFileName), StandardCopyOption.ATOMIC_MOVE);
+        
         return new File(rotatedImageFileName);
 
     }
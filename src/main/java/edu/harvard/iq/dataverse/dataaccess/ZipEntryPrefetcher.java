@@ -0,0 +1,373 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the files of a zipped download ahead of the one being written out by
+ * the {@link DataFileZipper}: up to so many files are opened and read at once,
+ * each into a bounded buffer, so that a download from S3 (or any remote store)
+ * isn't limited to one GET request at a time.
+ *
+ * The files are fetched in the order they were listed, and are expected to be
+ * taken in the same order; the ones passed over (e.g. skipped because of the
+ * size limit of the zip) are dropped. No more files than there are threads are
+ * started and not yet taken, so that a slow client doesn't leave the small
+ * files of a dataset buffered one after the other: a download holds at most
+ * that many buffers, besides the file being written out.
+ */
+class ZipEntryPrefetcher {
+
+    private static final Logger logger = Logger.getLogger(ZipEntryPrefetcher.class.getCanonicalName());
+
+    static final int CHUNK_SIZE = 64 * 1024;
+    /** The most chunks read ahead per file; i.e. the buffer of a file is 1 MB. */
+    static final int MAX_BUFFERED_CHUNKS = 16;
+
+    private static final byte[] END = new byte[0];
+
+    /**
+     * Opens the storage of a file (its original, if requested) for reading.
+     */
+    interface Opener {
+        /**
+         * @return the opened storage, or {@code null} if the file has none.
+         */
+        StorageIO<DataFile> open(DataFile dataFile) throws IOException;
+    }
+
+    private final ExecutorService executor;
+    private final Deque<Entry> pending = new ArrayDeque<>();
+    /** One for each file started and not taken yet. */
+    private final Semaphore started;
+
+    ZipEntryPrefetcher(ThreadFactory threadFactory, int threads, List<DataFile> dataFiles, Opener opener) {
+        executor = Executors.newFixedThreadPool(threads, threadFactory);
+        started = new Semaphore(threads);
+        for (DataFile dataFile : dataFiles) {
+            Entry entry = new Entry(dataFile, started);
+            pending.add(entry);
+            executor.execute(() -> entry.fetch(opener));
+        }
+        // (the threads go away once all the files are fetched)
+        executor.shutdown();
+    }
+
+    /**
+     * @return the prefetched file, or {@code null} if it wasn't listed (or is
+     * already taken). The files listed before it, and not taken, are dropped.
+     */
+    synchronized Entry take(DataFile dataFile) {
+        if (pending.stream().noneMatch(entry -> entry.isFor(dataFile))) {
+            return null;
+        }
+        for (Entry entry = pending.poll(); entry != null; entry = pending.poll()) {
+            if (entry.isFor(dataFile)) {
+                entry.release();
+                return entry;
+            }
+            entry.cancel();
+        }
+        return null;
+    }
+
+    /**
+     * Drops all the files not taken yet.
+     */
+    synchronized void shutdown() {
+        for (Entry entry : pending) {
+            entry.cancel();
+        }
+        pending.clear();
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the size of the content read ahead and not yet written out.
+     */
+    synchronized long getBufferedBytes() {
+        long buffered = 0;
+        for (Entry entry : pending) {
+            buffered += entry.getBufferedBytes();
+        }
+        return buffered;
+    }
+
+    /**
+     * A file being fetched: its storage, once opened, and its content as it is
+     * read.
+     */
+    static final class Entry {
+        private final DataFile dataFile;
+        private final Semaphore started;
+        private final CountDownLatch opened = new CountDownLatch(1);
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(MAX_BUFFERED_CHUNKS);
+        private volatile StorageIO<DataFile> storageIO;
+        private volatile boolean readable = false;
+        private volatile IOException openFailure;
+        private volatile IOException readFailure;
+        private volatile boolean complete = false;
+        private volatile boolean done = false;
+        private volatile boolean cancelled = false;
+        private volatile long size;
+        private volatile long crc;
+        private volatile boolean released = false;
+        private boolean holdsPermit = false;
+
+        Entry(DataFile dataFile, Semaphore started) {
+            this.dataFile = dataFile;
+            this.started = started;
+        }
+
+        boolean isFor(DataFile other) {
+            return dataFile == other || (dataFile.getId() != null && dataFile.getId().equals(other.getId()));
+        }
+
+        void fetch(Opener opener) {
+            try {
+                if (!begin()) {
+                    abandon(null);
+                    return;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                abandon(new InterruptedIOException("Interrupted while waiting to read file " + dataFile.getId()));
+                return;
+            }
+            read(opener);
+        }
+
+        /**
+         * Waits for one of the files read ahead to be taken, unless this one is
+         * taken (or dropped) first.
+         *
+         * @return whether the file is still to be read.
+         */
+        private boolean begin() throws InterruptedException {
+            while (!started.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                if (released) {
+                    return !cancelled;
+                }
+            }
+            synchronized (this) {
+                if (released) {
+                    started.release();
+                } else {
+                    holdsPermit = true;
+                }
+            }
+            return !cancelled;
+        }
+
+        /**
+         * Gives up the place of the file among the ones read ahead, once it is
+         * taken or dropped.
+         */
+        synchronized void release() {
+            released = true;
+            if (holdsPermit) {
+                holdsPermit = false;
+                started.release();
+            }
+        }
+
+        private void abandon(IOException failure) {
+            openFailure = failure;
+            opened.countDown();
+            done = true;
+            chunks.offer(END);
+        }
+
+        private void read(Opener opener) {
+            InputStream in = null;
+            try {
+                try {
+                    storageIO = opener.open(dataFile);
+                    if (storageIO != null) {
+                        in = storageIO.getInputStream();
+                        readable = in != null;
+                    }
+                } catch (IOException ex) {
+                    openFailure = ex;
+                } catch (RuntimeException ex) {
+                    openFailure = new IOException("Failed to open file " + dataFile.getId(), ex);
+                } finally {
+                    opened.countDown();
+                }
+                if (!readable) {
+                    return;
+                }
+
+                CRC32 checksum = new CRC32();
+                long read = 0;
+                String varHeader = storageIO.getVarHeader();
+                if (varHeader != null) {
+                    byte[] header = varHeader.getBytes();
+                    checksum.update(header);
+                    read += header.length;
+                    offer(header);
+                }
+                while (!cancelled) {
+                    byte[] buffer = new byte[CHUNK_SIZE];
+                    int n = in.readNBytes(buffer, 0, CHUNK_SIZE);
+                    if (n == 0) {
+                        break;
+                    }
+                    byte[] chunk = (n == CHUNK_SIZE) ? buffer : Arrays.copyOf(buffer, n);
+                    checksum.update(chunk);
+                    read += n;
+                    offer(chunk);
+                }
+                size = read;
+                crc = checksum.getValue();
+                complete = !cancelled;
+            } catch (IOException ex) {
+                readFailure = ex;
+            } catch (InterruptedException ex) {
+                readFailure = new InterruptedIOException("Interrupted while reading file " + dataFile.getId());
+                Thread.currentThread().interrupt();
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ex) {
+                        logger.log(Level.FINE, "Failed to close file " + dataFile.getId(), ex);
+                    }
+                }
+                done = true;
+                // (or, if interrupted, the reader finds out that it's done in a while)
+                chunks.offer(END);
+            }
+        }
+
+        private void offer(byte[] chunk) throws InterruptedException {
+            while (!cancelled) {
+                if (chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            chunks.clear();
+            release();
+        }
+
+        long getBufferedBytes() {
+            long buffered = 0;
+            for (byte[] chunk : chunks) {
+                buffered += chunk.length;
+            }
+            return buffered;
+        }
+
+        /**
+         * Waits for the storage of the file to be opened.
+         *
+         * @return the storage, or {@code null} if the file has none.
+         * @throws IOException if it could not be opened.
+         */
+        StorageIO<DataFile> awaitOpened() throws IOException {
+            try {
+                opened.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while opening file " + dataFile.getId());
+            }
+            if (openFailure != null) {
+                throw openFailure;
+            }
+            return storageIO;
+        }
+
+        /**
+         * @return whether the file has any content to read (once opened).
+         */
+        boolean isReadable() {
+            return readable;
+        }
+
+        /**
+         * @return whether the whole file has been read (and is buffered), so
+         * that its size and CRC are known.
+         */
+        boolean isComplete() {
+            return complete;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        long getCrc() {
+            return crc;
+        }
+
+        /**
+         * @return the content of the file (starting with the variable header,
+         * for tabular files), as it is read.
+         */
+        InputStream getInputStream() {
+            return new InputStream() {
+                private byte[] chunk = null;
+                private int position = 0;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return (read(one, 0, 1) < 0) ? -1 : (one[0] & 0xff);
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    while (chunk == null || position == chunk.length) {
+                        if (chunk == END) {
+                            return -1;
+                        }
+                        try {
+                            chunk = chunks.poll(100, TimeUnit.MILLISECONDS);
+                            if (chunk == null) {
+                                if (!done || !chunks.isEmpty()) {
+                                    continue;
+                                }
+                                chunk = END;
+                            }
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException("Interrupted while reading file " + dataFile.getId());
+                        }
+                        position = 0;
+                        if (chunk == END && readFailure != null) {
+                            throw readFailure;
+                        }
+                    }
+                    int n = Math.min(len, chunk.length - position);
+                    System.arraycopy(chunk, position, b, off, n);
+                    position += n;
+                    return n;
+                }
+            };
+        }
+    }
+}
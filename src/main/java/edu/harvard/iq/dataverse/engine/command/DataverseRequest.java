@@ -1,5 +1,6 @@
 package edu.harvard.iq.dataverse.engine.command;
 
+import edu.harvard.iq.dataverse.PermissionCache;
 import edu.harvard.iq.dataverse.api.AbstractApiBean;
 import edu.harvard.iq.dataverse.api.batchjob.FileRecordJobResource;
 import edu.harvard.iq.dataverse.authorization.groups.impl.ipaddress.ip.IpAddress;
@@ -26,6 +27,7 @@ public class DataverseRequest {
     private final IpAddress sourceAddress;
     private final String invocationId;
     private final HttpServletRequest httpServletRequest;
+    private PermissionCache permissionCache;
     
     private final static String undefined = "0.0.0.0";
     
@@ -196,6 +198,16 @@ public class DataverseRequest {
     public HttpServletRequest getHttpServletRequest() {
         return httpServletRequest;
     }
+
+    /**
+     * @return the permissions worked out so far in the course of this request.
+     */
+    public synchronized PermissionCache getPermissionCache() {
+        if (permissionCache == null) {
+            permissionCache = new PermissionCache();
+        }
+        return permissionCache;
+    }
     
     public String getSystemMetadataBlockKeyFor(String blockName) {
         String key = null;
@@ -73,6 +73,15 @@ public abstract class AbstractCreateDatasetCommand extends AbstractDatasetComman
         // base class - default to nothing.
     }
     
+    /**
+     * Called once the dataset has its database id, to get it indexed.
+     * @param theDataset The em-managed dataset.
+     * @param ctxt 
+     */
+    protected void index( Dataset theDataset, CommandContext ctxt ) {
+        ctxt.index().asyncIndexDataset(theDataset, true);
+    }
+    
     protected abstract void handlePid( Dataset theDataset, CommandContext ctxt ) throws CommandException ;
     
     @Override
@@ -139,7 +148,7 @@ public abstract class AbstractCreateDatasetCommand extends AbstractDatasetComman
         //Use for code that requires database ids
         postDBFlush(theDataset, ctxt);
         
-        ctxt.index().asyncIndexDataset(theDataset, true);
+        index(theDataset, ctxt);
                  
         return theDataset;
     }
@@ -15,8 +15,19 @@ import edu.harvard.iq.dataverse.engine.command.RequiredPermissions;
 @RequiredPermissions(Permission.AddDataset)
 public class CreateHarvestedDatasetCommand extends AbstractCreateDatasetCommand {
 
+    private final boolean deferIndexing;
+
     public CreateHarvestedDatasetCommand(Dataset theDataset, DataverseRequest aRequest) {
+        this(theDataset, aRequest, false);
+    }
+    
+    /**
+     * @param deferIndexing if true, the dataset is not indexed; the harvest
+     * indexes it later, in bulk.
+     */
+    public CreateHarvestedDatasetCommand(Dataset theDataset, DataverseRequest aRequest, boolean deferIndexing) {
         super(theDataset, aRequest, true);
+        this.deferIndexing = deferIndexing;
     }
     
     @Override
@@ -24,4 +35,11 @@ public class CreateHarvestedDatasetCommand extends AbstractCreateDatasetCommand
         theDataset.setGlobalIdCreateTime(getTimestamp());
     }
     
+    @Override
+    protected void index(Dataset theDataset, CommandContext ctxt) {
+        if (!deferIndexing) {
+            super.index(theDataset, ctxt);
+        }
+    }
+    
 }
@@ -15,6 +15,7 @@ import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
 import edu.harvard.iq.dataverse.engine.command.RequiredPermissions;
 import edu.harvard.iq.dataverse.engine.command.exception.CommandException;
 import edu.harvard.iq.dataverse.engine.command.exception.PermissionException;
+import edu.harvard.iq.dataverse.harvest.client.DeferredHarvestIndexing;
 import edu.harvard.iq.dataverse.search.IndexResponse;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -46,10 +47,22 @@ public class DestroyDatasetCommand extends AbstractVoidCommand {
     private List<String> datasetAndFileSolrIdsToDelete; 
     
     private Dataverse toReIndex;
+    
+    private final DeferredHarvestIndexing deferredIndexing;
 
     public DestroyDatasetCommand(Dataset doomed, DataverseRequest aRequest) {
+        this(doomed, aRequest, null);
+    }
+
+    /**
+     * @param deferredIndexing for a harvested dataset destroyed by a harvest,
+     * where to leave the Solr documents to be deleted (and the collection to
+     * be reindexed) at the end of the harvest; null to do it right away.
+     */
+    public DestroyDatasetCommand(Dataset doomed, DataverseRequest aRequest, DeferredHarvestIndexing deferredIndexing) {
         super(aRequest, doomed);
         this.doomed = doomed;
+        this.deferredIndexing = deferredIndexing;
         datasetAndFileSolrIdsToDelete = new ArrayList<>();
     }
 
@@ -133,6 +146,11 @@ public class DestroyDatasetCommand extends AbstractVoidCommand {
 
         boolean retVal = true;
         
+        if (deferredIndexing != null) {
+            deferredIndexing.deleteLater(datasetAndFileSolrIdsToDelete);
+            return retVal;
+        }
+        
        // all the real Solr work is done here
        // delete orphaned Solr ids
         IndexResponse resultOfSolrDeletionAttempt = ctxt.solrIndex().deleteMultipleSolrIds(datasetAndFileSolrIdsToDelete);
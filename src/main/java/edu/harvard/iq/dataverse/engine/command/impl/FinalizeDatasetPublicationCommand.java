@@ -254,12 +254,12 @@ public class FinalizeDatasetPublicationCommand extends AbstractPublishDatasetCom
             }
         }
 
-        // Metadata export:
+        // Metadata export, made in the background (the "last export" time 
+        // stamp of the dataset is updated once all the formats are done):
         
         try {
             ExportService instance = ExportService.getInstance();
-            instance.exportAllFormats(dataset);
-            dataset = ctxt.datasets().merge(dataset); 
+            instance.scheduleAllFormats(dataset);
         } catch (Exception ex) {
             // Something went wrong!
             // Just like with indexing, a failure to export is not a fatal
@@ -106,6 +106,9 @@ public class UningestFileCommand extends AbstractVoidCommand  {
         
         // the file size: 
         uningest.setFilesize(storedOriginalFileSize);
+        // and the CRC-32 worked out for the tabular file, if any, no longer
+        // applies (even if the two happen to be the same size): 
+        uningest.setCrc32(null);
         
         // original file format:
         String originalFileFormat = uningest.getDataTable().getOriginalFileFormat();
@@ -49,8 +49,10 @@ public class DDIExporter implements XMLExporter {
             XMLStreamWriter xmlw = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream);
             xmlw.writeStartDocument();
             xmlw.flush();
-            DdiExportUtil.datasetJson2ddi(dataProvider.getDatasetJson(), dataProvider.getDatasetFileDetails(),
-                    outputStream);
+            // The file details are streamed anew for each of the (three) file
+            // sections of the DDI, rather than kept in memory between them:
+            Iterable<JsonObject> fileDetails = () -> dataProvider.streamDatasetFileDetails().iterator();
+            DdiExportUtil.datasetJson2ddi(dataProvider.getDatasetJsonWithoutFiles(), fileDetails, outputStream);
         } catch (XMLStreamException xse) {
             throw new ExportException("Caught XMLStreamException performing DDI export", xse);
         }
@@ -0,0 +1,51 @@
+package edu.harvard.iq.dataverse.export;
+
+/**
+ * A metadata export of a dataset in one format, claimed from the export queue
+ * (see {@link ExportQueueServiceBean}).
+ */
+public class ExportJob {
+
+    private final Long datasetId;
+    private final String formatName;
+    private final long generation;
+    private final int attempts;
+
+    public ExportJob(Long datasetId, String formatName, long generation, int attempts) {
+        this.datasetId = datasetId;
+        this.formatName = formatName;
+        this.generation = generation;
+        this.attempts = attempts;
+    }
+
+    public Long getDatasetId() {
+        return datasetId;
+    }
+
+    public String getFormatName() {
+        return formatName;
+    }
+
+    /**
+     * @return How many times the export had been scheduled when the job was
+     * claimed. If it changed by the time the job is done (the dataset was
+     * published again in the meantime), the export has to be made again.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return The number of times the export has been tried, this one
+     * included.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    @Override
+    public String toString() {
+        return "ExportJob{datasetId=" + datasetId + ", formatName=" + formatName + ", generation=" + generation + ", attempts=" + attempts + "}";
+    }
+
+}
@@ -0,0 +1,174 @@
+package edu.harvard.iq.dataverse.export;
+
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.DatasetServiceBean;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import io.gdcc.spi.export.ExportException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Polls the export queue (see {@link ExportQueueServiceBean}) and makes the
+ * claimed exports, one format per job, with a bounded number of workers per
+ * node, set with dataverse.export.workers. Setting it to 0 leaves the
+ * exports to the other nodes of a cluster (and to the on-demand exports of
+ * {@link ExportService#getExport(Dataset, String)}).
+ */
+@Singleton
+@Startup
+public class ExportQueueConsumer {
+
+    private static final Logger logger = Logger.getLogger(ExportQueueConsumer.class.getCanonicalName());
+
+    public static final int DEFAULT_WORKERS = 4;
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 1000;
+    public static final long DEFAULT_CLAIM_TIMEOUT_MILLIS = 3600000;
+    public static final long DEFAULT_RETRY_DELAY_MILLIS = 60000;
+
+    @Resource
+    TimerService timerService;
+    @Resource
+    ManagedExecutorService executor;
+    @EJB
+    ExportQueueServiceBean exportQueueService;
+    @EJB
+    DatasetServiceBean datasetService;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger exported = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private String nodeName;
+    private int workers;
+    private long claimTimeoutMillis;
+    private long retryDelayMillis;
+
+    @PostConstruct
+    public void init() {
+        nodeName = findNodeName();
+        workers = JvmSettings.EXPORT_WORKERS.lookupOptional(Integer.class).orElse(DEFAULT_WORKERS);
+        claimTimeoutMillis = JvmSettings.EXPORT_QUEUE_CLAIM_TIMEOUT.lookupOptional(Long.class).orElse(DEFAULT_CLAIM_TIMEOUT_MILLIS);
+        retryDelayMillis = JvmSettings.EXPORT_RETRY_DELAY.lookupOptional(Long.class).orElse(DEFAULT_RETRY_DELAY_MILLIS);
+        long pollInterval = JvmSettings.EXPORT_QUEUE_POLL_INTERVAL.lookupOptional(Long.class).orElse(DEFAULT_POLL_INTERVAL_MILLIS);
+        // The on-demand exports go through the queue on every node, whether
+        // it consumes it or not:
+        ExportService.injectQueueService(exportQueueService, nodeName, claimTimeoutMillis);
+        if (workers < 1) {
+            logger.info("Not consuming the export queue on " + nodeName + " (dataverse.export.workers is " + workers + ")");
+            return;
+        }
+        try {
+            int released = exportQueueService.releaseClaims(nodeName);
+            if (released > 0) {
+                logger.info("Released " + released + " export jobs left behind by the previous run of " + nodeName);
+            }
+        } catch (Exception ex) {
+            logger.log(Level.WARNING, "Could not release the export jobs claimed by " + nodeName + ", they will be retried after the claim timeout", ex);
+        }
+        logger.info("Consuming the export queue on " + nodeName + " with " + workers + " worker(s)");
+        timerService.createIntervalTimer(pollInterval, pollInterval, new TimerConfig("export queue", false));
+    }
+
+    @Timeout
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void poll() {
+        // Exceptions thrown from here would make the container retry the timeout.
+        try {
+            int free = workers - inFlight.get();
+            if (free <= 0) {
+                return;
+            }
+            List<ExportJob> jobs = exportQueueService.claim(nodeName, free, claimTimeoutMillis, retryDelayMillis);
+            for (ExportJob job : jobs) {
+                inFlight.incrementAndGet();
+                try {
+                    executor.submit(() -> process(job));
+                } catch (RejectedExecutionException ex) {
+                    inFlight.decrementAndGet();
+                    exportQueueService.fail(job, nodeName, "Rejected by the executor");
+                }
+            }
+        } catch (Exception ex) {
+            logger.log(Level.WARNING, "Failed to poll the export queue", ex);
+        }
+    }
+
+    private void process(ExportJob job) {
+        try {
+            Dataset dataset = datasetService.find(job.getDatasetId());
+            if (dataset == null || dataset.getReleasedVersion() == null) {
+                // Deleted or deaccessioned since; there's nothing left to export.
+                exportQueueService.drop(job);
+                return;
+            }
+            ExportService exportService = exportService();
+            try {
+                exportService.getExporter(job.getFormatName());
+            } catch (ExportException ex) {
+                logger.info("Dropping the export of dataset " + job.getDatasetId() + " as " + job.getFormatName() + ", the exporter is gone");
+                exportQueueService.drop(job);
+                return;
+            }
+            exportService.exportFormat(dataset, job.getFormatName());
+            exportQueueService.complete(job, nodeName);
+            exported.incrementAndGet();
+        } catch (Exception ex) {
+            failed.incrementAndGet();
+            logger.log(Level.WARNING, "Export job failed: " + job, ex);
+            try {
+                if (!exportQueueService.fail(job, nodeName, String.valueOf(ex.getMessage()))) {
+                    logger.warning("Giving up on exporting dataset " + job.getDatasetId() + " as " + job.getFormatName() + " after " + job.getAttempts()
+                            + " attempts. You can kickoff a re-export of this dataset with: curl http://localhost:8080/api/admin/metadata/" + job.getDatasetId() + "/reExportDataset");
+                }
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Could not release export job " + job + ", it will be retried after the claim timeout", e);
+            }
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    ExportService exportService() {
+        return ExportService.getInstance();
+    }
+
+    @Lock(LockType.READ)
+    public JsonObjectBuilder getStatistics() {
+        return Json.createObjectBuilder()
+                .add("node", nodeName)
+                .add("workers", workers)
+                .add("inFlight", inFlight.get())
+                .add("exported", exported.get())
+                .add("failed", failed.get());
+    }
+
+    private static String findNodeName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getCanonicalHostName();
+        } catch (UnknownHostException ex) {
+            host = "localhost";
+        }
+        return host + ":" + System.getProperty("com.sun.aas.instanceName", "server");
+    }
+
+}
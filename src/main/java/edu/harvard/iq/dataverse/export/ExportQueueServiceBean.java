@@ -0,0 +1,345 @@
+package edu.harvard.iq.dataverse.export;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Resource;
+import javax.ejb.SessionContext;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.inject.Named;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import static javax.ejb.TransactionAttributeType.REQUIRES_NEW;
+import static javax.ejb.TransactionAttributeType.SUPPORTS;
+
+/**
+ * Durable queue of the metadata exports of published datasets, kept in the
+ * exportstatus table, with one row per dataset and format that records the
+ * status of its export. The exports scheduled on publication are made by the
+ * {@link ExportQueueConsumer}s of all nodes, one format at a time, so that the
+ * formats of a dataset are made in parallel.
+ *
+ * Scheduling the export of a dataset that is already queued (or being
+ * exported) only bumps the generation of its rows; a job is only marked as
+ * done if its generation has not changed while it was running, otherwise it is
+ * queued again. Failed exports are retried, with a delay that doubles after
+ * each attempt, up to {@link #MAX_ATTEMPTS} times.
+ *
+ * Claims are taken in the name of a node, as with the index queue (see
+ * {@link edu.harvard.iq.dataverse.search.IndexQueueServiceBean}).
+ */
+@Stateless
+@Named
+public class ExportQueueServiceBean {
+
+    private static final Logger logger = Logger.getLogger(ExportQueueServiceBean.class.getCanonicalName());
+
+    /**
+     * Exports that failed this many times are no longer retried, until the
+     * dataset is exported again.
+     */
+    public static final int MAX_ATTEMPTS = 3;
+
+    public enum Status {
+        PENDING, RUNNING, DONE, FAILED
+    }
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    private EntityManager em;
+
+    @Resource
+    TransactionSynchronizationRegistry transactionRegistry;
+    @Resource
+    ManagedExecutorService executor;
+    @Resource
+    SessionContext sessionContext;
+
+    /**
+     * Schedules the export of a dataset in the given formats once the
+     * transaction of the caller (if any) is committed, so that the jobs are
+     * only picked up once the publication that made them necessary is
+     * visible. They are scheduled in a transaction of their own, so a failure
+     * to schedule them is logged, and can't roll the publication back.
+     */
+    @TransactionAttribute(SUPPORTS)
+    public void scheduleAfterCommit(Long datasetId, Collection<String> formatNames) {
+        ExportQueueServiceBean self = sessionContext.getBusinessObject(ExportQueueServiceBean.class);
+        List<String> formats = new ArrayList<>(formatNames);
+        Runnable scheduling = () -> {
+            try {
+                self.schedule(datasetId, formats);
+            } catch (Exception ex) {
+                logger.log(Level.WARNING, "Could not schedule the export of dataset " + datasetId
+                        + ". You can kickoff a re-export of this dataset with: curl http://localhost:8080/api/admin/metadata/" + datasetId + "/reExportDataset", ex);
+            }
+        };
+        if (transactionRegistry.getTransactionStatus() != javax.transaction.Status.STATUS_ACTIVE) {
+            scheduling.run();
+            return;
+        }
+        transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != javax.transaction.Status.STATUS_COMMITTED) {
+                    return;
+                }
+                // (On another thread, since the transaction that was just 
+                // committed is still the one of this thread.)
+                try {
+                    executor.submit(scheduling);
+                } catch (RejectedExecutionException ex) {
+                    logger.log(Level.WARNING, "Could not schedule the export of dataset " + datasetId, ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Schedules the export of a dataset in the given formats right away, and
+     * clears its "last export" time until they're all done.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public void schedule(Long datasetId, Collection<String> formatNames) {
+        // (JPQL rather than native updates of the dataset, so that it's evicted 
+        // from the shared cache.)
+        em.createQuery("UPDATE Dataset d SET d.lastExportTime = NULL WHERE d.id = :id")
+                .setParameter("id", datasetId)
+                .executeUpdate();
+        for (String formatName : formatNames) {
+            em.createNativeQuery("INSERT INTO exportstatus (dataset_id, formatname, status, requesttime, generation, attempts) "
+                    + "VALUES (?1, ?2, 'PENDING', now(), 1, 0) "
+                    + "ON CONFLICT (dataset_id, formatname) DO UPDATE SET "
+                    + "status = CASE WHEN exportstatus.claimedby IS NULL THEN 'PENDING' ELSE 'RUNNING' END, "
+                    + "requesttime = now(), generation = exportstatus.generation + 1, attempts = 0, lasterror = NULL")
+                    .setParameter(1, datasetId)
+                    .setParameter(2, formatName)
+                    .executeUpdate();
+        }
+    }
+
+    /**
+     * Claims up to maxJobs of the oldest exports that are waiting, whose claim
+     * is older than claimTimeoutMillis, or that failed and are due for a retry.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public List<ExportJob> claim(String nodeName, int maxJobs, long claimTimeoutMillis, long retryDelayMillis) {
+        Timestamp staleBefore = new Timestamp(System.currentTimeMillis() - claimTimeoutMillis);
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = em.createNativeQuery("UPDATE exportstatus SET status = 'RUNNING', claimedby = ?1, claimtime = now(), attempts = attempts + 1 "
+                + "WHERE (dataset_id, formatname) IN (SELECT dataset_id, formatname FROM exportstatus "
+                + "WHERE (status = 'PENDING' AND claimedby IS NULL) "
+                + "OR (status = 'RUNNING' AND claimtime < ?2) "
+                + "OR (status = 'FAILED' AND attempts < ?4 AND lastattempttime < now() - interval '1 millisecond' * ?5 * power(2, attempts - 1)) "
+                + "ORDER BY requesttime LIMIT ?3 FOR UPDATE SKIP LOCKED) "
+                + "RETURNING dataset_id, formatname, generation, attempts")
+                .setParameter(1, nodeName)
+                .setParameter(2, staleBefore)
+                .setParameter(3, maxJobs)
+                .setParameter(4, MAX_ATTEMPTS)
+                .setParameter(5, retryDelayMillis)
+                .getResultList();
+        return toJobs(rows);
+    }
+
+    /**
+     * Claims the export of a dataset in one format, for it to be made right
+     * away, e.g. because it was requested before its turn in the queue came.
+     *
+     * @return null if the export isn't queued (or is done), or is already
+     * being made elsewhere.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public ExportJob claim(Long datasetId, String formatName, String nodeName, long claimTimeoutMillis) {
+        Timestamp staleBefore = new Timestamp(System.currentTimeMillis() - claimTimeoutMillis);
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = em.createNativeQuery("UPDATE exportstatus SET status = 'RUNNING', claimedby = ?3, claimtime = now(), attempts = attempts + 1 "
+                + "WHERE dataset_id = ?1 AND formatname = ?2 AND status <> 'DONE' AND (claimedby IS NULL OR claimtime < ?4) "
+                + "RETURNING dataset_id, formatname, generation, attempts")
+                .setParameter(1, datasetId)
+                .setParameter(2, formatName)
+                .setParameter(3, nodeName)
+                .setParameter(4, staleBefore)
+                .getResultList();
+        List<ExportJob> jobs = toJobs(rows);
+        return jobs.isEmpty() ? null : jobs.get(0);
+    }
+
+    /**
+     * Marks an export as done, unless the dataset was scheduled for export
+     * again in the meantime, in which case the job is queued again. Once all
+     * the formats of a dataset are done, its "last export" time is updated.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public void complete(ExportJob job, String nodeName) {
+        int updated = em.createNativeQuery("UPDATE exportstatus SET status = 'DONE', claimedby = NULL, claimtime = NULL, "
+                + "lastattempttime = now(), lasterror = NULL "
+                + "WHERE dataset_id = ?1 AND formatname = ?2 AND generation = ?3 AND claimedby = ?4")
+                .setParameter(1, job.getDatasetId())
+                .setParameter(2, job.getFormatName())
+                .setParameter(3, job.getGeneration())
+                .setParameter(4, nodeName)
+                .executeUpdate();
+        if (updated == 0) {
+            logger.fine("export of dataset " + job.getDatasetId() + " as " + job.getFormatName() + " was scheduled again while it was running");
+            requeue(job, nodeName);
+        }
+        updateLastExportTime(job.getDatasetId());
+    }
+
+    /**
+     * Marks an export as failed, to be retried later unless it failed too many
+     * times already (or queues it again right away, if the dataset was
+     * scheduled for export in the meantime).
+     *
+     * @return false if the export won't be retried.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public boolean fail(ExportJob job, String nodeName, String error) {
+        int updated = em.createNativeQuery("UPDATE exportstatus SET status = 'FAILED', claimedby = NULL, claimtime = NULL, "
+                + "lastattempttime = now(), lasterror = ?5 "
+                + "WHERE dataset_id = ?1 AND formatname = ?2 AND generation = ?3 AND claimedby = ?4")
+                .setParameter(1, job.getDatasetId())
+                .setParameter(2, job.getFormatName())
+                .setParameter(3, job.getGeneration())
+                .setParameter(4, nodeName)
+                .setParameter(5, error)
+                .executeUpdate();
+        if (updated == 0) {
+            requeue(job, nodeName);
+            return true;
+        }
+        return job.getAttempts() < MAX_ATTEMPTS;
+    }
+
+    /**
+     * Removes the export of a dataset in a format that can't be made anymore,
+     * e.g. because its exporter was removed.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public void drop(ExportJob job) {
+        em.createNativeQuery("DELETE FROM exportstatus WHERE dataset_id = ?1 AND formatname = ?2")
+                .setParameter(1, job.getDatasetId())
+                .setParameter(2, job.getFormatName())
+                .executeUpdate();
+        updateLastExportTime(job.getDatasetId());
+    }
+
+    /**
+     * Releases all claims of a node, e.g. the ones that were left behind when
+     * it was stopped while exporting.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public int releaseClaims(String nodeName) {
+        return em.createNativeQuery("UPDATE exportstatus SET status = 'PENDING', claimedby = NULL, claimtime = NULL WHERE claimedby = ?1")
+                .setParameter(1, nodeName)
+                .executeUpdate();
+    }
+
+    /**
+     * @return the status of the export of a dataset in a format, or null if it
+     * was never scheduled.
+     */
+    public Status getStatus(Long datasetId, String formatName) {
+        @SuppressWarnings("unchecked")
+        List<Object> rows = em.createNativeQuery("SELECT status FROM exportstatus WHERE dataset_id = ?1 AND formatname = ?2")
+                .setParameter(1, datasetId)
+                .setParameter(2, formatName)
+                .getResultList();
+        return rows.isEmpty() ? null : Status.valueOf((String) rows.get(0));
+    }
+
+    /**
+     * @return whether any export of the dataset is waiting or running.
+     */
+    public boolean hasPendingExports(Long datasetId) {
+        return !em.createNativeQuery("SELECT 1 FROM exportstatus WHERE dataset_id = ?1 AND status IN ('PENDING', 'RUNNING') LIMIT 1")
+                .setParameter(1, datasetId)
+                .getResultList().isEmpty();
+    }
+
+    public JsonArrayBuilder getStatuses(Long datasetId) {
+        JsonArrayBuilder statuses = Json.createArrayBuilder();
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = em.createNativeQuery("SELECT formatname, status, attempts, requesttime, lastattempttime, lasterror "
+                + "FROM exportstatus WHERE dataset_id = ?1 ORDER BY formatname")
+                .setParameter(1, datasetId)
+                .getResultList();
+        for (Object[] row : rows) {
+            JsonObjectBuilder status = Json.createObjectBuilder()
+                    .add("format", (String) row[0])
+                    .add("status", (String) row[1])
+                    .add("attempts", ((Number) row[2]).intValue())
+                    .add("requestTime", row[3].toString());
+            if (row[4] != null) {
+                status.add("lastAttemptTime", row[4].toString());
+            }
+            if (row[5] != null) {
+                status.add("lastError", (String) row[5]);
+            }
+            statuses.add(status);
+        }
+        return statuses;
+    }
+
+    public JsonObjectBuilder getStatistics() {
+        JsonObjectBuilder byStatus = Json.createObjectBuilder();
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = em.createNativeQuery("SELECT status, count(*) FROM exportstatus GROUP BY status ORDER BY status")
+                .getResultList();
+        for (Object[] row : rows) {
+            byStatus.add((String) row[0], ((Number) row[1]).longValue());
+        }
+        long givenUp = ((Number) em.createNativeQuery("SELECT count(*) FROM exportstatus WHERE status = 'FAILED' AND attempts >= ?1")
+                .setParameter(1, MAX_ATTEMPTS)
+                .getSingleResult()).longValue();
+        return Json.createObjectBuilder()
+                .add("byStatus", byStatus)
+                .add("givenUp", givenUp);
+    }
+
+    private void requeue(ExportJob job, String nodeName) {
+        em.createNativeQuery("UPDATE exportstatus SET status = 'PENDING', claimedby = NULL, claimtime = NULL, attempts = 0 "
+                + "WHERE dataset_id = ?1 AND formatname = ?2 AND claimedby = ?3")
+                .setParameter(1, job.getDatasetId())
+                .setParameter(2, job.getFormatName())
+                .setParameter(3, nodeName)
+                .executeUpdate();
+    }
+
+    private void updateLastExportTime(Long datasetId) {
+        boolean allDone = em.createNativeQuery("SELECT 1 FROM exportstatus WHERE dataset_id = ?1 AND status <> 'DONE' LIMIT 1")
+                .setParameter(1, datasetId)
+                .getResultList().isEmpty();
+        if (allDone) {
+            em.createQuery("UPDATE Dataset d SET d.lastExportTime = :now WHERE d.id = :id")
+                    .setParameter("now", new Timestamp(System.currentTimeMillis()))
+                    .setParameter("id", datasetId)
+                    .executeUpdate();
+        }
+    }
+
+    private static List<ExportJob> toJobs(List<Object[]> rows) {
+        List<ExportJob> jobs = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            jobs.add(new ExportJob(((Number) row[0]).longValue(), (String) row[1], ((Number) row[2]).longValue(), ((Number) row[3]).intValue()));
+        }
+        return jobs;
+    }
+
+}
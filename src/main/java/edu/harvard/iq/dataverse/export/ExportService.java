@@ -63,6 +63,15 @@ public class ExportService {
 
     private static final Logger logger = Logger.getLogger(ExportService.class.getCanonicalName());
 
+    // How long a request for an export that is being made in the background
+    // waits for it, before giving up:
+    static final long ON_DEMAND_WAIT_MILLIS = 60000;
+    static final long ON_DEMAND_POLL_MILLIS = 500;
+
+    private static ExportQueueServiceBean queueService;
+    private static String nodeName;
+    private static long claimTimeoutMillis;
+
     private ExportService() {
         /*
          * Step 1 - find the EXPORTERS dir and add all jar files there to a class loader
@@ -192,8 +201,9 @@ public class ExportService {
             return exportInputStream;
         }
 
-        // if it doesn't exist, we'll try to run the export:
-        exportFormat(dataset, formatName);
+        // if it doesn't exist, we'll try to run the export (or wait for it, 
+        // if it's being made in the background right now):
+        exportFormatOnDemand(dataset, formatName);
 
         // and then try again:
         exportInputStream = getCachedExportFormat(dataset, formatName);
@@ -238,6 +248,29 @@ public class ExportService {
 
     }
 
+    // This method schedules the export of the released version of the dataset
+    // in all the formats, to be made in the background, in parallel, once the 
+    // current transaction (if any) is committed; see ExportQueueConsumer. (A
+    // failure to schedule them is only logged.) The cached exports of the previous version are cleared right away, so that 
+    // the ones requested in the meantime are made on demand, by getExport().
+    // (Outside of the application server, e.g. in tests, the exports are made
+    // right away, as by exportAllFormats().)
+    public void scheduleAllFormats(Dataset dataset) throws ExportException {
+        if (queueService == null) {
+            exportAllFormats(dataset);
+            return;
+        }
+        if (dataset.getReleasedVersion() == null) {
+            throw new ExportException("No released version for dataset " + dataset.getGlobalId().toString());
+        }
+        try {
+            clearAllCachedFormats(dataset);
+        } catch (IOException ex) {
+            Logger.getLogger(ExportService.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        queueService.scheduleAfterCommit(dataset.getId(), new ArrayList<>(exporterMap.keySet()));
+    }
+
     // This method goes through all the Exporters and calls
     // the "chacheExport()" method that will save the produced output
     // in a file in the dataset directory, on each Exporter available.
@@ -261,13 +294,13 @@ public class ExportService {
                     String prereqFormatName = e.getPrerequisiteFormatName().get();
                     try (InputStream preReqStream = getExport(dataset, prereqFormatName)) {
                         dataProvider.setPrerequisiteInputStream(preReqStream);
-                        cacheExport(dataset, dataProvider, formatName, e);
+                        cacheExportAndContinue(dataset, dataProvider, formatName, e);
                         dataProvider.setPrerequisiteInputStream(null);
                     } catch (IOException ioe) {
                         throw new ExportException ("Could not get prerequisite " + e.getPrerequisiteFormatName() + " to create " + formatName + "export for dataset " + dataset.getId(), ioe);
                     }
                 } else {
-                    cacheExport(dataset, dataProvider, formatName, e);
+                    cacheExportAndContinue(dataset, dataProvider, formatName, e);
                 }
             }
             // Finally, if we have been able to successfully export in all available
@@ -317,6 +350,8 @@ public class ExportService {
                     try (InputStream preReqStream = getExport(dataset, prereqFormatName)) {
                         InternalExportDataProvider dataProvider = new InternalExportDataProvider(releasedVersion, preReqStream);
                         cacheExport(dataset, dataProvider, formatName, e);
+                    } catch (ExporterFailedException efe) {
+                        throw efe;
                     } catch (IOException ioe) {
                         throw new ExportException ("Could not get prerequisite " + e.getPrerequisiteFormatName() + " to create " + formatName + "export for dataset " + dataset.getId(), ioe);
                     }
@@ -344,6 +379,58 @@ public class ExportService {
 
     }
 
+    // Makes an export requested by getExport() that wasn't cached yet. If it
+    // was scheduled to be made in the background, the job is claimed for it, 
+    // so that it isn't made again; if it's being made right now, we wait for it.
+    private void exportFormatOnDemand(Dataset dataset, String formatName) throws ExportException {
+        exportFormatOnDemand(dataset, formatName, ON_DEMAND_WAIT_MILLIS);
+    }
+
+    void exportFormatOnDemand(Dataset dataset, String formatName, long waitMillis) throws ExportException {
+        if (queueService == null || dataset.getId() == null) {
+            exportFormat(dataset, formatName);
+            return;
+        }
+        ExportJob job = queueService.claim(dataset.getId(), formatName, nodeName, claimTimeoutMillis);
+        if (job != null) {
+            try {
+                exportFormat(dataset, formatName);
+            } catch (ExportException | RuntimeException e) {
+                queueService.fail(job, nodeName, String.valueOf(e.getMessage()));
+                throw e;
+            }
+            queueService.complete(job, nodeName);
+            return;
+        }
+        ExportQueueServiceBean.Status status = queueService.getStatus(dataset.getId(), formatName);
+        if (status != ExportQueueServiceBean.Status.RUNNING) {
+            // Not scheduled, or done already (and cleared since, e.g. when an
+            // embargo ended):
+            exportFormat(dataset, formatName);
+            return;
+        }
+        long giveUpAt = System.currentTimeMillis() + waitMillis;
+        while (status == ExportQueueServiceBean.Status.RUNNING && System.currentTimeMillis() < giveUpAt) {
+            try {
+                Thread.sleep(ON_DEMAND_POLL_MILLIS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            status = queueService.getStatus(dataset.getId(), formatName);
+        }
+        if (status == ExportQueueServiceBean.Status.RUNNING) {
+            throw new ExportException("The " + formatName + " export of dataset " + dataset.getId() + " is still being made, try again later");
+        }
+        // Whether it succeeded or not, the caller tries to read the cached export.
+    }
+
+    public static void injectQueueService(ExportQueueServiceBean exportQueueService, String node, long claimTimeout) {
+        queueService = exportQueueService;
+        nodeName = node;
+        claimTimeoutMillis = claimTimeout;
+    }
+
     public Exporter getExporter(String formatName) throws ExportException {
         Exporter e = exporterMap.get(formatName);
         if (e != null) {
@@ -352,6 +439,17 @@ public class ExportService {
         throw new ExportException("No such Exporter: " + formatName);
     }
 
+    // As cacheExport(), but a failure of the exporter itself is only logged, 
+    // so that loops over the exporters can continue:
+    private void cacheExportAndContinue(Dataset dataset, InternalExportDataProvider dataProvider, String format, Exporter exporter)
+            throws ExportException {
+        try {
+            cacheExport(dataset, dataProvider, format, exporter);
+        } catch (ExporterFailedException efe) {
+            logger.warning(efe.getMessage());
+        }
+    }
+
     // This method runs the selected metadata exporter, caching the output
     // in a file in the dataset directory / container based on its DOI:
     private void cacheExport(Dataset dataset, InternalExportDataProvider dataProvider, String format, Exporter exporter)
@@ -399,16 +497,17 @@ public class ExportService {
                 /*
                  * This exception is from the particular exporter and may not affect other
                  * exporters (versus other exceptions in this method which are from the basic
-                 * mechanism to create a file) So we'll catch it here and report so that loops
-                 * over other exporters can continue. Todo: Might be better to create a new
-                 * exception subtype and send it upward, but the callers currently just log and
-                 * ignore beyond terminating any loop over exporters.
+                 * mechanism to create a file) So it's sent upward as its own subtype, for 
+                 * loops over other exporters to continue (see cacheExportAndContinue()), and
+                 * for the export queue to retry it.
                  */
-                logger.warning("Exception thrown while creating export_" + format + ".cached : " + exex.getMessage());
+                throw new ExporterFailedException("Exception thrown while creating export_" + format + ".cached : " + exex.getMessage(), exex);
             } catch (IOException ioex) {
                 throw new ExportException("IO Exception thrown exporting as " + "export_" + format + ".cached");
             }
 
+        } catch (ExportException exex) {
+            throw exex;
         } catch (IOException ioex) {
             // This catches any problem creating a local temp file in the catch clause above
             throw new ExportException("IO Exception thrown before exporting as " + "export_" + format + ".cached");
@@ -418,6 +517,15 @@ public class ExportService {
 
     }
 
+    /**
+     * A failure of an exporter, as opposed to one of the caching of its output.
+     */
+    static class ExporterFailedException extends ExportException {
+        ExporterFailedException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
     private void clearCachedExport(Dataset dataset, String format) throws IOException {
         try {
             StorageIO<Dataset> storageIO = getStorageIO(dataset);
@@ -1,7 +1,14 @@
 package edu.harvard.iq.dataverse.export;
 
 import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.json.Json;
 import javax.json.JsonArray;
@@ -11,7 +18,7 @@ import javax.json.JsonObjectBuilder;
 
 import edu.harvard.iq.dataverse.DOIDataCiteRegisterService;
 import edu.harvard.iq.dataverse.DataCitation;
-import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.DataFileServiceBean;
 import edu.harvard.iq.dataverse.DatasetVersion;
 import edu.harvard.iq.dataverse.FileMetadata;
 import io.gdcc.spi.export.ExportDataProvider;
@@ -25,6 +32,12 @@ import edu.harvard.iq.dataverse.util.json.JsonUtil;
  */
 public class InternalExportDataProvider implements ExportDataProvider {
 
+    // The number of files read from the database at a time, by the streaming 
+    // methods:
+    static final int FILE_PAGE_SIZE = 1000;
+
+    static DataFileServiceBean fileService;
+
     private DatasetVersion dv;
     private JsonObject jsonRepresentation = null;
     private JsonObject schemaDotOrgRepresentation = null;
@@ -75,13 +88,85 @@ public class InternalExportDataProvider implements ExportDataProvider {
     @Override
     public JsonArray getDatasetFileDetails() {
         JsonArrayBuilder jab = Json.createArrayBuilder();
-        for (FileMetadata fileMetadata : dv.getFileMetadatas()) {
-            DataFile dataFile = fileMetadata.getDataFile();
-            jab.add(JsonPrinter.json(dataFile, fileMetadata, true));
-        }
+        streamDatasetFileDetails().forEach(jab::add);
         return jab.build();
     }
     
+    @Override
+    public JsonObject getDatasetJsonWithoutFiles() {
+        if (jsonRepresentation != null) {
+            return ExportDataProvider.super.getDatasetJsonWithoutFiles();
+        }
+        return JsonPrinter.jsonAsDatasetDto(dv, false).build();
+    }
+
+    @Override
+    public Stream<JsonObject> streamDatasetFiles() {
+        return streamFileMetadatas().map(fileMetadata -> JsonPrinter.json(fileMetadata).build());
+    }
+
+    @Override
+    public Stream<JsonObject> streamDatasetFileDetails() {
+        return streamFileMetadatas().map(fileMetadata -> JsonPrinter.json(fileMetadata.getDataFile(), fileMetadata, true).build());
+    }
+
+    @Override
+    public JsonObject getDatasetOREWithoutFiles() {
+        if (oreRepresentation != null) {
+            return ExportDataProvider.super.getDatasetOREWithoutFiles();
+        }
+        return new OREMap(dv).getOREMapWithoutFiles();
+    }
+
+    @Override
+    public Stream<JsonObject> streamDatasetOREAggregatedResources() {
+        OREMap oreMap = new OREMap(dv);
+        return streamFileMetadatas().map(oreMap::getAggregatedResource);
+    }
+
+    /**
+     * @return the file metadatas of the version, in the order of 
+     * {@link DatasetVersion#getFileMetadatas()}, read from the database 
+     * {@link #FILE_PAGE_SIZE} at a time as the stream is consumed. (Outside 
+     * of a transaction, each page is let go of once it's been gone through; 
+     * within one, e.g. at publish time, they're kept by the persistence 
+     * context, but not the JSON made from them.)
+     */
+    Stream<FileMetadata> streamFileMetadatas() {
+        if (fileService == null || dv.getId() == null) {
+            return dv.getFileMetadatas().stream();
+        }
+        Long versionId = dv.getId();
+        Iterator<FileMetadata> pages = new Iterator<FileMetadata>() {
+            private List<FileMetadata> page = null;
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                if (page == null || (next == page.size() && page.size() == FILE_PAGE_SIZE)) {
+                    FileMetadata last = (page != null) ? page.get(page.size() - 1) : null;
+                    page = fileService.findFileMetadatasByDatasetVersionId(versionId,
+                            (last != null) ? last.getLabel() : "", (last != null) ? last.getId() : 0L, FILE_PAGE_SIZE);
+                    next = 0;
+                }
+                return next < page.size();
+            }
+
+            @Override
+            public FileMetadata next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.get(next++);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    public static void injectFileService(DataFileServiceBean fileSvc) {
+        fileService = fileSvc;
+    }
+
     @Override
     public Optional<InputStream> getPrerequisiteInputStream() {
         return Optional.ofNullable(is);
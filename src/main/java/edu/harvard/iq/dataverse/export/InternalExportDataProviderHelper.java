@@ -0,0 +1,26 @@
+package edu.harvard.iq.dataverse.export;
+
+import edu.harvard.iq.dataverse.DataFileServiceBean;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.EJB;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+/**
+ * This is a small helper bean 
+ * As it is a singleton and built at application start (=deployment), it will inject the (stateless)
+ * file service into the InternalExportDataProvider once it's ready, for it to read the files of 
+ * the exported versions in pages.
+ */
+@Singleton
+@Startup
+public class InternalExportDataProviderHelper {
+    @EJB
+    DataFileServiceBean fileSvc;
+    
+    @PostConstruct
+    public void injectService() {
+        InternalExportDataProvider.injectFileService(fileSvc);
+    }
+}
@@ -36,13 +36,46 @@ public class JSONExporter implements Exporter {
     @Override
     public void exportDataset(ExportDataProvider dataProvider, OutputStream outputStream) throws ExportException {
         try{
-            outputStream.write(dataProvider.getDatasetJson().toString().getBytes("UTF8"));
+            // The dataset is written without its files first, and those are 
+            // then streamed in one at a time, where the "files" array would
+            // have been (before the "citation"): 
+            JsonGenerator generator = Json.createGenerator(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            generator.writeStartObject();
+            for (Map.Entry<String, JsonValue> entry : dataProvider.getDatasetJsonWithoutFiles().entrySet()) {
+                if (!"datasetVersion".equals(entry.getKey()) || entry.getValue().getValueType() != JsonValue.ValueType.OBJECT) {
+                    generator.write(entry.getKey(), entry.getValue());
+                    continue;
+                }
+                generator.writeStartObject(entry.getKey());
+                boolean filesWritten = false;
+                for (Map.Entry<String, JsonValue> versionEntry : entry.getValue().asJsonObject().entrySet()) {
+                    if ("citation".equals(versionEntry.getKey())) {
+                        writeFiles(dataProvider, generator);
+                        filesWritten = true;
+                    }
+                    generator.write(versionEntry.getKey(), versionEntry.getValue());
+                }
+                if (!filesWritten) {
+                    writeFiles(dataProvider, generator);
+                }
+                generator.writeEnd();
+            }
+            generator.writeEnd();
+            generator.flush();
             outputStream.flush();
         } catch (Exception e){
             throw new ExportException("Unknown exception caught during JSON export.");
         }
     }
 
+    private static void writeFiles(ExportDataProvider dataProvider, JsonGenerator generator) {
+        generator.writeStartArray("files");
+        try (Stream<JsonObject> files = dataProvider.streamDatasetFiles()) {
+            files.forEach(generator::write);
+        }
+        generator.writeEnd();
+    }
+
     @Override
     public Boolean isHarvestable() {
         return true;
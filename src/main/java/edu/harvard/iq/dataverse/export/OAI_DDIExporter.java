@@ -12,6 +12,7 @@ import edu.harvard.iq.dataverse.util.BundleUtil;
 import java.io.OutputStream;
 import java.util.Locale;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import javax.json.JsonObject;
 import javax.xml.stream.XMLStreamException;
@@ -42,7 +43,9 @@ public class OAI_DDIExporter implements XMLExporter {
     @Override
     public void exportDataset(ExportDataProvider dataProvider, OutputStream outputStream) throws ExportException {
         try {
-            DdiExportUtil.datasetJson2ddi(dataProvider.getDatasetJson(), outputStream);
+            try (Stream<JsonObject> files = dataProvider.streamDatasetFiles()) {
+                DdiExportUtil.datasetJsonAndFiles2ddi(dataProvider.getDatasetJsonWithoutFiles(), files, outputStream);
+            }
         } catch (XMLStreamException xse) {
             throw new ExportException ("Caught XMLStreamException performing DDI export");
         }
@@ -24,11 +24,42 @@ public class OAI_OREExporter implements Exporter {
 
     public static final String NAME = "OAI_ORE";
 
+    private static final String DESCRIBES = JsonLDTerm.ore("describes").getLabel();
+
     @Override
     public void exportDataset(ExportDataProvider dataProvider, OutputStream outputStream)
             throws ExportException {
         try {
-            outputStream.write(dataProvider.getDatasetORE().toString().getBytes("UTF8"));
+            // The aggregated resources of the files are streamed in one at a 
+            // time, after the rest of the aggregation; only their ids are kept
+            // in memory, for the "schema:hasPart" that follows:
+            JsonGenerator generator = Json.createGenerator(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            generator.writeStartObject();
+            for (Map.Entry<String, JsonValue> entry : dataProvider.getDatasetOREWithoutFiles().entrySet()) {
+                if (!DESCRIBES.equals(entry.getKey()) || entry.getValue().getValueType() != JsonValue.ValueType.OBJECT) {
+                    generator.write(entry.getKey(), entry.getValue());
+                    continue;
+                }
+                generator.writeStartObject(entry.getKey());
+                for (Map.Entry<String, JsonValue> aggregationEntry : entry.getValue().asJsonObject().entrySet()) {
+                    generator.write(aggregationEntry.getKey(), aggregationEntry.getValue());
+                }
+                List<String> fileIds = new ArrayList<>();
+                generator.writeStartArray(JsonLDTerm.ore("aggregates").getLabel());
+                try (Stream<JsonObject> aggregatedResources = dataProvider.streamDatasetOREAggregatedResources()) {
+                    aggregatedResources.forEach(aggregatedResource -> {
+                        fileIds.add(aggregatedResource.getString("@id"));
+                        generator.write(aggregatedResource);
+                    });
+                }
+                generator.writeEnd();
+                generator.writeStartArray(JsonLDTerm.schemaOrg("hasPart").getLabel());
+                fileIds.forEach(generator::write);
+                generator.writeEnd();
+                generator.writeEnd();
+            }
+            generator.writeEnd();
+            generator.flush();
             outputStream.flush();
         } catch (Exception e) {
             logger.severe(e.getMessage());
@@ -51,6 +51,7 @@ import java.util.*;
 import java.util.Map.Entry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 import javax.ejb.EJB;
 import javax.json.Json;
 import javax.json.JsonArray;
@@ -117,17 +118,27 @@ public class DdiExportUtil {
         logger.fine(JsonUtil.prettyPrint(datasetDtoAsJson.toString()));
         Gson gson = new Gson();
         DatasetDTO datasetDto = gson.fromJson(datasetDtoAsJson.toString(), DatasetDTO.class);
-        dtoddi(datasetDto, outputStream);
+        dtoddi(datasetDto, datasetDto.getDatasetVersion().getFiles(), outputStream);
+    }
+
+    // The same "short" ddi, from the dataset json without its "files", and the 
+    // entries of that array, that are gone through one at a time:
+    public static void datasetJsonAndFiles2ddi(JsonObject datasetDtoAsJson, Stream<JsonObject> files, OutputStream outputStream) throws XMLStreamException {
+        logger.fine(JsonUtil.prettyPrint(datasetDtoAsJson.toString()));
+        Gson gson = new Gson();
+        DatasetDTO datasetDto = gson.fromJson(datasetDtoAsJson.toString(), DatasetDTO.class);
+        Stream<FileDTO> fileDtos = files.map(fileJson -> gson.fromJson(fileJson.toString(), FileDTO.class));
+        dtoddi(datasetDto, fileDtos::iterator, outputStream);
     }
     
     private static String dto2ddi(DatasetDTO datasetDto) throws XMLStreamException {
         OutputStream outputStream = new ByteArrayOutputStream();
-        dtoddi(datasetDto, outputStream);
+        dtoddi(datasetDto, datasetDto.getDatasetVersion().getFiles(), outputStream);
         String xml = outputStream.toString();
         return XmlPrinter.prettyPrintXml(xml);
     }
     
-    private static void dtoddi(DatasetDTO datasetDto, OutputStream outputStream) throws XMLStreamException {
+    private static void dtoddi(DatasetDTO datasetDto, Iterable<FileDTO> fileDtos, OutputStream outputStream) throws XMLStreamException {
         XMLStreamWriter xmlw = XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream);
         xmlw.writeStartElement("codeBook");
         xmlw.writeDefaultNamespace("ddi:codebook:2_5");
@@ -138,7 +149,7 @@ public class DdiExportUtil {
             writeAttribute(xmlw, "xml:lang", datasetDto.getMetadataLanguage());
         }
         createStdyDscr(xmlw, datasetDto);
-        createOtherMats(xmlw, datasetDto.getDatasetVersion().getFiles());
+        createOtherMats(xmlw, fileDtos);
         xmlw.writeEndElement(); // codeBook
         xmlw.flush();
     }
@@ -146,6 +157,13 @@ public class DdiExportUtil {
     
     // "full" ddi, with the the "<fileDscr>"  and "<dataDscr>/<var>" sections: 
     public static void datasetJson2ddi(JsonObject datasetDtoAsJson, JsonArray fileDetails, OutputStream outputStream) throws XMLStreamException {
+        datasetJson2ddi(datasetDtoAsJson, fileDetails.getValuesAs(JsonObject.class), outputStream);
+    }
+
+    // The same "full" ddi, with the file details gone through (three times - 
+    // once for each of the sections above) as they're iterated, rather than 
+    // all kept in memory: 
+    public static void datasetJson2ddi(JsonObject datasetDtoAsJson, Iterable<JsonObject> fileDetails, OutputStream outputStream) throws XMLStreamException {
         logger.fine(JsonUtil.prettyPrint(datasetDtoAsJson.toString()));
         Gson gson = new Gson();
         DatasetDTO datasetDto = gson.fromJson(datasetDtoAsJson.toString(), DatasetDTO.class);
@@ -1417,7 +1435,10 @@ public class DdiExportUtil {
     // see if there's more information that we could encode in this otherMat. 
     // contentType? Unfs and such? (in the "short" DDI that is being used for 
     // harvesting *all* files are encoded as otherMats; even tabular ones.
-    private static void createOtherMats(XMLStreamWriter xmlw, List<FileDTO> fileDtos) throws XMLStreamException {
+    private static void createOtherMats(XMLStreamWriter xmlw, Iterable<FileDTO> fileDtos) throws XMLStreamException {
+        if (fileDtos == null) {
+            return;
+        }
         // The preferred URL for this dataverse, for cooking up the file access API links:
         String dataverseUrl = SystemConfig.getDataverseSiteUrlStatic();
         
@@ -1464,12 +1485,11 @@ public class DdiExportUtil {
     // otherMat, or a fileDscr section. 
     // -- L.A. 4.5 
     
-    private static void createOtherMatsFromFileMetadatas(XMLStreamWriter xmlw, JsonArray fileDetails) throws XMLStreamException {
+    private static void createOtherMatsFromFileMetadatas(XMLStreamWriter xmlw, Iterable<JsonObject> fileDetails) throws XMLStreamException {
         // The preferred URL for this dataverse, for cooking up the file access API links:
         String dataverseUrl = SystemConfig.getDataverseSiteUrlStatic();
         
-        for (int i=0;i<fileDetails.size();i++) {
-            JsonObject fileJson = fileDetails.getJsonObject(i);
+        for (JsonObject fileJson : fileDetails) {
             // We'll continue using the scheme we've used before, in DVN2-3: non-tabular files are put into otherMat,
             // tabular ones - in fileDscr sections. (fileDscr sections have special fields for numbers of variables
             // and observations, etc.)
@@ -1703,17 +1723,16 @@ public class DdiExportUtil {
     // so we probably should not invest any time into it right now). -- L.A. 4.5
     
     public static void createDataDscr(XMLStreamWriter xmlw, JsonArray fileDetails) throws XMLStreamException {
+        createDataDscr(xmlw, fileDetails.getValuesAs(JsonObject.class));
+    }
 
-        if (fileDetails.isEmpty()) {
-            return;
-        }
+    public static void createDataDscr(XMLStreamWriter xmlw, Iterable<JsonObject> fileDetails) throws XMLStreamException {
 
         boolean tabularData = false;
 
         // we're not writing the opening <dataDscr> tag until we find an actual 
         // tabular datafile.
-        for (int i=0;i<fileDetails.size();i++) {
-            JsonObject fileJson = fileDetails.getJsonObject(i);
+        for (JsonObject fileJson : fileDetails) {
 
             /**
              * Previously (in Dataverse 5.3 and below) the dataDscr section was
@@ -2021,10 +2040,9 @@ public class DdiExportUtil {
 
     }
     
-    private static void createFileDscr(XMLStreamWriter xmlw, JsonArray fileDetails) throws XMLStreamException {
+    private static void createFileDscr(XMLStreamWriter xmlw, Iterable<JsonObject> fileDetails) throws XMLStreamException {
         String dataverseUrl = SystemConfig.getDataverseSiteUrlStatic();
-        for (int i =0;i<fileDetails.size();i++) {
-            JsonObject fileJson = fileDetails.getJsonObject(i);
+        for (JsonObject fileJson : fileDetails) {
             //originalFileFormat is one of several keys that only exist for tabular data
             if (fileJson.containsKey("originalFileFormat")) {
                 JsonObject dt = null;
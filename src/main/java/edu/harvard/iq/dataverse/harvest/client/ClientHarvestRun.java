@@ -193,6 +193,73 @@ public class ClientHarvestRun implements Serializable {
         this.deletedDatasetCount = deletedDatasetCount;
     }
 
+    // Progress of the harvest: the records processed so far (harvested, 
+    // deleted or failed), updated while the harvest is running, and how 
+    // many records were processed per minute:
+    private Long processedRecordCount = 0L;
+    private Double recordsPerMinute;
+
+    public Long getProcessedRecordCount() {
+        return processedRecordCount;
+    }
+
+    public void setProcessedRecordCount(Long processedRecordCount) {
+        this.processedRecordCount = processedRecordCount;
+    }
+
+    public Double getRecordsPerMinute() {
+        return recordsPerMinute;
+    }
+
+    public void setRecordsPerMinute(Double recordsPerMinute) {
+        this.recordsPerMinute = recordsPerMinute;
+    }
+    
+    // For a client that defers indexing: how long the run spent indexing 
+    // the harvested datasets (in bulk, at checkpoints and at the end), and 
+    // how many datasets it indexed:
+    private Long indexingMillis;
+    private Long indexedDatasetCount;
+
+    public Long getIndexingMillis() {
+        return indexingMillis;
+    }
+
+    public void setIndexingMillis(Long indexingMillis) {
+        this.indexingMillis = indexingMillis;
+    }
+
+    public Long getIndexedDatasetCount() {
+        return indexedDatasetCount;
+    }
+
+    public void setIndexedDatasetCount(Long indexedDatasetCount) {
+        this.indexedDatasetCount = indexedDatasetCount;
+    }
+    
+    /**
+     * @return how long the run spent fetching and importing records, i.e.
+     * not counting the deferred indexing; null if it isn't finished.
+     */
+    public Long getImportMillis() {
+        if (startTime == null || finishTime == null) {
+            return null;
+        }
+        return finishTime.getTime() - startTime.getTime() - (indexingMillis != null ? indexingMillis : 0);
+    }
+    
+    /**
+     * Records the progress of the harvest, and works out the throughput from
+     * the time it started (not counting the time spent on deferred indexing).
+     */
+    public void updateProgress(long processedRecordCount, Date now) {
+        this.processedRecordCount = processedRecordCount;
+        long importMillis = (startTime != null) ? now.getTime() - startTime.getTime() - (indexingMillis != null ? indexingMillis : 0) : 0;
+        if (importMillis > 0) {
+            this.recordsPerMinute = processedRecordCount * 60000.0 / importMillis;
+        }
+    }
+
     @Override
     public int hashCode() {
         int hash = 0;
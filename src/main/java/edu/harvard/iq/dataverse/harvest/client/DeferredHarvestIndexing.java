@@ -0,0 +1,94 @@
+package edu.harvard.iq.dataverse.harvest.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The indexing left to do by a harvesting run of a client with
+ * {@link HarvestingClient#isDeferIndexing()}: rather than each imported (or
+ * deleted) dataset being indexed (or removed from the index, with a Solr
+ * commit) on its own while the harvest is running, the datasets and Solr
+ * documents are collected here, and the harvester indexes them in bulk at
+ * checkpoints and at the end of the run.
+ *
+ * Filled by the import workers, so thread-safe.
+ */
+public class DeferredHarvestIndexing {
+
+    private Set<Long> datasetIds = new LinkedHashSet<>();
+    private List<String> solrIdsToDelete = new ArrayList<>();
+    private boolean dataverseToReindex = false;
+    private long indexingMillis = 0;
+    private long indexedDatasetCount = 0;
+
+    /**
+     * The datasets and Solr documents taken out to be indexed, or deleted.
+     */
+    static final class Pending {
+        final List<Long> datasetIds;
+        final List<String> solrIdsToDelete;
+        final boolean dataverseToReindex;
+
+        Pending(List<Long> datasetIds, List<String> solrIdsToDelete, boolean dataverseToReindex) {
+            this.datasetIds = datasetIds;
+            this.solrIdsToDelete = solrIdsToDelete;
+            this.dataverseToReindex = dataverseToReindex;
+        }
+
+        boolean isEmpty() {
+            return datasetIds.isEmpty() && solrIdsToDelete.isEmpty() && !dataverseToReindex;
+        }
+    }
+
+    /**
+     * A dataset was imported by the harvest (and the import committed), and
+     * is to be indexed.
+     */
+    public synchronized void indexLater(Long datasetId) {
+        datasetIds.add(datasetId);
+    }
+
+    /**
+     * A dataset was destroyed by the harvest: its documents are to be removed
+     * from the index, and the collection it was in reindexed.
+     */
+    public synchronized void deleteLater(Collection<String> solrIds) {
+        solrIdsToDelete.addAll(solrIds);
+        dataverseToReindex = true;
+    }
+
+    /**
+     * @return how many datasets and documents are waiting to be indexed, or
+     * deleted.
+     */
+    public synchronized int getPendingCount() {
+        return datasetIds.size() + solrIdsToDelete.size();
+    }
+
+    synchronized Pending takePending() {
+        Pending pending = new Pending(new ArrayList<>(datasetIds), solrIdsToDelete, dataverseToReindex);
+        datasetIds = new LinkedHashSet<>();
+        solrIdsToDelete = new ArrayList<>();
+        dataverseToReindex = false;
+        return pending;
+    }
+
+    synchronized void addIndexingTime(long millis, int datasetCount) {
+        indexingMillis += millis;
+        indexedDatasetCount += datasetCount;
+    }
+
+    /**
+     * @return how long the indexing took so far, all checkpoints together.
+     */
+    public synchronized long getIndexingMillis() {
+        return indexingMillis;
+    }
+
+    public synchronized long getIndexedDatasetCount() {
+        return indexedDatasetCount;
+    }
+}
@@ -0,0 +1,364 @@
+package edu.harvard.iq.dataverse.harvest.client;
+
+import edu.harvard.iq.dataverse.harvest.client.oai.OaiHandler;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import static java.net.HttpURLConnection.HTTP_OK;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Harvests the records of a remote OAI server with ListRecords, a page of
+ * records per request, instead of a ListIdentifiers request per page plus a
+ * GetRecord request per record. As in {@link FastGetRecord}, the metadata of
+ * each record is saved, as is, in a temp file to be imported.
+ *
+ * A page is downloaded to a temp file before it is parsed, so that the
+ * connection to the remote server isn't held open while the records of the
+ * previous page are being imported.
+ */
+public class FastListRecords {
+
+    private static final Logger logger = Logger.getLogger(FastListRecords.class.getCanonicalName());
+
+    private static final String OAI_PMH_NAMESPACE = "http://www.openarchives.org/OAI/2.0/";
+
+    private final OaiHandler oaiHandler;
+    private final HttpClient httpClient;
+    private final XMLInputFactory xmlInputFactory;
+    private final XMLOutputFactory xmlOutputFactory;
+    private final Deque<Record> page = new ArrayDeque<>();
+    private String resumptionToken = null;
+    private boolean lastPage = false;
+    private int requests = 0;
+
+    /**
+     * A record listed by the remote server.
+     */
+    public static final class Record {
+        private final String identifier;
+        private final Date dateStamp;
+        private final boolean deleted;
+        private final File metadataFile;
+
+        Record(String identifier, Date dateStamp, boolean deleted, File metadataFile) {
+            this.identifier = identifier;
+            this.dateStamp = dateStamp;
+            this.deleted = deleted;
+            this.metadataFile = metadataFile;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        public Date getDateStamp() {
+            return dateStamp;
+        }
+
+        public boolean isDeleted() {
+            return deleted;
+        }
+
+        /**
+         * @return the temp file with the metadata of the record; null if the
+         * record is deleted. Up to the caller to delete.
+         */
+        public File getMetadataFile() {
+            return metadataFile;
+        }
+    }
+
+    public FastListRecords(OaiHandler oaiHandler, HttpClient httpClient) {
+        this.oaiHandler = oaiHandler;
+        this.httpClient = httpClient;
+        this.xmlInputFactory = XMLInputFactory.newInstance();
+        this.xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        this.xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        this.xmlOutputFactory = XMLOutputFactory.newInstance();
+        this.xmlOutputFactory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, true);
+    }
+
+    /**
+     * @return how many ListRecords requests were made so far.
+     */
+    public int getRequests() {
+        return requests;
+    }
+
+    /**
+     * Whether the next call to {@link #next()} makes a request to the remote
+     * server, so that the caller can throttle it.
+     */
+    public boolean needsRequest() {
+        return page.isEmpty() && !lastPage;
+    }
+
+    /**
+     * @return the next record, requesting the next page from the remote
+     * server if need be; null when there are no more records.
+     */
+    public Record next() throws IOException {
+        while (page.isEmpty() && !lastPage) {
+            requestPage();
+        }
+        return page.poll();
+    }
+
+    /**
+     * Deletes the temp files of the records that were not handed out.
+     */
+    public void close() {
+        for (Record record; (record = page.poll()) != null;) {
+            if (record.getMetadataFile() != null) {
+                record.getMetadataFile().delete();
+            }
+        }
+    }
+
+    private void requestPage() throws IOException {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                .uri(URI.create(getRequestURL()))
+                .GET()
+                .header("User-Agent", "XOAI Service Provider v5 (Dataverse)")
+                .header("Accept-Encoding", "gzip, deflate");
+
+        Map<String, String> customHeaders = oaiHandler.getCustomHeaders();
+        if (customHeaders != null) {
+            for (String headerName : customHeaders.keySet()) {
+                requestBuilder.header(headerName, customHeaders.get(headerName));
+            }
+        }
+
+        HttpResponse<InputStream> response;
+        try {
+            response = httpClient.send(requestBuilder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running ListRecords");
+        }
+        requests++;
+
+        if (response.statusCode() != HTTP_OK) {
+            response.body().close();
+            throw new IOException("ListRecords request failed with the http status " + response.statusCode());
+        }
+
+        File pageFile = File.createTempFile("listrecords", ".xml");
+        try {
+            try (InputStream in = decode(response); OutputStream out = new FileOutputStream(pageFile)) {
+                in.transferTo(out);
+            }
+            resumptionToken = null;
+            try (InputStream in = new BufferedInputStream(new FileInputStream(pageFile))) {
+                parsePage(in);
+            } catch (XMLStreamException xse) {
+                throw new IOException("Failed to parse the ListRecords response: " + xse.getMessage(), xse);
+            }
+        } finally {
+            Files.deleteIfExists(pageFile.toPath());
+        }
+        lastPage = (resumptionToken == null || resumptionToken.isBlank());
+    }
+
+    private String getRequestURL() {
+        StringBuilder requestURL = new StringBuilder(oaiHandler.getBaseOaiUrl());
+        requestURL.append("?verb=ListRecords");
+        if (resumptionToken != null) {
+            requestURL.append("&resumptionToken=").append(URLEncoder.encode(resumptionToken, StandardCharsets.UTF_8));
+            return requestURL.toString();
+        }
+        requestURL.append("&metadataPrefix=").append(URLEncoder.encode(oaiHandler.getMetadataPrefix(), StandardCharsets.UTF_8));
+        if (oaiHandler.getSetName() != null) {
+            requestURL.append("&set=").append(URLEncoder.encode(oaiHandler.getSetName(), StandardCharsets.UTF_8));
+        }
+        if (oaiHandler.getFromDate() != null) {
+            requestURL.append("&from=").append(oaiHandler.getFromDate().toInstant().truncatedTo(ChronoUnit.SECONDS));
+        }
+        return requestURL.toString();
+    }
+
+    private static InputStream decode(HttpResponse<InputStream> response) throws IOException {
+        InputStream in = response.body();
+        Optional<String> contentEncoding = response.headers().firstValue("Content-Encoding");
+        if (contentEncoding.isPresent()) {
+            if (contentEncoding.get().equals("gzip")) {
+                return new GZIPInputStream(in);
+            } else if (contentEncoding.get().equals("deflate")) {
+                return new InflaterInputStream(in);
+            }
+        }
+        return in;
+    }
+
+    private void parsePage(InputStream in) throws XMLStreamException, IOException {
+        XMLEventReader reader = xmlInputFactory.createXMLEventReader(in);
+        try {
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (!event.isStartElement() || !OAI_PMH_NAMESPACE.equals(event.asStartElement().getName().getNamespaceURI())) {
+                    continue;
+                }
+                StartElement element = event.asStartElement();
+                switch (element.getName().getLocalPart()) {
+                    case "error":
+                        String code = attribute(element, "code");
+                        String message = reader.getElementText();
+                        if ("noRecordsMatch".equals(code)) {
+                            logger.fine("ListRecords: no records match");
+                            return;
+                        }
+                        throw new IOException("ListRecords returned the error " + code + ": " + message);
+                    case "record":
+                        parseRecord(reader);
+                        break;
+                    case "resumptionToken":
+                        resumptionToken = reader.getElementText().trim();
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void parseRecord(XMLEventReader reader) throws XMLStreamException, IOException {
+        String identifier = null;
+        Date dateStamp = null;
+        boolean deleted = false;
+        File metadataFile = null;
+        boolean inHeader = false;
+
+        try {
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (event.isEndElement()) {
+                    String name = event.asEndElement().getName().getLocalPart();
+                    if ("record".equals(name)) {
+                        break;
+                    } else if ("header".equals(name)) {
+                        inHeader = false;
+                    }
+                    continue;
+                }
+                if (!event.isStartElement()) {
+                    continue;
+                }
+                StartElement element = event.asStartElement();
+                String name = element.getName().getLocalPart();
+                if ("header".equals(name)) {
+                    inHeader = true;
+                    deleted = "deleted".equals(attribute(element, "status"));
+                } else if (inHeader && "identifier".equals(name)) {
+                    identifier = reader.getElementText().trim();
+                } else if (inHeader && "datestamp".equals(name)) {
+                    dateStamp = parseDateStamp(reader.getElementText().trim());
+                } else if ("metadata".equals(name)) {
+                    metadataFile = saveMetadata(reader);
+                }
+            }
+        } catch (XMLStreamException | IOException | RuntimeException ex) {
+            if (metadataFile != null) {
+                metadataFile.delete();
+            }
+            throw ex;
+        }
+
+        if (identifier == null) {
+            logger.warning("ListRecords: skipping a record without an identifier");
+            if (metadataFile != null) {
+                metadataFile.delete();
+            }
+            return;
+        }
+        if (deleted && metadataFile != null) {
+            metadataFile.delete();
+            metadataFile = null;
+        }
+        page.add(new Record(identifier, dateStamp, deleted, metadataFile));
+    }
+
+    /**
+     * Copies the element enclosed in {@code <metadata>...</metadata>} to a
+     * temp file, with the namespaces it uses (some of which may only be
+     * declared on the enclosing OAI-PMH elements).
+     */
+    private File saveMetadata(XMLEventReader reader) throws XMLStreamException, IOException {
+        File tempFile = File.createTempFile("meta", ".tmp");
+        try (OutputStream out = new FileOutputStream(tempFile)) {
+            XMLEventWriter writer = xmlOutputFactory.createXMLEventWriter(out, "UTF-8");
+            int depth = 0;
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (event.isStartElement()) {
+                    depth++;
+                } else if (event.isEndElement()) {
+                    if (depth == 0) {
+                        // </metadata>
+                        break;
+                    }
+                    depth--;
+                } else if (depth == 0) {
+                    // white space (or comments) around the record
+                    continue;
+                }
+                writer.add(event);
+            }
+            writer.flush();
+            writer.close();
+        } catch (XMLStreamException | IOException ex) {
+            tempFile.delete();
+            throw ex;
+        }
+        return tempFile;
+    }
+
+    private static String attribute(StartElement element, String name) {
+        Attribute attribute = element.getAttributeByName(new QName(name));
+        return attribute != null ? attribute.getValue() : null;
+    }
+
+    static Date parseDateStamp(String dateStamp) {
+        try {
+            if (dateStamp.length() == 10) {
+                // day granularity
+                return Date.from(Instant.parse(dateStamp + "T00:00:00Z"));
+            }
+            return Date.from(Instant.parse(dateStamp));
+        } catch (RuntimeException ex) {
+            logger.warning("ListRecords: failed to parse the datestamp " + dateStamp);
+            return null;
+        }
+    }
+}
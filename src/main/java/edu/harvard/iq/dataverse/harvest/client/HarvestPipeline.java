@@ -0,0 +1,193 @@
+package edu.harvard.iq.dataverse.harvest.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a harvest as a pipeline: while the calling thread goes on listing the
+ * records of the remote server, the records are fetched by up to a number of
+ * concurrent requests, and imported by a number of import workers.
+ *
+ * All the work on the same identifier is done by the same import worker, in
+ * the order it was submitted, so that a record listed twice (or deleted and
+ * listed again) ends up the way it was listed last. At most a fixed number of
+ * records are in flight - being fetched, or fetched and waiting to be imported
+ * - so that neither the temp files nor the remote server get flooded; the
+ * calling thread blocks until there is room for more.
+ *
+ * The threads are made by the container's managed thread factory (so that
+ * they can call the EJBs), and only live for the duration of the harvest.
+ */
+class HarvestPipeline {
+
+    private static final Logger logger = Logger.getLogger(HarvestPipeline.class.getCanonicalName());
+
+    private static final Runnable END = () -> {};
+
+    private final ExecutorService threads;
+    private final Semaphore fetchers;
+    private final Semaphore inFlight;
+    private final RequestThrottle throttle;
+    private final List<BlockingQueue<Runnable>> importQueues = new ArrayList<>();
+    private final CountDownLatch importersDone;
+
+    /**
+     * @param threadFactory the factory of the threads of the pipeline.
+     * @param concurrentRequests how many records to fetch at the same time.
+     * @param importWorkers how many records to import at the same time.
+     * @param maxRequestsPerSecond how many requests to make per second at most; 0 for no limit.
+     */
+    HarvestPipeline(ThreadFactory threadFactory, int concurrentRequests, int importWorkers, int maxRequestsPerSecond) {
+        concurrentRequests = Math.max(1, concurrentRequests);
+        importWorkers = Math.max(1, importWorkers);
+        threads = Executors.newFixedThreadPool(concurrentRequests + importWorkers, threadFactory);
+        fetchers = new Semaphore(concurrentRequests);
+        inFlight = new Semaphore(concurrentRequests + 2 * importWorkers);
+        throttle = new RequestThrottle(maxRequestsPerSecond);
+        importersDone = new CountDownLatch(importWorkers);
+        for (int i = 0; i < importWorkers; i++) {
+            BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+            importQueues.add(queue);
+            threads.execute(() -> runImports(queue));
+        }
+    }
+
+    /**
+     * Fetches a record on one of the fetching threads, then hands it to the
+     * import worker of its identifier.
+     *
+     * @param fetch makes the request(s) for the record; should not throw.
+     * @param importer imports what {@code fetch} returned.
+     */
+    <T> void fetchAndImport(String identifier, Callable<T> fetch, Consumer<T> importer) throws InterruptedException {
+        inFlight.acquire();
+        fetchers.acquire();
+        CompletableFuture<T> fetched = new CompletableFuture<>();
+        try {
+            threads.execute(() -> {
+                try {
+                    throttle.acquire();
+                    fetched.complete(fetch.call());
+                } catch (Throwable t) {
+                    fetched.completeExceptionally(t);
+                } finally {
+                    fetchers.release();
+                }
+            });
+        } catch (RuntimeException ex) {
+            fetchers.release();
+            inFlight.release();
+            throw ex;
+        }
+        queue(identifier, () -> {
+            try {
+                importer.accept(fetched.get());
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ee) {
+                logger.log(Level.WARNING, "Failed to fetch the harvested record " + identifier, ee.getCause());
+            }
+        });
+    }
+
+    /**
+     * Hands work on a record that needs no fetching (e.g. a record that was
+     * deleted, or came with a page of records) to the import worker of its
+     * identifier.
+     */
+    void importOnly(String identifier, Runnable task) throws InterruptedException {
+        inFlight.acquire();
+        queue(identifier, task);
+    }
+
+    /**
+     * Waits (if need be) for the next request to the remote server to be
+     * allowed, for requests made on the calling thread.
+     */
+    void throttle() throws InterruptedException {
+        throttle.acquire();
+    }
+
+    /**
+     * Waits for all the work submitted so far to be done, and stops the
+     * threads of the pipeline.
+     */
+    void finish() throws InterruptedException {
+        try {
+            for (BlockingQueue<Runnable> queue : importQueues) {
+                queue.put(END);
+            }
+            importersDone.await();
+        } finally {
+            threads.shutdownNow();
+            threads.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private void queue(String identifier, Runnable task) throws InterruptedException {
+        importQueues.get(Math.floorMod(identifier.hashCode(), importQueues.size())).put(() -> {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.log(Level.WARNING, "Failed to process the harvested record " + identifier, t);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private void runImports(BlockingQueue<Runnable> queue) {
+        try {
+            for (Runnable task = queue.take(); task != END; task = queue.take()) {
+                task.run();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            importersDone.countDown();
+        }
+    }
+
+    /**
+     * Spaces the requests to the remote server evenly, so that no more than
+     * the given number are started per second.
+     */
+    static final class RequestThrottle {
+        private final long intervalNanos;
+        private long next = 0;
+
+        RequestThrottle(int maxRequestsPerSecond) {
+            this.intervalNanos = maxRequestsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / maxRequestsPerSecond : 0;
+        }
+
+        void acquire() throws InterruptedException {
+            if (intervalNanos == 0) {
+                return;
+            }
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long start = Math.max(now, next);
+                next = start + intervalNanos;
+                wait = start - now;
+            }
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+}
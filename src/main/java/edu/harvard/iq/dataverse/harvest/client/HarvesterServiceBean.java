@@ -15,6 +15,7 @@ import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -27,6 +28,7 @@ import javax.ejb.EJB;
 import javax.ejb.EJBException;
 import javax.ejb.Stateless;
 import javax.ejb.Timer;
+import javax.enterprise.concurrent.ManagedThreadFactory;
 import javax.inject.Named;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
@@ -39,7 +41,11 @@ import edu.harvard.iq.dataverse.api.imports.ImportServiceBean;
 import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
 import edu.harvard.iq.dataverse.harvest.client.oai.OaiHandler;
 import edu.harvard.iq.dataverse.harvest.client.oai.OaiHandlerException;
+import edu.harvard.iq.dataverse.search.IndexResponse;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
+import edu.harvard.iq.dataverse.search.SolrIndexBatch;
+import edu.harvard.iq.dataverse.search.SolrIndexServiceBean;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.InputStream;
@@ -80,6 +86,10 @@ public class HarvesterServiceBean {
     EjbDataverseEngine engineService;
     @EJB
     IndexServiceBean indexService;
+    @EJB
+    SolrIndexServiceBean solrIndexService;
+    @Resource
+    ManagedThreadFactory managedThreadFactory;
     
     private static final Logger logger = Logger.getLogger("edu.harvard.iq.dataverse.harvest.client.HarvesterServiceBean");
     private static final SimpleDateFormat logFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HH-mm-ss");
@@ -89,6 +99,9 @@ public class HarvesterServiceBean {
     public static final String DATAVERSE_PROPRIETARY_METADATA_FORMAT="dataverse_json";
     public static final String DATAVERSE_PROPRIETARY_METADATA_API="/api/datasets/export?exporter="+DATAVERSE_PROPRIETARY_METADATA_FORMAT+"&persistentId=";
     public static final String DATAVERSE_HARVEST_STOP_FILE="../logs/stopharvest_";
+    private static final int DEFAULT_IMPORT_WORKERS = 2;
+    private static final long PROGRESS_INTERVAL_MILLIS = 30000;
+    private static final int DEFAULT_INDEX_CHECKPOINT = 1000;
 
     public HarvesterServiceBean() {
 
@@ -156,12 +169,15 @@ public class HarvesterServiceBean {
         PrintWriter importCleanupLog = new PrintWriter(new FileWriter( "../logs/harvest_cleanup_" + harvestingClientConfig.getName() + "_" + logTimestamp+".txt"));
         
         
-        List<Long> harvestedDatasetIds = new ArrayList<>();
-        List<String> failedIdentifiers = new ArrayList<>();
-        List<String> deletedIdentifiers = new ArrayList<>();
+        // (added to by the import workers, when the records are imported in a pipeline)
+        List<Long> harvestedDatasetIds = Collections.synchronizedList(new ArrayList<>());
+        List<String> failedIdentifiers = Collections.synchronizedList(new ArrayList<>());
+        List<String> deletedIdentifiers = Collections.synchronizedList(new ArrayList<>());
         
         Date harvestStartTime = new Date();
         
+        DeferredHarvestIndexing deferredIndexing = harvestingClientConfig.isDeferIndexing() ? new DeferredHarvestIndexing() : null;
+        
         try {
             if (harvestingClientConfig.isHarvestingNow()) {
                 hdLogger.log(Level.SEVERE, "Cannot start harvest, client " + harvestingClientConfig.getName() + " is already harvesting.");
@@ -172,11 +188,12 @@ public class HarvesterServiceBean {
 
                
                 if (harvestingClientConfig.isOai()) {
-                    harvestOAI(dataverseRequest, harvestingClientConfig, hdLogger, importCleanupLog, failedIdentifiers, deletedIdentifiers, harvestedDatasetIds);
+                    harvestOAI(dataverseRequest, harvestingClientConfig, hdLogger, importCleanupLog, failedIdentifiers, deletedIdentifiers, harvestedDatasetIds, deferredIndexing);
 
                 } else {
                     throw new IOException("Unsupported harvest type");
                 }
+               indexHarvestedDatasets(harvestingClientConfig, deferredIndexing, hdLogger);
                harvestingClientService.setHarvestSuccess(harvestingClientId, new Date(), harvestedDatasetIds.size(), failedIdentifiers.size(), deletedIdentifiers.size());
                hdLogger.log(Level.INFO, "COMPLETED HARVEST, server=" + harvestingClientConfig.getArchiveUrl() + ", metadataPrefix=" + harvestingClientConfig.getMetadataPrefix());
                hdLogger.log(Level.INFO, "Datasets created/updated: " + harvestedDatasetIds.size() + ", datasets deleted: " + deletedIdentifiers.size() + ", datasets failed: " + failedIdentifiers.size());
@@ -184,6 +201,7 @@ public class HarvesterServiceBean {
             }
         } catch (StopHarvestException she) {
             hdLogger.log(Level.INFO, "HARVEST INTERRUPTED BY EXTERNAL REQUEST");
+            indexHarvestedDatasets(harvestingClientConfig, deferredIndexing, hdLogger);
             harvestingClientService.setPartiallyCompleted(harvestingClientId, new Date(), harvestedDatasetIds.size(), failedIdentifiers.size(), deletedIdentifiers.size());
         } catch (Throwable e) {
             // Any other exception should be treated as a complete failure
@@ -191,6 +209,8 @@ public class HarvesterServiceBean {
             hdLogger.log(Level.SEVERE, message);
             logException(e, hdLogger);
             hdLogger.log(Level.INFO, "HARVEST NOT COMPLETED DUE TO UNEXPECTED ERROR.");
+            // (what was imported before the failure still gets indexed)
+            indexHarvestedDatasets(harvestingClientConfig, deferredIndexing, hdLogger);
 
             harvestingClientService.setHarvestFailure(harvestingClientId, new Date(), harvestedDatasetIds.size(), failedIdentifiers.size(), deletedIdentifiers.size());
 
@@ -209,7 +229,7 @@ public class HarvesterServiceBean {
      * @param harvestErrorOccurred  have we encountered any errors during harvest?
      * @param failedIdentifiers     Study Identifiers for failed "GetRecord" requests
      */
-    private void harvestOAI(DataverseRequest dataverseRequest, HarvestingClient harvestingClient, Logger hdLogger, PrintWriter importCleanupLog, List<String> failedIdentifiers, List<String> deletedIdentifiers, List<Long> harvestedDatasetIds)
+    private void harvestOAI(DataverseRequest dataverseRequest, HarvestingClient harvestingClient, Logger hdLogger, PrintWriter importCleanupLog, List<String> failedIdentifiers, List<String> deletedIdentifiers, List<Long> harvestedDatasetIds, DeferredHarvestIndexing deferredIndexing)
             throws IOException, ParserConfigurationException, SAXException, TransformerException, StopHarvestException {
 
         logBeginOaiHarvest(hdLogger, harvestingClient);
@@ -232,9 +252,75 @@ public class HarvesterServiceBean {
         // OAI (or remote Dataverse API) to obtain the metadata records 
         httpClient = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.ALWAYS).build();
         
+        try {
+            if (harvestingClient.isUseListRecords() && !DATAVERSE_PROPRIETARY_METADATA_FORMAT.equals(oaiHandler.getMetadataPrefix())) {
+                harvestOAIListRecords(dataverseRequest, oaiHandler, httpClient, hdLogger, importCleanupLog, failedIdentifiers, deletedIdentifiers, harvestedDatasetIds, deferredIndexing);
+            } else if (harvestingClient.getConcurrentRequests() != null && harvestingClient.getConcurrentRequests() > 1) {
+                harvestOAIPipelined(dataverseRequest, oaiHandler, httpClient, hdLogger, importCleanupLog, failedIdentifiers, deletedIdentifiers, harvestedDatasetIds, deferredIndexing);
+            } else {
+                harvestOAISequentially(dataverseRequest, oaiHandler, httpClient, hdLogger, importCleanupLog, failedIdentifiers, deletedIdentifiers, harvestedDatasetIds, deferredIndexing);
+            }
+        } catch (OaiHandlerException e) {
+            throw new IOException("Failed to run ListIdentifiers: " + e.getMessage());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while harvesting");
+        }
+
+        logCompletedOaiHarvest(hdLogger, harvestingClient);
+
+    }    
+    
+    /**
+     * Lists the identifiers, then retrieves and imports the records one at a
+     * time.
+     */
+    private void harvestOAISequentially(DataverseRequest dataverseRequest, OaiHandler oaiHandler, HttpClient httpClient, Logger hdLogger, PrintWriter importCleanupLog, List<String> failedIdentifiers, List<String> deletedIdentifiers, List<Long> harvestedDatasetIds, DeferredHarvestIndexing deferredIndexing)
+            throws OaiHandlerException, StopHarvestException {
+        HarvestingClient harvestingClient = oaiHandler.getHarvestingClient();
+        long progressReported = System.currentTimeMillis();
+
+        for (Iterator<Header> idIter = oaiHandler.runListIdentifiers(); idIter.hasNext();) {
+            // Before each iteration, check if this harvesting job needs to be aborted:
+            if (checkIfStoppingJob(harvestingClient)) {
+                throw new StopHarvestException("Harvesting stopped by external request");
+            }
+
+            Header h = idIter.next();
+            String identifier = h.getIdentifier();
+            Date dateStamp = Date.from(h.getDatestamp());
+
+            hdLogger.info("processing identifier: " + identifier + ", date: " + dateStamp);
+
+            if (h.isDeleted()) {
+                hdLogger.info("Deleting harvesting dataset for " + identifier + ", per ListIdentifiers.");
+
+                deleteHarvestedDatasetIfExists(identifier, harvestingClient.getDataverse(), dataverseRequest, deletedIdentifiers, hdLogger, deferredIndexing);
+                continue;
+            }
+
+            // Retrieve and process this record with a separate GetRecord call:
+            FetchedRecord record = fetchRecord(hdLogger, oaiHandler, identifier, httpClient);
+            processRecord(dataverseRequest, hdLogger, importCleanupLog, oaiHandler, identifier, record, dateStamp, failedIdentifiers, deletedIdentifiers, harvestedDatasetIds, deferredIndexing);
+
+            progressReported = reportProgress(harvestingClient, progressReported, failedIdentifiers, deletedIdentifiers, harvestedDatasetIds);
+            indexAtCheckpoint(harvestingClient, deferredIndexing, hdLogger);
+        }
+    }
+
+    /**
+     * Lists the identifiers, while the records are retrieved by up to
+     * {@link HarvestingClient#getConcurrentRequests()} GetRecord calls at the
+     * same time, and imported by the import workers.
+     */
+    private void harvestOAIPipelined(DataverseRequest dataverseRequest, OaiHandler oaiHandler, HttpClient httpClient, Logger hdLogger, PrintWriter importCleanupLog, List<String> failedIdentifiers, List<String> deletedIdentifiers, List<Long> harvestedDatasetIds, DeferredHarvestIndexing deferredIndexing)
+            throws OaiHandlerException, StopHarvestException, InterruptedException {
+        HarvestingClient harvestingClient = oaiHandler.getHarvestingClient();
+        HarvestPipeline pipeline = createPipeline(harvestingClient, harvestingClient.getConcurrentRequests());
+        long progressReported = System.currentTimeMillis();
+
         try {
             for (Iterator<Header> idIter = oaiHandler.runListIdentifiers(); idIter.hasNext();) {
-                // Before each iteration, check if this harvesting job needs to be aborted:
                 if (checkIfStoppingJob(harvestingClient)) {
                     throw new StopHarvestException("Harvesting stopped by external request");
                 }
@@ -242,81 +328,232 @@ public class HarvesterServiceBean {
                 Header h = idIter.next();
                 String identifier = h.getIdentifier();
                 Date dateStamp = Date.from(h.getDatestamp());
-                
+
                 hdLogger.info("processing identifier: " + identifier + ", date: " + dateStamp);
-                
+
                 if (h.isDeleted()) {
                     hdLogger.info("Deleting harvesting dataset for " + identifier + ", per ListIdentifiers.");
-
-                    deleteHarvestedDatasetIfExists(identifier, oaiHandler.getHarvestingClient().getDataverse(), dataverseRequest, deletedIdentifiers, hdLogger);
+                    pipeline.importOnly(identifier, () -> deleteHarvestedDatasetIfExists(identifier, harvestingClient.getDataverse(), dataverseRequest, deletedIdentifiers, hdLogger, deferredIndexing));
                     continue;
                 }
 
-                MutableBoolean getRecordErrorOccurred = new MutableBoolean(false);
+                pipeline.fetchAndImport(identifier,
+                        () -> fetchRecord(hdLogger, oaiHandler, identifier, httpClient),
+                        record -> processRecord(dataverseRequest, hdLogger, importCleanupLog, oaiHandler, identifier, record, dateStamp, failedIdentifiers, deletedIdentifiers, harvestedDatasetIds, deferredIndexing));
 
-                // Retrieve and process this record with a separate GetRecord call:
-                
-                Long datasetId = processRecord(dataverseRequest, hdLogger, importCleanupLog, oaiHandler, identifier, getRecordErrorOccurred, deletedIdentifiers, dateStamp, httpClient);
-                
-                if (datasetId != null) {
-                    harvestedDatasetIds.add(datasetId);
+                progressReported = reportProgress(harvestingClient, progressReported, failedIdentifiers, deletedIdentifiers, harvestedDatasetIds);
+                indexAtCheckpoint(harvestingClient, deferredIndexing, hdLogger);
+            }
+        } finally {
+            // (when stopped, or failed, the records already retrieved are still imported)
+            pipeline.finish();
+        }
+    }
+
+    /**
+     * Retrieves the records a page at a time with ListRecords, while the
+     * records of the previous pages are imported by the import workers.
+     */
+    private void harvestOAIListRecords(DataverseRequest dataverseRequest, OaiHandler oaiHandler, HttpClient httpClient, Logger hdLogger, PrintWriter importCleanupLog, List<String> failedIdentifiers, List<String> deletedIdentifiers, List<Long> harvestedDatasetIds, DeferredHarvestIndexing deferredIndexing)
+            throws IOException, StopHarvestException, InterruptedException {
+        HarvestingClient harvestingClient = oaiHandler.getHarvestingClient();
+        HarvestPipeline pipeline = createPipeline(harvestingClient, 1);
+        FastListRecords listRecords = new FastListRecords(oaiHandler, httpClient);
+        long progressReported = System.currentTimeMillis();
+
+        try {
+            while (true) {
+                if (checkIfStoppingJob(harvestingClient)) {
+                    throw new StopHarvestException("Harvesting stopped by external request");
                 }
-                
-                if (getRecordErrorOccurred.booleanValue() == true) {
-                    failedIdentifiers.add(identifier);
-                    //can be uncommented out for testing failure handling:
-                    //throw new IOException("Exception occured, stopping harvest");
+
+                if (listRecords.needsRequest()) {
+                    pipeline.throttle();
+                }
+                FastListRecords.Record record = listRecords.next();
+                if (record == null) {
+                    break;
                 }
+                String identifier = record.getIdentifier();
+
+                hdLogger.info("processing identifier: " + identifier + ", date: " + record.getDateStamp());
+
+                if (record.isDeleted()) {
+                    hdLogger.info("Deleting harvesting dataset for " + identifier + ", per ListRecords.");
+                    pipeline.importOnly(identifier, () -> deleteHarvestedDatasetIfExists(identifier, harvestingClient.getDataverse(), dataverseRequest, deletedIdentifiers, hdLogger, deferredIndexing));
+                    continue;
+                }
+
+                FetchedRecord fetched = new FetchedRecord(record.getMetadataFile(), null, false);
+                pipeline.importOnly(identifier, () -> processRecord(dataverseRequest, hdLogger, importCleanupLog, oaiHandler, identifier, fetched, record.getDateStamp(), failedIdentifiers, deletedIdentifiers, harvestedDatasetIds, deferredIndexing));
+
+                progressReported = reportProgress(harvestingClient, progressReported, failedIdentifiers, deletedIdentifiers, harvestedDatasetIds);
+                indexAtCheckpoint(harvestingClient, deferredIndexing, hdLogger);
             }
-        } catch (OaiHandlerException e) {
-            throw new IOException("Failed to run ListIdentifiers: " + e.getMessage());
+        } finally {
+            listRecords.close();
+            pipeline.finish();
+            hdLogger.info("ListRecords requests made: " + listRecords.getRequests());
         }
+    }
 
-        logCompletedOaiHarvest(hdLogger, harvestingClient);
+    private HarvestPipeline createPipeline(HarvestingClient harvestingClient, int concurrentRequests) {
+        int importWorkers = JvmSettings.OAI_CLIENT_IMPORT_WORKERS.lookupOptional(Integer.class).orElse(DEFAULT_IMPORT_WORKERS);
+        int maxRequestsPerSecond = harvestingClient.getMaxRequestsPerSecond() != null ? harvestingClient.getMaxRequestsPerSecond() : 0;
+        return new HarvestPipeline(managedThreadFactory, concurrentRequests, importWorkers, maxRequestsPerSecond);
+    }
 
-    }    
-    
-    private Long processRecord(DataverseRequest dataverseRequest, Logger hdLogger, PrintWriter importCleanupLog, OaiHandler oaiHandler, String identifier, MutableBoolean recordErrorOccurred, List<String> deletedIdentifiers, Date dateStamp, HttpClient httpClient) {
-        String errMessage = null;
-        Dataset harvestedDataset = null;
+    /**
+     * Saves how many records were processed so far on the current harvesting
+     * run, if it wasn't done in the last {@link #PROGRESS_INTERVAL_MILLIS}.
+     *
+     * @return when the progress was last saved.
+     */
+    private long reportProgress(HarvestingClient harvestingClient, long lastReported, List<String> failedIdentifiers, List<String> deletedIdentifiers, List<Long> harvestedDatasetIds) {
+        long now = System.currentTimeMillis();
+        if (now - lastReported < PROGRESS_INTERVAL_MILLIS) {
+            return lastReported;
+        }
+        harvestingClientService.setHarvestProgress(harvestingClient.getId(), harvestedDatasetIds.size() + failedIdentifiers.size() + deletedIdentifiers.size());
+        return now;
+    }
+
+    /**
+     * Does the deferred indexing of the harvest so far, if enough datasets
+     * are waiting for it (see dataverse.oai.client.index-checkpoint).
+     */
+    private void indexAtCheckpoint(HarvestingClient harvestingClient, DeferredHarvestIndexing deferredIndexing, Logger hdLogger) {
+        if (deferredIndexing != null
+                && deferredIndexing.getPendingCount() >= JvmSettings.OAI_CLIENT_INDEX_CHECKPOINT.lookupOptional(Integer.class).orElse(DEFAULT_INDEX_CHECKPOINT)) {
+            indexHarvestedDatasets(harvestingClient, deferredIndexing, hdLogger);
+        }
+    }
+
+    /**
+     * Indexes the datasets imported by the harvest, and removes the documents
+     * of the ones it destroyed from the index, in bulk: the documents are sent
+     * to Solr in batches, and committed once. The time it takes is saved on
+     * the harvesting run, apart from the time spent harvesting.
+     */
+    void indexHarvestedDatasets(HarvestingClient harvestingClient, DeferredHarvestIndexing deferredIndexing, Logger hdLogger) {
+        if (deferredIndexing == null) {
+            return;
+        }
+        DeferredHarvestIndexing.Pending pending = deferredIndexing.takePending();
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        hdLogger.info("Indexing " + pending.datasetIds.size() + " harvested datasets, removing " + pending.solrIdsToDelete.size() + " documents from the index");
+        try {
+            IndexResponse deleted = solrIndexService.deleteMultipleSolrIds(pending.solrIdsToDelete);
+            hdLogger.fine(deleted.getMessage());
+
+            SolrIndexBatch batch = indexService.createIndexBatch();
+            try {
+                for (Long datasetId : pending.datasetIds) {
+                    try {
+                        indexService.indexDatasetInNewTransaction(datasetId, batch);
+                    } catch (EJBException ex) {
+                        hdLogger.warning("Failed to index the harvested dataset " + datasetId + ": " + ex.getMessage());
+                    }
+                }
+            } finally {
+                indexService.closeIndexBatchInNewTransaction(batch);
+            }
+
+            if (pending.dataverseToReindex) {
+                indexService.indexDataverse(harvestingClient.getDataverse());
+            }
+        } catch (Exception ex) {
+            hdLogger.log(Level.SEVERE, "Failed to index the harvested datasets: " + ex.getMessage());
+        }
+
+        deferredIndexing.addIndexingTime(System.currentTimeMillis() - start, pending.datasetIds.size());
+        harvestingClientService.setHarvestIndexing(harvestingClient.getId(), deferredIndexing.getIndexingMillis(), deferredIndexing.getIndexedDatasetCount());
+        hdLogger.info("Indexing done in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * What the remote server returned for a record: the metadata saved in a
+     * temp file, or an error, or that the record was deleted.
+     */
+    static class FetchedRecord {
+        final File tempFile;
+        final String errMessage;
+        final boolean deleted;
+
+        FetchedRecord(File tempFile, String errMessage, boolean deleted) {
+            this.tempFile = tempFile;
+            this.errMessage = errMessage;
+            this.deleted = deleted;
+        }
+    }
+
+    private FetchedRecord fetchRecord(Logger hdLogger, OaiHandler oaiHandler, String identifier, HttpClient httpClient) {
         logGetRecord(hdLogger, oaiHandler, identifier);
-        File tempFile = null;
-        
+
         try {
-            boolean deleted = false;
-            
             if (DATAVERSE_PROPRIETARY_METADATA_FORMAT.equals(oaiHandler.getMetadataPrefix())) {
                 // Make direct call to obtain the proprietary Dataverse metadata
                 // in JSON from the remote Dataverse server:
                 String metadataApiUrl = oaiHandler.getProprietaryDataverseMetadataURL(identifier);
                 logger.fine("calling "+metadataApiUrl);
-                tempFile = retrieveProprietaryDataverseMetadata(httpClient, metadataApiUrl);
-                
-            } else {
-                FastGetRecord record = oaiHandler.runGetRecord(identifier, httpClient);
-                errMessage = record.getErrorMessage();
-                deleted = record.isDeleted();
-                tempFile = record.getMetadataFile();
+                return new FetchedRecord(retrieveProprietaryDataverseMetadata(httpClient, metadataApiUrl), null, false);
+            }
+
+            FastGetRecord record = oaiHandler.runGetRecord(identifier, httpClient);
+            return new FetchedRecord(record.getMetadataFile(), record.getErrorMessage(), record.isDeleted());
+        } catch (Throwable e) {
+            logGetRecordException(hdLogger, oaiHandler, identifier, e);
+            return new FetchedRecord(null, "Caught exception while executing GetRecord on "+identifier, false);
+        }
+    }
+
+    private void processRecord(DataverseRequest dataverseRequest, Logger hdLogger, PrintWriter importCleanupLog, OaiHandler oaiHandler, String identifier, FetchedRecord record, Date dateStamp, List<String> failedIdentifiers, List<String> deletedIdentifiers, List<Long> harvestedDatasetIds, DeferredHarvestIndexing deferredIndexing) {
+        MutableBoolean getRecordErrorOccurred = new MutableBoolean(false);
+
+        Long datasetId = importRecord(dataverseRequest, hdLogger, importCleanupLog, oaiHandler, identifier, record, getRecordErrorOccurred, deletedIdentifiers, dateStamp, deferredIndexing);
+
+        if (datasetId != null) {
+            harvestedDatasetIds.add(datasetId);
+            if (deferredIndexing != null) {
+                deferredIndexing.indexLater(datasetId);
             }
+        }
+
+        if (getRecordErrorOccurred.booleanValue() == true) {
+            failedIdentifiers.add(identifier);
+            //can be uncommented out for testing failure handling:
+            //throw new IOException("Exception occured, stopping harvest");
+        }
+    }
 
+    private Long importRecord(DataverseRequest dataverseRequest, Logger hdLogger, PrintWriter importCleanupLog, OaiHandler oaiHandler, String identifier, FetchedRecord record, MutableBoolean recordErrorOccurred, List<String> deletedIdentifiers, Date dateStamp, DeferredHarvestIndexing deferredIndexing) {
+        String errMessage = record.errMessage;
+        Dataset harvestedDataset = null;
+        File tempFile = record.tempFile;
+        
+        try {
             if (errMessage != null) {
                 hdLogger.log(Level.SEVERE, "Error calling GetRecord - " + errMessage);
                 
-            } else if (deleted) {
+            } else if (record.deleted) {
                 hdLogger.info("Deleting harvesting dataset for "+identifier+", per GetRecord.");
                 
-                deleteHarvestedDatasetIfExists(identifier, oaiHandler.getHarvestingClient().getDataverse(), dataverseRequest, deletedIdentifiers, hdLogger); 
+                deleteHarvestedDatasetIfExists(identifier, oaiHandler.getHarvestingClient().getDataverse(), dataverseRequest, deletedIdentifiers, hdLogger, deferredIndexing); 
             } else {
                 hdLogger.info("Successfully retrieved GetRecord response.");
 
-                PrintWriter cleanupLog;
                 harvestedDataset = importService.doImportHarvestedDataset(dataverseRequest, 
                         oaiHandler.getHarvestingClient(),
                         identifier,
                         oaiHandler.getMetadataPrefix(), 
                         tempFile,
                         dateStamp,
-                        importCleanupLog);
+                        importCleanupLog,
+                        deferredIndexing);
                 
                 hdLogger.fine("Harvest Successful for identifier " + identifier);
                 hdLogger.fine("Size of this record: " + tempFile.length());
@@ -385,10 +622,10 @@ public class HarvesterServiceBean {
         throw new IOException("Failed to download native metadata from the remote dataverse server.");
     }
     
-    private void deleteHarvestedDatasetIfExists(String persistentIdentifier, Dataverse harvestingDataverse, DataverseRequest dataverseRequest, List<String> deletedIdentifiers, Logger hdLogger) {
+    private void deleteHarvestedDatasetIfExists(String persistentIdentifier, Dataverse harvestingDataverse, DataverseRequest dataverseRequest, List<String> deletedIdentifiers, Logger hdLogger, DeferredHarvestIndexing deferredIndexing) {
         Dataset dataset = datasetService.getDatasetByHarvestInfo(harvestingDataverse, persistentIdentifier);
         if (dataset != null) {
-            datasetService.deleteHarvestedDataset(dataset, dataverseRequest, hdLogger);
+            datasetService.deleteHarvestedDataset(dataset, dataverseRequest, hdLogger, deferredIndexing);
             // TODO: 
             // check the status of that Delete - see if it actually succeeded
             deletedIdentifiers.add(persistentIdentifier);
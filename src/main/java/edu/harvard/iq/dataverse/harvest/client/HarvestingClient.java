@@ -244,6 +244,53 @@ public class HarvestingClient implements Serializable {
         this.customHttpHeaders = customHttpHeaders;
     }
     
+    // How many GetRecord (or, for dataverse_json, export API) calls are 
+    // made to the remote server at the same time; null or 1 for one at a time:
+    private Integer concurrentRequests;
+    
+    public Integer getConcurrentRequests() {
+        return concurrentRequests;
+    }
+    
+    public void setConcurrentRequests(Integer concurrentRequests) {
+        this.concurrentRequests = concurrentRequests;
+    }
+    
+    // To be polite to the remote server; null for no limit:
+    private Integer maxRequestsPerSecond;
+    
+    public Integer getMaxRequestsPerSecond() {
+        return maxRequestsPerSecond;
+    }
+    
+    public void setMaxRequestsPerSecond(Integer maxRequestsPerSecond) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+    }
+    
+    // Harvest the records a page at a time with ListRecords, rather than 
+    // listing the identifiers and making a GetRecord call for each one:
+    private boolean useListRecords;
+    
+    public boolean isUseListRecords() {
+        return useListRecords;
+    }
+    
+    public void setUseListRecords(boolean useListRecords) {
+        this.useListRecords = useListRecords;
+    }
+    
+    // Index the harvested datasets in bulk, at checkpoints and at the end of 
+    // the run, rather than each one as soon as it's imported:
+    private boolean deferIndexing;
+    
+    public boolean isDeferIndexing() {
+        return deferIndexing;
+    }
+    
+    public void setDeferIndexing(boolean deferIndexing) {
+        this.deferIndexing = deferIndexing;
+    }
+    
     // TODO: do we need "orphanRemoval=true"? -- L.A. 4.4
     // TODO: should it be @OrderBy("startTime")? -- L.A. 4.4
     @OneToMany(mappedBy="harvestingClient", cascade={CascadeType.REMOVE, CascadeType.MERGE, CascadeType.PERSIST})
@@ -196,6 +196,39 @@ public class HarvestingClientServiceBean implements java.io.Serializable {
             currentRun.setHarvestedDatasetCount(Long.valueOf(harvestedCount));
             currentRun.setFailedDatasetCount(Long.valueOf(failedCount));
             currentRun.setDeletedDatasetCount(Long.valueOf(deletedCount));
+            currentRun.updateProgress(harvestedCount + failedCount + deletedCount, finishTime);
+        }
+    }
+    
+    /**
+     * Records how many records the harvest currently running has processed.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void setHarvestProgress(Long hcId, long processedRecordCount) {
+        HarvestingClient harvestingClient = em.find(HarvestingClient.class, hcId);
+        if (harvestingClient == null) {
+            return;
+        }
+        ClientHarvestRun currentRun = harvestingClient.getLastRun();
+        if (currentRun != null && currentRun.isInProgress()) {
+            currentRun.updateProgress(processedRecordCount, new Date());
+        }
+    }
+    
+    /**
+     * Records how long the harvest currently running spent on its deferred
+     * indexing so far, and how many datasets it indexed.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void setHarvestIndexing(Long hcId, long indexingMillis, long indexedDatasetCount) {
+        HarvestingClient harvestingClient = em.find(HarvestingClient.class, hcId);
+        if (harvestingClient == null) {
+            return;
+        }
+        ClientHarvestRun currentRun = harvestingClient.getLastRun();
+        if (currentRun != null && currentRun.isInProgress()) {
+            currentRun.setIndexingMillis(indexingMillis);
+            currentRun.setIndexedDatasetCount(indexedDatasetCount);
         }
     }
     
@@ -8,6 +8,7 @@ package edu.harvard.iq.dataverse.harvest.server;
 import edu.harvard.iq.dataverse.Dataset;
 import edu.harvard.iq.dataverse.DatasetServiceBean;
 import edu.harvard.iq.dataverse.DatasetVersion;
+import edu.harvard.iq.dataverse.export.ExportQueueServiceBean;
 import edu.harvard.iq.dataverse.export.ExportService;
 import io.gdcc.spi.export.ExportException;
 import edu.harvard.iq.dataverse.search.IndexServiceBean;
@@ -17,6 +18,7 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
@@ -53,6 +55,8 @@ public class OAIRecordServiceBean implements java.io.Serializable {
     DatasetServiceBean datasetService;
     @EJB 
     SettingsServiceBean settingsService;
+    @EJB
+    ExportQueueServiceBean exportQueueService;
     //@EJB
     //ExportService exportService;
 
@@ -113,8 +117,14 @@ public class OAIRecordServiceBean implements java.io.Serializable {
                                 && (dataset.getLastExportTime() == null
                                 || dataset.getLastExportTime().before(publicationDate))) {
 
-                            setUpdateLogger.fine("Attempting to run export on dataset " + dataset.getGlobalId().asString());
-                            exportAllFormats(dataset);
+                            if (exportQueueService.hasPendingExports(dataset.getId())) {
+                                // Being exported in the background; the record
+                                // will be added or updated with the next run.
+                                setUpdateLogger.fine("Dataset " + dataset.getGlobalId().asString() + " is being exported in the background");
+                            } else {
+                                setUpdateLogger.fine("Attempting to run export on dataset " + dataset.getGlobalId().asString());
+                                exportAllFormats(dataset);
+                            }
                         }
                         
                         // TODO: should probably bail if the export attempt has failed! -- L.A. 4.9.2
@@ -238,12 +248,14 @@ public class OAIRecordServiceBean implements java.io.Serializable {
         catch (Exception e) {logger.fine("Caught unknown exception while trying to export (ignoring)");}
     }
     
+    // Schedules the export, that is made in the background (see 
+    // ExportQueueConsumer); the "last export" time stamp of the dataset is 
+    // updated once all the formats are done.
     @TransactionAttribute(REQUIRES_NEW)
     public void exportAllFormatsInNewTransaction(Dataset dataset) throws ExportException {
         try {
             ExportService exportServiceInstance = ExportService.getInstance();
-            exportServiceInstance.exportAllFormats(dataset);
-            dataset = datasetService.merge(dataset);
+            exportServiceInstance.scheduleAllFormats(dataset);
         } catch (Exception e) {
             logger.log(Level.FINE, "Caught unknown exception while trying to export", e);
             throw new ExportException(e.getMessage());
@@ -291,10 +303,6 @@ public class OAIRecordServiceBean implements java.io.Serializable {
         return findOaiRecordsBySetName(setName, from, until, false);
     }
     
-    public List<OAIRecord> findOaiRecordsNotInThisSet(String setName, Instant from, Instant until) {
-        return findOaiRecordsBySetName(setName, from, until, true);
-    }
-    
     public List<OAIRecord> findOaiRecordsBySetName(String setName, Instant from, Instant until, boolean excludeSet) {
                 
         if (setName == null) {
@@ -337,6 +345,81 @@ public class OAIRecordServiceBean implements java.io.Serializable {
         }
     }
     
+    /**
+     * Returns one page of the records in a set, in the order of their global
+     * ids (and ids, for records sharing a global id): the records following
+     * the record {@code afterGlobalId}/{@code afterId}, or, without one, the
+     * records following the first {@code offset}. With the former (a "keyset"
+     * page), the cost of a page doesn't depend on how far into the set it is.
+     *
+     * @param setName the name of the set; {@code null} for the default set.
+     * @param afterGlobalId the global id of the last record of the previous page, or {@code null}.
+     * @param afterId the id of the last record of the previous page, if {@code afterGlobalId} is given.
+     * @param offset the number of records to skip, if {@code afterGlobalId} is {@code null}.
+     * @param maxResults the maximum length of the page.
+     */
+    public List<OAIRecord> findOaiRecordsPageBySetName(String setName, Instant from, Instant until, String afterGlobalId, Long afterId, int offset, int maxResults) {
+        String queryString = "SELECT object(h) from OAIRecord h where h.setName = :setName";
+        queryString += from != null ? " and h.lastUpdateTime >= :from" : "";
+        queryString += until != null ? " and h.lastUpdateTime<=:until" : "";
+        queryString += afterGlobalId != null ? " and (h.globalId > :afterGlobalId or (h.globalId = :afterGlobalId and h.id > :afterId))" : "";
+        queryString += " order by h.globalId, h.id";
+
+        logger.fine("Query: "+queryString+"; after: "+afterGlobalId+"; offset: "+offset);
+
+        TypedQuery<OAIRecord> query = em.createQuery(queryString, OAIRecord.class)
+                .setParameter("setName", setName == null ? "" : setName);
+        setDateRange(query, from, until);
+        if (afterGlobalId != null) {
+            query.setParameter("afterGlobalId", afterGlobalId).setParameter("afterId", afterId);
+        } else {
+            query.setFirstResult(offset);
+        }
+        return query.setMaxResults(maxResults).getResultList();
+    }
+
+    public long countOaiRecordsBySetName(String setName, Instant from, Instant until) {
+        String queryString = "SELECT count(h) from OAIRecord h where h.setName = :setName";
+        queryString += from != null ? " and h.lastUpdateTime >= :from" : "";
+        queryString += until != null ? " and h.lastUpdateTime<=:until" : "";
+
+        TypedQuery<Long> query = em.createQuery(queryString, Long.class)
+                .setParameter("setName", setName == null ? "" : setName);
+        setDateRange(query, from, until);
+        return query.getSingleResult();
+    }
+
+    /**
+     * Returns the records, in sets other than {@code setName}, of the given
+     * global ids (i.e., the other sets the records of a page belong to), in
+     * the order of their global ids.
+     */
+    public List<OAIRecord> findOaiRecordsInOtherSets(String setName, Instant from, Instant until, Collection<String> globalIds) {
+        if (globalIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String queryString = "SELECT object(h) from OAIRecord h where h.globalId in :globalIds"
+                + " and h.setName is not null and h.setName != '' and h.setName != :setName";
+        queryString += from != null ? " and h.lastUpdateTime >= :from" : "";
+        queryString += until != null ? " and h.lastUpdateTime<=:until" : "";
+        queryString += " order by h.globalId";
+
+        TypedQuery<OAIRecord> query = em.createQuery(queryString, OAIRecord.class)
+                .setParameter("globalIds", globalIds)
+                .setParameter("setName", setName == null ? "" : setName);
+        setDateRange(query, from, until);
+        return query.getResultList();
+    }
+
+    private static void setDateRange(TypedQuery<?> query, Instant from, Instant until) {
+        if (from != null) {
+            query.setParameter("from", Date.from(from), TemporalType.TIMESTAMP);
+        }
+        if (until != null) {
+            query.setParameter("until", Date.from(until), TemporalType.TIMESTAMP);
+        }
+    }
+
     // This method is to only get the records NOT marked as "deleted":
     public List<OAIRecord> findActiveOaiRecordsBySetName(String setName) {
         
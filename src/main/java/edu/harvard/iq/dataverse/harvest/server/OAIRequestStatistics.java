@@ -0,0 +1,98 @@
+package edu.harvard.iq.dataverse.harvest.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * How many OAI-PMH requests were served, per verb, and how long they took (see
+ * {@code /api/admin/oai/statistics}). The times include writing the response,
+ * so a slow harvester shows up as well as a slow lookup.
+ */
+public class OAIRequestStatistics {
+
+    private static final String[] VERBS = {"Identify", "ListMetadataFormats", "ListSets", "ListIdentifiers", "ListRecords", "GetRecord"};
+    /** Anything that isn't an OAI-PMH verb (those requests get an error response). */
+    private static final String BAD_VERB = "badVerb";
+    /** Upper bounds of the latency histogram, in milliseconds. */
+    private static final long[] BUCKETS = {10, 50, 100, 500, 1000, 5000, 30000};
+
+    private static final Map<String, VerbStatistics> statistics = new ConcurrentSkipListMap<>();
+
+    static {
+        for (String verb : VERBS) {
+            statistics.put(verb, new VerbStatistics());
+        }
+        statistics.put(BAD_VERB, new VerbStatistics());
+    }
+
+    private OAIRequestStatistics() {
+    }
+
+    /**
+     * @param verb the verb of the request, as sent by the client.
+     * @param millis how long it took to serve the request.
+     * @param failed whether serving it failed with an exception.
+     */
+    public static void record(String verb, long millis, boolean failed) {
+        VerbStatistics verbStatistics = (verb != null) ? statistics.get(verb) : null;
+        if (verbStatistics == null) {
+            verbStatistics = statistics.get(BAD_VERB);
+        }
+        verbStatistics.record(millis, failed);
+    }
+
+    public static JsonArrayBuilder getStatistics() {
+        JsonArrayBuilder stats = Json.createArrayBuilder();
+        statistics.forEach((verb, verbStatistics) -> stats.add(verbStatistics.toJson(verb)));
+        return stats;
+    }
+
+    private static final class VerbStatistics {
+        final LongAdder requests = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder totalMillis = new LongAdder();
+        final LongAccumulator maxMillis = new LongAccumulator(Math::max, 0);
+        final LongAdder[] histogram = new LongAdder[BUCKETS.length + 1];
+
+        VerbStatistics() {
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = new LongAdder();
+            }
+        }
+
+        void record(long millis, boolean failed) {
+            requests.increment();
+            if (failed) {
+                failures.increment();
+            }
+            totalMillis.add(millis);
+            maxMillis.accumulate(millis);
+            int bucket = 0;
+            while (bucket < BUCKETS.length && millis > BUCKETS[bucket]) {
+                bucket++;
+            }
+            histogram[bucket].increment();
+        }
+
+        JsonObjectBuilder toJson(String verb) {
+            long count = requests.sum();
+            JsonObjectBuilder buckets = Json.createObjectBuilder();
+            for (int i = 0; i < BUCKETS.length; i++) {
+                buckets.add("le" + BUCKETS[i], histogram[i].sum());
+            }
+            buckets.add("more", histogram[BUCKETS.length].sum());
+            return Json.createObjectBuilder()
+                    .add("verb", verb)
+                    .add("requests", count)
+                    .add("failures", failures.sum())
+                    .add("averageMillis", (count > 0) ? totalMillis.sum() / count : 0)
+                    .add("maxMillis", maxMillis.get())
+                    .add("millis", buckets);
+        }
+    }
+}
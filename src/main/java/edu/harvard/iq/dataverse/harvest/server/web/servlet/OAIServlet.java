@@ -25,20 +25,26 @@ import io.gdcc.spi.export.ExportException;
 import io.gdcc.spi.export.Exporter;
 import io.gdcc.spi.export.XMLExporter;
 import edu.harvard.iq.dataverse.harvest.server.OAIRecordServiceBean;
+import edu.harvard.iq.dataverse.harvest.server.OAIRequestStatistics;
 import edu.harvard.iq.dataverse.harvest.server.OAISetServiceBean;
 import edu.harvard.iq.dataverse.harvest.server.xoai.DataverseXoaiItemRepository;
 import edu.harvard.iq.dataverse.harvest.server.xoai.DataverseXoaiSetRepository;
+import edu.harvard.iq.dataverse.harvest.server.xoai.KeysetResumptionTokenFormat;
+import edu.harvard.iq.dataverse.harvest.server.xoai.MetadataFragments;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import edu.harvard.iq.dataverse.util.MailUtil;
 import edu.harvard.iq.dataverse.util.SystemConfig;
 import io.gdcc.xoai.exceptions.OAIException;
 import io.gdcc.xoai.model.oaipmh.Granularity;
-import io.gdcc.xoai.services.impl.SimpleResumptionTokenFormat;
 import org.apache.commons.lang3.StringUtils;
 
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 import javax.ejb.EJB;
 import javax.inject.Inject;
@@ -114,6 +120,7 @@ public class OAIServlet extends HttpServlet {
     private SetRepository setRepository;
     private ItemRepository itemRepository;
     private RepositoryConfiguration repositoryConfiguration;
+    private final KeysetResumptionTokenFormat resumptionTokenFormat = new KeysetResumptionTokenFormat();
     private Repository xoaiRepository;
     private DataProvider dataProvider;
 
@@ -202,7 +209,7 @@ public class OAIServlet extends HttpServlet {
                 .withCompression("gzip")
                 .withCompression("deflate")
                 .withGranularity(Granularity.Lenient)
-                .withResumptionTokenFormat(new SimpleResumptionTokenFormat().withGranularity(Granularity.Second))
+                .withResumptionTokenFormat(resumptionTokenFormat)
                 .withRepositoryName(repositoryName)
                 .withBaseUrl(systemConfig.getDataverseSiteUrl()+"/oai")
                 .withEarliestDate(recordService.getEarliestDate())
@@ -250,25 +257,61 @@ public class OAIServlet extends HttpServlet {
     private void processRequest(HttpServletRequest httpServletRequest, HttpServletResponse response)
             throws ServletException, IOException {
         
+        if (!isHarvestingServerEnabled()) {
+            response.sendError(
+                    HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "Sorry. OAI Service is disabled on this Dataverse node.");
+            return;
+        }
+        
+        long start = System.currentTimeMillis();
+        boolean failed = true;
+        // If enabled, the pre-generated metadata records are written out 
+        // as they are, rather than through the XOAI XML writer (see MetadataFragments):
+        MetadataFragments metadataFragments = MetadataFragments.isEnabled() ? MetadataFragments.begin() : null;
+        
         try {
-            if (!isHarvestingServerEnabled()) {
-                response.sendError(
-                        HttpServletResponse.SC_SERVICE_UNAVAILABLE,
-                        "Sorry. OAI Service is disabled on this Dataverse node.");
-                return;
+            Map<String, String[]> parameters = new HashMap<>(httpServletRequest.getParameterMap());
+            String[] resumptionToken = parameters.get("resumptionToken");
+            if (resumptionToken != null && resumptionToken.length == 1 && resumptionToken[0] != null) {
+                parameters.put("resumptionToken", new String[]{resumptionTokenFormat.stripCursor(resumptionToken[0])});
             }
-                        
-            RawRequest rawRequest = RequestBuilder.buildRawRequest(httpServletRequest.getParameterMap());
+            RawRequest rawRequest = RequestBuilder.buildRawRequest(parameters);
             
             OAIPMH handle = dataProvider.handle(rawRequest);
             response.setContentType("text/xml;charset=UTF-8");
 
+            if (metadataFragments != null) {
+                // What XOAI writes is small, with placeholders in place of the
+                // records; it is checked before anything is sent, so that this
+                // response can still be served through XOAI if need be.
+                ByteArrayOutputStream xoaiOutput = new ByteArrayOutputStream();
+                try (XmlWriter xmlWriter = new XmlWriter(xoaiOutput, repositoryConfiguration);) {
+                    xmlWriter.write(handle);
+                }
+                if (metadataFragments.checkSpliced(xoaiOutput.toByteArray())) {
+                    try (OutputStream outputStream = metadataFragments.splice(response.getOutputStream())) {
+                        xoaiOutput.writeTo(outputStream);
+                    }
+                    failed = false;
+                    return;
+                }
+                metadataFragments.end();
+                metadataFragments = null;
+                handle = dataProvider.handle(rawRequest);
+            }
             try (XmlWriter xmlWriter = new XmlWriter(response.getOutputStream(), repositoryConfiguration);) {
                 xmlWriter.write(handle);
             }
+            failed = false;
                        
         } catch (XMLStreamException | OAIException e) {
             throw new ServletException (e);
+        } finally {
+            if (metadataFragments != null) {
+                metadataFragments.end();
+            }
+            OAIRequestStatistics.record(httpServletRequest.getParameter("verb"), System.currentTimeMillis() - start, failed);
         }
         
     }
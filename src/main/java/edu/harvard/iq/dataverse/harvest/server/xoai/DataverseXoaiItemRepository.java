@@ -124,58 +124,79 @@ public class DataverseXoaiItemRepository implements ItemRepository {
         Instant from = resumptionToken.getFrom();
         Instant until = resumptionToken.getUntil();
         
-        boolean hasMore = false; 
+        // The cursor left by the previous page, if any (see KeysetResumptionTokenFormat),
+        // lets us look up this page as the records after the last one served, 
+        // rather than by skipping the offset: 
+        KeysetResumptionTokenFormat.Cursor cursor = offset > 0 ? KeysetResumptionTokenFormat.getCursor(resumptionToken) : null;
         
         logger.fine("calling " + (fullItems ? "getItems" : "getItemIdentifiers")
                 + "; offset=" + offset
+                + ", after=" + (cursor != null ? cursor.lastGlobalId : null)
                 + ", length=" + maxResponseLength
                 + ", setSpec=" + setSpec
                 + ", from=" + from
                 + ", until=" + until);
 
-        List<OAIRecord> oaiRecords = recordService.findOaiRecordsBySetName(setSpec, from, until);
+        // (one record more than requested, to tell whether there are any more)
+        List<OAIRecord> oaiRecords = recordService.findOaiRecordsPageBySetName(setSpec, from, until, 
+                cursor != null ? cursor.lastGlobalId : null, 
+                cursor != null ? cursor.lastId : null, 
+                offset, maxResponseLength + 1);
+        
+        boolean hasMore = oaiRecords.size() > maxResponseLength;
+        if (hasMore) {
+            oaiRecords = oaiRecords.subList(0, maxResponseLength);
+        }
         
         List<DataverseXoaiItem> xoaiItems = new ArrayList<>();
+        
+        if (oaiRecords.isEmpty()) {
+            return new ResultsPage(resumptionToken, false, xoaiItems, 0);
+        }
+        
+        long total = cursor != null ? cursor.total 
+                : (offset == 0 && !hasMore) ? oaiRecords.size() 
+                : recordService.countOaiRecordsBySetName(setSpec, from, until);
 
-        if (oaiRecords != null && !oaiRecords.isEmpty()) {
-            logger.fine("total " + oaiRecords.size() + " records returned");
-            
-            for (int i = offset; i < offset + maxResponseLength && i < oaiRecords.size(); i++) {
-                OAIRecord record = oaiRecords.get(i);
-                DataverseXoaiItem xoaiItem = new DataverseXoaiItem(record);
-                
-                if (fullItems) {
-                    // If we are cooking "full" Items (for the ListRecords verb),
-                    // add the metadata to the item object (if not a deleted
-                    // record, if available, etc.):
-                    xoaiItem = addMetadata(xoaiItem, metadataFormat);
-                }
-                
-                xoaiItems.add(xoaiItem);
+        for (OAIRecord record : oaiRecords) {
+            DataverseXoaiItem xoaiItem = new DataverseXoaiItem(record);
+
+            if (fullItems) {
+                // If we are cooking "full" Items (for the ListRecords verb),
+                // add the metadata to the item object (if not a deleted
+                // record, if available, etc.):
+                xoaiItem = addMetadata(xoaiItem, metadataFormat);
             }
-            
-            // Run a second pass, looking for records in this set that occur
-            // in *other* sets. Then we'll add these multiple sets to the 
-            // formatted output in the header:
-            addExtraSets(xoaiItems, setSpec, from, until);
-            
-            hasMore = offset + maxResponseLength < oaiRecords.size();
-            
-            ResultsPage<DataverseXoaiItem> result = new ResultsPage(resumptionToken, hasMore, xoaiItems, oaiRecords.size());
-            logger.fine("returning result with " + xoaiItems.size() + " items.");
-            return result;
+
+            xoaiItems.add(xoaiItem);
         }
 
-        return new ResultsPage(resumptionToken, false, xoaiItems, 0);
+        // Run a second pass, looking for the records on this page that occur
+        // in *other* sets. Then we'll add these multiple sets to the 
+        // formatted output in the header:
+        addExtraSets(xoaiItems, setSpec, from, until);
+        
+        if (hasMore) {
+            OAIRecord lastRecord = oaiRecords.get(oaiRecords.size() - 1);
+            KeysetResumptionTokenFormat.putNextCursor(resumptionToken, maxResponseLength, 
+                    new KeysetResumptionTokenFormat.Cursor(lastRecord.getGlobalId(), lastRecord.getId(), total));
+        }
+
+        ResultsPage<DataverseXoaiItem> result = new ResultsPage(resumptionToken, hasMore, xoaiItems, total);
+        logger.fine("returning result with " + xoaiItems.size() + " items.");
+        return result;
     }
     
-    private void addExtraSets(Object xoaiItemsList, String setSpec, Instant from, Instant until) {
+    private void addExtraSets(List<DataverseXoaiItem> xoaiItems, String setSpec, Instant from, Instant until) {
         
-        List<DataverseXoaiItem> xoaiItems = (List<DataverseXoaiItem>)xoaiItemsList;
+        List<String> globalIds = new ArrayList<>();
+        for (DataverseXoaiItem xoaiItem : xoaiItems) {
+            globalIds.add(xoaiItem.getIdentifier());
+        }
         
-        List<OAIRecord> oaiRecords = recordService.findOaiRecordsNotInThisSet(setSpec, from, until);
+        List<OAIRecord> oaiRecords = recordService.findOaiRecordsInOtherSets(setSpec, from, until, globalIds);
         
-        if (oaiRecords == null || oaiRecords.isEmpty()) {
+        if (oaiRecords.isEmpty()) {
             return;
         }
                 
@@ -251,6 +272,11 @@ public class DataverseXoaiItemRepository implements ItemRepository {
                     new EchoElement("<dataverse_json>custom metadata</dataverse_json>"))
                     .withAttribute("directApiCall", customDataverseJsonApiUri(dataset.getGlobalId().asString()));
             
+        } else if (MetadataFragments.current() != null && MetadataFragments.isEnabled(metadataPrefix)) {
+            // The servlet is going to write the pre-generated record out
+            // as it is, in place of what we hand to XOAI here:
+            metadata = MetadataFragments.current().add(dataset, metadataPrefix);
+
         } else {
             InputStream pregeneratedMetadataStream;
             pregeneratedMetadataStream = ExportService.getInstance().getExport(dataset, metadataPrefix);
@@ -0,0 +1,103 @@
+package edu.harvard.iq.dataverse.harvest.server.xoai;
+
+import edu.harvard.iq.dataverse.util.LruCache;
+import io.gdcc.xoai.model.oaipmh.Granularity;
+import io.gdcc.xoai.model.oaipmh.ResumptionToken;
+import io.gdcc.xoai.services.impl.SimpleResumptionTokenFormat;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.logging.Logger;
+
+/**
+ * The XOAI resumption tokens only carry an offset into the list of records.
+ * This format appends a "cursor" to them - the global id (and id) of the last
+ * record of the page, and the size of the whole list - so that the next page
+ * can be looked up as the records after that one (see
+ * {@link DataverseXoaiItemRepository}), rather than by skipping the offset,
+ * and the size doesn't have to be counted again.
+ *
+ * The cursor is handed over between the item repository and this format (and
+ * back, when the next page is requested) through a small cache, keyed by the
+ * resumption token values, since XOAI only passes the values around.
+ */
+public class KeysetResumptionTokenFormat extends SimpleResumptionTokenFormat {
+
+    private static final Logger logger = Logger.getLogger(KeysetResumptionTokenFormat.class.getCanonicalName());
+
+    private static final String CURSOR_SEPARATOR = ".";
+
+    private static final LruCache<String, Cursor> cursors = new LruCache<>("oaiResumptionCursors", 1024, Duration.ofHours(1));
+
+    public KeysetResumptionTokenFormat() {
+        withGranularity(Granularity.Second);
+    }
+
+    @Override
+    public String format(ResumptionToken.Value resumptionToken) {
+        String token = super.format(resumptionToken);
+        Cursor cursor = getCursor(resumptionToken);
+        if (cursor == null) {
+            return token;
+        }
+        String encoded = cursor.total + "\n" + cursor.lastId + "\n" + cursor.lastGlobalId;
+        return token + CURSOR_SEPARATOR + Base64.getUrlEncoder().withoutPadding().encodeToString(encoded.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Removes the cursor from a resumption token sent by a client, making it
+     * available to the item repository.
+     *
+     * @param token the resumption token as sent by the client.
+     * @return the token, as XOAI expects it.
+     */
+    public String stripCursor(String token) {
+        int separator = token.lastIndexOf(CURSOR_SEPARATOR);
+        if (separator < 0) {
+            return token;
+        }
+        String xoaiToken = token.substring(0, separator);
+        try {
+            String[] decoded = new String(Base64.getUrlDecoder().decode(token.substring(separator + 1)), StandardCharsets.UTF_8).split("\n", 3);
+            Cursor cursor = new Cursor(decoded[2], Long.valueOf(decoded[1]), Long.parseLong(decoded[0]));
+            putCursor(parse(xoaiToken), cursor);
+            return xoaiToken;
+        } catch (Exception ex) {
+            // Not a token with a cursor: a bad token is for XOAI to report.
+            logger.fine("No cursor in resumption token " + token + ": " + ex);
+            return token;
+        }
+    }
+
+    static Cursor getCursor(ResumptionToken.Value resumptionToken) {
+        return cursors.get(key(resumptionToken, resumptionToken.getOffset()));
+    }
+
+    static void putCursor(ResumptionToken.Value resumptionToken, Cursor cursor) {
+        cursors.put(key(resumptionToken, resumptionToken.getOffset()), cursor);
+    }
+
+    /**
+     * Registers the cursor of the page following the one at {@code resumptionToken}.
+     */
+    static void putNextCursor(ResumptionToken.Value resumptionToken, int pageLength, Cursor cursor) {
+        cursors.put(key(resumptionToken, resumptionToken.getOffset() + pageLength), cursor);
+    }
+
+    private static String key(ResumptionToken.Value resumptionToken, long offset) {
+        return resumptionToken.getMetadataPrefix() + "|" + resumptionToken.getSetSpec()
+                + "|" + resumptionToken.getFrom() + "|" + resumptionToken.getUntil() + "|" + offset;
+    }
+
+    static final class Cursor {
+        final String lastGlobalId;
+        final Long lastId;
+        final long total;
+
+        Cursor(String lastGlobalId, Long lastId, long total) {
+            this.lastGlobalId = lastGlobalId;
+            this.lastId = lastId;
+            this.total = total;
+        }
+    }
+}
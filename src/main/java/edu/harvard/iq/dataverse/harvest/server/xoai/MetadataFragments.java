@@ -0,0 +1,432 @@
+package edu.harvard.iq.dataverse.harvest.server.xoai;
+
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.export.ExportService;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.LruCache;
+import io.gdcc.xoai.model.oaipmh.results.record.Metadata;
+import io.gdcc.xoai.xml.EchoElement;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Serves the pre-generated ("exported") metadata records of an OAI response
+ * as they are stored, rather than having XOAI parse and re-write every one of
+ * them.
+ *
+ * While a response is being put together, {@link DataverseXoaiItemRepository}
+ * gives XOAI a small placeholder element instead of the metadata of each
+ * record ({@link #add(Dataset, String)}); when XOAI writes the response, the
+ * output stream returned by {@link #splice(OutputStream)} replaces each
+ * placeholder with the bytes of the export, minus its XML declaration. The
+ * smaller records are kept in an in-memory cache of "hot" records, so that
+ * harvesting the same records again does not go to the storage; the larger ones
+ * are opened again when they are written, rather than kept open in between.
+ *
+ * A response is put together by a single thread, so the fragments are handed
+ * over from the item repository to the servlet through a thread local, set
+ * between {@link #begin()} and {@link #end()}.
+ *
+ * The response written by XOAI (which is small, without the records) is checked
+ * with {@link #checkSpliced(byte[])} before any of it is sent. If the records
+ * of a metadata format are ever not found in it, that format is served through
+ * XOAI again, until {@link #enableAll()} is called (see
+ * {@code /api/admin/oai/streamRecords}).
+ */
+public class MetadataFragments {
+
+    private static final Logger logger = Logger.getLogger(MetadataFragments.class.getCanonicalName());
+
+    public static final int DEFAULT_RECORD_CACHE_SIZE = 1000;
+    /** Larger records are streamed from the storage every time, rather than cached. */
+    static final int MAX_CACHED_RECORD_SIZE = 64 * 1024;
+
+    private static final String NAMESPACE = "urn:x-dataverse:oai-metadata-fragment";
+    private static final byte[] PLACEHOLDER_START = "<dvoai:fragment".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PLACEHOLDER_END = "</dvoai:fragment>".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_PLACEHOLDER_LENGTH = 256;
+
+    private static final LruCache<String, CachedRecord> hotRecords = new LruCache<>("oaiRecords",
+            JvmSettings.OAI_SERVER_RECORD_CACHE_SIZE.lookupOptional(Integer.class).orElse(DEFAULT_RECORD_CACHE_SIZE),
+            Duration.ofHours(1));
+
+    private static final ThreadLocal<MetadataFragments> current = new ThreadLocal<>();
+
+    /**
+     * The metadata formats whose placeholders failed to be replaced - i.e.,
+     * that the XOAI XML writer did not write the way they were given to it -
+     * and whose records are served through XOAI again.
+     */
+    private static final Set<String> disabledFormats = ConcurrentHashMap.newKeySet();
+
+    private final List<Fragment> fragments = new ArrayList<>();
+    private int spliced = 0;
+
+    /**
+     * Opens the export of a metadata record: when it is added, and again when
+     * it is written out, if it is too large to be kept until then.
+     */
+    interface ExportOpener {
+        InputStream open() throws IOException;
+    }
+
+    private MetadataFragments() {
+    }
+
+    /**
+     * @return whether the records should be served as they are stored.
+     */
+    public static boolean isEnabled() {
+        return JvmSettings.OAI_SERVER_STREAM_RECORDS.lookupOptional(Boolean.class).orElse(false);
+    }
+
+    /**
+     * @return whether the records of this format can be served as they are
+     * stored, i.e. they have not failed to be so far.
+     */
+    static boolean isEnabled(String metadataPrefix) {
+        return !disabledFormats.contains(metadataPrefix);
+    }
+
+    /**
+     * @return the metadata formats that are served through XOAI again.
+     */
+    public static Set<String> getDisabledFormats() {
+        return new TreeSet<>(disabledFormats);
+    }
+
+    /**
+     * Serves the records of all formats as they are stored again, e.g. once
+     * the cause of the failure has been fixed.
+     */
+    public static void enableAll() {
+        if (!disabledFormats.isEmpty()) {
+            logger.info("Serving the metadata records of " + getDisabledFormats() + " as they are stored again");
+            disabledFormats.clear();
+        }
+    }
+
+    /**
+     * Starts collecting the records of a response on this thread.
+     */
+    public static MetadataFragments begin() {
+        MetadataFragments fragments = new MetadataFragments();
+        current.set(fragments);
+        return fragments;
+    }
+
+    /**
+     * @return the records being collected on this thread, or {@code null} if
+     * the records are to be served through XOAI.
+     */
+    static MetadataFragments current() {
+        return current.get();
+    }
+
+    /**
+     * To be called with the whole response written by XOAI, before any of it
+     * is sent: checks that all the placeholders are there to be replaced. If
+     * not, the formats of the missing records are served through XOAI from now
+     * on, and so should this response be.
+     *
+     * @return whether the response can be spliced.
+     */
+    public boolean checkSpliced(byte[] response) throws IOException {
+        try (OutputStream dryRun = new SplicingOutputStream(OutputStream.nullOutputStream(), false)) {
+            dryRun.write(response);
+        }
+        if (spliced < fragments.size()) {
+            Set<String> formats = new TreeSet<>();
+            for (Fragment fragment : fragments) {
+                if (!fragment.spliced && fragment.metadataPrefix != null) {
+                    formats.add(fragment.metadataPrefix);
+                }
+            }
+            logger.severe("Only " + spliced + " of the " + fragments.size()
+                    + " metadata records of an OAI response were found in it; serving the records of " + formats
+                    + " through XOAI until re-enabled with DELETE /api/admin/oai/streamRecords/disabled");
+            disabledFormats.addAll(formats);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops collecting records on this thread.
+     */
+    public void end() {
+        current.remove();
+    }
+
+    /**
+     * Adds the pre-generated metadata record of a dataset to the response.
+     *
+     * @return the placeholder to hand to XOAI in place of the metadata.
+     * @throws IOException if the export could not be found or read.
+     */
+    Metadata add(Dataset dataset, String metadataPrefix) throws IOException {
+        String key = dataset.getId() + "|" + metadataPrefix;
+        long exportTime = dataset.getLastExportTime() != null ? dataset.getLastExportTime().getTime() : 0;
+
+        CachedRecord cached = hotRecords.get(key);
+        if (cached != null && cached.exportTime == exportTime) {
+            return add(new Fragment(cached.bytes, cached.offset, null, metadataPrefix));
+        }
+
+        Fragment fragment = read(() -> ExportService.getInstance().getExport(dataset, metadataPrefix), metadataPrefix);
+        // (the time is not set if the export was never recorded; such records are not cached)
+        if (fragment.bytes != null && exportTime != 0) {
+            hotRecords.put(key, new CachedRecord(exportTime, fragment.bytes, fragment.offset));
+        }
+        return add(fragment);
+    }
+
+    /**
+     * Adds a metadata record of the given format, read from {@code export}.
+     */
+    Metadata add(ExportOpener export, String metadataPrefix) throws IOException {
+        return add(read(export, metadataPrefix));
+    }
+
+    private Metadata add(Fragment fragment) {
+        fragments.add(fragment);
+        return new Metadata(new EchoElement("<dvoai:fragment xmlns:dvoai=\"" + NAMESPACE + "\">"
+                + (fragments.size() - 1) + "</dvoai:fragment>"));
+    }
+
+    /**
+     * Reads an export: all of it, if it is small enough to be cached;
+     * otherwise only as far as it takes to find that out, leaving it to be
+     * opened again (one at a time) when the response is written.
+     */
+    private static Fragment read(ExportOpener export, String metadataPrefix) throws IOException {
+        byte[] head;
+        try (InputStream in = export.open()) {
+            head = in.readNBytes(MAX_CACHED_RECORD_SIZE + 1);
+        }
+        int offset = skipXmlDeclaration(head);
+        if (head.length <= MAX_CACHED_RECORD_SIZE) {
+            return new Fragment(head, offset, null, metadataPrefix);
+        }
+        return new Fragment(null, offset, export, metadataPrefix);
+    }
+
+    /**
+     * @param out the stream the XOAI response is written to.
+     * @return a stream that writes the response to {@code out}, with the
+     * placeholders replaced by the metadata records.
+     */
+    public OutputStream splice(OutputStream out) {
+        return new SplicingOutputStream(out, true);
+    }
+
+    /**
+     * @return the offset of the root element of an XML document, past the BOM,
+     * the XML declaration and any white space around it, if any.
+     */
+    static int skipXmlDeclaration(byte[] xml) {
+        int i = 0;
+        if (xml.length >= 3 && (xml[0] & 0xFF) == 0xEF && (xml[1] & 0xFF) == 0xBB && (xml[2] & 0xFF) == 0xBF) {
+            i = 3;
+        }
+        i = skipWhiteSpace(xml, i);
+        if (i + 5 < xml.length && xml[i] == '<' && xml[i + 1] == '?' && xml[i + 2] == 'x'
+                && xml[i + 3] == 'm' && xml[i + 4] == 'l' && Character.isWhitespace(xml[i + 5])) {
+            for (int j = i + 6; j + 1 < xml.length; j++) {
+                if (xml[j] == '?' && xml[j + 1] == '>') {
+                    return skipWhiteSpace(xml, j + 2);
+                }
+            }
+        }
+        return i;
+    }
+
+    private static int skipWhiteSpace(byte[] xml, int i) {
+        while (i < xml.length && (xml[i] == ' ' || xml[i] == '\t' || xml[i] == '\r' || xml[i] == '\n')) {
+            i++;
+        }
+        return i;
+    }
+
+    private void writeFragment(OutputStream out, String placeholder, boolean write) throws IOException {
+        int index;
+        try {
+            index = Integer.parseInt(placeholder.substring(placeholder.indexOf('>') + 1,
+                    placeholder.length() - PLACEHOLDER_END.length).trim());
+        } catch (NumberFormatException ex) {
+            throw new IOException("Not a metadata record placeholder: " + placeholder);
+        }
+        if (index < 0 || index >= fragments.size()) {
+            throw new IOException("No metadata record " + index + " in this response");
+        }
+        Fragment fragment = fragments.get(index);
+        if (write) {
+            fragment.writeTo(out);
+        }
+        if (!fragment.spliced) {
+            fragment.spliced = true;
+            spliced++;
+        }
+    }
+
+    private static final class CachedRecord {
+        final long exportTime;
+        final byte[] bytes;
+        final int offset;
+
+        CachedRecord(long exportTime, byte[] bytes, int offset) {
+            this.exportTime = exportTime;
+            this.bytes = bytes;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * A metadata record: its bytes, or the export to read them from, if it was
+     * too large to be kept in memory.
+     */
+    private static final class Fragment {
+        final byte[] bytes;
+        final int offset;
+        final ExportOpener export;
+        final String metadataPrefix;
+        boolean spliced = false;
+
+        Fragment(byte[] bytes, int offset, ExportOpener export, String metadataPrefix) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.export = export;
+            this.metadataPrefix = metadataPrefix;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            if (bytes != null) {
+                out.write(bytes, offset, bytes.length - offset);
+                return;
+            }
+            try (InputStream in = export.open()) {
+                in.readNBytes(offset); // (the XML declaration)
+                in.transferTo(out);
+            }
+        }
+    }
+
+    /**
+     * Passes the XOAI output through, except for the placeholders, which are
+     * buffered (they are short) and replaced by the records they stand for.
+     */
+    private final class SplicingOutputStream extends FilterOutputStream {
+        /** How much of {@link #PLACEHOLDER_START} has been matched. */
+        private int matched = 0;
+        /** The placeholder being read, past its start; {@code null} when outside one. */
+        private ByteArrayOutputStream placeholder = null;
+        /** Whether the records are written, or only the placeholders found. */
+        private final boolean write;
+
+        SplicingOutputStream(OutputStream out, boolean write) {
+            super(out);
+            this.write = write;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (placeholder != null && placeholder.size() == 0 && b != ' ' && b != '>') {
+                // Some other element, whose name starts the same way.
+                out.write(PLACEHOLDER_START);
+                placeholder = null;
+            }
+            if (placeholder != null) {
+                placeholder.write(b);
+                if (b == '>' && endsWithPlaceholderEnd()) {
+                    String text = new String(placeholder.toByteArray(), StandardCharsets.UTF_8);
+                    placeholder = null;
+                    writeFragment(out, text, write);
+                } else if (placeholder.size() > MAX_PLACEHOLDER_LENGTH) {
+                    // Not one of ours after all.
+                    out.write(PLACEHOLDER_START);
+                    placeholder.writeTo(out);
+                    placeholder = null;
+                }
+            } else if (b == PLACEHOLDER_START[matched]) {
+                if (++matched == PLACEHOLDER_START.length) {
+                    matched = 0;
+                    placeholder = new ByteArrayOutputStream(64);
+                }
+            } else {
+                if (matched > 0) {
+                    out.write(PLACEHOLDER_START, 0, matched);
+                    // (the start of a placeholder has no '<' past its first byte)
+                    matched = 0;
+                    if (b == PLACEHOLDER_START[0]) {
+                        matched = 1;
+                        return;
+                    }
+                }
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int end = off + len;
+            int i = off;
+            while (i < end) {
+                if (placeholder == null && matched == 0) {
+                    // Pass everything up to the next '<' straight through:
+                    int next = i;
+                    while (next < end && b[next] != PLACEHOLDER_START[0]) {
+                        next++;
+                    }
+                    if (next > i) {
+                        out.write(b, i, next - i);
+                        i = next;
+                        continue;
+                    }
+                }
+                write(b[i++]);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (matched > 0) {
+                    out.write(PLACEHOLDER_START, 0, matched);
+                    matched = 0;
+                }
+                if (placeholder != null) {
+                    out.write(PLACEHOLDER_START);
+                    placeholder.writeTo(out);
+                    placeholder = null;
+                }
+            } finally {
+                super.close();
+            }
+        }
+
+        private boolean endsWithPlaceholderEnd() {
+            int size = placeholder.size();
+            if (size < PLACEHOLDER_END.length) {
+                return false;
+            }
+            byte[] bytes = placeholder.toByteArray();
+            for (int i = 0; i < PLACEHOLDER_END.length; i++) {
+                if (bytes[size - PLACEHOLDER_END.length + i] != PLACEHOLDER_END[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -107,6 +107,7 @@ public class IngestMessageBean implements MessageListener {
                     if (ingestService.ingestAsTabular(datafile_id)) {
                         //Thread.sleep(10000);
                         logger.fine("Finished ingest job;");
+                        ingestService.pregenerateRotatedImage(datafile_id);
                         // We used to list the successfully ingested files in the "success"
                         // and "mixed success and failure" emails. Now we never list successfully
                         // ingested files so this line is commented out.
@@ -45,7 +45,10 @@ import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.dataaccess.DataAccess;
 import edu.harvard.iq.dataverse.dataaccess.DataAccessOption;
 import edu.harvard.iq.dataverse.dataaccess.StorageIO;
+import edu.harvard.iq.dataverse.dataaccess.DoubleColumnVector;
+import edu.harvard.iq.dataverse.dataaccess.LongColumnVector;
 import edu.harvard.iq.dataverse.dataaccess.ImageThumbConverter;
+import edu.harvard.iq.dataverse.dataaccess.RotatedImageCache;
 import edu.harvard.iq.dataverse.dataaccess.S3AccessIO;
 import edu.harvard.iq.dataverse.dataaccess.TabularSubsetGenerator;
 import edu.harvard.iq.dataverse.datavariable.SummaryStatistic;
@@ -632,16 +635,19 @@ public class IngestServiceBean {
             if (dataFile.getDataTable().getDataVariables().get(i).isIntervalContinuous()) {
                 logger.fine("subsetting continuous vector");
 
+                // The vectors are kept as primitive values; they are only
+                // boxed for the UNF calculation of a vector with missing
+                // values, see IngestUtil.calculateUNF(). 
                 if ("float".equals(dataFile.getDataTable().getDataVariables().get(i).getFormat())) {
-                    Float[] variableVector = TabularSubsetGenerator.subsetFloatVector(new FileInputStream(generatedTabularFile), i, dataFile.getDataTable().getCaseQuantity().intValue());
+                    DoubleColumnVector variableVector = TabularSubsetGenerator.subsetFloatColumn(new FileInputStream(generatedTabularFile), i, dataFile.getDataTable().getCaseQuantity().intValue());
                     logger.fine("Calculating summary statistics on a Float vector;");
                     calculateContinuousSummaryStatistics(dataFile, i, variableVector);
                     // calculate the UNF while we are at it:
                     logger.fine("Calculating UNF on a Float vector;");
-                    calculateUNF(dataFile, i, variableVector);
+                    calculateFloatUNF(dataFile, i, variableVector);
                     variableVector = null; 
                 } else {
-                    Double[] variableVector = TabularSubsetGenerator.subsetDoubleVector(new FileInputStream(generatedTabularFile), i, dataFile.getDataTable().getCaseQuantity().intValue());
+                    DoubleColumnVector variableVector = TabularSubsetGenerator.subsetDoubleColumn(new FileInputStream(generatedTabularFile), i, dataFile.getDataTable().getCaseQuantity().intValue());
                     logger.fine("Calculating summary statistics on a Double vector;");
                     calculateContinuousSummaryStatistics(dataFile, i, variableVector);
                     // calculate the UNF while we are at it:
@@ -663,7 +669,7 @@ public class IngestServiceBean {
                     && dataFile.getDataTable().getDataVariables().get(i).isTypeNumeric()) {
                 logger.fine("subsetting discrete-numeric vector");
 
-                Long[] variableVector = TabularSubsetGenerator.subsetLongVector(new FileInputStream(generatedTabularFile), i, dataFile.getDataTable().getCaseQuantity().intValue());
+                LongColumnVector variableVector = TabularSubsetGenerator.subsetLongColumn(new FileInputStream(generatedTabularFile), i, dataFile.getDataTable().getCaseQuantity().intValue());
                 // We are discussing calculating the same summary stats for 
                 // all numerics (the same kind of sumstats that we've been calculating
                 // for numeric continuous type)  -- L.A. Jul. 2014
@@ -952,6 +958,8 @@ public class IngestServiceBean {
                 logger.info("Tab-delimited file produced: " + tabFile.getAbsolutePath());
 
                 dataFile.setFilesize(tabFile.length());
+                // (the CRC-32 of the original is not that of the tab file)
+                dataFile.setCrc32(null);
 
                 // and change the mime type to "Tabular Data" on the final datafile, 
                 // and replace (or add) the extension ".tab" to the filename: 
@@ -1054,6 +1062,7 @@ public class IngestServiceBean {
                     dataAccess.savePath(Paths.get(tabFile.getAbsolutePath()));
                     // Reset the file size: 
                     dataFile.setFilesize(dataAccess.getSize());
+                    dataFile.setCrc32(null);
                     
                     dataFile = fileService.save(dataFile);
                     logger.fine("saved data file after updating the size");
@@ -1113,6 +1122,7 @@ public class IngestServiceBean {
         dataFile.getFileMetadata().setLabel(originalFileName);
         dataFile.setContentType(originalContentType);
         dataFile.setFilesize(originalSize);
+        dataFile.setCrc32(null);
     }
     
     // TODO: Further move the code that doesn't really need to be in an EJB bean
@@ -1781,7 +1791,12 @@ public class IngestServiceBean {
         return contVarFields;
     }
     
-    private void calculateContinuousSummaryStatistics(DataFile dataFile, int varnum, Number[] dataVector) throws IOException {
+    private void calculateContinuousSummaryStatistics(DataFile dataFile, int varnum, DoubleColumnVector dataVector) throws IOException {
+        double[] sumStats = SumStatCalculator.calculateSummaryStatistics(dataVector);
+        assignContinuousSummaryStatistics(dataFile.getDataTable().getDataVariables().get(varnum), sumStats);
+    }
+    
+    private void calculateContinuousSummaryStatistics(DataFile dataFile, int varnum, LongColumnVector dataVector) throws IOException {
         double[] sumStats = SumStatCalculator.calculateSummaryStatistics(dataVector);
         assignContinuousSummaryStatistics(dataFile.getDataTable().getDataVariables().get(varnum), sumStats);
     }
@@ -1805,10 +1820,10 @@ public class IngestServiceBean {
 
     }
     
-    private void calculateUNF(DataFile dataFile, int varnum, Double[] dataVector) {
+    private void calculateUNF(DataFile dataFile, int varnum, DoubleColumnVector dataVector) {
         String unf = null;
         try {
-            unf = UNFUtil.calculateUNF(dataVector);
+            unf = IngestUtil.calculateUNF(dataVector);
         } catch (IOException iex) {
             logger.warning("exception thrown when attempted to calculate UNF signature for (numeric, continuous) variable " + varnum);
         } catch (UnfException uex) {
@@ -1822,10 +1837,10 @@ public class IngestServiceBean {
         }
     }
     
-    private void calculateUNF(DataFile dataFile, int varnum, Long[] dataVector) {
+    private void calculateUNF(DataFile dataFile, int varnum, LongColumnVector dataVector) {
         String unf = null;
         try {
-            unf = UNFUtil.calculateUNF(dataVector);
+            unf = IngestUtil.calculateUNF(dataVector);
         } catch (IOException iex) {
             logger.warning("exception thrown when attempted to calculate UNF signature for (numeric, discrete) variable " + varnum);
         }  catch (UnfException uex) {
@@ -1947,10 +1962,10 @@ public class IngestServiceBean {
     // TODO: remove this from the final production 4.0!
     // -- L.A., Jul 2014
     
-    private void calculateUNF(DataFile dataFile, int varnum, Float[] dataVector) {
+    private void calculateFloatUNF(DataFile dataFile, int varnum, DoubleColumnVector dataVector) {
         String unf = null;
         try {
-            unf = UNFUtil.calculateUNF(dataVector);
+            unf = IngestUtil.calculateFloatUNF(dataVector);
         } catch (IOException iex) {
             logger.warning("exception thrown when attempted to calculate UNF signature for numeric, \"continuous\" (float) variable " + varnum);
         } catch (UnfException uex) {
@@ -1964,6 +1979,17 @@ public class IngestServiceBean {
         }
     }
     
+    // Generates the rotated image used for subsetting a freshly ingested 
+    // tabular file (see RotatedImageCache), in the background, so that it 
+    // doesn't hold up the ingest of the other files. 
+    @Asynchronous
+    public void pregenerateRotatedImage(Long datafileId) {
+        DataFile dataFile = fileService.find(datafileId);
+        if (dataFile != null) {
+            RotatedImageCache.pregenerateRotatedImage(dataFile);
+        }
+    }
+    
     // This method takes a list of file ids, checks the format type of the ingested 
     // original, and attempts to fix it if it's missing. 
     // Note the @Asynchronous attribute - this allows us to just kick off and run this 
@@ -23,6 +23,8 @@ import edu.harvard.iq.dataverse.DataFile;
 import edu.harvard.iq.dataverse.Dataset;
 import edu.harvard.iq.dataverse.DatasetVersion;
 import edu.harvard.iq.dataverse.FileMetadata;
+import edu.harvard.iq.dataverse.dataaccess.DoubleColumnVector;
+import edu.harvard.iq.dataverse.dataaccess.LongColumnVector;
 import edu.harvard.iq.dataverse.util.FileUtil;
 
 import java.io.File;
@@ -358,4 +360,39 @@ public class IngestUtil {
         }
 
     }
+
+    /**
+     * Calculates the UNF of a column of doubles straight from its primitive
+     * values. The primitive UNFUtil overloads can't tell a missing value from
+     * NaN though, so the boxed values (with nulls for the missing ones) are
+     * only built for a column that has missing values.
+     */
+    public static String calculateUNF(DoubleColumnVector vector) throws IOException, UnfException {
+        if (vector.getMissingCount() == 0) {
+            return UNFUtil.calculateUNF(vector.getValues());
+        }
+        return UNFUtil.calculateUNF(vector.toDoubleArray());
+    }
+
+    /**
+     * Same as {@link #calculateUNF(DoubleColumnVector)}, for a column of
+     * floats.
+     */
+    public static String calculateFloatUNF(DoubleColumnVector vector) throws IOException, UnfException {
+        if (vector.getMissingCount() == 0) {
+            return UNFUtil.calculateUNF(vector.toPrimitiveFloatArray());
+        }
+        return UNFUtil.calculateUNF(vector.toFloatArray());
+    }
+
+    /**
+     * Same as {@link #calculateUNF(DoubleColumnVector)}, for a column of
+     * integers.
+     */
+    public static String calculateUNF(LongColumnVector vector) throws IOException, UnfException {
+        if (vector.getMissingCount() == 0) {
+            return UNFUtil.calculateUNF(vector.getValues());
+        }
+        return UNFUtil.calculateUNF(vector.toLongArray());
+    }
 }
@@ -3,6 +3,7 @@ package edu.harvard.iq.dataverse.license;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogRecord;
 import edu.harvard.iq.dataverse.actionlogging.ActionLogServiceBean;
 import edu.harvard.iq.dataverse.api.AbstractApiBean.WrappedResponse;
+import edu.harvard.iq.dataverse.util.LruCache;
 import static edu.harvard.iq.dataverse.dataset.DatasetUtil.getLocalizedLicenseName;
 
 import javax.ejb.EJB;
@@ -12,7 +13,9 @@ import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.PersistenceException;
+import java.time.Duration;
 import java.util.List;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -24,6 +27,15 @@ import java.util.logging.Logger;
 public class LicenseServiceBean {
     private static final Logger logger = Logger.getLogger(LicenseServiceBean.class.getName());
 
+    private static final String DEFAULT_LICENSE_KEY = ":default";
+
+    /**
+     * Ids of the default license and of the active licenses (or {@code null},
+     * for unknown ones), by name or URI. The licenses themselves are looked up
+     * by id, so that they're managed by the calling transaction.
+     */
+    public static final LruCache<String, Long> idCache = new LruCache<>("licenseIds", 256, Duration.ofMinutes(10));
+
     @PersistenceContext
     EntityManager em;
 
@@ -50,20 +62,39 @@ public class LicenseServiceBean {
     }
 
     public License getDefault() {
-        return em.createNamedQuery("License.findDefault", License.class)
-                .getSingleResult();
+        return findCached(DEFAULT_LICENSE_KEY, key -> em.createNamedQuery("License.findDefault", License.class)
+                .getSingleResult().getId());
     }
 
     public License getByNameOrUri(String nameOrUri) {
-        try {
-            return em.createNamedQuery("License.findActiveByNameOrUri", License.class)
-                    .setParameter("name", nameOrUri)
-                    .setParameter("uri", nameOrUri)
-                    .getSingleResult();
-        } catch (NoResultException noResultException) {
+        License license = findCached(nameOrUri, key -> {
+            try {
+                return em.createNamedQuery("License.findActiveByNameOrUri", License.class)
+                        .setParameter("name", nameOrUri)
+                        .setParameter("uri", nameOrUri)
+                        .getSingleResult().getId();
+            } catch (NoResultException noResultException) {
+                return null;
+            }
+        });
+        if (license == null) {
             logger.log(Level.WARNING, "Couldn't find a license for: " + nameOrUri);
+        }
+        return license;
+    }
+
+    private License findCached(String key, Function<String, Long> idLoader) {
+        Long id = idCache.get(key, idLoader);
+        if (id == null) {
             return null;
         }
+        License license = em.find(License.class, id);
+        if (license == null) {
+            // deleted since it was cached
+            idCache.invalidateAfterCompletion(key);
+            return findCached(key, idLoader);
+        }
+        return license;
     }
     
     public License getByPotentiallyLocalizedName(String name) {
@@ -96,6 +127,7 @@ public class LicenseServiceBean {
         if (candidate == null) return 0;
         if (candidate.isActive()) {
                 em.createNamedQuery("License.clearDefault").executeUpdate();
+               idCache.invalidateAfterCompletion();
                return em.createNamedQuery("License.setDefault").setParameter("id", id).executeUpdate();
         } else {
             throw new WrappedResponse(new IllegalArgumentException("Cannot set an inactive license as default"), null);
@@ -112,6 +144,7 @@ public class LicenseServiceBean {
                 throw new WrappedResponse(
                         new IllegalArgumentException("Cannot inactivate the default license"), null);
             }
+            idCache.invalidateAfterCompletion();
             return em.createNamedQuery("License.setActiveState").setParameter("id", id).setParameter("state", state)
                     .executeUpdate();
         } else {
@@ -139,6 +172,7 @@ public class LicenseServiceBean {
         try {
             em.persist(license);
             em.flush();
+            idCache.invalidateAfterCompletion();
         }
         catch (PersistenceException p) {
             if (p.getMessage().contains("duplicate key")) {
@@ -155,6 +189,7 @@ public class LicenseServiceBean {
         actionLogSvc.log( new ActionLogRecord(ActionLogRecord.ActionType.Admin, "delete")
                             .setInfo(Long.toString(id)));
         try {
+            idCache.invalidateAfterCompletion();
             return em.createNamedQuery("License.deleteById").setParameter("id", id).executeUpdate();
         } catch (PersistenceException p) {
             if (p.getMessage().contains("violates foreign key constraint")) {
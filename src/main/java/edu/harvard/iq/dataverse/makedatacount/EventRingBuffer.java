@@ -0,0 +1,99 @@
+package edu.harvard.iq.dataverse.makedatacount;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue on a ring of slots, for many threads to hand
+ * items over to a background thread without ever waiting for each other (D.
+ * Vyukov's bounded MPMC queue). Each slot has a sequence number that tells
+ * whether it's free for the turn of the producer, or filled for the turn of
+ * the consumer; claiming a turn is a compare-and-set on the tail (or head)
+ * position.
+ */
+final class EventRingBuffer<T> {
+
+    private final int mask;
+    private final AtomicReferenceArray<T> items;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity the number of slots, rounded up to a power of two.
+     */
+    EventRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mask = size - 1;
+        items = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if the ring is full.
+     */
+    boolean offer(T item) {
+        long pos = tail.get();
+        while (true) {
+            int slot = (int) (pos & mask);
+            long turn = sequences.get(slot) - pos;
+            if (turn == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items.set(slot, item);
+                    sequences.set(slot, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (turn < 0) {
+                // Still holding the item of the previous lap.
+                return false;
+            } else {
+                // Taken by another producer in the meantime.
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * @return the oldest item, or {@code null} if the ring is empty.
+     */
+    T poll() {
+        long pos = head.get();
+        while (true) {
+            int slot = (int) (pos & mask);
+            long turn = sequences.get(slot) - (pos + 1);
+            if (turn == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    T item = items.get(slot);
+                    items.set(slot, null);
+                    sequences.set(slot, pos + mask + 1);
+                    return item;
+                }
+                pos = head.get();
+            } else if (turn < 0) {
+                // Not filled yet.
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * @return the number of items in the ring, give or take the ones being
+     * added or taken out right now.
+     */
+    int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+}
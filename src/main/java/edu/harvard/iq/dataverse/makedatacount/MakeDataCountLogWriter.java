@@ -0,0 +1,372 @@
+package edu.harvard.iq.dataverse.makedatacount;
+
+import edu.harvard.iq.dataverse.batch.util.LoggingUtil;
+import static edu.harvard.iq.dataverse.makedatacount.MakeDataCountUtil.LOG_HEADER;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Writes the Make Data Count log (the counter_yyyy-MM-dd.log files in
+ * :MDCLogPath) in the background. The views and downloads are handed over
+ * through a lock-free ring buffer (see {@link EventRingBuffer}) of
+ * dataverse.mdc.log-buffer-size events to a single appender thread, that keeps
+ * the log file of the day open and writes the lines in bulk. The file is
+ * switched when the day of the events changes (or :MDCLogPath does), and
+ * whatever is in the buffer is written when the application is shut down.
+ * <p>
+ * The requests never write to the file of the appender themselves: should
+ * the buffer be full, they wait up to {@link #OVERFLOW_WAIT_MILLIS} for room,
+ * and the line is then dropped and counted. The lines logged while the
+ * application is shut down wait for the appender to stop, and are written
+ * with what it left in the buffer. Setting
+ * dataverse.mdc.log-buffer-size to 0 writes every line right away instead.
+ */
+@Singleton
+@Startup
+@Lock(LockType.READ)
+public class MakeDataCountLogWriter {
+
+    private static final Logger logger = Logger.getLogger(MakeDataCountLogWriter.class.getCanonicalName());
+
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+    // How long the appender waits when there is nothing to write, and how long
+    // the application waits for it to write the rest of the buffer on shutdown:
+    static final long IDLE_WAIT_MILLIS = 200;
+    static final long SHUTDOWN_WAIT_MILLIS = 10000;
+    // How long a request waits for room in a full buffer:
+    static final long OVERFLOW_WAIT_MILLIS = 20;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    @Resource
+    ManagedThreadFactory threadFactory;
+
+    /** {@code null} when the lines are written right away. */
+    private EventRingBuffer<Event> buffer;
+    private volatile Thread appender;
+    private volatile boolean closed;
+    /** Counted down once the appender no longer writes. */
+    private CountDownLatch stopped;
+
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder files = new LongAdder();
+    private final AtomicLong maxQueued = new AtomicLong();
+
+    /*
+     * A line of the log, with what it takes to find its file.
+     */
+    private static class Event {
+
+        final long time;
+        final String logDir;
+        final String line;
+
+        Event(long time, String logDir, String line) {
+            this.time = time;
+            this.logDir = logDir;
+            this.line = line;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        int bufferSize = JvmSettings.MDC_LOG_BUFFER_SIZE.lookupOptional(Integer.class).orElse(DEFAULT_BUFFER_SIZE);
+        if (bufferSize < 1) {
+            logger.info("Writing the Make Data Count log right away (dataverse.mdc.log-buffer-size is " + bufferSize + ")");
+            return;
+        }
+        start(bufferSize, threadFactory);
+    }
+
+    void start(int bufferSize, ThreadFactory factory) {
+        buffer = new EventRingBuffer<>(bufferSize);
+        stopped = new CountDownLatch(1);
+        Thread thread = factory.newThread(new Appender());
+        thread.setName("mdc-log-appender");
+        appender = thread;
+        thread.start();
+    }
+
+    /**
+     * Appends a line to the log of the day in the directory given, with the
+     * header if the file is new.
+     *
+     * @param logDir :MDCLogPath
+     * @param line the line, with its line break.
+     */
+    public void log(String logDir, String line) {
+        long now = System.currentTimeMillis();
+        if (buffer == null) {
+            writeNow(now, logDir, line);
+            return;
+        }
+        Event event = new Event(now, logDir, line);
+        if (closed) {
+            writeLate(event);
+            return;
+        }
+        if (!buffer.offer(event) && !overflow(event)) {
+            return;
+        }
+        queued.increment();
+        if (closed) {
+            // (the buffer may have been drained before the line got in)
+            writeLate(null);
+            return;
+        }
+        if (buffer.size() > buffer.capacity() / 2) {
+            // Don't let the appender sleep through a burst.
+            LockSupport.unpark(appender);
+        }
+    }
+
+    /*
+     * Handles a line that didn't fit in the buffer; returns whether it was
+     * queued after all. (Writing it right away would race with the appender
+     * for the same file.)
+     */
+    private boolean overflow(Event event) {
+        overflowed.increment();
+        LockSupport.unpark(appender);
+        long giveUpAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(OVERFLOW_WAIT_MILLIS);
+        while (System.nanoTime() < giveUpAt) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            if (buffer.offer(event)) {
+                return true;
+            }
+        }
+        dropped.increment();
+        logger.fine(() -> "Make Data Count log buffer full, dropped " + event.line);
+        return false;
+    }
+
+    /*
+     * Writes a line logged while the application is shut down, if any, once
+     * the appender stopped, with whatever it left in the buffer.
+     */
+    private void writeLate(Event event) {
+        try {
+            if (!stopped.await(SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (event != null) {
+                    dropped.increment();
+                }
+                return;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            if (event != null) {
+                dropped.increment();
+            }
+            return;
+        }
+        drain();
+        if (event != null) {
+            synchronized (this) {
+                writeNow(event.time, event.logDir, event.line);
+                written.increment();
+            }
+        }
+    }
+
+    /*
+     * Writes what is left in the buffer, once the appender stopped.
+     */
+    private synchronized void drain() {
+        for (Event event = buffer.poll(); event != null; event = buffer.poll()) {
+            writeNow(event.time, event.logDir, event.line);
+            written.increment();
+        }
+    }
+
+    private void writeNow(long time, String logDir, String line) {
+        LoggingUtil.saveLogFileAppendWithHeader(line, logDir, logFileName(time), LOG_HEADER);
+    }
+
+    static String logFileName(long time) {
+        return "counter_" + DAY_FORMAT.format(LocalDate.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault())) + ".log";
+    }
+
+    @PreDestroy
+    public void close() {
+        Thread thread = appender;
+        if (thread == null) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(SHUTDOWN_WAIT_MILLIS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            logger.warning("The Make Data Count log appender did not finish writing in " + SHUTDOWN_WAIT_MILLIS + " ms, " + buffer.size() + " lines may be lost");
+            return;
+        }
+        // Lines logged while the appender was stopping:
+        drain();
+    }
+
+    public JsonObjectBuilder getStatistics() {
+        JsonObjectBuilder stats = Json.createObjectBuilder()
+                .add("async", buffer != null)
+                .add("queued", queued.sum())
+                .add("written", written.sum())
+                .add("overflowed", overflowed.sum())
+                .add("dropped", dropped.sum())
+                .add("failed", failed.sum())
+                .add("files", files.sum());
+        if (buffer != null) {
+            stats.add("buffered", buffer.size())
+                    .add("maxBuffered", maxQueued.get())
+                    .add("capacity", buffer.capacity());
+        }
+        return stats;
+    }
+
+    /*
+     * Takes the lines out of the buffer, and writes them to the file of their
+     * day, a block at a time.
+     */
+    private class Appender implements Runnable {
+
+        private final ByteBuffer bytes = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        private int lines = 0;
+        private FileChannel channel;
+        private Path file;
+
+        @Override
+        public void run() {
+            logger.fine("Make Data Count log appender started");
+            try {
+                appendAll();
+            } finally {
+                closeFile();
+                stopped.countDown();
+            }
+            logger.fine("Make Data Count log appender stopped");
+        }
+
+        private void appendAll() {
+            while (true) {
+                Event event = buffer.poll();
+                if (event == null) {
+                    writeOut();
+                    if (closed && buffer.size() == 0) {
+                        return;
+                    }
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(IDLE_WAIT_MILLIS));
+                    continue;
+                }
+                int size = buffer.size() + 1;
+                if (size > maxQueued.get()) {
+                    maxQueued.set(size);
+                }
+                append(event);
+            }
+        }
+
+        private void append(Event event) {
+            Path target = Paths.get(event.logDir, logFileName(event.time));
+            if (!target.equals(file)) {
+                writeOut();
+                closeFile();
+                file = target;
+            }
+            byte[] line = event.line.getBytes(StandardCharsets.UTF_8);
+            if (line.length > bytes.remaining()) {
+                writeOut();
+            }
+            if (line.length > bytes.capacity()) {
+                writeOut(ByteBuffer.wrap(line), 1);
+            } else {
+                bytes.put(line);
+                lines++;
+            }
+        }
+
+        private void writeOut() {
+            if (lines > 0) {
+                bytes.flip();
+                writeOut(bytes, lines);
+            }
+            bytes.clear();
+            lines = 0;
+        }
+
+        private void writeOut(ByteBuffer out, int count) {
+            try {
+                if (channel == null) {
+                    open();
+                }
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+                written.add(count);
+            } catch (IOException | RuntimeException ex) {
+                failed.add(count);
+                logger.log(Level.SEVERE, "Error saving log report: " + file + " " + ex.getMessage());
+                // Opened again with the next lines:
+                closeFile();
+            }
+        }
+
+        private void open() throws IOException {
+            Files.createDirectories(file.getParent());
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.wrap(LOG_HEADER.getBytes(StandardCharsets.UTF_8));
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+            }
+            files.increment();
+        }
+
+        private void closeFile() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    logger.log(Level.WARNING, "Could not close " + file, ex);
+                }
+                channel = null;
+            }
+        }
+    }
+
+}
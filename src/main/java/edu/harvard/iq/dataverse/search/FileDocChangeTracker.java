@@ -0,0 +1,165 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Tracks which file documents of a dataset actually changed since the
+ * dataset was last indexed, so that an edit only costs as much as the files
+ * it touches (see
+ * {@link edu.harvard.iq.dataverse.settings.FeatureFlags#INCREMENTAL_FILE_INDEXING}).
+ *
+ * Every file document carries two fingerprints: one over the fields that
+ * belong to the file itself and one over the fields that are copied onto it
+ * from the dataset (citation, paths, publication status...). Comparing them
+ * with the fingerprints stored in Solr tells whether the document can be
+ * skipped, patched with an atomic update of the dataset level fields only, or
+ * has to be sent again in full.
+ */
+public class FileDocChangeTracker {
+
+    public enum Change {
+        NONE, DATASET_FIELDS, FULL
+    }
+
+    /**
+     * Fields of a file document whose values come from the dataset, version
+     * or collection rather than from the file.
+     */
+    public static final List<String> DATASET_LEVEL_FIELDS = List.of(
+            SearchFields.PERSISTENT_URL,
+            SearchFields.CATEGORY_OF_DATAVERSE,
+            SearchFields.SUBTREE,
+            SearchFields.PARENT_ID,
+            SearchFields.PARENT_IDENTIFIER,
+            SearchFields.PARENT_CITATION,
+            SearchFields.PARENT_NAME,
+            SearchFields.PUBLICATION_STATUS,
+            SearchFields.PUBLICATION_YEAR,
+            SearchFields.DATASET_PUBLICATION_DATE);
+
+    private static final Set<String> NOT_FINGERPRINTED = Set.of(
+            SearchFields.FULL_TEXT,
+            SearchFields.FILE_INDEX_FINGERPRINT,
+            SearchFields.FILE_PARENT_FINGERPRINT);
+
+    /**
+     * Fingerprints found in Solr, by Solr document id: [file, dataset level].
+     */
+    private final Map<String, String[]> indexedFingerprints;
+    private final Set<String> currentSolrIds = new HashSet<>();
+    private int fullDocs = 0;
+    private int partialUpdates = 0;
+    private int unchanged = 0;
+
+    public FileDocChangeTracker(Map<String, String[]> indexedFingerprints) {
+        this.indexedFingerprints = indexedFingerprints != null ? indexedFingerprints : new HashMap<>();
+    }
+
+    /**
+     * Adds both fingerprints to the given file document and compares them
+     * with the ones last indexed for the same Solr document.
+     *
+     * @param extra Anything besides the document fields that determines the
+     * content of the document, e.g. the full-text indexing settings.
+     * @param partialUpdatePossible False if the indexed document has content
+     * that is not stored in Solr (i.e. full text), which would be lost by an
+     * atomic update.
+     */
+    public Change track(SolrInputDocument fileDoc, String extra, boolean partialUpdatePossible) {
+        String solrId = (String) fileDoc.getFieldValue(SearchFields.ID);
+        String fileFingerprint = fingerprint(fileDoc, false, extra);
+        String parentFingerprint = fingerprint(fileDoc, true, "");
+        fileDoc.setField(SearchFields.FILE_INDEX_FINGERPRINT, fileFingerprint);
+        fileDoc.setField(SearchFields.FILE_PARENT_FINGERPRINT, parentFingerprint);
+        currentSolrIds.add(solrId);
+
+        String[] indexed = indexedFingerprints.get(solrId);
+        if (indexed == null || !fileFingerprint.equals(indexed[0])) {
+            fullDocs++;
+            return Change.FULL;
+        }
+        if (!parentFingerprint.equals(indexed[1])) {
+            if (!partialUpdatePossible) {
+                fullDocs++;
+                return Change.FULL;
+            }
+            partialUpdates++;
+            return Change.DATASET_FIELDS;
+        }
+        unchanged++;
+        return Change.NONE;
+    }
+
+    /**
+     * @return An atomic update setting the dataset level fields (and the
+     * fingerprint) of the given document to their new values.
+     */
+    public static SolrInputDocument toDatasetFieldsUpdate(SolrInputDocument fileDoc) {
+        SolrInputDocument update = new SolrInputDocument();
+        update.addField(SearchFields.ID, fileDoc.getFieldValue(SearchFields.ID));
+        for (String field : DATASET_LEVEL_FIELDS) {
+            Collection<Object> values = fileDoc.getFieldValues(field);
+            update.addField(field, Map.of("set", values != null ? new ArrayList<>(values) : new ArrayList<>()));
+        }
+        update.addField(SearchFields.FILE_PARENT_FINGERPRINT, Map.of("set", fileDoc.getFieldValue(SearchFields.FILE_PARENT_FINGERPRINT)));
+        return update;
+    }
+
+    /**
+     * @return Ids of file documents found in Solr for this dataset that were
+     * not produced (or confirmed unchanged) by this indexing run.
+     */
+    public List<String> getStaleSolrIds() {
+        List<String> stale = new ArrayList<>();
+        for (String solrId : indexedFingerprints.keySet()) {
+            if (!currentSolrIds.contains(solrId)) {
+                stale.add(solrId);
+            }
+        }
+        return stale;
+    }
+
+    public int getFullDocs() {
+        return fullDocs;
+    }
+
+    public int getPartialUpdates() {
+        return partialUpdates;
+    }
+
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    static String fingerprint(SolrInputDocument doc, boolean datasetLevel, String extra) {
+        StringBuilder sb = new StringBuilder(extra);
+        for (String field : new TreeSet<>(doc.getFieldNames())) {
+            if (NOT_FINGERPRINTED.contains(field) || DATASET_LEVEL_FIELDS.contains(field) != datasetLevel) {
+                continue;
+            }
+            sb.append('\u0001').append(field);
+            Collection<Object> values = doc.getFieldValues(field);
+            if (values != null) {
+                for (Object value : values) {
+                    sb.append('\u0002').append(value);
+                }
+            }
+        }
+        return DigestUtils.md5Hex(sb.toString());
+    }
+
+    @Override
+    public String toString() {
+        return "full: " + fullDocs + ", dataset fields only: " + partialUpdates + ", unchanged: " + unchanged;
+    }
+
+}
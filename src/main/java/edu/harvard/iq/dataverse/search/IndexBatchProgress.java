@@ -0,0 +1,128 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Progress of an "index all" (or partition) run, shared between the worker
+ * threads of {@link IndexBatchServiceBean} and reported by
+ * /api/admin/index/status.
+ *
+ * Resuming after a restart does not depend on this object: every indexed
+ * dataverse and dataset gets its indexTime set in the dvobject table, so
+ * /api/admin/index/continue picks up where the previous run stopped.
+ */
+public class IndexBatchProgress {
+
+    public enum State {
+        RUNNING, FINISHED, INTERRUPTED
+    }
+
+    private final long numPartitions;
+    private final long partitionId;
+    private final int numWorkers;
+    private final boolean skipIndexed;
+    private final long startTime = System.currentTimeMillis();
+    private volatile long endTime = 0;
+    private volatile State state = State.RUNNING;
+
+    private volatile int dataverseTotal = 0;
+    private volatile int datasetTotal = 0;
+    private final AtomicLong dataversesIndexed = new AtomicLong();
+    private final AtomicLong dataverseFailures = new AtomicLong();
+    private final AtomicLong datasetsIndexed = new AtomicLong();
+    private final AtomicLong datasetFailures = new AtomicLong();
+    private volatile Long lastDatasetId;
+    private volatile SolrIndexBatch solrIndexBatch;
+
+    public IndexBatchProgress(long numPartitions, long partitionId, int numWorkers, boolean skipIndexed) {
+        this.numPartitions = numPartitions;
+        this.partitionId = partitionId;
+        this.numWorkers = numWorkers;
+        this.skipIndexed = skipIndexed;
+    }
+
+    public void setDataverseTotal(int dataverseTotal) {
+        this.dataverseTotal = dataverseTotal;
+    }
+
+    public void setDatasetTotal(int datasetTotal) {
+        this.datasetTotal = datasetTotal;
+    }
+
+    public void setSolrIndexBatch(SolrIndexBatch solrIndexBatch) {
+        this.solrIndexBatch = solrIndexBatch;
+    }
+
+    public void dataverseDone(boolean success) {
+        dataversesIndexed.incrementAndGet();
+        if (!success) {
+            dataverseFailures.incrementAndGet();
+        }
+    }
+
+    public void datasetDone(Long datasetId, boolean success) {
+        datasetsIndexed.incrementAndGet();
+        if (!success) {
+            datasetFailures.incrementAndGet();
+        }
+        lastDatasetId = datasetId;
+    }
+
+    public void finish(State finalState) {
+        endTime = System.currentTimeMillis();
+        state = finalState;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getDataversesIndexed() {
+        return dataversesIndexed.get();
+    }
+
+    public long getDataverseFailures() {
+        return dataverseFailures.get();
+    }
+
+    public long getDatasetsIndexed() {
+        return datasetsIndexed.get();
+    }
+
+    public long getDatasetFailures() {
+        return datasetFailures.get();
+    }
+
+    public long getElapsedMillis() {
+        return (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime;
+    }
+
+    public JsonObjectBuilder toJson() {
+        long elapsed = getElapsedMillis();
+        long done = datasetsIndexed.get();
+        JsonObjectBuilder job = Json.createObjectBuilder()
+                .add("state", state.name())
+                .add("numPartitions", numPartitions)
+                .add("partitionId", partitionId)
+                .add("workers", numWorkers)
+                .add("skipIndexed", skipIndexed)
+                .add("dataverseTotal", dataverseTotal)
+                .add("dataversesIndexed", dataversesIndexed.get())
+                .add("dataverseFailures", dataverseFailures.get())
+                .add("datasetTotal", datasetTotal)
+                .add("datasetsIndexed", done)
+                .add("datasetFailures", datasetFailures.get())
+                .add("elapsedMillis", elapsed)
+                .add("datasetsPerSecond", elapsed > 0 ? done * 1000.0 / elapsed : 0.0);
+        if (lastDatasetId != null) {
+            job.add("lastDatasetId", lastDatasetId);
+        }
+        if (solrIndexBatch != null) {
+            job.add("solrBatches", solrIndexBatch.getStatistics());
+        }
+        return job;
+    }
+
+}
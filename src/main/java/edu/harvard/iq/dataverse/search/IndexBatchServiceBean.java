@@ -5,6 +5,7 @@ import edu.harvard.iq.dataverse.DatasetServiceBean;
 import edu.harvard.iq.dataverse.Dataverse;
 import edu.harvard.iq.dataverse.DataverseServiceBean;
 import edu.harvard.iq.dataverse.DvObjectServiceBean;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
 import edu.harvard.iq.dataverse.util.SystemConfig;
 import java.io.IOException;
 import java.sql.Timestamp;
@@ -12,12 +13,16 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.ejb.AsyncResult;
 import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.inject.Named;
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
@@ -48,7 +53,19 @@ public class IndexBatchServiceBean {
     DvObjectServiceBean dvObjectService;
     @EJB
     SystemConfig systemConfig;
-    
+    @Resource
+    ManagedExecutorService executor;
+
+    /**
+     * Progress of the most recent "index all" run on this node, null if none
+     * was started since deployment.
+     */
+    private static volatile IndexBatchProgress indexAllProgress;
+
+    public static IndexBatchProgress getIndexAllProgress() {
+        return indexAllProgress;
+    }
+
     @Asynchronous
     public Future<JsonObjectBuilder> indexStatus() {
         JsonObjectBuilder response = Json.createObjectBuilder();
@@ -123,7 +140,7 @@ public class IndexBatchServiceBean {
         JsonObjectBuilder previewOfWorkload = Json.createObjectBuilder();
         JsonObjectBuilder dvContainerIds = Json.createObjectBuilder();
         
-        List<Long> dataverseIds = dataverseService.findDataverseIdsForIndexing(skipIndexed);
+        List<Long> dataverseIds = dataverseService.findDataverseIdsForIndexing(numPartitions, partitionId, skipIndexed);
         
         JsonArrayBuilder dataverseIdsJson = Json.createArrayBuilder();
         //List<Dataverse> dataverses = dataverseService.findAllOrSubset(numPartitions, partitionId, skipIndexed);
@@ -148,7 +165,6 @@ public class IndexBatchServiceBean {
     }
 
     public Future<String> indexAllOrSubset(long numPartitions, long partitionId, boolean skipIndexed) {
-        long indexAllTimeBegin = System.currentTimeMillis();
         String status;
 
         String resultOfClearingIndexTimes;
@@ -179,40 +195,48 @@ public class IndexBatchServiceBean {
             resultOfClearingIndexTimes = "Solr index was not cleared before indexing.";
         }
 
-        // List<Dataverse> dataverses = dataverseService.findAllOrSubset(numPartitions, partitionId, skipIndexed);
-        // Note: no support for "partitions" in this experimental branch. 
-        // The method below returns the ids of all the unindexed dataverses.
-        List<Long> dataverseIds = dataverseIds = dataverseService.findDataverseIdsForIndexing(skipIndexed);
-        
+        int numWorkers = getNumberOfIndexWorkers();
+        IndexBatchProgress progress = new IndexBatchProgress(numPartitions, partitionId, numWorkers, skipIndexed);
+        indexAllProgress = progress;
+
+        List<Long> dataverseIds = dataverseService.findDataverseIdsForIndexing(numPartitions, partitionId, skipIndexed);
+        progress.setDataverseTotal(dataverseIds.size());
+
         int dataverseIndexCount = 0;
         int dataverseFailureCount = 0;
-        //for (Dataverse dataverse : dataverses) {
+        // Dataverses are few and cheap to index; their order matters for the
+        // paths of their children, so they are still indexed one at a time.
         for (Long id : dataverseIds) {
+            boolean success = false;
             try {
                 dataverseIndexCount++;
                 Dataverse dataverse = dataverseService.find(id);
                 logger.info("indexing dataverse " + dataverseIndexCount + " of " + dataverseIds.size() + " (id=" + id + ", persistentId=" + dataverse.getAlias() + ")");
                 Future<String> result = indexService.indexDataverseInNewTransaction(dataverse);
                 dataverse = null;
+                success = true;
             } catch (Exception e) {
                 //We want to keep running even after an exception so throw some more info into the log
                 dataverseFailureCount++;
                 logger.info("FAILURE indexing dataverse " + dataverseIndexCount + " of " + dataverseIds.size() + " (id=" + id + ") Exception info: " + e.getMessage());
             }
+            progress.dataverseDone(success);
         }
 
-        int datasetIndexCount = 0;
-        int datasetFailureCount = 0;
-        List<Long> datasetIds = datasetService.findAllOrSubsetOrderByFilesOwned(skipIndexed);
-        for (Long id : datasetIds) {
-            datasetIndexCount++;
-            logger.info("indexing dataset " + datasetIndexCount + " of " + datasetIds.size() + " (id=" + id + ")");
-            indexService.indexDatasetInNewTransaction(id);
-        }
+        List<Long> datasetIds = datasetService.findAllOrSubsetOrderByFilesOwned(numPartitions, partitionId, skipIndexed);
+        progress.setDatasetTotal(datasetIds.size());
+        logger.info("indexing " + datasetIds.size() + " datasets using " + numWorkers + " worker(s)");
+        SolrIndexBatch batch = indexService.createIndexBatch();
+        progress.setSolrIndexBatch(batch);
+        boolean completed = indexDatasets(datasetIds, numWorkers, batch, progress);
+        indexService.closeIndexBatchInNewTransaction(batch);
         logger.info("done iterating through all datasets");
+        logger.info("Solr batch statistics: " + batch.getStatistics().build());
+        progress.finish(completed ? IndexBatchProgress.State.FINISHED : IndexBatchProgress.State.INTERRUPTED);
 
-        long indexAllTimeEnd = System.currentTimeMillis();
-        String timeElapsed = "index all took " + (indexAllTimeEnd - indexAllTimeBegin) + " milliseconds";
+        int datasetIndexCount = (int) progress.getDatasetsIndexed();
+        int datasetFailureCount = (int) progress.getDatasetFailures();
+        String timeElapsed = "index all took " + progress.getElapsedMillis() + " milliseconds";
         logger.info(timeElapsed);
         if (datasetFailureCount + dataverseFailureCount > 0){
             String failureMessage = "There were index failures. " + dataverseFailureCount + " dataverse(s) and " + datasetFailureCount + " dataset(s) failed to index. Please check the log for more information.";
@@ -222,6 +246,73 @@ public class IndexBatchServiceBean {
         logger.info(status);
         return new AsyncResult<>(status);
     }
+
+    /**
+     * Indexes the given datasets, each in its own transaction, on up to
+     * numWorkers threads of the managed executor. At most numWorkers datasets
+     * are in flight at any time; the submitting thread blocks until a worker
+     * is free, so neither the executor queue nor Solr get flooded.
+     *
+     * @return false if the run was interrupted before all datasets were
+     * submitted.
+     */
+    private boolean indexDatasets(List<Long> datasetIds, int numWorkers, SolrIndexBatch batch, IndexBatchProgress progress) {
+        int total = datasetIds.size();
+        if (numWorkers <= 1 || executor == null) {
+            for (Long id : datasetIds) {
+                logger.info("indexing dataset " + (progress.getDatasetsIndexed() + 1) + " of " + total + " (id=" + id + ")");
+                indexOneDataset(id, batch, progress);
+            }
+            return true;
+        }
+        Semaphore workers = new Semaphore(numWorkers);
+        int submitted = 0;
+        try {
+            for (Long id : datasetIds) {
+                workers.acquire();
+                try {
+                    executor.submit(() -> {
+                        try {
+                            indexOneDataset(id, batch, progress);
+                        } finally {
+                            workers.release();
+                        }
+                    });
+                } catch (RejectedExecutionException ree) {
+                    workers.release();
+                    logger.fine("executor rejected dataset " + id + ", indexing it on the calling thread");
+                    indexOneDataset(id, batch, progress);
+                }
+                if (++submitted % 100 == 0) {
+                    logger.info("submitted " + submitted + " of " + total + " datasets for indexing, " + progress.getDatasetsIndexed() + " done");
+                }
+            }
+            // wait for the remaining tasks to finish
+            workers.acquire(numWorkers);
+            workers.release(numWorkers);
+            return true;
+        } catch (InterruptedException ie) {
+            logger.warning("index all was interrupted after " + progress.getDatasetsIndexed() + " of " + total + " datasets");
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void indexOneDataset(Long id, SolrIndexBatch batch, IndexBatchProgress progress) {
+        boolean success = false;
+        try {
+            indexService.indexDatasetInNewTransaction(id, batch);
+            success = true;
+        } catch (Exception e) {
+            logger.info("FAILURE indexing dataset (id=" + id + ") Exception info: " + e.getMessage());
+        }
+        progress.datasetDone(id, success);
+    }
+
+    private int getNumberOfIndexWorkers() {
+        int numWorkers = JvmSettings.SOLR_INDEX_WORKERS.lookupOptional(Integer.class).orElse(1);
+        return numWorkers < 1 ? 1 : numWorkers;
+    }
         
     @Asynchronous
     public void indexDataverseRecursively(Dataverse dataverse) {
@@ -0,0 +1,47 @@
+package edu.harvard.iq.dataverse.search;
+
+/**
+ * A row of the index queue claimed by a consumer, see
+ * {@link IndexQueueServiceBean}.
+ */
+public class IndexJob {
+
+    private final Long dvObjectId;
+    private final long generation;
+    private final boolean doNormalSolrDocCleanUp;
+    private final int attempts;
+
+    public IndexJob(Long dvObjectId, long generation, boolean doNormalSolrDocCleanUp, int attempts) {
+        this.dvObjectId = dvObjectId;
+        this.generation = generation;
+        this.doNormalSolrDocCleanUp = doNormalSolrDocCleanUp;
+        this.attempts = attempts;
+    }
+
+    public Long getDvObjectId() {
+        return dvObjectId;
+    }
+
+    /**
+     * @return How many times the indexing of this object had been requested
+     * when the job was claimed. If it changed by the time the job is done, the
+     * object has to be indexed again.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    public boolean isDoNormalSolrDocCleanUp() {
+        return doNormalSolrDocCleanUp;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    @Override
+    public String toString() {
+        return "IndexJob{dvObjectId=" + dvObjectId + ", generation=" + generation + ", attempts=" + attempts + "}";
+    }
+
+}
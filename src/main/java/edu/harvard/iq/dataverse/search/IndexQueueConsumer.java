@@ -0,0 +1,146 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Polls the index queue (see {@link IndexQueueServiceBean}) and indexes the
+ * claimed datasets with a bounded number of consumer threads per node, set
+ * with dataverse.solr.index-queue-consumers. Setting it to 0 leaves the
+ * indexing to the other nodes of a cluster.
+ */
+@Singleton
+@Startup
+public class IndexQueueConsumer {
+
+    private static final Logger logger = Logger.getLogger(IndexQueueConsumer.class.getCanonicalName());
+
+    public static final int DEFAULT_CONSUMERS = 2;
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 1000;
+    public static final long DEFAULT_CLAIM_TIMEOUT_MILLIS = 3600000;
+
+    @Resource
+    TimerService timerService;
+    @Resource
+    ManagedExecutorService executor;
+    @EJB
+    IndexQueueServiceBean indexQueueService;
+    @EJB
+    IndexServiceBean indexService;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger indexed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private String nodeName;
+    private int consumers;
+    private long claimTimeoutMillis;
+
+    @PostConstruct
+    public void init() {
+        nodeName = findNodeName();
+        consumers = JvmSettings.SOLR_INDEX_QUEUE_CONSUMERS.lookupOptional(Integer.class).orElse(DEFAULT_CONSUMERS);
+        claimTimeoutMillis = JvmSettings.SOLR_INDEX_QUEUE_CLAIM_TIMEOUT.lookupOptional(Long.class).orElse(DEFAULT_CLAIM_TIMEOUT_MILLIS);
+        long pollInterval = JvmSettings.SOLR_INDEX_QUEUE_POLL_INTERVAL.lookupOptional(Long.class).orElse(DEFAULT_POLL_INTERVAL_MILLIS);
+        if (consumers < 1) {
+            logger.info("Not consuming the index queue on " + nodeName + " (dataverse.solr.index-queue-consumers is " + consumers + ")");
+            return;
+        }
+        try {
+            int released = indexQueueService.releaseClaims(nodeName);
+            if (released > 0) {
+                logger.info("Released " + released + " index jobs left behind by the previous run of " + nodeName);
+            }
+        } catch (Exception ex) {
+            logger.log(Level.WARNING, "Could not release the index jobs claimed by " + nodeName + ", they will be retried after the claim timeout", ex);
+        }
+        logger.info("Consuming the index queue on " + nodeName + " with " + consumers + " consumer(s)");
+        timerService.createIntervalTimer(pollInterval, pollInterval, new TimerConfig("index queue", false));
+    }
+
+    @Timeout
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void poll() {
+        // Exceptions thrown from here would make the container retry the timeout.
+        try {
+            int free = consumers - inFlight.get();
+            if (free <= 0) {
+                return;
+            }
+            List<IndexJob> jobs = indexQueueService.claim(nodeName, free, claimTimeoutMillis);
+            for (IndexJob job : jobs) {
+                inFlight.incrementAndGet();
+                try {
+                    executor.submit(() -> process(job));
+                } catch (RejectedExecutionException ex) {
+                    inFlight.decrementAndGet();
+                    indexQueueService.fail(job, nodeName);
+                }
+            }
+        } catch (Exception ex) {
+            logger.log(Level.WARNING, "Failed to poll the index queue", ex);
+        }
+    }
+
+    private void process(IndexJob job) {
+        try {
+            indexService.indexQueuedDataset(job.getDvObjectId(), job.isDoNormalSolrDocCleanUp());
+            indexQueueService.complete(job, nodeName);
+            indexed.incrementAndGet();
+        } catch (Exception ex) {
+            failed.incrementAndGet();
+            logger.log(Level.WARNING, "Index job failed: " + job, ex);
+            try {
+                if (!indexQueueService.fail(job, nodeName)) {
+                    logger.warning("Giving up on indexing dvobject " + job.getDvObjectId() + " after " + job.getAttempts()
+                            + " attempts. You can kickoff a re-index of this dataset with: curl http://localhost:8080/api/admin/index/datasets/" + job.getDvObjectId());
+                }
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Could not release index job " + job + ", it will be retried after the claim timeout", e);
+            }
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    @Lock(LockType.READ)
+    public JsonObjectBuilder getStatistics() {
+        return Json.createObjectBuilder()
+                .add("node", nodeName)
+                .add("consumers", consumers)
+                .add("inFlight", inFlight.get())
+                .add("indexed", indexed.get())
+                .add("failed", failed.get());
+    }
+
+    private static String findNodeName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getCanonicalHostName();
+        } catch (UnknownHostException ex) {
+            host = "localhost";
+        }
+        return host + ":" + System.getProperty("com.sun.aas.instanceName", "server");
+    }
+
+}
@@ -0,0 +1,198 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.inject.Named;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import static javax.ejb.TransactionAttributeType.REQUIRES_NEW;
+
+/**
+ * Durable queue of datasets waiting to be indexed, kept in the indexqueue
+ * table so that pending work survives restarts and is shared by all nodes of
+ * a cluster.
+ *
+ * There is at most one row per object: requesting the indexing of an object
+ * that is already queued (or being indexed) only bumps the generation of its
+ * row, raises its priority if needed and keeps its place in the queue.
+ * Consumers claim rows with SELECT ... FOR UPDATE SKIP LOCKED, so an object is
+ * never indexed by two consumers at the same time, and only remove a row once
+ * its generation has not changed while they were indexing; otherwise the row
+ * is released and the object is indexed again.
+ *
+ * Claims are taken in the name of a node. Claims left behind by a node that
+ * went away are released when it starts again, or taken over by any node once
+ * they are older than the claim timeout.
+ */
+@Stateless
+@Named
+public class IndexQueueServiceBean {
+
+    private static final Logger logger = Logger.getLogger(IndexQueueServiceBean.class.getCanonicalName());
+
+    /**
+     * Jobs that failed this many times are dropped from the queue.
+     */
+    public static final int MAX_ATTEMPTS = 3;
+
+    public enum Priority {
+        /**
+         * Edits made by users, which should be searchable as soon as possible.
+         */
+        INTERACTIVE(0),
+        /**
+         * Reindexing of many datasets at once, e.g. after a collection was
+         * changed.
+         */
+        BULK(10);
+
+        private final int value;
+
+        Priority(int value) {
+            this.value = value;
+        }
+
+        public int getValue() {
+            return value;
+        }
+    }
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    private EntityManager em;
+
+    /**
+     * Requests the indexing of an object. The job joins the transaction of the
+     * caller, so it only becomes visible to consumers once the change that
+     * made it necessary has been committed.
+     */
+    public void enqueue(Long dvObjectId, Priority priority, boolean doNormalSolrDocCleanUp) {
+        em.createNativeQuery("INSERT INTO indexqueue (dvobject_id, priority, docleanup, requesttime, generation, attempts) "
+                + "VALUES (?1, ?2, ?3, now(), 1, 0) "
+                + "ON CONFLICT (dvobject_id) DO UPDATE SET "
+                + "priority = LEAST(indexqueue.priority, EXCLUDED.priority), "
+                + "docleanup = indexqueue.docleanup OR EXCLUDED.docleanup, "
+                + "generation = indexqueue.generation + 1")
+                .setParameter(1, dvObjectId)
+                .setParameter(2, priority.getValue())
+                .setParameter(3, doNormalSolrDocCleanUp)
+                .executeUpdate();
+    }
+
+    public void enqueue(List<Long> dvObjectIds, Priority priority, boolean doNormalSolrDocCleanUp) {
+        for (Long dvObjectId : dvObjectIds) {
+            enqueue(dvObjectId, priority, doNormalSolrDocCleanUp);
+        }
+    }
+
+    /**
+     * Claims up to maxJobs of the most urgent jobs that are not claimed yet,
+     * or whose claim is older than claimTimeoutMillis.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public List<IndexJob> claim(String nodeName, int maxJobs, long claimTimeoutMillis) {
+        Timestamp staleBefore = new Timestamp(System.currentTimeMillis() - claimTimeoutMillis);
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = em.createNativeQuery("UPDATE indexqueue SET claimedby = ?1, claimtime = now(), attempts = attempts + 1 "
+                + "WHERE dvobject_id IN (SELECT dvobject_id FROM indexqueue "
+                + "WHERE claimedby IS NULL OR claimtime < ?2 "
+                + "ORDER BY priority, requesttime LIMIT ?3 FOR UPDATE SKIP LOCKED) "
+                + "RETURNING dvobject_id, generation, docleanup, attempts")
+                .setParameter(1, nodeName)
+                .setParameter(2, staleBefore)
+                .setParameter(3, maxJobs)
+                .getResultList();
+        List<IndexJob> jobs = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            jobs.add(new IndexJob(((Number) row[0]).longValue(), ((Number) row[1]).longValue(), (Boolean) row[2], ((Number) row[3]).intValue()));
+        }
+        return jobs;
+    }
+
+    /**
+     * Removes a job that has been done, unless the indexing of the object was
+     * requested again in the meantime, in which case the job is released to be
+     * picked up again.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public void complete(IndexJob job, String nodeName) {
+        int deleted = em.createNativeQuery("DELETE FROM indexqueue WHERE dvobject_id = ?1 AND generation = ?2 AND claimedby = ?3")
+                .setParameter(1, job.getDvObjectId())
+                .setParameter(2, job.getGeneration())
+                .setParameter(3, nodeName)
+                .executeUpdate();
+        if (deleted == 0) {
+            logger.fine("indexing of dvobject " + job.getDvObjectId() + " was requested again while it was being indexed");
+            em.createNativeQuery("UPDATE indexqueue SET claimedby = NULL, claimtime = NULL, attempts = 0 WHERE dvobject_id = ?1 AND claimedby = ?2")
+                    .setParameter(1, job.getDvObjectId())
+                    .setParameter(2, nodeName)
+                    .executeUpdate();
+        }
+    }
+
+    /**
+     * Puts a failed job back at the end of its priority, or drops it if it
+     * failed too many times.
+     *
+     * @return false if the job was dropped.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public boolean fail(IndexJob job, String nodeName) {
+        if (job.getAttempts() >= MAX_ATTEMPTS) {
+            em.createNativeQuery("DELETE FROM indexqueue WHERE dvobject_id = ?1 AND generation = ?2 AND claimedby = ?3")
+                    .setParameter(1, job.getDvObjectId())
+                    .setParameter(2, job.getGeneration())
+                    .setParameter(3, nodeName)
+                    .executeUpdate();
+            return false;
+        }
+        em.createNativeQuery("UPDATE indexqueue SET claimedby = NULL, claimtime = NULL, requesttime = now() WHERE dvobject_id = ?1 AND claimedby = ?2")
+                .setParameter(1, job.getDvObjectId())
+                .setParameter(2, nodeName)
+                .executeUpdate();
+        return true;
+    }
+
+    /**
+     * Releases all claims of a node, e.g. the ones that were left behind when
+     * it was stopped while indexing.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public int releaseClaims(String nodeName) {
+        return em.createNativeQuery("UPDATE indexqueue SET claimedby = NULL, claimtime = NULL WHERE claimedby = ?1")
+                .setParameter(1, nodeName)
+                .executeUpdate();
+    }
+
+    public JsonObjectBuilder getStatistics() {
+        JsonObjectBuilder byPriority = Json.createObjectBuilder();
+        long queued = 0;
+        long claimed = 0;
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = em.createNativeQuery("SELECT priority, count(*), count(claimedby) FROM indexqueue GROUP BY priority ORDER BY priority")
+                .getResultList();
+        for (Object[] row : rows) {
+            int priority = ((Number) row[0]).intValue();
+            String name = String.valueOf(priority);
+            for (Priority p : Priority.values()) {
+                if (p.getValue() == priority) {
+                    name = p.name();
+                }
+            }
+            byPriority.add(name, ((Number) row[1]).longValue());
+            queued += ((Number) row[1]).longValue();
+            claimed += ((Number) row[2]).longValue();
+        }
+        return Json.createObjectBuilder()
+                .add("queued", queued)
+                .add("claimed", claimed)
+                .add("byPriority", byPriority);
+    }
+
+}
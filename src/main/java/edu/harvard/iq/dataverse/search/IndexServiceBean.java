@@ -33,6 +33,7 @@ import edu.harvard.iq.dataverse.datavariable.VariableMetadata;
 import edu.harvard.iq.dataverse.datavariable.VariableMetadataUtil;
 import edu.harvard.iq.dataverse.datavariable.VariableServiceBean;
 import edu.harvard.iq.dataverse.harvest.client.HarvestingClient;
+import edu.harvard.iq.dataverse.settings.FeatureFlags;
 import edu.harvard.iq.dataverse.settings.JvmSettings;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import edu.harvard.iq.dataverse.util.FileUtil;
@@ -113,6 +114,8 @@ public class IndexServiceBean {
     @EJB
     DatasetServiceBean datasetService;
     @EJB
+    IndexQueueServiceBean indexQueueService;
+    @EJB
     BuiltinUserServiceBean dataverseUserServiceBean;
     @EJB
     PermissionServiceBean permissionService;
@@ -351,11 +354,66 @@ public class IndexServiceBean {
     
     @TransactionAttribute(REQUIRES_NEW)
     public void indexDatasetInNewTransaction(Long datasetId) { //Dataset dataset) {
+        indexDatasetInNewTransaction(datasetId, null);
+    }
+
+    /**
+     * Same as {@link #indexDatasetInNewTransaction(Long)}, but the documents
+     * of the dataset are added to the given batch instead of being sent to
+     * Solr right away.
+     *
+     * @param batch The batch shared by a bulk indexing run, see
+     * {@link #createIndexBatch()}. May be null.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public void indexDatasetInNewTransaction(Long datasetId, SolrIndexBatch batch) {
+        if (batch != null && datasetService.find(datasetId) == null) {
+            // (a bulk run may be handed datasets deleted since)
+            logger.fine("dataset " + datasetId + " was deleted before it could be indexed");
+            return;
+        }
         boolean doNormalSolrDocCleanUp = false;
         Dataset dataset = datasetService.findDeep(datasetId);
-        asyncIndexDataset(dataset, doNormalSolrDocCleanUp);
+        indexDatasetSkippingDuplicates(dataset, doNormalSolrDocCleanUp, batch);
         dataset = null;
     }
+
+    public SolrIndexBatch createIndexBatch() {
+        return SolrIndexBatch.fromSettings(solrClientService.getSolrClient());
+    }
+
+    /**
+     * Sends the remaining documents of the batch to Solr, makes them
+     * searchable and sets the index time of the datasets they belong to.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public void closeIndexBatchInNewTransaction(SolrIndexBatch batch) {
+        try {
+            batch.close();
+        } catch (SolrServerException | IOException ex) {
+            logger.warning("Failed to send the last batch of documents to Solr: " + ex);
+        }
+        updateLastIndexedTimes(batch);
+    }
+
+    /**
+     * Sets the index time of the datasets of the batch whose documents have
+     * reached Solr, and writes a failure log entry for each dataset of a batch
+     * that Solr did not accept.
+     */
+    private void updateLastIndexedTimes(SolrIndexBatch batch) {
+        for (Long id : batch.takeFlushedDatasetIds()) {
+            updateLastIndexedTime(id);
+        }
+        for (Long id : batch.takeFailedDatasetIds()) {
+            Dataset failed = datasetService.find(id);
+            if (failed != null) {
+                String failureLogText = "Indexing failed. You can kickoff a re-index of this dataset with: \r\n curl http://localhost:8080/api/admin/index/datasets/" + id;
+                failureLogText += "\r\n" + "Solr did not accept the batch of documents this dataset was sent in.";
+                LoggingUtil.writeOnSuccessFailureLog(null, failureLogText, failed);
+            }
+        }
+    }
     
     // The following two variables are only used in the synchronized getNextToIndex method and do not need to be synchronized themselves
 
@@ -386,33 +444,73 @@ public class IndexServiceBean {
         return d;
     }
 
+    // Ends the indexing job of the dataset with "id" after a failure, dropping
+    // any version that was scheduled to be indexed next
+    synchronized private static void abandonIndexing(Long id) {
+        NEXT_TO_INDEX.remove(id);
+        INDEXING_NOW.remove(id);
+    }
+
     /**
      * Indexes a dataset asynchronously.
      * 
-     * Note that this method implement a synchronized skipping mechanism. When an
-     * indexing job is already running for a given dataset in the background, the
-     * new call will not index that dataset, but will delegate the execution to
-     * the already running job. The running job will pick up the requested indexing
-     * once that it is finished with the ongoing indexing. If another indexing is
-     * requested before the ongoing indexing is finished, only the indexing that is
-     * requested most recently will be picked up for the next indexing.
+     * The dataset is added to the durable index queue (see
+     * {@link IndexQueueServiceBean}) with interactive priority, as part of
+     * the current transaction, and indexed by one of the consumers of the
+     * queue once that transaction is committed. Requests for a dataset that is
+     * already queued are merged into one job, and a dataset that is requested
+     * again while being indexed is indexed once more afterwards, so that the
+     * most recent version always ends up in the index.
      * 
-     * In other words: we can have at most one indexing ongoing for the given
-     * dataset, and at most one (most recent) request for reindexing of the same
-     * dataset. All requests that come between the most recent one and the ongoing
-     * one are skipped for the optimization reasons. For a more in depth discussion,
-     * see the pull request: https://github.com/IQSS/dataverse/pull/9558
+     * Within one node, the indexing additionally goes through a synchronized
+     * skipping mechanism shared with bulk indexing: when an indexing job is
+     * already running for a given dataset in the background, the new call will
+     * not index that dataset, but will delegate the execution to the already
+     * running job. For a more in depth discussion, see the pull request:
+     * https://github.com/IQSS/dataverse/pull/9558
      * 
      * @param dataset                The dataset to be indexed.
      * @param doNormalSolrDocCleanUp Flag for normal Solr doc clean up.
      */
-    @Asynchronous
     public void asyncIndexDataset(Dataset dataset, boolean doNormalSolrDocCleanUp) {
+        indexQueueService.enqueue(dataset.getId(), IndexQueueServiceBean.Priority.INTERACTIVE, doNormalSolrDocCleanUp);
+    }
+
+    /**
+     * Indexes a dataset claimed from the index queue, see
+     * {@link IndexQueueConsumer}.
+     * 
+     * Unlike the other entry points, a failure to index the dataset is thrown
+     * rather than written to the failure log, so that the job is left in the
+     * queue to be retried.
+     */
+    @TransactionAttribute(REQUIRES_NEW)
+    public void indexQueuedDataset(Long datasetId, boolean doNormalSolrDocCleanUp) throws SolrServerException, IOException {
+        if (datasetService.find(datasetId) == null) {
+            logger.fine("dataset " + datasetId + " was deleted before it could be indexed");
+            return;
+        }
+        Dataset dataset = datasetService.findDeep(datasetId);
+        Dataset next = getNextToIndex(datasetId, dataset);
+        while (next != null) {
+            try {
+                indexDataset(next, doNormalSolrDocCleanUp, null);
+            } catch (SolrServerException | IOException | RuntimeException e) {
+                // the dataset must not stay locked; a version requested in the
+                // meantime is reindexed when the queue retries the job
+                abandonIndexing(datasetId);
+                throw e;
+            }
+            next = getNextToIndex(datasetId, null);
+        }
+    }
+
+    private void indexDatasetSkippingDuplicates(Dataset dataset, boolean doNormalSolrDocCleanUp, SolrIndexBatch batch) {
         Long id = dataset.getId();
         Dataset next = getNextToIndex(id, dataset); // if there is an ongoing index job for this dataset, next is null (ongoing index job will reindex the newest version after current indexing finishes)
         while (next != null) {
             try {
-                indexDataset(next, doNormalSolrDocCleanUp);
+                indexDataset(next, doNormalSolrDocCleanUp, batch);
             } catch (Exception e) { // catch all possible exceptions; otherwise when something unexpected happes the dataset wold remain locked and impossible to reindex
                 String failureLogText = "Indexing failed. You can kickoff a re-index of this dataset with: \r\n curl http://localhost:8080/api/admin/index/datasets/" + dataset.getId().toString();
                 failureLogText += "\r\n" + e.getLocalizedMessage();
@@ -422,10 +520,16 @@ public class IndexServiceBean {
         }
     }
 
+    /**
+     * Adds the datasets to the index queue with bulk priority, so that they
+     * are indexed after any pending interactive edits.
+     */
     public void asyncIndexDatasetList(List<Dataset> datasets, boolean doNormalSolrDocCleanUp) {
-        for(Dataset dataset : datasets) {
-            asyncIndexDataset(dataset, true);
+        List<Long> ids = new ArrayList<>(datasets.size());
+        for (Dataset dataset : datasets) {
+            ids.add(dataset.getId());
         }
+        indexQueueService.enqueue(ids, IndexQueueServiceBean.Priority.BULK, doNormalSolrDocCleanUp);
     }
     
     public void indexDvObject(DvObject objectIn) throws  SolrServerException, IOException {
@@ -436,12 +540,17 @@ public class IndexServiceBean {
         }
     }
 
-    private void indexDataset(Dataset dataset, boolean doNormalSolrDocCleanUp) throws  SolrServerException, IOException {
-        doIndexDataset(dataset, doNormalSolrDocCleanUp);
-        updateLastIndexedTime(dataset.getId());
+    private void indexDataset(Dataset dataset, boolean doNormalSolrDocCleanUp, SolrIndexBatch batch) throws  SolrServerException, IOException {
+        doIndexDataset(dataset, doNormalSolrDocCleanUp, batch);
+        if (batch == null) {
+            updateLastIndexedTime(dataset.getId());
+        } else {
+            // only datasets whose documents have actually reached Solr
+            updateLastIndexedTimes(batch);
+        }
     }
     
-    private void doIndexDataset(Dataset dataset, boolean doNormalSolrDocCleanUp) throws  SolrServerException, IOException {
+    private void doIndexDataset(Dataset dataset, boolean doNormalSolrDocCleanUp, SolrIndexBatch batch) throws  SolrServerException, IOException {
         logger.fine("indexing dataset " + dataset.getId());
         /**
          * @todo should we use solrDocIdentifierDataset or
@@ -459,6 +568,14 @@ public class IndexServiceBean {
         int numPublishedVersions = 0;
         List<DatasetVersion> versions = dataset.getVersions();
         List<String> solrIdsOfFilesToDelete = new ArrayList<>();
+        FileDocChangeTracker fileDocChangeTracker = null;
+        if (FeatureFlags.INCREMENTAL_FILE_INDEXING.enabled()) {
+            try {
+                fileDocChangeTracker = new FileDocChangeTracker(findFileFingerprintsOfParentDataset(dataset.getId()));
+            } catch (SearchException ex) {
+                logger.fine("could not look up indexed files of dataset " + dataset.getId() + ", reindexing all of them: " + ex);
+            }
+        }
         for (DatasetVersion datasetVersion : versions) {
             Long versionDatabaseId = datasetVersion.getId();
             String versionTitle = datasetVersion.getTitle();
@@ -509,8 +626,12 @@ public class IndexServiceBean {
                  * @todo We should also delete the corresponding Solr
                  * "permission" documents for the files.
                  */
-                List<String> allFilesForDataset = findFilesOfParentDataset(dataset.getId());
-                solrIdsOfFilesToDelete.addAll(allFilesForDataset);
+                if (fileDocChangeTracker == null) {
+                    // (With incremental file indexing, the files of the dataset
+                    // have already been looked up along with their fingerprints.)
+                    List<String> allFilesForDataset = findFilesOfParentDataset(dataset.getId());
+                    solrIdsOfFilesToDelete.addAll(allFilesForDataset);
+                }
             } catch (SearchException | NullPointerException ex) {
                 logger.fine("could not run search of files to delete: " + ex);
             }
@@ -521,7 +642,7 @@ public class IndexServiceBean {
             debug.append("- files: " + numFiles + " " + fileInfo.toString() + "\n");
         }
         debug.append("numPublishedVersions: " + numPublishedVersions + "\n");
-        if (doNormalSolrDocCleanUp) {
+        if (doNormalSolrDocCleanUp && fileDocChangeTracker == null) {
             IndexResponse resultOfAttemptToPremptivelyDeletePublishedFiles = solrIndexService.deleteMultipleSolrIds(solrIdsOfFilesToDelete);
             debug.append("result of attempt to premptively deleted published files before reindexing: " + resultOfAttemptToPremptivelyDeletePublishedFiles + "\n");
         }
@@ -550,7 +671,7 @@ public class IndexServiceBean {
 
                 desiredCards.put(DatasetVersion.VersionState.DRAFT, true);
                 IndexableDataset indexableDraftVersion = new IndexableDataset(latestVersion);
-                String indexDraftResult = addOrUpdateDataset(indexableDraftVersion);
+                String indexDraftResult = addOrUpdateDataset(indexableDraftVersion, fileDocChangeTracker, batch);
                 results.append("The latest version is a working copy (latestVersionState: ")
                         .append(latestVersionStateString).append(") and indexing was attempted for ")
                         .append(solrIdDraftDataset).append(" (limited discoverability). Result: ")
@@ -604,7 +725,7 @@ public class IndexServiceBean {
 
                 desiredCards.put(DatasetVersion.VersionState.DEACCESSIONED, true);
                 IndexableDataset indexableDeaccessionedVersion = new IndexableDataset(latestVersion);
-                String indexDeaccessionedVersionResult = addOrUpdateDataset(indexableDeaccessionedVersion);
+                String indexDeaccessionedVersionResult = addOrUpdateDataset(indexableDeaccessionedVersion, fileDocChangeTracker, batch);
                 results.append("No draft version. Attempting to index as deaccessioned. Result: ").append(indexDeaccessionedVersionResult).append("\n");
 
                 desiredCards.put(DatasetVersion.VersionState.RELEASED, false);
@@ -658,7 +779,7 @@ public class IndexServiceBean {
 
                 desiredCards.put(DatasetVersion.VersionState.RELEASED, true);
                 IndexableDataset indexableReleasedVersion = new IndexableDataset(releasedVersion);
-                String indexReleasedVersionResult = addOrUpdateDataset(indexableReleasedVersion);
+                String indexReleasedVersionResult = addOrUpdateDataset(indexableReleasedVersion, fileDocChangeTracker, batch);
                 results.append("Attempted to index " + solrIdPublished).append(". Result: ").append(indexReleasedVersionResult).append("\n");
 
                 desiredCards.put(DatasetVersion.VersionState.DRAFT, false);
@@ -713,10 +834,10 @@ public class IndexServiceBean {
 
                 desiredCards.put(DatasetVersion.VersionState.RELEASED, true);
                 IndexableDataset indexableReleasedVersion = new IndexableDataset(releasedVersion);
-                String indexReleasedVersionResult = addOrUpdateDataset(indexableReleasedVersion, datafilesInDraftVersion);
+                String indexReleasedVersionResult = addOrUpdateDataset(indexableReleasedVersion, datafilesInDraftVersion, fileDocChangeTracker, batch);
                 results.append("There is a published version we will attempt to index. Result: ").append(indexReleasedVersionResult).append("\n");
 
-                String indexDraftResult = addOrUpdateDataset(indexableDraftVersion);
+                String indexDraftResult = addOrUpdateDataset(indexableDraftVersion, fileDocChangeTracker, batch);
                 results.append("The latest version is a working copy (latestVersionState: ")
                         .append(latestVersionStateString).append(") and will be indexed as ")
                         .append(solrIdDraftDataset).append(" (limited visibility). Result: ").append(indexDraftResult).append("\n");
@@ -762,6 +883,13 @@ public class IndexServiceBean {
             String result = "No-op. Unexpected condition reached: Has a version been published or not?";
             logger.fine(result);
         }
+        if (fileDocChangeTracker != null) {
+            List<String> staleFileDocs = fileDocChangeTracker.getStaleSolrIds();
+            if (doNormalSolrDocCleanUp && !staleFileDocs.isEmpty()) {
+                solrIndexService.deleteMultipleSolrIds(staleFileDocs);
+            }
+            logger.fine("file documents of dataset " + dataset.getId() + " sent incrementally. " + fileDocChangeTracker + ", stale: " + staleFileDocs.size());
+        }
     }
     
     private String deleteDraftFiles(List<String> solrDocIdsForDraftFilesToDelete) {
@@ -785,12 +913,21 @@ public class IndexServiceBean {
         return indexResponse;
     }
 
-    private String addOrUpdateDataset(IndexableDataset indexableDataset) throws  SolrServerException, IOException {
-        String result = addOrUpdateDataset(indexableDataset, null);
+    private String addOrUpdateDataset(IndexableDataset indexableDataset, FileDocChangeTracker fileDocChangeTracker, SolrIndexBatch batch) throws  SolrServerException, IOException {
+        String result = addOrUpdateDataset(indexableDataset, null, fileDocChangeTracker, batch);
         return result;
     }
 
     public SolrInputDocuments toSolrDocs(IndexableDataset indexableDataset, Set<Long> datafilesInDraftVersion) throws  SolrServerException, IOException {
+        return toSolrDocs(indexableDataset, datafilesInDraftVersion, null);
+    }
+
+    /**
+     * @param fileDocChangeTracker If not null, file documents that have not
+     * changed since they were last indexed are left out, and those where only
+     * dataset level fields changed are replaced by atomic updates.
+     */
+    public SolrInputDocuments toSolrDocs(IndexableDataset indexableDataset, Set<Long> datafilesInDraftVersion, FileDocChangeTracker fileDocChangeTracker) throws  SolrServerException, IOException {
         IndexableDataset.DatasetState state = indexableDataset.getDatasetState();
         Dataset dataset = indexableDataset.getDatasetVersion().getDataset();
         logger.fine("adding or updating Solr document for dataset id " + dataset.getId());
@@ -1114,6 +1251,11 @@ public class IndexServiceBean {
         boolean doFullTextIndexing = settingsService.isTrueForKey(SettingsServiceBean.Key.SolrFullTextIndexing, false);
         Long maxFTIndexingSize = settingsService.getValueForKeyAsLong(SettingsServiceBean.Key.SolrMaxFileSizeForFullTextIndexing);
         long maxSize = maxFTIndexingSize != null ? maxFTIndexingSize.longValue() : Long.MAX_VALUE;
+        final String fingerprintExtra = "fullText=" + doFullTextIndexing + ":" + maxSize;
+        if (fileDocChangeTracker == null) {
+            // nothing to compare with, but the documents still get their fingerprints
+            fileDocChangeTracker = new FileDocChangeTracker(null);
+        }
 
         List<String> filesIndexed = new ArrayList<>();
         if (datasetVersion != null) {
@@ -1177,58 +1319,6 @@ public class IndexServiceBean {
                         datafileSolrInputDocument.addField(SearchFields.EMBARGO_END_DATE, end.toEpochDay()); 
                     }
                     
-                    /* Full-text indexing using Apache Tika */
-                    if (doFullTextIndexing) {
-                        if (!dataset.isHarvested() && !fileMetadata.getDataFile().isRestricted() && !fileMetadata.getDataFile().isFilePackage()) {
-                            StorageIO<DataFile> accessObject = null;
-                            InputStream instream = null;
-                            ContentHandler textHandler = null;
-                            try {
-                                accessObject = DataAccess.getStorageIO(fileMetadata.getDataFile(),
-                                        new DataAccessRequest());
-                                if (accessObject != null) {
-                                    accessObject.open();
-                                    // If the size is >max, we don't use the stream. However, for S3, the stream is
-                                    // currently opened in the call above (see
-                                    // https://github.com/IQSS/dataverse/issues/5165), so we want to get a handle so
-                                    // we can close it below.
-                                    instream = accessObject.getInputStream();
-                                    if (accessObject.getSize() <= maxSize) {
-                                        AutoDetectParser autoParser = new AutoDetectParser();
-                                        textHandler = new BodyContentHandler(-1);
-                                        Metadata metadata = new Metadata();
-                                        ParseContext context = new ParseContext();
-                                        /*
-                                         * Try parsing the file. Note that, other than by limiting size, there's been no
-                                         * check see whether this file is a good candidate for text extraction (e.g.
-                                         * based on type).
-                                         */
-                                        autoParser.parse(instream, textHandler, metadata, context);
-                                        datafileSolrInputDocument.addField(SearchFields.FULL_TEXT,
-                                                textHandler.toString());
-                                    }
-                                }
-                            } catch (Exception e) {
-                                // Needs better logging of what went wrong in order to
-                                // track down "bad" documents.
-                                logger.warning(String.format("Full-text indexing for %s failed",
-                                        fileMetadata.getDataFile().getDisplayName()));
-                                e.printStackTrace();
-                            } catch (OutOfMemoryError e) {
-                                textHandler = null;
-                                logger.warning(String.format("Full-text indexing for %s failed due to OutOfMemoryError",
-                                        fileMetadata.getDataFile().getDisplayName()));
-                            } catch(Error e) {
-                                //Catch everything - full-text indexing is complex enough (and using enough 3rd party components) that it can fail
-                                // and we don't want problems here to break other Dataverse functionality (e.g. edits)
-                                logger.severe(String.format("Full-text indexing for %s failed due to Error: %s : %s",
-                                        fileMetadata.getDataFile().getDisplayName(),e.getClass().getCanonicalName(), e.getLocalizedMessage()));
-                            } finally {
-                                IOUtils.closeQuietly(instream);
-                            }
-                        }
-                    }
-
                     String filenameCompleteFinal = "";
                     if (fileMetadata != null) {
                         String filenameComplete = fileMetadata.getLabel();
@@ -1446,8 +1536,69 @@ public class IndexServiceBean {
                     }
 
                     if (indexableDataset.isFilesShouldBeIndexed()) {
+                        // Full text is not stored in Solr, so an atomic update
+                        // would drop it; with full-text indexing on, changed
+                        // documents are always sent in full.
+                        FileDocChangeTracker.Change change = fileDocChangeTracker.track(datafileSolrInputDocument, fingerprintExtra, !doFullTextIndexing);
+
+                        /* Full-text indexing using Apache Tika */
+                        if (doFullTextIndexing && change == FileDocChangeTracker.Change.FULL) {
+                            if (!dataset.isHarvested() && !fileMetadata.getDataFile().isRestricted() && !fileMetadata.getDataFile().isFilePackage()) {
+                                StorageIO<DataFile> accessObject = null;
+                                InputStream instream = null;
+                                ContentHandler textHandler = null;
+                                try {
+                                    accessObject = DataAccess.getStorageIO(fileMetadata.getDataFile(),
+                                            new DataAccessRequest());
+                                    if (accessObject != null) {
+                                        accessObject.open();
+                                        // If the size is >max, we don't use the stream. However, for S3, the stream is
+                                        // currently opened in the call above (see
+                                        // https://github.com/IQSS/dataverse/issues/5165), so we want to get a handle so
+                                        // we can close it below.
+                                        instream = accessObject.getInputStream();
+                                        if (accessObject.getSize() <= maxSize) {
+                                            AutoDetectParser autoParser = new AutoDetectParser();
+                                            textHandler = new BodyContentHandler(-1);
+                                            Metadata metadata = new Metadata();
+                                            ParseContext context = new ParseContext();
+                                            /*
+                                             * Try parsing the file. Note that, other than by limiting size, there's been no
+                                             * check see whether this file is a good candidate for text extraction (e.g.
+                                             * based on type).
+                                             */
+                                            autoParser.parse(instream, textHandler, metadata, context);
+                                            datafileSolrInputDocument.addField(SearchFields.FULL_TEXT,
+                                                    textHandler.toString());
+                                        }
+                                    }
+                                } catch (Exception e) {
+                                    // Needs better logging of what went wrong in order to
+                                    // track down "bad" documents.
+                                    logger.warning(String.format("Full-text indexing for %s failed",
+                                            fileMetadata.getDataFile().getDisplayName()));
+                                    e.printStackTrace();
+                                } catch (OutOfMemoryError e) {
+                                    textHandler = null;
+                                    logger.warning(String.format("Full-text indexing for %s failed due to OutOfMemoryError",
+                                            fileMetadata.getDataFile().getDisplayName()));
+                                } catch(Error e) {
+                                    //Catch everything - full-text indexing is complex enough (and using enough 3rd party components) that it can fail
+                                    // and we don't want problems here to break other Dataverse functionality (e.g. edits)
+                                    logger.severe(String.format("Full-text indexing for %s failed due to Error: %s : %s",
+                                            fileMetadata.getDataFile().getDisplayName(),e.getClass().getCanonicalName(), e.getLocalizedMessage()));
+                                } finally {
+                                    IOUtils.closeQuietly(instream);
+                                }
+                            }
+                        }
+
                         filesIndexed.add(fileSolrDocId);
-                        docs.add(datafileSolrInputDocument);
+                        if (change == FileDocChangeTracker.Change.FULL) {
+                            docs.add(datafileSolrInputDocument);
+                        } else if (change == FileDocChangeTracker.Change.DATASET_FIELDS) {
+                            docs.add(FileDocChangeTracker.toDatasetFieldsUpdate(datafileSolrInputDocument));
+                        }
                     }
                 }
             }
@@ -1460,9 +1611,13 @@ public class IndexServiceBean {
         return new SolrInputDocuments(docs, msg, datasetId);
     }
     
-    private String addOrUpdateDataset(IndexableDataset indexableDataset, Set<Long> datafilesInDraftVersion) throws  SolrServerException, IOException {   
-        final SolrInputDocuments docs = toSolrDocs(indexableDataset, datafilesInDraftVersion);
+    private String addOrUpdateDataset(IndexableDataset indexableDataset, Set<Long> datafilesInDraftVersion, FileDocChangeTracker fileDocChangeTracker, SolrIndexBatch batch) throws  SolrServerException, IOException {   
+        final SolrInputDocuments docs = toSolrDocs(indexableDataset, datafilesInDraftVersion, fileDocChangeTracker);
 
+        if (batch != null) {
+            batch.add(docs);
+            return docs.getMessage();
+        }
         try {
             solrClientService.getSolrClient().add(docs.getDocuments());
             solrClientService.getSolrClient().commit();
@@ -1472,6 +1627,7 @@ public class IndexServiceBean {
             } else if (ex.getCause() instanceof IOException) {
                 throw new IOException(ex);
             }
+            throw ex;
         }
         return docs.getMessage();
     }
@@ -2049,6 +2205,36 @@ public class IndexServiceBean {
         return dvObjectInSolrOnly;
     }
 
+    /**
+     * @return The file documents of the dataset found in Solr, with their
+     * fingerprints (see {@link FileDocChangeTracker}), which are null for
+     * documents indexed before fingerprints were introduced.
+     */
+    private Map<String, String[]> findFileFingerprintsOfParentDataset(long parentDatasetId) throws SearchException {
+        SolrQuery solrQuery = new SolrQuery();
+        solrQuery.setQuery("*");
+        solrQuery.setRows(Integer.MAX_VALUE);
+        solrQuery.addFilterQuery(SearchFields.PARENT_ID + ":" + parentDatasetId);
+        solrQuery.addFilterQuery(SearchFields.TYPE + ":" + "files");
+        solrQuery.setFields(SearchFields.ID, SearchFields.FILE_INDEX_FINGERPRINT, SearchFields.FILE_PARENT_FINGERPRINT);
+        QueryResponse queryResponse = null;
+        try {
+            queryResponse = solrClientService.getSolrClient().query(solrQuery);
+        } catch (SolrServerException | IOException ex) {
+            throw new SearchException("Error searching Solr for dataset parent id " + parentDatasetId, ex);
+        }
+        Map<String, String[]> fingerprints = new HashMap<>();
+        for (SolrDocument solrDocument : queryResponse.getResults()) {
+            Object idObject = solrDocument.getFieldValue(SearchFields.ID);
+            if (idObject != null) {
+                fingerprints.put((String) idObject, new String[]{
+                    (String) solrDocument.getFirstValue(SearchFields.FILE_INDEX_FINGERPRINT),
+                    (String) solrDocument.getFirstValue(SearchFields.FILE_PARENT_FINGERPRINT)});
+            }
+        }
+        return fingerprints;
+    }
+
     private List<String> findFilesOfParentDataset(long parentDatasetId) throws SearchException {
         SolrQuery solrQuery = new SolrQuery();
         solrQuery.setQuery("*");
@@ -2117,16 +2303,25 @@ public class IndexServiceBean {
     // and datafile_s) associated with a harveste dataset. The comments for the
     // method above apply here too.
     public void deleteHarvestedDocuments(Dataset harvestedDataset) {
-        List<String> solrIdsOfDocumentsToDelete = new ArrayList<>();
-        solrIdsOfDocumentsToDelete.add(solrDocIdentifierDataset + harvestedDataset.getId());
-
-        for (DataFile datafile : harvestedDataset.getFiles()) {
-            solrIdsOfDocumentsToDelete.add(solrDocIdentifierFile + datafile.getId());
-        }
+        List<String> solrIdsOfDocumentsToDelete = getHarvestedDocumentIds(harvestedDataset);
 
         logger.fine("attempting to delete the following documents from the index: " + StringUtils.join(solrIdsOfDocumentsToDelete, ","));
         IndexResponse resultOfAttemptToDeleteDocuments = solrIndexService.deleteMultipleSolrIds(solrIdsOfDocumentsToDelete);
         logger.fine("result of attempt to delete harvested documents: " + resultOfAttemptToDeleteDocuments + "\n");
     }
 
+    /**
+     * @return the Solr ids of the documents of a harvested dataset, and of
+     * its files.
+     */
+    public List<String> getHarvestedDocumentIds(Dataset harvestedDataset) {
+        List<String> solrIds = new ArrayList<>();
+        solrIds.add(solrDocIdentifierDataset + harvestedDataset.getId());
+
+        for (DataFile datafile : harvestedDataset.getFiles()) {
+            solrIds.add(solrDocIdentifierFile + datafile.getId());
+        }
+        return solrIds;
+    }
+
 }
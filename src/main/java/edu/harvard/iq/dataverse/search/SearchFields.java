@@ -61,6 +61,14 @@ public class SearchFields {
      * an upgrade such as between Dataverse 4.2 and 4.3.
      */
     public static final String DATAVERSE_VERSION_INDEXED_BY = "dataverseVersionIndexedBy_s";
+    /**
+     * Fingerprints of the content of a file document, used to skip unchanged
+     * files when a dataset is reindexed.
+     *
+     * @see FileDocChangeTracker
+     */
+    public static final String FILE_INDEX_FINGERPRINT = "fileIndexFingerprint_s";
+    public static final String FILE_PARENT_FINGERPRINT = "fileParentFingerprint_s";
     public static final String NAME = "name";
     /**
      * @todo Do we want to support finding dataverses, datasets, and files with
@@ -17,10 +17,10 @@ import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
 import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.logging.Logger;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
@@ -82,10 +82,34 @@ public class SearchPermissionsServiceBean {
         return perms;
     }
 
+    /**
+     * Same as {@link #findDatasetVersionPerms(DatasetVersion)}, for callers
+     * that already know the permission strings of the dataset (see
+     * {@link #findDvObjectPerms(DvObject, Collection)}).
+     */
+    public List<String> findDatasetVersionPerms(DatasetVersion version, Collection<String> datasetPerms) {
+        List<String> perms = new ArrayList<>();
+        if (version.isReleased()) {
+            perms.add(IndexServiceBean.getPublicGroupString());
+        }
+        perms.addAll(datasetPerms);
+        return perms;
+    }
+
     public List<String> findDvObjectPerms(DvObject dvObject) {
+        return findDvObjectPerms(dvObject, rolesSvc.rolesAssignments(dvObject));
+    }
+
+    /**
+     * @param roleAssignments Any subset of the role assignments that apply to
+     * the object, e.g. the ones inherited from its collection, so that these
+     * can be looked up once for many objects.
+     * @return The permission strings granted by the given assignments to
+     * search for the given object.
+     */
+    public List<String> findDvObjectPerms(DvObject dvObject, Collection<RoleAssignment> roleAssignments) {
         List<String> permStrings = new ArrayList<>();
         resetRoleAssigneeCache();
-        Set<RoleAssignment> roleAssignments = rolesSvc.rolesAssignments(dvObject);
         for (RoleAssignment roleAssignment : roleAssignments) {
             logger.fine("role assignment on dvObject " + dvObject.getId() + ": " + roleAssignment.getAssigneeIdentifier());
             if (roleAssignment.getRole().permissions().contains(getRequiredSearchPermission(dvObject))) {
@@ -0,0 +1,203 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Collects the Solr documents of many datasets and sends them to Solr in
+ * batches bounded by a number of documents and by age, instead of one
+ * add/commit round trip per dataset. Batches are sent with commitWithin, so
+ * Solr decides when to open a new searcher; an explicit soft commit is only
+ * issued when the batch is closed.
+ *
+ * Instances are shared by all workers of a bulk indexing run and are thread
+ * safe. The documents of a batch are sent outside of the lock, by the thread
+ * whose addition filled the batch.
+ *
+ * Datasets are only reported as indexed (see
+ * {@link #takeFlushedDatasetIds()}) once their documents have been accepted
+ * by Solr, so that their index timestamps are not set for documents that are
+ * still sitting in memory. When Solr rejects a batch, all the datasets in it
+ * are reported as failed (see {@link #takeFailedDatasetIds()}), not just the
+ * one whose documents happened to fill it.
+ */
+public class SolrIndexBatch {
+
+    private static final Logger logger = Logger.getLogger(SolrIndexBatch.class.getCanonicalName());
+
+    public static final int DEFAULT_MAX_DOCS = 1000;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 5000;
+    public static final int DEFAULT_COMMIT_WITHIN_MILLIS = 10000;
+
+    private final SolrClient solrClient;
+    private final int maxDocs;
+    private final long maxWaitMillis;
+    private final int commitWithinMillis;
+
+    private List<SolrInputDocument> pendingDocs = new ArrayList<>();
+    private Set<Long> pendingDatasetIds = new LinkedHashSet<>();
+    private long oldestPendingTime = 0;
+    private final Set<Long> flushedDatasetIds = new LinkedHashSet<>();
+    private final Set<Long> failedDatasetIds = new LinkedHashSet<>();
+    private final Set<Long> newlyFailedDatasetIds = new LinkedHashSet<>();
+
+    private long batchesSent = 0;
+    private long docsSent = 0;
+    private long largestBatch = 0;
+    private long totalSendMillis = 0;
+    private long slowestSendMillis = 0;
+
+    public SolrIndexBatch(SolrClient solrClient, int maxDocs, long maxWaitMillis, int commitWithinMillis) {
+        this.solrClient = solrClient;
+        this.maxDocs = maxDocs < 1 ? 1 : maxDocs;
+        this.maxWaitMillis = maxWaitMillis;
+        this.commitWithinMillis = commitWithinMillis;
+    }
+
+    /**
+     * @return a batch configured from dataverse.solr.index-batch-size,
+     * dataverse.solr.index-batch-max-wait and dataverse.solr.commit-within.
+     */
+    public static SolrIndexBatch fromSettings(SolrClient solrClient) {
+        int maxDocs = JvmSettings.SOLR_INDEX_BATCH_SIZE.lookupOptional(Integer.class).orElse(DEFAULT_MAX_DOCS);
+        long maxWait = JvmSettings.SOLR_INDEX_BATCH_MAX_WAIT.lookupOptional(Long.class).orElse(DEFAULT_MAX_WAIT_MILLIS);
+        int commitWithin = JvmSettings.SOLR_COMMIT_WITHIN.lookupOptional(Integer.class).orElse(DEFAULT_COMMIT_WITHIN_MILLIS);
+        return new SolrIndexBatch(solrClient, maxDocs, maxWait, commitWithin);
+    }
+
+    /**
+     * Adds the documents of one dataset (version) to the batch, sending the
+     * batch to Solr if it is full or too old. A batch that cannot be sent
+     * doesn't fail the addition: its datasets are reported by
+     * {@link #takeFailedDatasetIds()} instead.
+     */
+    public void add(SolrInputDocuments docs) {
+        List<SolrInputDocument> toSend = null;
+        Set<Long> datasetIds = null;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (pendingDocs.isEmpty()) {
+                oldestPendingTime = now;
+            }
+            pendingDocs.addAll(docs.getDocuments());
+            if (docs.getDatasetId() != null) {
+                pendingDatasetIds.add(docs.getDatasetId());
+            }
+            if (pendingDocs.size() >= maxDocs || now - oldestPendingTime >= maxWaitMillis) {
+                toSend = pendingDocs;
+                datasetIds = pendingDatasetIds;
+                pendingDocs = new ArrayList<>();
+                pendingDatasetIds = new LinkedHashSet<>();
+            }
+        }
+        if (toSend != null) {
+            try {
+                send(toSend, datasetIds);
+            } catch (SolrServerException | IOException | RuntimeException ex) {
+                // already logged and recorded as failed by send()
+            }
+        }
+    }
+
+    /**
+     * Sends whatever is pending, regardless of size and age.
+     */
+    public void flush() throws SolrServerException, IOException {
+        List<SolrInputDocument> toSend;
+        Set<Long> datasetIds;
+        synchronized (this) {
+            toSend = pendingDocs;
+            datasetIds = pendingDatasetIds;
+            pendingDocs = new ArrayList<>();
+            pendingDatasetIds = new LinkedHashSet<>();
+        }
+        send(toSend, datasetIds);
+    }
+
+    /**
+     * Sends whatever is pending and makes all documents of this batch visible
+     * to searches with a soft commit.
+     */
+    public void close() throws SolrServerException, IOException {
+        flush();
+        solrClient.commit(true, true, true);
+    }
+
+    private void send(Collection<SolrInputDocument> docs, Set<Long> datasetIds) throws SolrServerException, IOException {
+        if (docs.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            solrClient.add(docs, commitWithinMillis);
+        } catch (SolrServerException | IOException | RuntimeException ex) {
+            synchronized (this) {
+                failedDatasetIds.addAll(datasetIds);
+                newlyFailedDatasetIds.addAll(datasetIds);
+            }
+            logger.warning("Failed to send a batch of " + docs.size() + " documents to Solr, the following datasets need to be reindexed: " + datasetIds + ". " + ex);
+            throw ex;
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        synchronized (this) {
+            flushedDatasetIds.addAll(datasetIds);
+            batchesSent++;
+            docsSent += docs.size();
+            largestBatch = Math.max(largestBatch, docs.size());
+            totalSendMillis += elapsed;
+            slowestSendMillis = Math.max(slowestSendMillis, elapsed);
+        }
+        logger.fine("sent a batch of " + docs.size() + " documents for " + datasetIds.size() + " dataset(s) to Solr in " + elapsed + " ms");
+    }
+
+    /**
+     * @return the ids of the datasets whose documents have been accepted by
+     * Solr since the last call to this method.
+     */
+    public synchronized List<Long> takeFlushedDatasetIds() {
+        List<Long> ids = new ArrayList<>(flushedDatasetIds);
+        flushedDatasetIds.clear();
+        return ids;
+    }
+
+    /**
+     * @return the ids of the datasets whose documents were in a batch that
+     * Solr did not accept, since the last call to this method.
+     */
+    public synchronized List<Long> takeFailedDatasetIds() {
+        List<Long> ids = new ArrayList<>(newlyFailedDatasetIds);
+        newlyFailedDatasetIds.clear();
+        return ids;
+    }
+
+    public synchronized List<Long> getFailedDatasetIds() {
+        return new ArrayList<>(failedDatasetIds);
+    }
+
+    public synchronized JsonObjectBuilder getStatistics() {
+        return Json.createObjectBuilder()
+                .add("maxDocs", maxDocs)
+                .add("maxWaitMillis", maxWaitMillis)
+                .add("commitWithinMillis", commitWithinMillis)
+                .add("batchesSent", batchesSent)
+                .add("docsSent", docsSent)
+                .add("pendingDocs", pendingDocs.size())
+                .add("averageBatchSize", batchesSent > 0 ? (double) docsSent / batchesSent : 0.0)
+                .add("largestBatch", largestBatch)
+                .add("averageSendMillis", batchesSent > 0 ? (double) totalSendMillis / batchesSent : 0.0)
+                .add("slowestSendMillis", slowestSendMillis)
+                .add("failedDatasets", failedDatasetIds.size());
+    }
+
+}
@@ -1,6 +1,7 @@
 package edu.harvard.iq.dataverse.search;
 
 import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.DataFileServiceBean;
 import edu.harvard.iq.dataverse.Dataset;
 import edu.harvard.iq.dataverse.DatasetServiceBean;
 import edu.harvard.iq.dataverse.DatasetVersion;
@@ -9,7 +10,7 @@ import edu.harvard.iq.dataverse.DataverseRoleServiceBean;
 import edu.harvard.iq.dataverse.DataverseServiceBean;
 import edu.harvard.iq.dataverse.DvObject;
 import edu.harvard.iq.dataverse.DvObjectServiceBean;
-import edu.harvard.iq.dataverse.FileMetadata;
+import edu.harvard.iq.dataverse.RoleAssignment;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -49,6 +50,15 @@ public class SolrIndexServiceBean {
     IndexServiceBean indexService;
     @EJB
     SolrClientService solrClientService;
+    @EJB
+    DataFileServiceBean dataFileService;
+
+    /**
+     * Number of datasets, and of files of a dataset version, looked up at a
+     * time when reindexing permissions.
+     */
+    static final int DATASET_PAGE_SIZE = 100;
+    static final int FILE_PAGE_SIZE = 10000;
 
     public static String numRowsClearedByClearAllIndexTimes = "numRowsClearedByClearAllIndexTimes";
     public static String messageString = "message";
@@ -101,20 +111,6 @@ public class SolrIndexServiceBean {
         return solrDocs;
     }
 
-    private List<DvObjectSolrDoc> determineSolrDocsForFilesFromDataset(Map.Entry<Long, List<Long>> datasetHash) {
-        List<DvObjectSolrDoc> emptyList = new ArrayList<>();
-        List<DvObjectSolrDoc> solrDocs = emptyList;
-        DvObject dvObject = dvObjectService.findDvObject(datasetHash.getKey());
-        if (dvObject == null) {
-            return emptyList;
-        }
-        if (dvObject.isInstanceofDataset()) {
-            Dataset dataset = (Dataset) dvObject;
-            solrDocs.addAll(constructDatafileSolrDocsFromDataset(dataset));
-        }
-        return solrDocs;
-    }
-
     /**
      * @todo should this method return a List? The equivalent methods for
      * datasets and files return lists.
@@ -188,36 +184,6 @@ public class SolrIndexServiceBean {
         return datafileSolrDocs;
     }
 
-    private List<DvObjectSolrDoc> constructDatafileSolrDocsFromDataset(Dataset dataset) {
-        List<DvObjectSolrDoc> datafileSolrDocs = new ArrayList<>();
-        Map<DatasetVersion.VersionState, Boolean> desiredCards = searchPermissionsService.getDesiredCards(dataset);
-        for (DatasetVersion datasetVersionFileIsAttachedTo : datasetVersionsToBuildCardsFor(dataset)) {
-            boolean cardShouldExist = desiredCards.get(datasetVersionFileIsAttachedTo.getVersionState());
-            if (cardShouldExist) {
-                List<String> perms = new ArrayList<>();
-                if (unpublishedDataRelatedToMeModeEnabled) {
-                    if (datasetVersionFileIsAttachedTo.isReleased()) {
-                        perms.add(IndexServiceBean.getPublicGroupString());
-                    } else {
-                        perms = searchPermissionsService.findDatasetVersionPerms(datasetVersionFileIsAttachedTo);
-                    }
-                } else {
-                    perms = searchPermissionsService.findDatasetVersionPerms(datasetVersionFileIsAttachedTo);
-                }
-                for (FileMetadata fileMetadata : datasetVersionFileIsAttachedTo.getFileMetadatas()) {
-                    Long fileId = fileMetadata.getDataFile().getId();
-                    String solrIdStart = IndexServiceBean.solrDocIdentifierFile + fileId;
-                    String solrIdEnd = getDatasetOrDataFileSolrEnding(datasetVersionFileIsAttachedTo.getVersionState());
-                    String solrId = solrIdStart + solrIdEnd;
-                    DvObjectSolrDoc dataFileSolrDoc = new DvObjectSolrDoc(fileId.toString(), solrId, datasetVersionFileIsAttachedTo.getId(), fileMetadata.getLabel(), perms);
-                    logger.fine("adding fileid " + fileId);
-                    datafileSolrDocs.add(dataFileSolrDoc);
-                }
-            }
-        }
-        return datafileSolrDocs;
-    }
-
     private Set<DatasetVersion> datasetVersionsToBuildCardsFor(Dataset dataset) {
         Set<DatasetVersion> datasetVersions = new HashSet<>();
         DatasetVersion latest = dataset.getLatestVersion();
@@ -261,60 +227,41 @@ public class SolrIndexServiceBean {
         }
     }
 
+    /**
+     * Reindexes the permissions of all dataverses, datasets and files, page
+     * by page, see {@link #indexPermissionsOnSelfAndChildren(DvObject)}.
+     */
     public IndexResponse indexAllPermissions() {
-        Collection<SolrInputDocument> docs = new ArrayList<>();
-
-        List<DvObjectSolrDoc> definitionPoints = new ArrayList<>();
-        Map<Long, List<Long>> filesPerDataset = new HashMap<>();
-        List<DvObject> allExceptFiles = dvObjectService.findAll();
-        for (DvObject dvObject : allExceptFiles) {
-            logger.info("determining definition points for dvobject id " + dvObject.getId());
-            if (dvObject.isInstanceofDataFile()) {
-                Long dataset = dvObject.getOwner().getId();
-                Long datafile = dvObject.getId();
-
-                List<Long> files = filesPerDataset.get(dataset);
-                if (files == null) {
-                    files = new ArrayList<>();
-                    filesPerDataset.put(dataset, files);
-                }
-                files.add(datafile);
-            } else {
-                definitionPoints.addAll(determineSolrDocs(dvObject));
-            }
-        }
-
-        List<DvObject> all = allExceptFiles;
-        for (Map.Entry<Long, List<Long>> filePerDataset : filesPerDataset.entrySet()) {
-            definitionPoints.addAll(determineSolrDocsForFilesFromDataset(filePerDataset));
-            for (long fileId : filePerDataset.getValue()) {
-                DvObject file = dvObjectService.findDvObject(fileId);
-                if (file != null) {
-                    all.add(file);
+        SolrIndexBatch batch = SolrIndexBatch.fromSettings(solrClientService.getSolrClient());
+        int dataversesIndexed = 0;
+        int datasetsIndexed = 0;
+        try {
+            long lastId = 0;
+            List<Long> ids;
+            while (!(ids = dvObjectService.findIdsByDtype(DvObject.DType.Dataverse, null, lastId, DATASET_PAGE_SIZE)).isEmpty()) {
+                for (Long id : ids) {
+                    batch.add(toSolrInputDocuments(determineSolrDocs(dataverseService.find(id)), null));
                 }
+                dvObjectService.updatePermissionIndexTime(ids);
+                dataversesIndexed += ids.size();
+                lastId = ids.get(ids.size() - 1);
             }
-        }
-
-        for (DvObjectSolrDoc dvObjectSolrDoc : definitionPoints) {
-            logger.info("creating solr doc in memory for " + dvObjectSolrDoc.getSolrId());
-            SolrInputDocument solrInputDocument = SearchUtil.createSolrDoc(dvObjectSolrDoc);
-            logger.info("adding to list of docs to index " + dvObjectSolrDoc.getSolrId());
-            docs.add(solrInputDocument);
-        }
-        try {
-            persistToSolr(docs);
-            /**
-             * @todo Do we need a separate permissionIndexTime timestamp?
-             * Probably. Update it here.
-             */
-            for (DvObject dvObject : all) {
-                dvObjectService.updatePermissionIndexTime(dvObject);
+            Map<Long, List<String>> inheritedPermsByOwner = new HashMap<>();
+            lastId = 0;
+            while (!(ids = dvObjectService.findIdsByDtype(DvObject.DType.Dataset, null, lastId, DATASET_PAGE_SIZE)).isEmpty()) {
+                indexDatasetPermissions(ids, inheritedPermsByOwner, batch);
+                dvObjectService.updatePermissionIndexTime(batch.takeFlushedDatasetIds());
+                datasetsIndexed += ids.size();
+                lastId = ids.get(ids.size() - 1);
             }
-            return new IndexResponse("indexed all permissions");
+            batch.close();
+            dvObjectService.updatePermissionIndexTime(batch.takeFlushedDatasetIds());
         } catch (SolrServerException | IOException ex) {
+            logger.warning("problem indexing all permissions: " + ex);
             return new IndexResponse("problem indexing");
         }
-
+        logger.fine("indexed all permissions: " + batch.getStatistics().build());
+        return new IndexResponse("indexed all permissions of " + dataversesIndexed + " dataverses and " + datasetsIndexed + " datasets");
     }
 
     public IndexResponse indexPermissionsForOneDvObject(DvObject dvObject) {
@@ -372,124 +319,127 @@ public class SolrIndexServiceBean {
     
     /**
      * We use the database to determine direct children since there is no
-     * inheritance
+     * inheritance.
+     *
+     * Granting a role on a collection with many datasets and files must not
+     * load all of them at once, so the datasets are paged through by id, the
+     * permission strings are computed once per dataset version (files get the
+     * ones of the version they are in), the files are only looked up by id,
+     * and the permission documents are sent to Solr in batches (see
+     * {@link SolrIndexBatch}) with a single commit at the end.
      */
     public IndexResponse indexPermissionsOnSelfAndChildren(DvObject definitionPoint) {
-        List<DvObject> dvObjectsToReindexPermissionsFor = new ArrayList<>();
-        List<DataFile> filesToReindexAsBatch = new ArrayList<>();
-        /**
-         * @todo Re-indexing the definition point itself seems to be necessary
-         * for revoke but not necessarily grant.
-         */
-
-        // We don't create a Solr "primary/content" doc for the root dataverse
-        // so don't create a Solr "permission" doc either.
-        if (definitionPoint.isInstanceofDataverse()) {
-            Dataverse selfDataverse = (Dataverse) definitionPoint;
-            if (!selfDataverse.equals(dataverseService.findRootDataverse())) {
-                dvObjectsToReindexPermissionsFor.add(definitionPoint);
-            }
-            List<Dataset> directChildDatasetsOfDvDefPoint = datasetService.findByOwnerId(selfDataverse.getId());
-            for (Dataset dataset : directChildDatasetsOfDvDefPoint) {
-                dvObjectsToReindexPermissionsFor.add(dataset);
-                for (DataFile datafile : filesToReIndexPermissionsFor(dataset)) {
-                    filesToReindexAsBatch.add(datafile);
+        SolrIndexBatch batch = SolrIndexBatch.fromSettings(solrClientService.getSolrClient());
+        int numIndexed = 0;
+        try {
+            if (definitionPoint.isInstanceofDataverse()) {
+                Dataverse selfDataverse = (Dataverse) definitionPoint;
+                // We don't create a Solr "primary/content" doc for the root dataverse
+                // so don't create a Solr "permission" doc either.
+                if (!selfDataverse.equals(dataverseService.findRootDataverse())) {
+                    batch.add(toSolrInputDocuments(determineSolrDocs(selfDataverse), null));
+                    dvObjectService.updatePermissionIndexTime(List.of(selfDataverse.getId()));
+                    numIndexed++;
                 }
+                Map<Long, List<String>> inheritedPermsByOwner = new HashMap<>();
+                long lastId = 0;
+                List<Long> datasetIds;
+                while (!(datasetIds = dvObjectService.findIdsByDtype(DvObject.DType.Dataset, selfDataverse.getId(), lastId, DATASET_PAGE_SIZE)).isEmpty()) {
+                    indexDatasetPermissions(datasetIds, inheritedPermsByOwner, batch);
+                    dvObjectService.updatePermissionIndexTime(batch.takeFlushedDatasetIds());
+                    numIndexed += datasetIds.size();
+                    lastId = datasetIds.get(datasetIds.size() - 1);
+                }
+            } else if (definitionPoint.isInstanceofDataset()) {
+                indexDatasetPermissions(List.of(definitionPoint.getId()), new HashMap<>(), batch);
+                numIndexed++;
+            } else {
+                batch.add(toSolrInputDocuments(determineSolrDocs(definitionPoint), null));
+                dvObjectService.updatePermissionIndexTime(List.of(definitionPoint.getId()));
+                numIndexed++;
             }
-        } else if (definitionPoint.isInstanceofDataset()) {
-            dvObjectsToReindexPermissionsFor.add(definitionPoint);
-            // index files
-            Dataset dataset = (Dataset) definitionPoint;
-            for (DataFile datafile : filesToReIndexPermissionsFor(dataset)) {
-                filesToReindexAsBatch.add(datafile);
-            }
-        } else {
-            dvObjectsToReindexPermissionsFor.add(definitionPoint);
-        }
-
-        /**
-         * @todo Error handling? What to do with response?
-         *
-         * @todo Should update timestamps, probably, even thought these are
-         * files, see https://github.com/IQSS/dataverse/issues/2421
-         */
-        String response = reindexFilesInBatches(filesToReindexAsBatch);
-
-        for (DvObject dvObject : dvObjectsToReindexPermissionsFor) {
-            /**
-             * @todo do something with this response
-             */
-            IndexResponse indexResponse = indexPermissionsForOneDvObject(dvObject);
+            batch.close();
+            dvObjectService.updatePermissionIndexTime(batch.takeFlushedDatasetIds());
+        } catch (SolrServerException | IOException ex) {
+            logger.warning("problem indexing permissions on " + definitionPoint + " and its children: " + ex);
+            return new IndexResponse("problem indexing permissions on " + definitionPoint + ": " + ex);
         }
-        
+        logger.fine("indexed permissions on " + definitionPoint + ": " + batch.getStatistics().build());
         return new IndexResponse("Number of dvObject permissions indexed for " + definitionPoint
-                + ": " + dvObjectsToReindexPermissionsFor.size()
+                + ": " + numIndexed
         );
     }
 
-    private String reindexFilesInBatches(List<DataFile> filesToReindexPermissionsFor) {
-        List<SolrInputDocument> docs = new ArrayList<>();
-        Map<Long, List<Long>> byParentId = new HashMap<>();
-        Map<Long, List<String>> permStringByDatasetVersion = new HashMap<>();
-        for (DataFile file : filesToReindexPermissionsFor) {
-            Dataset dataset = (Dataset) file.getOwner();
-            Map<DatasetVersion.VersionState, Boolean> desiredCards = searchPermissionsService.getDesiredCards(dataset);
-            for (DatasetVersion datasetVersionFileIsAttachedTo : datasetVersionsToBuildCardsFor(dataset)) {
-                boolean cardShouldExist = desiredCards.get(datasetVersionFileIsAttachedTo.getVersionState());
-                if (cardShouldExist) {
-                    List<String> cachedPermission = permStringByDatasetVersion.get(datasetVersionFileIsAttachedTo.getId());
-                    if (cachedPermission == null) {
-                        logger.fine("no cached permission! Looking it up...");
-                        List<DvObjectSolrDoc> fileSolrDocs = constructDatafileSolrDocs((DataFile) file, permStringByDatasetVersion);
-                        for (DvObjectSolrDoc fileSolrDoc : fileSolrDocs) {
-                            Long datasetVersionId = fileSolrDoc.getDatasetVersionId();
-                            if (datasetVersionId != null) {
-                                permStringByDatasetVersion.put(datasetVersionId, fileSolrDoc.getPermissions());
-                                SolrInputDocument solrDoc = SearchUtil.createSolrDoc(fileSolrDoc);
-                                docs.add(solrDoc);
-                            }
-                        }
-                    } else {
-                        logger.fine("cached permission is " + cachedPermission);
-                        List<DvObjectSolrDoc> fileSolrDocsBasedOnCachedPermissions = constructDatafileSolrDocs((DataFile) file, permStringByDatasetVersion);
-                        for (DvObjectSolrDoc fileSolrDoc : fileSolrDocsBasedOnCachedPermissions) {
-                            SolrInputDocument solrDoc = SearchUtil.createSolrDoc(fileSolrDoc);
-                            docs.add(solrDoc);
-                        }
-                    }
-                }
+    /**
+     * Adds the permission documents of a page of datasets and of their files
+     * to the batch.
+     *
+     * @param inheritedPermsByOwner The permission strings that the datasets
+     * get from their collection (and its ancestors), by collection id. Shared
+     * between pages, so that they are only computed once per collection.
+     */
+    private void indexDatasetPermissions(List<Long> datasetIds, Map<Long, List<String>> inheritedPermsByOwner, SolrIndexBatch batch) throws SolrServerException, IOException {
+        Map<Long, List<RoleAssignment>> directAssignments = rolesSvc.directRoleAssignments(datasetIds);
+        for (Long datasetId : datasetIds) {
+            Dataset dataset = datasetService.find(datasetId);
+            if (dataset == null) {
+                continue;
             }
-            Long parent = file.getOwner().getId();
-            List<Long> existingList = byParentId.get(parent);
-            if (existingList == null) {
-                List<Long> empty = new ArrayList<>();
-                byParentId.put(parent, empty);
-            } else {
-                List<Long> updatedList = existingList;
-                updatedList.add(file.getId());
-                byParentId.put(parent, updatedList);
+            // Datasets are never permission roots, so they get all the
+            // assignments that apply to their collection.
+            Dataverse owner = dataset.getOwner();
+            List<String> inheritedPerms = inheritedPermsByOwner.get(owner.getId());
+            if (inheritedPerms == null) {
+                inheritedPerms = searchPermissionsService.findDvObjectPerms(dataset, rolesSvc.rolesAssignments(owner));
+                inheritedPermsByOwner.put(owner.getId(), inheritedPerms);
             }
-        }
-        try {
-            persistToSolr(docs);
-            return " " + filesToReindexPermissionsFor.size() + " files indexed across " + docs.size() + " Solr documents ";
-        } catch (SolrServerException | IOException ex) {
-            return " tried to reindex " + filesToReindexPermissionsFor.size() + " files indexed across " + docs.size() + " Solr documents but caught exception: " + ex;
+            List<String> datasetPerms = new ArrayList<>(inheritedPerms);
+            datasetPerms.addAll(searchPermissionsService.findDvObjectPerms(dataset, directAssignments.getOrDefault(datasetId, List.of())));
+            indexDatasetPermissions(dataset, datasetPerms, batch);
         }
     }
 
-    private List<DataFile> filesToReIndexPermissionsFor(Dataset dataset) {
-        List<DataFile> filesToReindexPermissionsFor = new ArrayList<>();
+    private void indexDatasetPermissions(Dataset dataset, List<String> datasetPerms, SolrIndexBatch batch) throws SolrServerException, IOException {
         Map<DatasetVersion.VersionState, Boolean> desiredCards = searchPermissionsService.getDesiredCards(dataset);
+        List<SolrInputDocument> docs = new ArrayList<>();
         for (DatasetVersion version : datasetVersionsToBuildCardsFor(dataset)) {
             boolean cardShouldExist = desiredCards.get(version.getVersionState());
-            if (cardShouldExist) {
-                for (FileMetadata fileMetadata : version.getFileMetadatas()) {
-                    filesToReindexPermissionsFor.add(fileMetadata.getDataFile());
+            if (!cardShouldExist) {
+                continue;
+            }
+            List<String> perms = new ArrayList<>();
+            if (version.isReleased()) {
+                perms.add(IndexServiceBean.getPublicGroupString());
+            } else {
+                perms = searchPermissionsService.findDatasetVersionPerms(version, datasetPerms);
+            }
+            String solrIdEnd = getDatasetOrDataFileSolrEnding(version.getVersionState());
+            String datasetSolrId = IndexServiceBean.solrDocIdentifierDataset + dataset.getId() + solrIdEnd;
+            docs.add(SearchUtil.createSolrDoc(new DvObjectSolrDoc(dataset.getId().toString(), datasetSolrId, version.getId(), null, perms)));
+
+            long lastFileId = 0;
+            List<Long> fileIds;
+            while (!(fileIds = dataFileService.findFileIdsByDatasetVersionId(version.getId(), lastFileId, FILE_PAGE_SIZE)).isEmpty()) {
+                for (Long fileId : fileIds) {
+                    String fileSolrId = IndexServiceBean.solrDocIdentifierFile + fileId + solrIdEnd;
+                    docs.add(SearchUtil.createSolrDoc(new DvObjectSolrDoc(fileId.toString(), fileSolrId, version.getId(), null, perms)));
                 }
+                batch.add(new SolrInputDocuments(docs, "", dataset.getId()));
+                docs = new ArrayList<>();
+                lastFileId = fileIds.get(fileIds.size() - 1);
             }
         }
-        return filesToReindexPermissionsFor;
+        if (!docs.isEmpty()) {
+            batch.add(new SolrInputDocuments(docs, "", dataset.getId()));
+        }
+    }
+
+    private SolrInputDocuments toSolrInputDocuments(List<DvObjectSolrDoc> dvObjectSolrDocs, Long datasetId) {
+        List<SolrInputDocument> docs = new ArrayList<>();
+        for (DvObjectSolrDoc dvObjectSolrDoc : dvObjectSolrDocs) {
+            docs.add(SearchUtil.createSolrDoc(dvObjectSolrDoc));
+        }
+        return new SolrInputDocuments(docs, "", datasetId);
     }
 
     public IndexResponse deleteMultipleSolrIds(List<String> solrIdsToDelete) {
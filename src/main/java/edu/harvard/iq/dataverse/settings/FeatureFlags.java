@@ -36,6 +36,14 @@ public enum FeatureFlags {
      * @since Dataverse @TODO:
      */
     API_BEARER_AUTH("api-bearer-auth"),
+    /**
+     * Only sends the Solr documents of files that changed since their dataset was last indexed. Files whose own
+     * metadata is unchanged are skipped; if only dataset level fields copied onto them changed (e.g. the citation),
+     * these are patched with atomic updates when full-text indexing is off.
+     * @apiNote Raise flag by setting "dataverse.feature.incremental-file-indexing"
+     * @since Dataverse @TODO:
+     */
+    INCREMENTAL_FILE_INDEXING("incremental-file-indexing"),
     ;
     
     final String flag;
@@ -46,9 +46,31 @@ public enum JvmSettings {
     FQDN(PREFIX, "fqdn"),
     SITE_URL(PREFIX, "siteUrl"),
     
+    // DATABASE SETTINGS CACHE
+    SCOPE_SETTINGS(PREFIX, "settings"),
+    SETTINGS_CACHE_POLL_INTERVAL(SCOPE_SETTINGS, "cache-poll-interval"),
+    
+    // PERMISSIONS SETTINGS
+    SCOPE_PERMISSIONS(PREFIX, "permissions"),
+    PERMISSIONS_CACHE_TTL(SCOPE_PERMISSIONS, "cache-ttl"),
+    
+    // ACTION LOG SETTINGS
+    SCOPE_ACTION_LOG(PREFIX, "action-log"),
+    ACTION_LOG_QUEUE_SIZE(SCOPE_ACTION_LOG, "queue-size"),
+    ACTION_LOG_BATCH_SIZE(SCOPE_ACTION_LOG, "batch-size"),
+    ACTION_LOG_FLUSH_INTERVAL(SCOPE_ACTION_LOG, "flush-interval"),
+    ACTION_LOG_OVERFLOW_POLICY(SCOPE_ACTION_LOG, "overflow-policy"),
+    
+    // MAKE DATA COUNT SETTINGS
+    SCOPE_MDC(PREFIX, "mdc"),
+    MDC_LOG_BUFFER_SIZE(SCOPE_MDC, "log-buffer-size"),
+    
     // FILES SETTINGS
     SCOPE_FILES(PREFIX, "files"),
     FILES_DIRECTORY(SCOPE_FILES, "directory"),
+    ROTATED_IMAGE_CACHE_SIZE(SCOPE_FILES, "rotated-image-cache-size"),
+    ROTATED_IMAGE_PREGENERATE_MIN_SIZE(SCOPE_FILES, "rotated-image-pregenerate-min-size"),
+    ZIP_PREFETCH_FILES(SCOPE_FILES, "zip-prefetch-files"),
     
     // SOLR INDEX SETTINGS
     SCOPE_SOLR(PREFIX, "solr"),
@@ -57,6 +79,29 @@ public enum JvmSettings {
     SOLR_PROT(SCOPE_SOLR, "protocol"),
     SOLR_CORE(SCOPE_SOLR, "core"),
     SOLR_PATH(SCOPE_SOLR, "path"),
+    SOLR_INDEX_WORKERS(SCOPE_SOLR, "index-workers"),
+    SOLR_INDEX_BATCH_SIZE(SCOPE_SOLR, "index-batch-size"),
+    SOLR_INDEX_BATCH_MAX_WAIT(SCOPE_SOLR, "index-batch-max-wait"),
+    SOLR_COMMIT_WITHIN(SCOPE_SOLR, "commit-within"),
+    SOLR_INDEX_QUEUE_CONSUMERS(SCOPE_SOLR, "index-queue-consumers"),
+    SOLR_INDEX_QUEUE_POLL_INTERVAL(SCOPE_SOLR, "index-queue-poll-interval"),
+    SOLR_INDEX_QUEUE_CLAIM_TIMEOUT(SCOPE_SOLR, "index-queue-claim-timeout"),
+
+    // OAI SERVER AND CLIENT SETTINGS
+    SCOPE_OAI(PREFIX, "oai"),
+    SCOPE_OAI_SERVER(SCOPE_OAI, "server"),
+    OAI_SERVER_STREAM_RECORDS(SCOPE_OAI_SERVER, "stream-records"),
+    OAI_SERVER_RECORD_CACHE_SIZE(SCOPE_OAI_SERVER, "record-cache-size"),
+    SCOPE_OAI_CLIENT(SCOPE_OAI, "client"),
+    OAI_CLIENT_IMPORT_WORKERS(SCOPE_OAI_CLIENT, "import-workers"),
+    OAI_CLIENT_INDEX_CHECKPOINT(SCOPE_OAI_CLIENT, "index-checkpoint"),
+
+    // METADATA EXPORT
+    SCOPE_EXPORT(PREFIX, "export"),
+    EXPORT_WORKERS(SCOPE_EXPORT, "workers"),
+    EXPORT_QUEUE_POLL_INTERVAL(SCOPE_EXPORT, "queue-poll-interval"),
+    EXPORT_QUEUE_CLAIM_TIMEOUT(SCOPE_EXPORT, "queue-claim-timeout"),
+    EXPORT_RETRY_DELAY(SCOPE_EXPORT, "retry-delay"),
 
     // RSERVE CONNECTION
     SCOPE_RSERVE(PREFIX, "rserve"),
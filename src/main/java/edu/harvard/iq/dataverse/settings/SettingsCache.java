@@ -0,0 +1,180 @@
+package edu.harvard.iq.dataverse.settings;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.DependsOn;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+/**
+ * Keeps all the database settings in memory, so that {@link SettingsServiceBean}
+ * can serve them without a query per lookup. The settings are loaded at
+ * startup; changes made through {@link SettingsServiceBean} are applied right
+ * away, and changes made on other nodes of a cluster (or directly in the
+ * database) are picked up by polling a checksum of the setting table every
+ * dataverse.settings.cache-poll-interval milliseconds.
+ */
+@Singleton
+@Startup
+@DependsOn("StartupFlywayMigrator")
+@Lock(LockType.READ)
+public class SettingsCache {
+
+    private static final Logger logger = Logger.getLogger(SettingsCache.class.getCanonicalName());
+
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 5000;
+
+    private static final String VERSION_QUERY = "SELECT md5(coalesce(string_agg(id || ':' || name || ':' || coalesce(lang, '') || ':' || coalesce(content, ''), E'\\n' ORDER BY id), '')) FROM setting";
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    EntityManager em;
+
+    @Resource
+    TimerService timerService;
+
+    /** Setting values by {@link #key(java.lang.String, java.lang.String)}; {@code null} until loaded. */
+    private volatile Map<String, String> settings;
+    /** Checksum of the setting table when loaded; {@code null} forces a reload at the next poll. */
+    private volatile String version;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder polls = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        try {
+            reload();
+        } catch (Exception ex) {
+            // Settings are read from the database until the next poll manages to load them.
+            logger.log(Level.WARNING, "Could not load the settings cache", ex);
+        }
+        long pollInterval = JvmSettings.SETTINGS_CACHE_POLL_INTERVAL.lookupOptional(Long.class).orElse(DEFAULT_POLL_INTERVAL_MILLIS);
+        if (pollInterval > 0) {
+            timerService.createIntervalTimer(pollInterval, pollInterval, new TimerConfig("settings cache", false));
+        } else {
+            logger.info("Not polling for settings changed on other nodes (dataverse.settings.cache-poll-interval is " + pollInterval + ")");
+        }
+    }
+
+    /**
+     * @param name name of the setting.
+     * @param lang language of the setting, or {@code null}.
+     * @return the key of the setting in the cache.
+     */
+    public static String key(String name, String lang) {
+        return (lang != null) ? name + "/" + lang : name;
+    }
+
+    /**
+     * Returns the value of a setting, or {@code null} if there isn't any; or
+     * whatever {@code query} returns, if the settings could not be loaded.
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public String get(String key, Supplier<String> query) {
+        Map<String, String> loaded = settings;
+        if (loaded == null) {
+            misses.increment();
+            return query.get();
+        }
+        hits.increment();
+        return loaded.get(key);
+    }
+
+    /**
+     * Applies a setting set on this node. (Should the transaction setting it
+     * roll back, the next poll puts things right.)
+     */
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public synchronized void put(String key, String value) {
+        if (settings != null) {
+            Map<String, String> updated = new HashMap<>(settings);
+            updated.put(key, value);
+            settings = Collections.unmodifiableMap(updated);
+            version = null;
+        }
+    }
+
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public synchronized void remove(String key) {
+        if (settings != null) {
+            Map<String, String> updated = new HashMap<>(settings);
+            updated.remove(key);
+            settings = Collections.unmodifiableMap(updated);
+            version = null;
+        }
+    }
+
+    @Timeout
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void poll() {
+        // Exceptions thrown from here would make the container retry the timeout.
+        try {
+            polls.increment();
+            if (version == null || !version.equals(queryVersion())) {
+                reload();
+            }
+        } catch (Exception ex) {
+            logger.log(Level.WARNING, "Failed to poll the settings for changes", ex);
+        }
+    }
+
+    /**
+     * Loads the settings again, e.g. after changing them directly in the database.
+     */
+    public void refresh() {
+        reload();
+    }
+
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public JsonObjectBuilder getStatistics() {
+        Map<String, String> loaded = settings;
+        return Json.createObjectBuilder()
+                .add("name", "settings")
+                .add("loaded", loaded != null)
+                .add("settings", (loaded != null) ? loaded.size() : 0)
+                .add("queriesAvoided", hits.sum())
+                .add("queries", misses.sum())
+                .add("polls", polls.sum())
+                .add("reloads", reloads.sum());
+    }
+
+    private synchronized void reload() {
+        // (the checksum is taken first: a change made while the settings
+        // are being read makes the next poll load them again)
+        String loadedVersion = queryVersion();
+        Map<String, String> loaded = new HashMap<>();
+        for (Setting setting : em.createNamedQuery("Setting.findAll", Setting.class).getResultList()) {
+            loaded.put(key(setting.getName(), setting.getLang()), setting.getContent());
+        }
+        settings = Collections.unmodifiableMap(loaded);
+        version = loadedVersion;
+        reloads.increment();
+        logger.fine("Loaded " + loaded.size() + " settings");
+    }
+
+    private String queryVersion() {
+        return Objects.toString(em.createNativeQuery(VERSION_QUERY).getSingleResult(), "");
+    }
+
+}
@@ -614,12 +614,19 @@ public class SettingsServiceBean {
     @EJB
     ActionLogServiceBean actionLogSvc;
     
+    @EJB
+    SettingsCache settingsCache;
+    
     /**
      * Basic functionality - get the name, return the setting, or {@code null}.
      * @param name of the setting
      * @return the actual setting, or {@code null}.
      */
     public String get( String name ) {
+        return settingsCache.get(SettingsCache.key(name, null), () -> find(name));
+    }
+
+    private String find( String name ) {
         List<Setting> tokens = em.createNamedQuery("Setting.findByName", Setting.class)
                 .setParameter("name", name )
                 .getResultList();
@@ -752,14 +759,13 @@ public class SettingsServiceBean {
     }
 
     public String get(String name, String lang, String defaultValue ) {
-        List<Setting> tokens = em.createNamedQuery("Setting.findByNameAndLang", Setting.class)
-                .setParameter("name", name )
-                .setParameter("lang", lang )
-                .getResultList();
-        String val = null;
-        if(tokens.size() > 0) {
-            val = tokens.get(0).getContent();
-        }
+        String val = settingsCache.get(SettingsCache.key(name, lang), () -> {
+            List<Setting> tokens = em.createNamedQuery("Setting.findByNameAndLang", Setting.class)
+                    .setParameter("name", name )
+                    .setParameter("lang", lang )
+                    .getResultList();
+            return (tokens.size() > 0) ? tokens.get(0).getContent() : null;
+        });
         return (val!=null) ? val : defaultValue;
     }
     
@@ -789,6 +795,7 @@ public class SettingsServiceBean {
         }
         
         s = em.merge(s);
+        settingsCache.put(SettingsCache.key(name, null), content);
         actionLogSvc.log( new ActionLogRecord(ActionLogRecord.ActionType.Setting, "set")
                             .setInfo(name + ": " + content));
         return s;
@@ -813,6 +820,7 @@ public class SettingsServiceBean {
         }
         
         em.merge(s);
+        settingsCache.put(SettingsCache.key(name, lang), content);
         actionLogSvc.log( new ActionLogRecord(ActionLogRecord.ActionType.Setting, "set")
                 .setInfo(name + ": " +lang + ": " + content));
         return s;
@@ -861,6 +869,7 @@ public class SettingsServiceBean {
         em.createNamedQuery("Setting.deleteByName")
                 .setParameter("name", name)
                 .executeUpdate();
+        settingsCache.remove(SettingsCache.key(name, null));
     }
 
     public void delete( String name, String lang ) {
@@ -870,6 +879,7 @@ public class SettingsServiceBean {
                 .setParameter("name", name)
                 .setParameter("lang", lang)
                 .executeUpdate();
+        settingsCache.remove(SettingsCache.key(name, lang));
     }
     
     public Set<Setting> listAll() {
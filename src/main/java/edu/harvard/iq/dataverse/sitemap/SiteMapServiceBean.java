@@ -1,17 +1,123 @@
 package edu.harvard.iq.dataverse.sitemap;
 
-import edu.harvard.iq.dataverse.Dataset;
-import edu.harvard.iq.dataverse.Dataverse;
+import edu.harvard.iq.dataverse.GlobalId;
+import edu.harvard.iq.dataverse.pidproviders.PidUtil;
+import edu.harvard.iq.dataverse.sitemap.SiteMapUtil.Entry;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import javax.ejb.Asynchronous;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 
 @Stateless
 public class SiteMapServiceBean {
 
+    private static final Logger logger = Logger.getLogger(SiteMapServiceBean.class.getCanonicalName());
+
+    static final int PAGE_SIZE = 1000;
+
+    /*
+     * A page of the published collections, and of the published datasets that
+     * are neither harvested nor deaccessioned (as in Dataset.isDeaccessioned()),
+     * in the order of their ids; only the columns that make the URLs.
+     */
+    private static final String PAGE_QUERY = "SELECT * FROM ("
+            + "(SELECT o.id, dv.alias, NULL AS protocol, NULL AS authority, NULL AS identifier, COALESCE(o.modificationtime, o.publicationdate) AS lastmod"
+            + " FROM dataverse dv JOIN dvobject o ON o.id = dv.id"
+            + " WHERE dv.id > ?1 AND dv.id <= ?2 AND o.publicationdate IS NOT NULL"
+            + " ORDER BY dv.id LIMIT ?3)"
+            + " UNION ALL "
+            + "(SELECT o.id, NULL, o.protocol, o.authority, o.identifier, COALESCE(o.modificationtime, o.publicationdate)"
+            + " FROM dataset ds JOIN dvobject o ON o.id = ds.id"
+            + " WHERE ds.id > ?1 AND ds.id <= ?2 AND o.publicationdate IS NOT NULL AND ds.harvestingclient_id IS NULL"
+            + " AND (EXISTS (SELECT 1 FROM datasetversion v WHERE v.dataset_id = ds.id AND v.versionstate IN ('RELEASED', 'DRAFT'))"
+            + " OR NOT EXISTS (SELECT 1 FROM datasetversion v WHERE v.dataset_id = ds.id AND v.versionstate = 'DEACCESSIONED'))"
+            + " ORDER BY ds.id LIMIT ?3)"
+            + ") e ORDER BY id LIMIT ?3";
+
+    @PersistenceContext(unitName = "VDCNet-ejbPU")
+    EntityManager em;
+
+    /**
+     * Updates the sitemap, reading the collections and datasets from the
+     * database a page at a time, and only what goes in the sitemap.
+     *
+     * @param incremental whether to only rewrite the sitemap files whose
+     * collections or datasets changed since the last update.
+     */
     @Asynchronous
-    public void updateSiteMap(List<Dataverse> dataverses, List<Dataset> datasets) {
-        SiteMapUtil.updateSiteMap(dataverses, datasets);
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void updateSiteMap(boolean incremental) {
+        SiteMapUtil.updateSiteMap(this::findEntries, incremental, SiteMapUtil.MAX_URLS_PER_FILE);
+    }
+
+    private Stream<Entry> findEntries(long afterId, Long upToId) {
+        Iterator<Entry> pages = new Iterator<Entry>() {
+            private Iterator<Entry> page = null;
+            private long lastId = afterId;
+            private boolean lastPage = false;
+
+            @Override
+            public boolean hasNext() {
+                while ((page == null || !page.hasNext()) && !lastPage) {
+                    List<Object[]> rows = findPage(lastId, (upToId != null) ? upToId : Long.MAX_VALUE);
+                    lastPage = rows.size() < PAGE_SIZE;
+                    if (!rows.isEmpty()) {
+                        lastId = ((Number) rows.get(rows.size() - 1)[0]).longValue();
+                    }
+                    page = toEntries(rows).iterator();
+                }
+                return page != null && page.hasNext();
+            }
+
+            @Override
+            public Entry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object[]> findPage(long afterId, long upToId) {
+        return em.createNativeQuery(PAGE_QUERY)
+                .setParameter(1, afterId)
+                .setParameter(2, upToId)
+                .setParameter(3, PAGE_SIZE)
+                .getResultList();
+    }
+
+    private static List<Entry> toEntries(List<Object[]> rows) {
+        List<Entry> entries = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            long id = ((Number) row[0]).longValue();
+            Date lastMod = (Date) row[5];
+            if (row[1] != null) {
+                entries.add(Entry.forDataverse(id, (String) row[1], lastMod));
+            } else {
+                GlobalId pid = PidUtil.parseAsGlobalID((String) row[2], (String) row[3], (String) row[4]);
+                if (pid == null) {
+                    logger.warning("Leaving dataset " + id + " out of the sitemap, its persistent id is not recognized");
+                    continue;
+                }
+                entries.add(Entry.forDataset(id, pid.asString(), lastMod));
+            }
+        }
+        return entries;
     }
 
 }
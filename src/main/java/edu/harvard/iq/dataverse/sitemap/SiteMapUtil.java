@@ -1,33 +1,33 @@
 package edu.harvard.iq.dataverse.sitemap;
 
-import edu.harvard.iq.dataverse.Dataset;
-import edu.harvard.iq.dataverse.Dataverse;
-import edu.harvard.iq.dataverse.DvObjectContainer;
 import edu.harvard.iq.dataverse.util.SystemConfig;
 import edu.harvard.iq.dataverse.util.xml.XmlValidator;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Properties;
 import java.util.logging.Logger;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import java.util.stream.Stream;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import org.xml.sax.SAXException;
 
 public class SiteMapUtil {
@@ -36,26 +36,94 @@ public class SiteMapUtil {
 
     static final String SITEMAP_FILENAME_FINAL = "sitemap.xml";
     static final String SITEMAP_FILENAME_STAGED = "sitemap.xml.staged";
+    static final String SITEMAP_STATE_FILENAME = "sitemap.properties";
 
     /**
-     * TODO: Handle more than 50,000 entries in the sitemap.
-     *
-     * (As of this writing Harvard Dataverse only has ~3000 dataverses and
-     * ~30,000 datasets.)
-     *
      * "each Sitemap file that you provide must have no more than 50,000 URLs"
      * https://www.sitemaps.org/protocol.html
      *
-     * Consider using a third party library: "One sitemap can contain a maximum
-     * of 50,000 URLs. (Some sitemaps, like Google News sitemaps, can contain
-     * only 1,000 URLs.) If you need to put more URLs than that in a sitemap,
-     * you'll have to use a sitemap index file. Fortunately, WebSitemapGenerator
-     * can manage the whole thing for you."
-     * https://github.com/dfabulich/sitemapgen4j
+     * Beyond that, the URLs are written to several files ("shards",
+     * sitemap1.xml, sitemap2.xml...), listed by a sitemap index in
+     * sitemap.xml.
+     */
+    static final int MAX_URLS_PER_FILE = 50000;
+
+    private static final String SITEMAP_NAMESPACE = "http://www.sitemaps.org/schemas/sitemap/0.9";
+    private static final String SITEMAP_SCHEMA = "https://www.sitemaps.org/schemas/sitemap/0.9/sitemap.xsd";
+    private static final String SITEMAP_INDEX_SCHEMA = "https://www.sitemaps.org/schemas/sitemap/0.9/siteindex.xsd";
+
+    /**
+     * A URL of the sitemap: the page of a published collection or dataset.
+     */
+    static class Entry {
+
+        final long id;
+        final String path;
+        final Date lastMod;
+
+        /**
+         * @param id the id of the collection or dataset; the shards are made of
+         * ranges of ids.
+         * @param path the path of the page, appended to the site URL.
+         * @param lastMod the time the collection or dataset was last modified,
+         * or {@code null}.
+         */
+        Entry(long id, String path, Date lastMod) {
+            this.id = id;
+            this.path = path;
+            this.lastMod = lastMod;
+        }
+
+        static Entry forDataverse(long id, String alias, Date lastMod) {
+            return new Entry(id, "/dataverse/" + alias, lastMod);
+        }
+
+        static Entry forDataset(long id, String persistentId, Date lastMod) {
+            return new Entry(id, "/dataset.xhtml?persistentId=" + persistentId, lastMod);
+        }
+    }
+
+    /**
+     * Where the entries of the sitemap come from.
+     */
+    interface EntrySource {
+
+        /**
+         * @return the entries with ids in (afterId, upToId] (with no upper
+         * bound if upToId is {@code null}), in the order of their ids. The
+         * stream is closed once read.
+         */
+        Stream<Entry> entries(long afterId, Long upToId);
+    }
+
+    /**
+     * A sitemap file, as recorded between runs to make the next one
+     * incremental.
+     */
+    static class Shard {
+
+        /** The highest id of the range of the shard; {@code null} for the last one. */
+        Long upToId;
+        int count;
+        String digest;
+        /** When the file was last written. */
+        String lastMod;
+    }
+
+    /**
+     * Writes the sitemap, streaming the entries into files of up to
+     * maxUrlsPerFile URLs.
+     *
+     * @param incremental whether to only write the files whose entries
+     * changed since the last run, keeping the ranges of ids they had then.
+     * Falls back to writing all of them if there wasn't any (or a range
+     * ended up empty or too large).
+     * @return the number of sitemap files written, or -1 if the sitemap could
+     * not be updated.
      */
-    public static void updateSiteMap(List<Dataverse> dataverses, List<Dataset> datasets) {
+    static int updateSiteMap(EntrySource source, boolean incremental, int maxUrlsPerFile) {
 
-        logger.info("BEGIN updateSiteMap");
+        logger.info("BEGIN updateSiteMap" + (incremental ? " (incremental)" : ""));
 
         String sitemapPathString = getSitemapPathString();
         String stagedSitemapPathAndFileString = sitemapPathString + File.separator + SITEMAP_FILENAME_STAGED;
@@ -64,140 +132,350 @@ public class SiteMapUtil {
         Path stagedPath = Paths.get(stagedSitemapPathAndFileString);
         if (Files.exists(stagedPath)) {
             logger.warning("Unable to update sitemap! The staged file from a previous run already existed. Delete " + stagedSitemapPathAndFileString + " and try again.");
-            return;
+            return -1;
         }
+        File directory = new File(sitemapPathString);
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        Path statePath = Paths.get(sitemapPathString, SITEMAP_STATE_FILENAME);
+        String today = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
 
-        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder documentBuilder = null;
+        List<Shard> shards = null;
+        // The numbers of the shards to write, from the first one:
+        List<Integer> written = new ArrayList<>();
         try {
-            documentBuilder = documentBuilderFactory.newDocumentBuilder();
-        } catch (ParserConfigurationException ex) {
-            logger.warning("Unable to update sitemap! ParserConfigurationException: " + ex.getLocalizedMessage());
-            return;
+            List<Shard> previous = incremental ? readState(statePath) : null;
+            if (previous != null && !markChanges(source, previous, maxUrlsPerFile, sitemapPathString)) {
+                logger.info("The entries of the sitemap moved too much since the last run, writing all of it");
+                previous = null;
+            }
+            if (previous != null) {
+                shards = new ArrayList<>();
+                long afterId = 0;
+                for (int i = 0; i < previous.size(); i++) {
+                    Shard shard = previous.get(i);
+                    boolean last = (i == previous.size() - 1);
+                    if (shard.digest == null) {
+                        // Changed; only the last range may grow into more shards.
+                        for (Shard rewritten : writeShards(source, shards.size() + 1, afterId, shard.upToId,
+                                last ? maxUrlsPerFile : Integer.MAX_VALUE, today, sitemapPathString)) {
+                            shards.add(rewritten);
+                            written.add(shards.size());
+                        }
+                    } else {
+                        shards.add(shard);
+                    }
+                    if (shard.upToId != null) {
+                        afterId = shard.upToId;
+                    }
+                }
+                if (written.isEmpty()) {
+                    logger.info("END updateSiteMap: nothing changed since the last run");
+                    return 0;
+                }
+            } else {
+                shards = writeShards(source, 1, 0, null, maxUrlsPerFile, today, sitemapPathString);
+                for (int n = 1; n <= shards.size(); n++) {
+                    written.add(n);
+                }
+            }
+        } catch (IOException | XMLStreamException ex) {
+            logger.warning("Unable to update sitemap! Unable to write the staged sitemap files to " + sitemapPathString + ": " + ex.getLocalizedMessage());
+            return -1;
         }
-        Document document = documentBuilder.newDocument();
 
-        Element urlSet = document.createElement("urlset");
-        urlSet.setAttribute("xmlns", "http://www.sitemaps.org/schemas/sitemap/0.9");
-        urlSet.setAttribute("xmlns:xhtml", "http://www.w3.org/1999/xhtml");
-        document.appendChild(urlSet);
+        URL schemaUrl = null;
+        URL indexSchemaUrl = null;
+        try {
+            schemaUrl = new URL(SITEMAP_SCHEMA);
+            indexSchemaUrl = new URL(SITEMAP_INDEX_SCHEMA);
+        } catch (MalformedURLException ex) {
+            // These URLs are hard coded and it's fine. We should never get MalformedURLException so we just swallow the exception and carry on.
+        }
+        // (The files are well-formed XML, as written by an XMLStreamWriter.)
+        for (int n : written) {
+            String staged = sitemapPathString + File.separator + shardFileName(n) + ".staged";
+            logger.info("Checking staged sitemap against XML schema. The staged file is " + staged);
+            try {
+                XmlValidator.validateXmlSchema(staged, schemaUrl);
+            } catch (SAXException | IOException ex) {
+                logger.warning("Unable to update sitemap! Exception caught while checking XML staged file (" + staged + " ) against XML schema: " + ex.getLocalizedMessage());
+                return -1;
+            }
+        }
 
-        for (Dataverse dataverse : dataverses) {
-            if (!dataverse.isReleased()) {
-                continue;
+        try {
+            if (shards.size() == 1) {
+                // A single file is the sitemap itself.
+                if (!written.isEmpty()) {
+                    logger.info("Copying staged sitemap to " + finalSitemapPathAndFileString);
+                    Files.move(Paths.get(sitemapPathString, shardFileName(1) + ".staged"), Paths.get(finalSitemapPathAndFileString), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } else {
+                // The index is checked before any shard is moved into place,
+                // so that a bad one leaves the sitemap as it was.
+                logger.info("Writing staged sitemap index to " + stagedSitemapPathAndFileString);
+                writeIndex(shards, stagedPath);
+                try {
+                    XmlValidator.validateXmlSchema(stagedSitemapPathAndFileString, indexSchemaUrl);
+                } catch (SAXException | IOException ex) {
+                    logger.warning("Unable to update sitemap! Exception caught while checking XML staged file (" + stagedSitemapPathAndFileString + " ) against XML schema: " + ex.getLocalizedMessage());
+                    return -1;
+                }
+                for (int n : written) {
+                    Files.move(Paths.get(sitemapPathString, shardFileName(n) + ".staged"), Paths.get(sitemapPathString, shardFileName(n)), StandardCopyOption.REPLACE_EXISTING);
+                }
+                logger.info("Copying staged sitemap index from " + stagedSitemapPathAndFileString + " to " + finalSitemapPathAndFileString);
+                Files.move(stagedPath, Paths.get(finalSitemapPathAndFileString), StandardCopyOption.REPLACE_EXISTING);
+            }
+            // Shards left over from a larger sitemap (or all of them, if the sitemap is a single file now):
+            for (int n = (shards.size() == 1) ? 1 : shards.size() + 1; Files.exists(Paths.get(sitemapPathString, shardFileName(n))); n++) {
+                Files.delete(Paths.get(sitemapPathString, shardFileName(n)));
             }
-            Element url = document.createElement("url");
-            urlSet.appendChild(url);
+            writeState(shards, statePath);
+        } catch (IOException | XMLStreamException ex) {
+            logger.warning("Unable to update sitemap! Unable to move the staged sitemap files into place in " + sitemapPathString + ": " + ex.getLocalizedMessage());
+            return -1;
+        }
 
-            Element loc = document.createElement("loc");
-            String dataverseAlias = dataverse.getAlias();
-            loc.appendChild(document.createTextNode(SystemConfig.getDataverseSiteUrlStatic() + "/dataverse/" + dataverseAlias));
-            url.appendChild(loc);
+        int urls = shards.stream().mapToInt(s -> s.count).sum();
+        logger.info("END updateSiteMap: " + urls + " URLs in " + shards.size() + " file(s), " + written.size() + " written");
+        return written.size();
+    }
 
-            Element lastmod = document.createElement("lastmod");
-            lastmod.appendChild(document.createTextNode(getLastModDate(dataverse)));
-            url.appendChild(lastmod);
+    /*
+     * Goes through all the entries with the id ranges of the shards of the
+     * previous run, and marks the shards whose entries changed (or whose file
+     * is missing) by clearing their digest. Returns false if the ranges can't
+     * be kept: if one, other than the last one, has too many entries, or
+     * none.
+     */
+    private static boolean markChanges(EntrySource source, List<Shard> previous, int maxUrlsPerFile, String sitemapPathString) {
+        int shardCount = previous.size();
+        List<ShardDigest> digests = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            digests.add(new ShardDigest());
+        }
+        try (Stream<Entry> entries = source.entries(0, null)) {
+            Iterator<Entry> it = entries.iterator();
+            int i = 0;
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                while (previous.get(i).upToId != null && entry.id > previous.get(i).upToId) {
+                    i++;
+                }
+                digests.get(i).add(entry);
+            }
+        }
+        for (int i = 0; i < shardCount; i++) {
+            Shard shard = previous.get(i);
+            ShardDigest digest = digests.get(i);
+            if ((i < shardCount - 1 && digest.count > maxUrlsPerFile) || (shardCount > 1 && digest.count == 0)) {
+                return false;
+            }
+            String fileName = (shardCount == 1) ? SITEMAP_FILENAME_FINAL : shardFileName(i + 1);
+            if (!digest.toString().equals(shard.digest) || !Files.exists(Paths.get(sitemapPathString, fileName))) {
+                shard.digest = null;
+            }
         }
+        return true;
+    }
 
-        for (Dataset dataset : datasets) {
-            if (!dataset.isReleased()) {
-                continue;
+    /*
+     * Writes the entries with ids in (afterId, upToId] to the staged files of
+     * shards numbered from firstNumber, starting a new one every
+     * maxUrlsPerFile entries.
+     */
+    private static List<Shard> writeShards(EntrySource source, int firstNumber, long afterId, Long upToId, int maxUrlsPerFile,
+            String today, String sitemapPathString) throws IOException, XMLStreamException {
+        List<Shard> shards = new ArrayList<>();
+        String siteUrl = SystemConfig.getDataverseSiteUrlStatic();
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        try (Stream<Entry> entries = source.entries(afterId, upToId)) {
+            Iterator<Entry> it = entries.iterator();
+            ShardWriter writer = null;
+            long lastId = afterId;
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (writer != null && writer.digest.count == maxUrlsPerFile) {
+                    shards.add(writer.close(lastId, today));
+                    writer = null;
+                }
+                if (writer == null) {
+                    writer = new ShardWriter(Paths.get(sitemapPathString, shardFileName(firstNumber + shards.size()) + ".staged"));
+                }
+                writer.write(siteUrl + entry.path, (entry.lastMod != null) ? dateFormat.format(entry.lastMod) : null);
+                writer.digest.add(entry);
+                lastId = entry.id;
             }
-            if (dataset.isHarvested()) {
-                continue;
+            if (writer == null) {
+                // No entries at all; the file is written anyway, as it always was.
+                writer = new ShardWriter(Paths.get(sitemapPathString, shardFileName(firstNumber + shards.size()) + ".staged"));
             }
-            // The deaccessioned check is last because it has to iterate through dataset versions.
-            if (dataset.isDeaccessioned()) {
-                continue;
+            shards.add(writer.close(upToId, today));
+        }
+        return shards;
+    }
+
+    private static void writeIndex(List<Shard> shards, Path path) throws IOException, XMLStreamException {
+        String siteUrl = SystemConfig.getDataverseSiteUrlStatic();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+            xml.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+            xml.writeCharacters("\n");
+            xml.writeStartElement("sitemapindex");
+            xml.writeDefaultNamespace(SITEMAP_NAMESPACE);
+            for (int n = 1; n <= shards.size(); n++) {
+                xml.writeCharacters("\n  ");
+                xml.writeStartElement("sitemap");
+                xml.writeStartElement("loc");
+                // (Served from the sitemap directory of the docroot, see glassfish-web.xml.)
+                xml.writeCharacters(siteUrl + "/sitemap/" + shardFileName(n));
+                xml.writeEndElement();
+                xml.writeStartElement("lastmod");
+                xml.writeCharacters(shards.get(n - 1).lastMod);
+                xml.writeEndElement();
+                xml.writeEndElement();
             }
-            Element url = document.createElement("url");
-            urlSet.appendChild(url);
+            xml.writeCharacters("\n");
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        }
+    }
 
-            Element loc = document.createElement("loc");
-            String datasetPid = dataset.getGlobalId().asString();
-            loc.appendChild(document.createTextNode(SystemConfig.getDataverseSiteUrlStatic() + "/dataset.xhtml?persistentId=" + datasetPid));
-            url.appendChild(loc);
+    static String shardFileName(int n) {
+        return "sitemap" + n + ".xml";
+    }
 
-            Element lastmod = document.createElement("lastmod");
-            lastmod.appendChild(document.createTextNode(getLastModDate(dataset)));
-            url.appendChild(lastmod);
+    /*
+     * Returns the shards of the previous run, or null if there's no record
+     * of one.
+     */
+    private static List<Shard> readState(Path statePath) {
+        if (!Files.exists(statePath)) {
+            logger.info("No record of a previous sitemap in " + statePath + ", writing all of it");
+            return null;
         }
+        Properties state = new Properties();
+        try (InputStream in = Files.newInputStream(statePath)) {
+            state.load(in);
+            int shardCount = Integer.parseInt(state.getProperty("shards"));
+            List<Shard> shards = new ArrayList<>();
+            for (int n = 1; n <= shardCount; n++) {
+                Shard shard = new Shard();
+                String upToId = state.getProperty("shard." + n + ".upTo");
+                shard.upToId = (upToId != null) ? Long.valueOf(upToId) : null;
+                shard.count = Integer.parseInt(state.getProperty("shard." + n + ".count"));
+                shard.digest = state.getProperty("shard." + n + ".digest");
+                shard.lastMod = state.getProperty("shard." + n + ".lastmod");
+                shards.add(shard);
+            }
+            if (shards.isEmpty() || shards.get(shardCount - 1).upToId != null) {
+                throw new IllegalArgumentException("the last shard must not have an upper bound");
+            }
+            return shards;
+        } catch (IOException | RuntimeException ex) {
+            logger.warning("Could not read the record of the previous sitemap in " + statePath + ", writing all of it: " + ex.getLocalizedMessage());
+            return null;
+        }
+    }
 
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer = null;
-        try {
-            transformer = transformerFactory.newTransformer();
-        } catch (TransformerConfigurationException ex) {
-            logger.warning("Unable to update sitemap! TransformerConfigurationException: " + ex.getLocalizedMessage());
-            return;
-        }
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-        DOMSource source = new DOMSource(document);
-        File directory = new File(sitemapPathString);
-        if (!directory.exists()) {
-            directory.mkdir();
+    private static void writeState(List<Shard> shards, Path statePath) throws IOException {
+        Properties state = new Properties();
+        state.setProperty("shards", String.valueOf(shards.size()));
+        for (int n = 1; n <= shards.size(); n++) {
+            Shard shard = shards.get(n - 1);
+            if (shard.upToId != null) {
+                state.setProperty("shard." + n + ".upTo", shard.upToId.toString());
+            }
+            state.setProperty("shard." + n + ".count", String.valueOf(shard.count));
+            state.setProperty("shard." + n + ".digest", shard.digest);
+            state.setProperty("shard." + n + ".lastmod", shard.lastMod);
+        }
+        try (OutputStream out = Files.newOutputStream(statePath)) {
+            state.store(out, "The files of the sitemap, for the next incremental update");
         }
+    }
+
+    /*
+     * The number of entries of a shard and a digest of all of them, to tell
+     * whether any was added, removed or modified.
+     */
+    private static class ShardDigest {
+
+        private final MessageDigest md;
+        int count;
 
-        boolean debug = false;
-        if (debug) {
-            logger.info("Writing sitemap to console/logs");
-            StreamResult consoleResult = new StreamResult(System.out);
+        ShardDigest() {
             try {
-                transformer.transform(source, consoleResult);
-            } catch (TransformerException ex) {
-                logger.warning("Unable to print sitemap to the console: " + ex.getLocalizedMessage());
+                md = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(ex);
             }
         }
 
-        logger.info("Writing staged sitemap to " + stagedSitemapPathAndFileString);
-        StreamResult result = new StreamResult(new File(stagedSitemapPathAndFileString));
-        try {
-            transformer.transform(source, result);
-        } catch (TransformerException ex) {
-            logger.warning("Unable to update sitemap! Unable to write staged sitemap to " + stagedSitemapPathAndFileString + ". TransformerException: " + ex.getLocalizedMessage());
-            return;
+        void add(Entry entry) {
+            count++;
+            md.update((entry.id + "\n" + entry.path + "\n" + ((entry.lastMod != null) ? entry.lastMod.getTime() : "") + "\n").getBytes(StandardCharsets.UTF_8));
         }
 
-        logger.info("Checking staged sitemap for well-formedness. The staged file is " + stagedSitemapPathAndFileString);
-        try {
-            XmlValidator.validateXmlWellFormed(stagedSitemapPathAndFileString);
-        } catch (Exception ex) {
-            logger.warning("Unable to update sitemap! Staged sitemap file is not well-formed XML! The exception for " + stagedSitemapPathAndFileString + " is " + ex.getLocalizedMessage());
-            return;
+        @Override
+        public String toString() {
+            return String.format("%032x", new BigInteger(1, md.digest()));
         }
+    }
 
-        logger.info("Checking staged sitemap against XML schema. The staged file is " + stagedSitemapPathAndFileString);
-        URL schemaUrl = null;
-        try {
-            schemaUrl = new URL("https://www.sitemaps.org/schemas/sitemap/0.9/sitemap.xsd");
-        } catch (MalformedURLException ex) {
-            // This URL is hard coded and it's fine. We should never get MalformedURLException so we just swallow the exception and carry on.
-        }
-        try {
-            XmlValidator.validateXmlSchema(stagedSitemapPathAndFileString, schemaUrl);
-        } catch (SAXException | IOException ex) {
-            logger.warning("Unable to update sitemap! Exception caught while checking XML staged file (" + stagedSitemapPathAndFileString + " ) against XML schema: " + ex.getLocalizedMessage());
-            return;
-        }
+    /*
+     * Writes a sitemap file, an entry at a time.
+     */
+    private static class ShardWriter {
 
-        Path finalPath = Paths.get(finalSitemapPathAndFileString);
-        logger.info("Copying staged sitemap from " + stagedSitemapPathAndFileString + " to " + finalSitemapPathAndFileString);
-        try {
-            Files.move(stagedPath, finalPath, StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException ex) {
-            logger.warning("Unable to update sitemap! Unable to copy staged sitemap from " + stagedSitemapPathAndFileString + " to " + finalSitemapPathAndFileString + ". IOException: " + ex.getLocalizedMessage());
-            return;
+        private final OutputStream out;
+        private final XMLStreamWriter xml;
+        final ShardDigest digest = new ShardDigest();
+
+        ShardWriter(Path path) throws IOException, XMLStreamException {
+            out = new BufferedOutputStream(Files.newOutputStream(path));
+            xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+            xml.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+            xml.writeCharacters("\n");
+            xml.writeStartElement("urlset");
+            xml.writeDefaultNamespace(SITEMAP_NAMESPACE);
+            xml.writeNamespace("xhtml", "http://www.w3.org/1999/xhtml");
         }
 
-        logger.info("END updateSiteMap");
-    }
+        void write(String loc, String lastMod) throws XMLStreamException {
+            xml.writeCharacters("\n  ");
+            xml.writeStartElement("url");
+            xml.writeStartElement("loc");
+            xml.writeCharacters(loc);
+            xml.writeEndElement();
+            if (lastMod != null) {
+                // TODO: Decide if YYYY-MM-DD is enough. https://www.sitemaps.org/protocol.html
+                // says "The date of last modification of the file. This date should be in W3C Datetime format.
+                // This format allows you to omit the time portion, if desired, and use YYYY-MM-DD."
+                xml.writeStartElement("lastmod");
+                xml.writeCharacters(lastMod);
+                xml.writeEndElement();
+            }
+            xml.writeEndElement();
+        }
 
-    private static String getLastModDate(DvObjectContainer dvObjectContainer) {
-        // TODO: Decide if YYYY-MM-DD is enough. https://www.sitemaps.org/protocol.html
-        // says "The date of last modification of the file. This date should be in W3C Datetime format.
-        // This format allows you to omit the time portion, if desired, and use YYYY-MM-DD."
-        return new SimpleDateFormat("yyyy-MM-dd").format(dvObjectContainer.getModificationTime());
+        Shard close(Long upToId, String today) throws IOException, XMLStreamException {
+            xml.writeCharacters("\n");
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+            out.close();
+            Shard shard = new Shard();
+            shard.upToId = upToId;
+            shard.count = digest.count;
+            shard.digest = digest.toString();
+            shard.lastMod = today;
+            return shard;
+        }
     }
 
     public static boolean stageFileExists() {
@@ -0,0 +1,102 @@
+package edu.harvard.iq.dataverse.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+
+/**
+ * Keeps track of the named {@link LruCache}s of the application, for
+ * monitoring (see {@code /api/admin/caches}) and for invalidating them across
+ * the nodes of a cluster: whenever a named cache is invalidated, the
+ * registered {@link InvalidationListener}s are told about it, so that they can
+ * pass the invalidation on to the other nodes, where it gets applied with
+ * {@link #invalidateLocally(java.lang.String, java.lang.Object)}.
+ */
+public class CacheRegistry {
+
+    private static final Logger logger = Logger.getLogger(CacheRegistry.class.getCanonicalName());
+
+    private static final Map<String, LruCache<?, ?>> caches = new ConcurrentSkipListMap<>();
+    private static final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+
+    public interface InvalidationListener {
+        /**
+         * @param cacheName the name of the invalidated cache.
+         * @param key the invalidated key, or {@code null} if the whole cache was invalidated.
+         */
+        void invalidated(String cacheName, Object key);
+    }
+
+    private CacheRegistry() {
+    }
+
+    static void register(LruCache<?, ?> cache) {
+        if (caches.put(cache.getName(), cache) != null) {
+            logger.fine("Replaced the registered cache " + cache.getName());
+        }
+    }
+
+    public static LruCache<?, ?> getCache(String name) {
+        return caches.get(name);
+    }
+
+    public static List<LruCache<?, ?>> listCaches() {
+        return new ArrayList<>(caches.values());
+    }
+
+    public static JsonArrayBuilder getStatistics() {
+        JsonArrayBuilder stats = Json.createArrayBuilder();
+        for (LruCache<?, ?> cache : caches.values()) {
+            stats.add(cache.getStatistics());
+        }
+        return stats;
+    }
+
+    public static void addInvalidationListener(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeInvalidationListener(InvalidationListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Applies an invalidation that happened on another node, without telling
+     * the listeners about it again.
+     *
+     * @param name the name of the cache.
+     * @param key the key to invalidate, or {@code null} for the whole cache.
+     * @return {@code false} if there is no cache with that name.
+     */
+    @SuppressWarnings("unchecked")
+    public static boolean invalidateLocally(String name, Object key) {
+        LruCache<Object, ?> cache = (LruCache<Object, ?>) caches.get(name);
+        if (cache == null) {
+            return false;
+        }
+        if (key == null) {
+            cache.invalidateLocally();
+        } else {
+            cache.invalidateLocally(key);
+        }
+        return true;
+    }
+
+    static void fireInvalidated(String name, Object key) {
+        for (InvalidationListener listener : listeners) {
+            try {
+                listener.invalidated(name, key);
+            } catch (RuntimeException ex) {
+                // (the local invalidation has happened anyway)
+                logger.log(Level.WARNING, "Cache invalidation listener failed for cache " + name, ex);
+            }
+        }
+    }
+
+}
@@ -1,34 +1,122 @@
 package edu.harvard.iq.dataverse.util;
 
-import java.util.LinkedHashMap;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 /**
- * A thread-safe implementation of a capped-size cache, where the removal is done 
+ * A thread-safe implementation of a capped-size cache, where the removal is done
  * based on the "Least Recently Used" strategy.
  * This implementation allows some scenarios where the removed values are not the
- * least recently used, in order to provide better performance.
- * 
+ * least recently used, in order to provide better performance: reads don't take
+ * any lock, and when the cache is full the evicted entry is the least recently
+ * used of a sample of {@value #EVICTION_SAMPLE_SIZE} entries (so the removal is
+ * exact for caches up to that size). Each sample starts where the previous one
+ * ended, and each pass over the cache at a random entry, so that the evictions
+ * go around the whole cache rather than always sampling the same entries.
+ *
+ * Entries can also expire after a time to live, which bounds how long a value
+ * changed elsewhere (e.g. by another node of the cluster) can be served stale.
+ * Caches created with a name are registered in the {@link CacheRegistry}, which
+ * exposes their statistics and lets other nodes be told about invalidations.
+ *
  * @author michael
  * @param <K> Class for the cache keys
  * @param <V> Class for the cache values
  */
 public class LruCache<K,V> {
-    private final LinkedHashMap<K, V> cache = new LinkedHashMap<>(10, 0.75f, true);
-    private final ReentrantLock cacheLock = new ReentrantLock();
-    private long maxSize = 128;
-    
+
+    private static final Logger logger = Logger.getLogger(LruCache.class.getCanonicalName());
+
+    static final int EVICTION_SAMPLE_SIZE = 16;
+
+    /** Stands for cached {@code null} values, which ConcurrentHashMap does not allow. */
+    private static final Object NULL_VALUE = new Object();
+
+    private final String name;
+    private final ConcurrentHashMap<K, Entry> cache = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    /** Where the next eviction sample starts; only used while holding the eviction lock. */
+    private Iterator<Map.Entry<K, Entry>> evictionHand = null;
+    private volatile long maxSize;
+    private final long timeToLiveNanos;
+
+    /** Incremented on every invalidation, so that values loaded before it are not cached. */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public LruCache() {
+        this(null, 128, null);
+    }
+
+    /**
+     * @param name The name of the cache, or {@code null} for an unregistered cache.
+     * @param maxSize The maximum number of entries.
+     * @param timeToLive How long entries are kept, or {@code null} to keep them until evicted.
+     */
+    public LruCache( String name, long maxSize, Duration timeToLive ) {
+        if ( maxSize < 1 ) {
+            throw new IllegalArgumentException("Max cache size can't be less than 1");
+        }
+        this.name = name;
+        this.maxSize = maxSize;
+        this.timeToLiveNanos = (timeToLive != null) ? timeToLive.toNanos() : 0;
+        if ( name != null ) {
+            CacheRegistry.register(this);
+        }
+    }
+
     /**
      * @param k The key to get
      * @return The value associated with {@code k}, or {@code null}, if there isn't any.
      */
     public V get( K k ) {
-        try {
-            cacheLock.lock();
-            return cache.get(k);
-        } finally { cacheLock.unlock(); }
+        Entry e = getEntry(k);
+        return (e != null) ? e.getValue() : null;
+    }
+
+    /**
+     * Returns the value associated with {@code k}, loading (and caching) it
+     * if there isn't any. {@code null} values returned by the loader are cached
+     * too, so that lookups of missing values don't hit the loader every time.
+     *
+     * @param k the key
+     * @param loader computes the value of a missing key; called without holding any lock.
+     * @return the cached or loaded value.
+     */
+    public V get( K k, Function<? super K, ? extends V> loader ) {
+        Entry e = getEntry(k);
+        if ( e != null ) {
+            return e.getValue();
+        }
+        long loadGeneration = generation.get();
+        V v = loader.apply(k);
+        // (a value loaded while the cache was being invalidated may already be stale)
+        if ( generation.get() == loadGeneration ) {
+            putEntry(k, v);
+        }
+        return v;
     }
-    
+
     /**
      * Associates {@code k} with {@code v}.
      * @param k the key
@@ -36,21 +124,14 @@ public class LruCache<K,V> {
      * @return {@code v}, to allow method call chaining.
      */
     public V put( K k, V v ) {
-        try {
-            cacheLock.lock();
-            cache.put(k, v);
-            shrinkToMaxSize();
-            return v;
-        } finally { cacheLock.unlock(); }
+        putEntry(k, v);
+        return v;
     }
 
     public long size() {
-        try {
-            cacheLock.lock();
-            return cache.size();
-        } finally { cacheLock.unlock(); }
+        return cache.size();
     }
-        
+
     public long getMaxSize() {
         return maxSize;
     }
@@ -59,30 +140,201 @@ public class LruCache<K,V> {
         if ( maxSize < 1 ) {
             throw new IllegalArgumentException("Max cache size can't be less than 1");
         }
-        try {
-            cacheLock.lock();
-            this.maxSize = maxSize;
-            shrinkToMaxSize();
-        } finally { cacheLock.unlock(); }
+        this.maxSize = maxSize;
+        shrinkToMaxSize();
     }
-    
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Removes all the entries, here and, for named caches, on the other nodes
+     * listening to the {@link CacheRegistry}.
+     */
     public void invalidate() {
-        try {
-            cacheLock.lock();
-            cache.clear();
-        } finally { cacheLock.unlock(); }
+        invalidateLocally();
+        if ( name != null ) {
+            CacheRegistry.fireInvalidated(name, null);
+        }
     }
-    
+
+    /**
+     * Removes the entry of {@code k}, here and, for named caches, on the other
+     * nodes listening to the {@link CacheRegistry}.
+     */
     public void invalidate( K k ) {
+        invalidateLocally(k);
+        if ( name != null ) {
+            CacheRegistry.fireInvalidated(name, k);
+        }
+    }
+
+    /**
+     * As {@link #invalidate()}, for callers changing the cached values in a
+     * transaction: what gets loaded until the transaction is over may still be
+     * stale, or not be committed at all, so the entries are removed again then.
+     */
+    public void invalidateAfterCompletion() {
+        invalidate();
+        afterCompletion(this::invalidate);
+    }
+
+    /**
+     * As {@link #invalidate(Object)}, and again once the transaction of the
+     * caller is over; see {@link #invalidateAfterCompletion()}.
+     */
+    public void invalidateAfterCompletion( K k ) {
+        invalidate(k);
+        afterCompletion(() -> invalidate(k));
+    }
+
+    private void afterCompletion( Runnable invalidation ) {
         try {
-            cacheLock.lock();
-            cache.remove(k);
-        } finally { cacheLock.unlock(); }
+            TransactionSynchronizationRegistry registry = (TransactionSynchronizationRegistry) new InitialContext()
+                    .lookup("java:comp/TransactionSynchronizationRegistry");
+            if ( registry.getTransactionStatus() == Status.STATUS_ACTIVE ) {
+                registry.registerInterposedSynchronization(new Synchronization() {
+                    @Override
+                    public void beforeCompletion() {
+                    }
+
+                    @Override
+                    public void afterCompletion( int status ) {
+                        invalidation.run();
+                    }
+                });
+            }
+        } catch ( NamingException | IllegalStateException ex ) {
+            // not in a transaction
+            logger.fine("Cache " + name + " invalidated outside of a transaction: " + ex.getMessage());
+        }
+    }
+
+    void invalidateLocally() {
+        generation.incrementAndGet();
+        cache.clear();
+        invalidations.increment();
+    }
+
+    void invalidateLocally( K k ) {
+        generation.incrementAndGet();
+        cache.remove(k);
+        invalidations.increment();
+    }
+
+    public JsonObjectBuilder getStatistics() {
+        JsonObjectBuilder stats = Json.createObjectBuilder();
+        if ( name != null ) {
+            stats.add("name", name);
+        }
+        return stats.add("size", size())
+                .add("maxSize", maxSize)
+                .add("timeToLiveSeconds", timeToLiveNanos / 1_000_000_000L)
+                .add("hits", hits.sum())
+                .add("misses", misses.sum())
+                .add("evictions", evictions.sum())
+                .add("expirations", expirations.sum())
+                .add("invalidations", invalidations.sum());
+    }
+
+    private Entry getEntry( K k ) {
+        Entry e = cache.get(k);
+        if ( e != null && e.isExpired(System.nanoTime()) ) {
+            if ( cache.remove(k, e) ) {
+                expirations.increment();
+            }
+            e = null;
+        }
+        if ( e == null ) {
+            misses.increment();
+            return null;
+        }
+        e.lastAccess = System.nanoTime();
+        hits.increment();
+        return e;
     }
-    
+
+    private void putEntry( K k, V v ) {
+        long now = System.nanoTime();
+        cache.put(k, new Entry(v, now, (timeToLiveNanos > 0) ? now + timeToLiveNanos : 0));
+        if ( cache.size() > maxSize ) {
+            shrinkToMaxSize();
+        }
+    }
+
     private void shrinkToMaxSize() {
-        while( cache.size() > getMaxSize() ) {
-            cache.remove( cache.entrySet().iterator().next().getKey() );
+        // (a single thread evicts at a time; the others carry on, and the cache
+        // may briefly hold a few entries more than its max size)
+        if ( !evictionLock.tryLock() ) {
+            return;
+        }
+        try {
+            while ( cache.size() > maxSize ) {
+                K eldest = null;
+                Entry eldestEntry = null;
+                long now = System.nanoTime();
+                if ( evictionHand == null || !evictionHand.hasNext() ) {
+                    startEvictionPass();
+                }
+                for ( int sampled = 0; sampled < EVICTION_SAMPLE_SIZE; sampled++ ) {
+                    if ( !evictionHand.hasNext() ) {
+                        // (within a sample, from the first entry, so that a small cache is sampled whole)
+                        evictionHand = cache.entrySet().iterator();
+                        if ( !evictionHand.hasNext() ) {
+                            break;
+                        }
+                    }
+                    Map.Entry<K, Entry> candidate = evictionHand.next();
+                    if ( candidate.getValue().isExpired(now) ) {
+                        eldest = candidate.getKey();
+                        eldestEntry = candidate.getValue();
+                        break;
+                    }
+                    if ( eldestEntry == null || candidate.getValue().lastAccess - eldestEntry.lastAccess < 0 ) {
+                        eldest = candidate.getKey();
+                        eldestEntry = candidate.getValue();
+                    }
+                }
+                if ( eldest == null ) {
+                    return;
+                }
+                if ( cache.remove(eldest, eldestEntry) ) {
+                    evictions.increment();
+                }
+            }
+        } finally { evictionLock.unlock(); }
+    }
+
+    private void startEvictionPass() {
+        evictionHand = cache.entrySet().iterator();
+        int skip = ThreadLocalRandom.current().nextInt(Math.max(cache.size(), 1));
+        for ( int i = 0; i < skip && evictionHand.hasNext(); i++ ) {
+            evictionHand.next();
+        }
+        if ( !evictionHand.hasNext() ) {
+            evictionHand = cache.entrySet().iterator();
+        }
+    }
+
+    private final class Entry {
+        private final Object value;
+        private final long expiresAt;
+        private volatile long lastAccess;
+
+        Entry( V value, long now, long expiresAt ) {
+            this.value = (value != null) ? value : NULL_VALUE;
+            this.lastAccess = now;
+            this.expiresAt = expiresAt;
+        }
+
+        @SuppressWarnings("unchecked")
+        V getValue() {
+            return (value != NULL_VALUE) ? (V) value : null;
+        }
+
+        boolean isExpired( long now ) {
+            return expiresAt != 0 && now - expiresAt >= 0;
         }
     }
 }
@@ -19,6 +19,8 @@
 */
 
 package edu.harvard.iq.dataverse.util;
+import edu.harvard.iq.dataverse.dataaccess.DoubleColumnVector;
+import edu.harvard.iq.dataverse.dataaccess.LongColumnVector;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -39,9 +41,6 @@ public class SumStatCalculator {
     public static double[] calculateSummaryStatistics(Number[] x){
         logger.fine("entering calculate summary statistics ("+x.length+" Number values);");
         
-        double[] nx = new double[8];
-        //("mean", "medn", "mode", "vald", "invd", "min", "max", "stdev");
-
         Float testNanValue = new Float(Float.NaN);
         Number testNumberValue = testNanValue;
         if (Double.isNaN(testNumberValue.doubleValue())) {
@@ -49,16 +48,68 @@ public class SumStatCalculator {
         }
         
         int invalid = countInvalidValues(x);
-        nx[4] = invalid;
-        logger.fine("counted invalid values: "+nx[4]);
-        nx[3] = x.length - invalid;
-        logger.fine("counted valid values: "+nx[3]);
-        
         
         //double[] newx = prepareForSummaryStats(x);
         double[] newx = prepareForSummaryStatsAlternative(x, x.length - invalid);
         logger.fine("prepared double vector for summary stats calculation ("+newx.length+" double values);");        
         
+        return calculateSummaryStatistics(newx, invalid);
+    }  
+
+    /**
+     * Same as above, on a vector of primitive values; missing values, as well
+     * as NaNs, are counted as invalid.
+     */
+    public static double[] calculateSummaryStatistics(DoubleColumnVector x) {
+        logger.fine("entering calculate summary statistics ("+x.size()+" double values);");
+        
+        int invalid = 0;
+        for (int i = 0; i < x.size(); i++) {
+            if (x.isMissing(i) || Double.isNaN(x.get(i))) {
+                invalid++;
+            }
+        }
+        
+        double[] newx = new double[x.size() - invalid];
+        int c = 0;
+        for (int i = 0; i < x.size(); i++) {
+            if (!x.isMissing(i) && !Double.isNaN(x.get(i))) {
+                newx[c++] = x.get(i);
+            }
+        }
+        
+        return calculateSummaryStatistics(newx, invalid);
+    }
+
+    public static double[] calculateSummaryStatistics(LongColumnVector x) {
+        logger.fine("entering calculate summary statistics ("+x.size()+" long values);");
+        
+        int invalid = x.getMissingCount();
+        
+        double[] newx = new double[x.size() - invalid];
+        int c = 0;
+        for (int i = 0; i < x.size(); i++) {
+            if (!x.isMissing(i)) {
+                newx[c++] = x.get(i);
+            }
+        }
+        
+        return calculateSummaryStatistics(newx, invalid);
+    }
+
+    /*
+     * Calculates the statistics on the valid values of a vector, once the 
+     * invalid ones have been removed and counted.
+     */
+    private static double[] calculateSummaryStatistics(double[] newx, int invalid) {
+        double[] nx = new double[8];
+        //("mean", "medn", "mode", "vald", "invd", "min", "max", "stdev");
+
+        nx[4] = invalid;
+        logger.fine("counted invalid values: "+nx[4]);
+        nx[3] = newx.length;
+        logger.fine("counted valid values: "+nx[3]);
+        
         ////nx[0] = StatUtils.mean(newx);
         nx[0] = calculateMean(newx);
         logger.fine("calculated mean: "+nx[0]);
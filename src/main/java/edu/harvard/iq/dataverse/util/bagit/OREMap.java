@@ -73,7 +73,20 @@ public class OREMap {
         return getOREMapBuilder(aggregationOnly).build();
     }
     
+    /**
+     * @return the map without the "ore:aggregates" and "schema:hasPart" of the 
+     * aggregation, for exports that add the files one at a time, with 
+     * {@link #getAggregatedResource(FileMetadata)}.
+     */
+    public JsonObject getOREMapWithoutFiles() {
+        return getOREMapBuilder(false, false).build();
+    }
+    
     public JsonObjectBuilder getOREMapBuilder(boolean aggregationOnly) {
+        return getOREMapBuilder(aggregationOnly, true);
+    }
+    
+    private JsonObjectBuilder getOREMapBuilder(boolean aggregationOnly, boolean includeFiles) {
 
         //Set this flag if it wasn't provided
         if(excludeEmail==null) {
@@ -156,108 +169,13 @@ public class OREMap {
         // The aggregation aggregates aggregatedresources (Datafiles) which each have
         // their own entry and metadata
         JsonArrayBuilder aggResArrayBuilder = Json.createArrayBuilder();
-        if (!aggregationOnly) {
+        if (!aggregationOnly && includeFiles) {
 
             for (FileMetadata fmd : version.getFileMetadatas()) {
-                DataFile df = fmd.getDataFile();
-                JsonObjectBuilder aggRes = Json.createObjectBuilder();
-
-                if (fmd.getDescription() != null) {
-                    aggRes.add(JsonLDTerm.schemaOrg("description").getLabel(), fmd.getDescription());
-                } else {
-                    addIfNotNull(aggRes, JsonLDTerm.schemaOrg("description"), df.getDescription());
-                }
-                String fileName = fmd.getLabel();// "label" is the filename
-                long fileSize = df.getFilesize();
-                String mimeType = df.getContentType();
-                String currentIngestedName = null;
-                boolean ingested=df.getOriginalFileName()!= null || df.getOriginalFileSize()!=null || df.getOriginalFileFormat()!=null;
-                if(ingested) {
-                    if(df.getOriginalFileName()!=null) {
-                        currentIngestedName= fileName;
-                        fileName = df.getOriginalFileName();
-                    } else {
-                        logger.warning("Missing Original file name for id: " + df.getId());
-                    }
-                    if(df.getOriginalFileSize()!=null) {
-                        fileSize = df.getOriginalFileSize();
-                    } else {
-                        logger.warning("Missing Original file size for id: " + df.getId());
-                    }
-                    if(df.getOriginalFileFormat()!=null) {
-                        mimeType = df.getOriginalFileFormat();
-                    } else {
-                        logger.warning("Missing Original file format for id: " + df.getId());
-                    }
-
-                    
-                }
-                addIfNotNull(aggRes, JsonLDTerm.schemaOrg("name"), fileName); 
-                addIfNotNull(aggRes, JsonLDTerm.restricted, fmd.isRestricted());
-                Embargo embargo=df.getEmbargo(); 
-                if(embargo!=null) {
-                    String date = embargo.getFormattedDateAvailable();
-                    String reason= embargo.getReason();
-                    JsonObjectBuilder embargoObject = Json.createObjectBuilder();
-                    embargoObject.add(JsonLDTerm.DVCore("dateAvailable").getLabel(), date);
-                    if(reason!=null) {
-                        embargoObject.add(JsonLDTerm.DVCore("reason").getLabel(), reason);
-                    }
-                    aggRes.add(JsonLDTerm.DVCore("embargoed").getLabel(), embargoObject);
-                }
-                addIfNotNull(aggRes, JsonLDTerm.directoryLabel, fmd.getDirectoryLabel());
-                addIfNotNull(aggRes, JsonLDTerm.schemaOrg("version"), fmd.getVersion());
-                addIfNotNull(aggRes, JsonLDTerm.datasetVersionId, fmd.getDatasetVersion().getId());
-                JsonArray catArray = null;
-                if (fmd != null) {
-                    List<String> categories = fmd.getCategoriesByName();
-                    if (categories.size() > 0) {
-                        JsonArrayBuilder jab = Json.createArrayBuilder();
-                        for (String s : categories) {
-                            jab.add(s);
-                        }
-                        catArray = jab.build();
-                    }
-                }
-                addIfNotNull(aggRes, JsonLDTerm.categories, catArray);
-                // File DOI if it exists
-                String fileId = null;
-                String fileSameAs = null;
-                if (df.getGlobalId()!=null) {
-                    fileId = df.getGlobalId().asString();
-                    fileSameAs = SystemConfig.getDataverseSiteUrlStatic()
-                            + "/api/access/datafile/:persistentId?persistentId=" + fileId + (ingested ? "&format=original":"");
-                } else {
-                    fileId = SystemConfig.getDataverseSiteUrlStatic() + "/file.xhtml?fileId=" + df.getId();
-                    fileSameAs = SystemConfig.getDataverseSiteUrlStatic() + "/api/access/datafile/" + df.getId() + (ingested ? "?format=original":"");
-                }
-                aggRes.add("@id", fileId);
-                aggRes.add(JsonLDTerm.schemaOrg("sameAs").getLabel(), fileSameAs);
-                fileArray.add(fileId);
-
-                aggRes.add("@type", JsonLDTerm.ore("AggregatedResource").getLabel());
-                addIfNotNull(aggRes, JsonLDTerm.schemaOrg("fileFormat"), mimeType);
-                addIfNotNull(aggRes, JsonLDTerm.filesize, fileSize);
-                addIfNotNull(aggRes, JsonLDTerm.storageIdentifier, df.getStorageIdentifier());
-                addIfNotNull(aggRes, JsonLDTerm.currentIngestedName, currentIngestedName);
-                addIfNotNull(aggRes, JsonLDTerm.UNF, df.getUnf());
-                addIfNotNull(aggRes, JsonLDTerm.rootDataFileId, df.getRootDataFileId());
-                addIfNotNull(aggRes, JsonLDTerm.previousDataFileId, df.getPreviousDataFileId());
-                JsonObject checksum = null;
-                // Add checksum. RDA recommends SHA-512
-                if (df.getChecksumType() != null && df.getChecksumValue() != null) {
-                    checksum = Json.createObjectBuilder().add("@type", df.getChecksumType().toString())
-                            .add("@value", df.getChecksumValue()).build();
-                    aggRes.add(JsonLDTerm.checksum.getLabel(), checksum);
-                }
-                JsonArray tabTags = null;
-                JsonArrayBuilder jab = JsonPrinter.getTabularFileTags(df);
-                if (jab != null) {
-                    tabTags = jab.build();
-                }
-                addIfNotNull(aggRes, JsonLDTerm.tabularTags, tabTags);
+                JsonObject aggRes = getAggregatedResource(fmd);
+                fileArray.add(aggRes.getString("@id"));
                 // Add latest resource to the array
-                aggResArrayBuilder.add(aggRes.build());
+                aggResArrayBuilder.add(aggRes);
             }
         }
         // Build the '@context' object for json-ld based on the localContext entries
@@ -268,6 +186,10 @@ public class OREMap {
         if (aggregationOnly) {
             return aggBuilder.add("@context", contextBuilder.build());
         } else {
+            if (includeFiles) {
+                aggBuilder.add(JsonLDTerm.ore("aggregates").getLabel(), aggResArrayBuilder.build())
+                        .add(JsonLDTerm.schemaOrg("hasPart").getLabel(), fileArray.build());
+            }
             // Now create the overall map object with it's metadata
             JsonObjectBuilder oremapBuilder = Json.createObjectBuilder()
                     .add(JsonLDTerm.dcTerms("modified").getLabel(), LocalDate.now().toString())
@@ -279,15 +201,117 @@ public class OREMap {
                             SystemConfig.getDataverseSiteUrlStatic() + "/api/datasets/export?exporter="
                                     + OAI_OREExporter.NAME + "&persistentId=" + id)
                     // Add the aggregation (Dataset) itself to the map.
-                    .add(JsonLDTerm.ore("describes").getLabel(),
-                            aggBuilder.add(JsonLDTerm.ore("aggregates").getLabel(), aggResArrayBuilder.build())
-                                    .add(JsonLDTerm.schemaOrg("hasPart").getLabel(), fileArray.build()).build())
+                    .add(JsonLDTerm.ore("describes").getLabel(), aggBuilder.build())
                     // and finally add the context
                     .add("@context", contextBuilder.build());
             return oremapBuilder;
         }
     }
 
+    /**
+     * @return the aggregated resource (the entry of "ore:aggregates") of a 
+     * file; its "@id" is the file's entry of "schema:hasPart".
+     */
+    public JsonObject getAggregatedResource(FileMetadata fmd) {
+        DataFile df = fmd.getDataFile();
+        JsonObjectBuilder aggRes = Json.createObjectBuilder();
+
+        if (fmd.getDescription() != null) {
+            aggRes.add(JsonLDTerm.schemaOrg("description").getLabel(), fmd.getDescription());
+        } else {
+            addIfNotNull(aggRes, JsonLDTerm.schemaOrg("description"), df.getDescription());
+        }
+        String fileName = fmd.getLabel();// "label" is the filename
+        long fileSize = df.getFilesize();
+        String mimeType = df.getContentType();
+        String currentIngestedName = null;
+        boolean ingested=df.getOriginalFileName()!= null || df.getOriginalFileSize()!=null || df.getOriginalFileFormat()!=null;
+        if(ingested) {
+            if(df.getOriginalFileName()!=null) {
+                currentIngestedName= fileName;
+                fileName = df.getOriginalFileName();
+            } else {
+                logger.warning("Missing Original file name for id: " + df.getId());
+            }
+            if(df.getOriginalFileSize()!=null) {
+                fileSize = df.getOriginalFileSize();
+            } else {
+                logger.warning("Missing Original file size for id: " + df.getId());
+            }
+            if(df.getOriginalFileFormat()!=null) {
+                mimeType = df.getOriginalFileFormat();
+            } else {
+                logger.warning("Missing Original file format for id: " + df.getId());
+            }
+
+            
+        }
+        addIfNotNull(aggRes, JsonLDTerm.schemaOrg("name"), fileName); 
+        addIfNotNull(aggRes, JsonLDTerm.restricted, fmd.isRestricted());
+        Embargo embargo=df.getEmbargo(); 
+        if(embargo!=null) {
+            String date = embargo.getFormattedDateAvailable();
+            String reason= embargo.getReason();
+            JsonObjectBuilder embargoObject = Json.createObjectBuilder();
+            embargoObject.add(JsonLDTerm.DVCore("dateAvailable").getLabel(), date);
+            if(reason!=null) {
+                embargoObject.add(JsonLDTerm.DVCore("reason").getLabel(), reason);
+            }
+            aggRes.add(JsonLDTerm.DVCore("embargoed").getLabel(), embargoObject);
+        }
+        addIfNotNull(aggRes, JsonLDTerm.directoryLabel, fmd.getDirectoryLabel());
+        addIfNotNull(aggRes, JsonLDTerm.schemaOrg("version"), fmd.getVersion());
+        addIfNotNull(aggRes, JsonLDTerm.datasetVersionId, fmd.getDatasetVersion().getId());
+        JsonArray catArray = null;
+        if (fmd != null) {
+            List<String> categories = fmd.getCategoriesByName();
+            if (categories.size() > 0) {
+                JsonArrayBuilder jab = Json.createArrayBuilder();
+                for (String s : categories) {
+                    jab.add(s);
+                }
+                catArray = jab.build();
+            }
+        }
+        addIfNotNull(aggRes, JsonLDTerm.categories, catArray);
+        // File DOI if it exists
+        String fileId = null;
+        String fileSameAs = null;
+        if (df.getGlobalId()!=null) {
+            fileId = df.getGlobalId().asString();
+            fileSameAs = SystemConfig.getDataverseSiteUrlStatic()
+                    + "/api/access/datafile/:persistentId?persistentId=" + fileId + (ingested ? "&format=original":"");
+        } else {
+            fileId = SystemConfig.getDataverseSiteUrlStatic() + "/file.xhtml?fileId=" + df.getId();
+            fileSameAs = SystemConfig.getDataverseSiteUrlStatic() + "/api/access/datafile/" + df.getId() + (ingested ? "?format=original":"");
+        }
+        aggRes.add("@id", fileId);
+        aggRes.add(JsonLDTerm.schemaOrg("sameAs").getLabel(), fileSameAs);
+
+        aggRes.add("@type", JsonLDTerm.ore("AggregatedResource").getLabel());
+        addIfNotNull(aggRes, JsonLDTerm.schemaOrg("fileFormat"), mimeType);
+        addIfNotNull(aggRes, JsonLDTerm.filesize, fileSize);
+        addIfNotNull(aggRes, JsonLDTerm.storageIdentifier, df.getStorageIdentifier());
+        addIfNotNull(aggRes, JsonLDTerm.currentIngestedName, currentIngestedName);
+        addIfNotNull(aggRes, JsonLDTerm.UNF, df.getUnf());
+        addIfNotNull(aggRes, JsonLDTerm.rootDataFileId, df.getRootDataFileId());
+        addIfNotNull(aggRes, JsonLDTerm.previousDataFileId, df.getPreviousDataFileId());
+        JsonObject checksum = null;
+        // Add checksum. RDA recommends SHA-512
+        if (df.getChecksumType() != null && df.getChecksumValue() != null) {
+            checksum = Json.createObjectBuilder().add("@type", df.getChecksumType().toString())
+                    .add("@value", df.getChecksumValue()).build();
+            aggRes.add(JsonLDTerm.checksum.getLabel(), checksum);
+        }
+        JsonArray tabTags = null;
+        JsonArrayBuilder jab = JsonPrinter.getTabularFileTags(df);
+        if (jab != null) {
+            tabTags = jab.build();
+        }
+        addIfNotNull(aggRes, JsonLDTerm.tabularTags, tabTags);
+        return aggRes.build();
+    }
+
     private JsonObjectBuilder getDataverseDescription(Dataverse dv) {
         //Schema.org is already in local context, no updates needed as long as we only use chemaOrg and "@id" here
         JsonObjectBuilder dvjob = Json.createObjectBuilder().add(JsonLDTerm.schemaOrg("name").getLabel(), dv.getCurrentName()).add("@id", dv.getLocalURL());
@@ -1004,6 +1004,10 @@ public class JsonParser {
         harvestingClient.setMetadataPrefix(obj.getString("metadataFormat",null));
         harvestingClient.setHarvestingSet(obj.getString("set",null));
         harvestingClient.setCustomHttpHeaders(obj.getString("customHeaders", null));
+        harvestingClient.setConcurrentRequests(obj.containsKey("concurrentRequests") && !obj.isNull("concurrentRequests") ? obj.getInt("concurrentRequests") : null);
+        harvestingClient.setMaxRequestsPerSecond(obj.containsKey("maxRequestsPerSecond") && !obj.isNull("maxRequestsPerSecond") ? obj.getInt("maxRequestsPerSecond") : null);
+        harvestingClient.setUseListRecords(obj.getBoolean("useListRecords", false));
+        harvestingClient.setDeferIndexing(obj.getBoolean("deferIndexing", false));
 
         return dataverseAlias;
     }
@@ -54,6 +54,8 @@ import static edu.harvard.iq.dataverse.util.json.NullSafeJsonBuilder.jsonObjectB
 import edu.harvard.iq.dataverse.workflow.Workflow;
 import edu.harvard.iq.dataverse.workflow.step.WorkflowStepData;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.*;
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
@@ -376,6 +378,15 @@ public class JsonPrinter {
     }
 
     public static JsonObjectBuilder json(DatasetVersion dsv, List<String> anonymizedFieldTypeNamesList) {
+        return json(dsv, anonymizedFieldTypeNamesList, true);
+    }
+
+    /**
+     * @param includeFiles whether to include the "files" array; exports of 
+     * versions with many files leave it out, and go through the files one at a 
+     * time instead.
+     */
+    public static JsonObjectBuilder json(DatasetVersion dsv, List<String> anonymizedFieldTypeNamesList, boolean includeFiles) {
         Dataset dataset = dsv.getDataset();
         JsonObjectBuilder bld = jsonObjectBuilder()
                 .add("id", dsv.getId()).add("datasetId", dataset.getId())
@@ -418,7 +429,9 @@ public class JsonPrinter {
                 jsonByBlocks(dsv.getDatasetFields(), anonymizedFieldTypeNamesList)
                 : jsonByBlocks(dsv.getDatasetFields())
         );
-        bld.add("files", jsonFileMetadatas(dsv.getFileMetadatas()));
+        if (includeFiles) {
+            bld.add("files", jsonFileMetadatas(dsv.getFileMetadatas()));
+        }
 
         return bld;
     }
@@ -451,7 +464,11 @@ public class JsonPrinter {
      * Unit tests for that method could not be found.
      */
     public static JsonObjectBuilder jsonWithCitation(DatasetVersion dsv) {
-        JsonObjectBuilder dsvWithCitation = JsonPrinter.json(dsv);
+        return jsonWithCitation(dsv, true);
+    }
+
+    public static JsonObjectBuilder jsonWithCitation(DatasetVersion dsv, boolean includeFiles) {
+        JsonObjectBuilder dsvWithCitation = JsonPrinter.json(dsv, null, includeFiles);
         dsvWithCitation.add("citation", dsv.getCitation());
         return dsvWithCitation;
     }
@@ -469,8 +486,12 @@ public class JsonPrinter {
      * should the method be renamed?
      */
     public static JsonObjectBuilder jsonAsDatasetDto(DatasetVersion dsv) {
+        return jsonAsDatasetDto(dsv, true);
+    }
+
+    public static JsonObjectBuilder jsonAsDatasetDto(DatasetVersion dsv, boolean includeFiles) {
         JsonObjectBuilder datasetDtoAsJson = JsonPrinter.json(dsv.getDataset());
-        datasetDtoAsJson.add("datasetVersion", jsonWithCitation(dsv));
+        datasetDtoAsJson.add("datasetVersion", jsonWithCitation(dsv, includeFiles));
         return datasetDtoAsJson;
     }
 
@@ -873,13 +894,22 @@ public class JsonPrinter {
                 add("schedule", harvestingClient.isScheduled() ? harvestingClient.getScheduleDescription() : "none").
                 add("status", harvestingClient.isHarvestingNow() ? "inProgress" : "inActive").
                 add("customHeaders", harvestingClient.getCustomHttpHeaders()).
+                add("concurrentRequests", harvestingClient.getConcurrentRequests() == null ? null : harvestingClient.getConcurrentRequests().longValue()).
+                add("maxRequestsPerSecond", harvestingClient.getMaxRequestsPerSecond() == null ? null : harvestingClient.getMaxRequestsPerSecond().longValue()).
+                add("useListRecords", harvestingClient.isUseListRecords()).
+                add("deferIndexing", harvestingClient.isDeferIndexing()).
                 add("lastHarvest", harvestingClient.getLastHarvestTime() == null ? null : harvestingClient.getLastHarvestTime().toString()).
                 add("lastResult", harvestingClient.getLastResult()).
                 add("lastSuccessful", harvestingClient.getLastSuccessfulHarvestTime() == null ? null : harvestingClient.getLastSuccessfulHarvestTime().toString()).
                 add("lastNonEmpty", harvestingClient.getLastNonEmptyHarvestTime() == null ? null : harvestingClient.getLastNonEmptyHarvestTime().toString()).
                 add("lastDatasetsHarvested", harvestingClient.getLastHarvestedDatasetCount()). // == null ? "N/A" : harvestingClient.getLastHarvestedDatasetCount().toString()).
                 add("lastDatasetsDeleted", harvestingClient.getLastDeletedDatasetCount()). // == null ? "N/A" : harvestingClient.getLastDeletedDatasetCount().toString()).
-                add("lastDatasetsFailed", harvestingClient.getLastFailedDatasetCount()); // == null ? "N/A" : harvestingClient.getLastFailedDatasetCount().toString());
+                add("lastDatasetsFailed", harvestingClient.getLastFailedDatasetCount()). // == null ? "N/A" : harvestingClient.getLastFailedDatasetCount().toString());
+                add("lastRecordsProcessed", harvestingClient.getLastRun() == null ? null : harvestingClient.getLastRun().getProcessedRecordCount()).
+                add("lastRecordsPerMinute", harvestingClient.getLastRun() == null || harvestingClient.getLastRun().getRecordsPerMinute() == null ? null : BigDecimal.valueOf(harvestingClient.getLastRun().getRecordsPerMinute()).setScale(1, RoundingMode.HALF_UP)).
+                add("lastImportMillis", harvestingClient.getLastRun() == null ? null : harvestingClient.getLastRun().getImportMillis()).
+                add("lastIndexingMillis", harvestingClient.getLastRun() == null ? null : harvestingClient.getLastRun().getIndexingMillis()).
+                add("lastDatasetsIndexed", harvestingClient.getLastRun() == null ? null : harvestingClient.getLastRun().getIndexedDatasetCount());
     }
     
     public static String format(Date d) {
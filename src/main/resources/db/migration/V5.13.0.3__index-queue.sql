@@ -0,0 +1,16 @@
+-- Durable queue of datasets waiting to be (re)indexed, see IndexQueueServiceBean.
+-- One row per dvobject: requesting the indexing of an object that is already
+-- queued only bumps the generation of its row.
+CREATE TABLE IF NOT EXISTS INDEXQUEUE (
+    DVOBJECT_ID BIGINT NOT NULL,
+    PRIORITY INTEGER NOT NULL,
+    DOCLEANUP BOOLEAN NOT NULL DEFAULT TRUE,
+    REQUESTTIME TIMESTAMP NOT NULL,
+    GENERATION BIGINT NOT NULL DEFAULT 1,
+    ATTEMPTS INTEGER NOT NULL DEFAULT 0,
+    CLAIMEDBY VARCHAR(255),
+    CLAIMTIME TIMESTAMP,
+    CONSTRAINT indexqueue_pkey PRIMARY KEY (DVOBJECT_ID)
+);
+
+CREATE INDEX IF NOT EXISTS index_indexqueue_priority_requesttime ON INDEXQUEUE (PRIORITY, REQUESTTIME);
@@ -0,0 +1,6 @@
+-- OAI-PMH ListRecords/ListIdentifiers pages are looked up as the records of a
+-- set following the last global id served (see OAIRecordServiceBean).
+CREATE INDEX IF NOT EXISTS index_oairecord_setname_globalid ON OAIRECORD (SETNAME, GLOBALID, ID);
+
+-- ... and the other sets of the records of a page, by global id.
+CREATE INDEX IF NOT EXISTS index_oairecord_globalid ON OAIRECORD (GLOBALID);
@@ -0,0 +1,5 @@
+ALTER TABLE harvestingclient ADD COLUMN IF NOT EXISTS concurrentrequests INTEGER;
+ALTER TABLE harvestingclient ADD COLUMN IF NOT EXISTS maxrequestspersecond INTEGER;
+ALTER TABLE harvestingclient ADD COLUMN IF NOT EXISTS uselistrecords BOOLEAN DEFAULT FALSE;
+ALTER TABLE clientharvestrun ADD COLUMN IF NOT EXISTS processedrecordcount BIGINT DEFAULT 0;
+ALTER TABLE clientharvestrun ADD COLUMN IF NOT EXISTS recordsperminute DOUBLE PRECISION;
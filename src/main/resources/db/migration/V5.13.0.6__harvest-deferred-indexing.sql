@@ -0,0 +1,3 @@
+ALTER TABLE harvestingclient ADD COLUMN IF NOT EXISTS deferindexing BOOLEAN DEFAULT FALSE;
+ALTER TABLE clientharvestrun ADD COLUMN IF NOT EXISTS indexingmillis BIGINT;
+ALTER TABLE clientharvestrun ADD COLUMN IF NOT EXISTS indexeddatasetcount BIGINT;
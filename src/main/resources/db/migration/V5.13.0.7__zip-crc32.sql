@@ -0,0 +1,2 @@
+ALTER TABLE datafile ADD COLUMN IF NOT EXISTS crc32 BIGINT;
+ALTER TABLE datatable ADD COLUMN IF NOT EXISTS originalfilecrc32 BIGINT;
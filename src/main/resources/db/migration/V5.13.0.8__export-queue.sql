@@ -0,0 +1,19 @@
+-- Status of the metadata exports of each dataset, one row per format, see
+-- ExportQueueServiceBean. Exports scheduled on publication are picked up from
+-- here by the export workers, and failed ones retried.
+CREATE TABLE IF NOT EXISTS EXPORTSTATUS (
+    DATASET_ID BIGINT NOT NULL,
+    FORMATNAME VARCHAR(255) NOT NULL,
+    STATUS VARCHAR(16) NOT NULL,
+    REQUESTTIME TIMESTAMP NOT NULL,
+    GENERATION BIGINT NOT NULL DEFAULT 1,
+    ATTEMPTS INTEGER NOT NULL DEFAULT 0,
+    LASTATTEMPTTIME TIMESTAMP,
+    LASTERROR TEXT,
+    CLAIMEDBY VARCHAR(255),
+    CLAIMTIME TIMESTAMP,
+    CONSTRAINT exportstatus_pkey PRIMARY KEY (DATASET_ID, FORMATNAME),
+    CONSTRAINT fk_exportstatus_dataset_id FOREIGN KEY (DATASET_ID) REFERENCES DATASET (ID) ON DELETE CASCADE
+);
+
+CREATE INDEX IF NOT EXISTS index_exportstatus_status_requesttime ON EXPORTSTATUS (STATUS, REQUESTTIME);
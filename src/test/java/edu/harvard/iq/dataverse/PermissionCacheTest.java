@@ -0,0 +1,86 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.authorization.Permission;
+import edu.harvard.iq.dataverse.authorization.RoleAssignee;
+import edu.harvard.iq.dataverse.authorization.users.GuestUser;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class PermissionCacheTest {
+
+    private static PermissionCache.Assignees guest() {
+        Set<RoleAssignee> ras = new HashSet<>();
+        ras.add(GuestUser.get());
+        return new PermissionCache.Assignees(ras);
+    }
+
+    private static Dataset dataset(long id) {
+        Dataset dataset = new Dataset();
+        dataset.setId(id);
+        return dataset;
+    }
+
+    @Test
+    public void testGrantsAreKeptPerAssigneesAndObject() {
+        PermissionCache cache = new PermissionCache();
+        Dataset dataset = dataset(1);
+
+        assertNull(PermissionCache.getGrants(cache, guest(), dataset));
+        PermissionCache.putGrants(cache, guest(), dataset, EnumSet.of(Permission.ViewUnpublishedDataset));
+
+        // (an equal set of assignees, made anew)
+        assertEquals(EnumSet.of(Permission.ViewUnpublishedDataset), PermissionCache.getGrants(cache, guest(), dataset));
+        assertNull(PermissionCache.getGrants(cache, guest(), dataset(2)));
+        assertNull(PermissionCache.getGrants(new PermissionCache(), guest(), dataset));
+    }
+
+    @Test
+    public void testObjectsWithoutIdAreNotCached() {
+        PermissionCache cache = new PermissionCache();
+        Dataset unsaved = new Dataset();
+
+        PermissionCache.putGrants(cache, guest(), unsaved, EnumSet.of(Permission.ViewUnpublishedDataset));
+
+        assertNull(PermissionCache.getGrants(cache, guest(), unsaved));
+    }
+
+    @Test
+    public void testInvalidateAllEmptiesOngoingRequests() {
+        PermissionCache cache = new PermissionCache();
+        Dataset dataset = dataset(1);
+        PermissionCache.Assignees assignees = guest();
+        PermissionCache.putGrants(cache, assignees, dataset, EnumSet.of(Permission.ViewUnpublishedDataset));
+        assertSame(assignees, cache.getAssignees(7L, () -> assignees));
+
+        PermissionCache.invalidateAll();
+
+        assertNull(PermissionCache.getGrants(cache, assignees, dataset));
+        PermissionCache.Assignees reloaded = guest();
+        assertSame(reloaded, cache.getAssignees(7L, () -> reloaded));
+    }
+
+    @Test
+    public void testReleasedFileIdsAreLoadedOncePerVersion() {
+        PermissionCache cache = new PermissionCache();
+        DatasetVersion version = new DatasetVersion();
+        version.setId(3L);
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 10; i++) {
+            cache.getReleasedFileIds(version, () -> {
+                loads.incrementAndGet();
+                return Set.of(10L, 11L);
+            });
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(Set.of(10L, 11L), cache.getReleasedFileIds(version, Set::of));
+    }
+}
@@ -0,0 +1,114 @@
+package edu.harvard.iq.dataverse;
+
+import edu.harvard.iq.dataverse.authorization.Permission;
+import edu.harvard.iq.dataverse.authorization.RoleAssignee;
+import edu.harvard.iq.dataverse.authorization.groups.GroupServiceBean;
+import edu.harvard.iq.dataverse.authorization.users.AuthenticatedUser;
+import edu.harvard.iq.dataverse.authorization.users.GuestUser;
+import edu.harvard.iq.dataverse.engine.command.DataverseRequest;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+@ExtendWith(MockitoExtension.class)
+class PermissionServiceBeanTest {
+
+    @Mock
+    private DataverseRoleServiceBean roleService;
+
+    @Mock
+    private GroupServiceBean groupService;
+
+    private PermissionServiceBean permissionService;
+    private Dataset dataset;
+    private DataverseRole downloader;
+
+    @BeforeEach
+    void setup() {
+        permissionService = new PermissionServiceBean();
+        permissionService.roleService = roleService;
+        permissionService.groupService = groupService;
+
+        dataset = new Dataset();
+        dataset.setId(MocksFactory.nextId());
+        dataset.setOwner(MocksFactory.makeDataverse());
+        downloader = MocksFactory.makeRole("fileDownloader");
+        downloader.addPermission(Permission.DownloadFile);
+
+        lenient().when(groupService.groupsFor(any(DataverseRequest.class), any(DvObject.class))).thenReturn(Collections.emptySet());
+        // the role is assigned on every other file
+        lenient().when(roleService.directRoleAssignments(anySet(), anyCollection())).thenAnswer(invocation -> {
+            Set<RoleAssignee> assignees = invocation.getArgument(0);
+            Collection<DvObject> dvos = invocation.getArgument(1);
+            return dvos.stream()
+                    .filter(dvo -> dvo instanceof DataFile && dvo.getId() % 2 == 0)
+                    .map(dvo -> new RoleAssignment(downloader, assignees.iterator().next(), dvo, null))
+                    .collect(Collectors.toList());
+        });
+    }
+
+    private List<DataFile> makeFiles(int count) {
+        List<DataFile> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            DataFile file = new DataFile();
+            file.setId(MocksFactory.nextId());
+            file.setOwner(dataset);
+            files.add(file);
+        }
+        return files;
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1000, 10_000, 50_000})
+    void testWhichHavePermissionForQueriesInBatches(int fileCount) {
+        List<DataFile> files = makeFiles(fileCount);
+        DataverseRequest req = MocksFactory.makeRequest(MocksFactory.makeAuthenticatedUser("Jane", "Doe"));
+
+        Set<DataFile> permitted = permissionService.whichHavePermissionFor(req, files, Permission.DownloadFile);
+
+        List<DataFile> expected = files.stream().filter(file -> file.getId() % 2 == 0).collect(Collectors.toList());
+        assertEquals(expected, new ArrayList<>(permitted));
+        // the files, the dataset and the collection, a batch at a time
+        int batches = (fileCount + 2 + PermissionServiceBean.ASSIGNMENT_QUERY_BATCH_SIZE - 1) / PermissionServiceBean.ASSIGNMENT_QUERY_BATCH_SIZE;
+        verify(roleService, times(batches)).directRoleAssignments(anySet(), anyCollection());
+        verify(groupService, times(1)).groupsFor(any(DataverseRequest.class), any(DvObject.class));
+
+        // same as checking the files one by one, which are now cached for the request
+        for (DataFile file : files.subList(0, 100)) {
+            assertEquals(permitted.contains(file), permissionService.requestOn(req, file).has(Permission.DownloadFile));
+        }
+        verify(roleService, times(batches)).directRoleAssignments(anySet(), anyCollection());
+    }
+
+    @Test
+    void testWhichHavePermissionForSuperuserAndGuest() {
+        List<DataFile> files = makeFiles(10);
+        AuthenticatedUser superuser = MocksFactory.makeAuthenticatedUser("Super", "User");
+        superuser.setSuperuser(true);
+
+        assertEquals(files, new ArrayList<>(permissionService.whichHavePermissionFor(MocksFactory.makeRequest(superuser), files, Permission.DownloadFile)));
+        assertTrue(permissionService.whichHavePermissionFor(MocksFactory.makeRequest(GuestUser.get()), files, Permission.EditDataset).isEmpty());
+        verifyNoInteractions(roleService);
+    }
+}
@@ -0,0 +1,159 @@
+package edu.harvard.iq.dataverse.actionlogging;
+
+import edu.harvard.iq.dataverse.actionlogging.ActionLogRecord.ActionType;
+import edu.harvard.iq.dataverse.actionlogging.ActionLogRecord.Result;
+import edu.harvard.iq.dataverse.actionlogging.ActionLogWriter.OverflowPolicy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.json.JsonObject;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class ActionLogWriterTest {
+
+    @Mock
+    DataSource dataSource;
+    @Mock
+    Connection connection;
+    @Mock
+    PreparedStatement insert;
+    @Mock
+    ManagedExecutorService executor;
+    @Mock
+    ActionLogServiceBean actionLogSvc;
+
+    ActionLogWriter writer;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.prepareStatement(anyString())).thenReturn(insert);
+        writer = new ActionLogWriter();
+        writer.dataSource = dataSource;
+        writer.executor = executor;
+        writer.actionLogSvc = actionLogSvc;
+    }
+
+    private void flushRightAway() {
+        when(executor.submit(any(Runnable.class))).thenAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        });
+    }
+
+    private static ActionLogRecord record(int i) {
+        return new ActionLogRecord(ActionType.Command, "SomeCommand").setUserIdentifier("@user" + i);
+    }
+
+    private JsonObject statistics() {
+        return writer.getStatistics().build();
+    }
+
+    @Test
+    void testWritesFullBatchesThenTheRestOnClose() throws SQLException {
+        writer.configure(100, 10, 1000, OverflowPolicy.SYNC);
+        flushRightAway();
+        for (int i = 0; i < 25; i++) {
+            writer.log(record(i));
+        }
+        verify(insert, times(2)).executeBatch();
+        assertEquals(5, statistics().getInt("queued"));
+
+        writer.close();
+        verify(insert, times(3)).executeBatch();
+        verify(insert, times(25)).addBatch();
+        verify(connection, times(3)).commit();
+        verify(actionLogSvc, never()).log(any());
+        assertEquals(25, statistics().getInt("written"));
+        assertEquals(0, statistics().getInt("queued"));
+    }
+
+    @Test
+    void testSetsDefaultsAndId() {
+        writer.configure(100, 10, 1000, OverflowPolicy.SYNC);
+        ActionLogRecord rec = new ActionLogRecord(ActionType.Admin, "something");
+        writer.log(rec);
+        assertNotNull(rec.getId());
+        assertNotNull(rec.getEndTime());
+        assertEquals(Result.OK, rec.getActionResult());
+    }
+
+    @Test
+    void testOverflowWritesRightAway() {
+        writer.configure(2, 10, 1000, OverflowPolicy.SYNC);
+        ActionLogRecord third = record(3);
+        writer.log(record(1));
+        writer.log(record(2));
+        writer.log(third);
+        verify(actionLogSvc).log(third);
+        assertEquals(1, statistics().getInt("writtenDirectly"));
+        assertEquals(0, statistics().getInt("dropped"));
+        assertEquals(2, statistics().getInt("queued"));
+    }
+
+    @Test
+    void testOverflowDrops() {
+        writer.configure(2, 10, 1000, OverflowPolicy.DROP);
+        for (int i = 0; i < 5; i++) {
+            writer.log(record(i));
+        }
+        verify(actionLogSvc, never()).log(any());
+        assertEquals(3, statistics().getInt("dropped"));
+        assertEquals(2, statistics().getInt("queued"));
+    }
+
+    @Test
+    void testOverflowBlocksThenWritesRightAway() {
+        writer.configure(1, 10, 10, OverflowPolicy.BLOCK);
+        ActionLogRecord second = record(2);
+        writer.log(record(1));
+        writer.log(second);
+        verify(actionLogSvc).log(second);
+        assertEquals(1, statistics().getInt("overflowed"));
+    }
+
+    @Test
+    void testFailedBatchIsWrittenOneAtATime() throws SQLException {
+        writer.configure(100, 3, 1000, OverflowPolicy.SYNC);
+        when(insert.executeBatch()).thenThrow(new SQLException("nope"));
+        flushRightAway();
+        for (int i = 0; i < 3; i++) {
+            writer.log(record(i));
+        }
+        verify(connection).rollback();
+        verify(actionLogSvc, times(3)).log(any());
+        assertEquals(0, statistics().getInt("written"));
+        assertEquals(3, statistics().getInt("writtenDirectly"));
+    }
+
+    @Test
+    void testWritesRightAwayWithoutQueue() {
+        writer.configure(0, 10, 1000, OverflowPolicy.SYNC);
+        ActionLogRecord rec = record(1);
+        writer.log(rec);
+        verify(actionLogSvc).log(rec);
+        verify(executor, never()).submit(any(Runnable.class));
+        writer.close();
+    }
+
+}
@@ -0,0 +1,192 @@
+package edu.harvard.iq.dataverse.api;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.DataFileServiceBean;
+import edu.harvard.iq.dataverse.dataaccess.DeterministicZip;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The responses to the requests for a deterministic zip, with or without a
+ * Range (and an If-Range), and when the guestbook responses are written.
+ */
+public class AccessTest {
+
+    private Access access;
+    private HttpHeaders headers;
+    private DeterministicZip zip;
+    private byte[] zipBytes;
+    private final List<DataFile> zippedFiles = List.of(MocksFactory.makeDataFile(), MocksFactory.makeDataFile());
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        access = spy(new Access());
+        doNothing().when(access).writeZipGuestbookResponses(anyList(), any(), any(), any());
+        headers = Mockito.mock(HttpHeaders.class);
+
+        Random random = new Random(42);
+        byte[] first = new byte[3000];
+        random.nextBytes(first);
+        byte[] second = new byte[500];
+        random.nextBytes(second);
+        Date time = new Date(1600000000000L);
+        zip = new DeterministicZip(List.of(DeterministicZip.content("first", time, first), DeterministicZip.content("second", time, second)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        zip.write(out);
+        zipBytes = out.toByteArray();
+    }
+
+    private Response serve(String range, String ifRange) {
+        when(headers.getHeaderString("Range")).thenReturn(range);
+        when(headers.getHeaderString("If-Range")).thenReturn(ifRange);
+        return access.serveDeterministicZip(zip, zippedFiles, false, null, Mockito.mock(UriInfo.class), headers);
+    }
+
+    private static byte[] body(Response response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        return out.toByteArray();
+    }
+
+    private void assertGuestbookWritten(boolean written) {
+        if (written) {
+            verify(access).writeZipGuestbookResponses(Mockito.eq(zippedFiles), any(), any(), any());
+        } else {
+            verify(access, never()).writeZipGuestbookResponses(anyList(), any(), any(), any());
+        }
+    }
+
+    @Test
+    public void testFullZip() throws IOException {
+        Response response = serve(null, null);
+
+        assertEquals(200, response.getStatus());
+        assertEquals(String.valueOf(zipBytes.length), response.getHeaderString("Content-Length"));
+        assertEquals("bytes", response.getHeaderString("Accept-Ranges"));
+        assertEquals(zip.getETag(), response.getHeaderString("ETag"));
+        assertNull(response.getHeaderString("Content-Range"));
+        assertArrayEquals(zipBytes, body(response));
+        assertGuestbookWritten(true);
+    }
+
+    @Test
+    public void testPartialZip() throws IOException {
+        Response response = serve("bytes=1000-2999", null);
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 1000-2999/" + zipBytes.length, response.getHeaderString("Content-Range"));
+        assertEquals("2000", response.getHeaderString("Content-Length"));
+        assertArrayEquals(Arrays.copyOfRange(zipBytes, 1000, 3000), body(response));
+        // a later part of a download doesn't count again
+        assertGuestbookWritten(false);
+    }
+
+    @Test
+    public void testPartialZipFromTheStart() throws IOException {
+        Response response = serve("bytes=0-99", zip.getETag());
+
+        assertEquals(206, response.getStatus());
+        assertArrayEquals(Arrays.copyOfRange(zipBytes, 0, 100), body(response));
+        assertGuestbookWritten(true);
+    }
+
+    @Test
+    public void testResumedWithTheSameETag() throws IOException {
+        Response response = serve("bytes=3000-", zip.getETag());
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 3000-" + (zipBytes.length - 1) + "/" + zipBytes.length, response.getHeaderString("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(zipBytes, 3000, zipBytes.length), body(response));
+        assertGuestbookWritten(false);
+    }
+
+    @Test
+    public void testIfRangeMismatchSendsTheWholeZip() throws IOException {
+        // e.g. a file was replaced since the download was started
+        Response response = serve("bytes=3000-", "\"0123456789abcdef0123456789abcdef\"");
+
+        assertEquals(200, response.getStatus());
+        assertEquals(String.valueOf(zipBytes.length), response.getHeaderString("Content-Length"));
+        assertNull(response.getHeaderString("Content-Range"));
+        assertArrayEquals(zipBytes, body(response));
+        assertGuestbookWritten(true);
+    }
+
+    @Test
+    public void testUnsatisfiableRange() {
+        Response response = serve("bytes=" + zipBytes.length + "-", null);
+
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */" + zipBytes.length, response.getHeaderString("Content-Range"));
+        assertNull(response.getEntity());
+        assertGuestbookWritten(false);
+    }
+
+    @Test
+    public void testRangeThatNeedsAnUnknownCrcIsPutOff() throws IOException {
+        byte[] content = new byte[2000];
+        new Random(7).nextBytes(content);
+        zip = new DeterministicZip(List.of(DeterministicZip.file("file", "id", new Date(1600000000000L), new byte[0], new DeterministicZip.Source() {
+            @Override
+            public InputStream open(long offset, long length) {
+                return new ByteArrayInputStream(content, (int) offset, content.length - (int) offset);
+            }
+
+            @Override
+            public void crcComputed(long crc) {
+            }
+        }, content.length, null)));
+        access.fileService = Mockito.mock(DataFileServiceBean.class);
+
+        // (the end of the zip, with the central directory, as zip clients ask for first)
+        Response response = serve("bytes=-100", null);
+
+        assertEquals(503, response.getStatus());
+        assertEquals("5", response.getHeaderString("Retry-After"));
+        assertNull(response.getEntity());
+        verify(access.fileService).computeZipCrc32s(zip, zip.getLength() - 100, zip.getLength() - 1);
+        assertGuestbookWritten(false);
+
+        // once worked out
+        zip.computeMissingCrcs(zip.getLength() - 100, zip.getLength() - 1);
+        response = serve("bytes=-100", null);
+        assertEquals(206, response.getStatus());
+        assertEquals(100, body(response).length);
+    }
+
+    @Test
+    public void testNoGuestbookResponsesRequested() throws IOException {
+        when(headers.getHeaderString("Range")).thenReturn(null);
+
+        Response response = access.serveDeterministicZip(zip, zippedFiles, true, null, Mockito.mock(UriInfo.class), headers);
+
+        assertEquals(200, response.getStatus());
+        assertGuestbookWritten(false);
+    }
+
+}
@@ -0,0 +1,207 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.DataTable;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.testing.JvmSetting;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DataFileZipperTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final Map<DataFile, byte[]> contents = new HashMap<>();
+    private final Map<DataFile, String> contentTypes = new HashMap<>();
+    private final List<DataFile> files = new ArrayList<>();
+    private DataFile tabularFile;
+    private DataFile missingFile;
+
+    @BeforeEach
+    void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20; i++) {
+            DataFile file = MocksFactory.makeDataFile();
+            byte[] content;
+            if (i % 2 == 0) {
+                // already compressed; some too large to be read in full ahead of time
+                content = new byte[(i % 4 == 0) ? 3 * 1024 * 1024 + i : 10_000 + i];
+                random.nextBytes(content);
+                contentTypes.put(file, "image/png");
+            } else {
+                content = ("line " + i + "\n").repeat(1000 * i).getBytes(StandardCharsets.UTF_8);
+                contentTypes.put(file, "text/plain");
+            }
+            contents.put(file, content);
+            files.add(file);
+        }
+        tabularFile = files.get(3);
+        missingFile = MocksFactory.makeDataFile();
+        files.add(5, missingFile);
+    }
+
+    private class TestZipper extends DataFileZipper {
+        TestZipper(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        StorageIO<DataFile> openStorageIO(DataFile dataFile, boolean getOriginal) throws IOException {
+            if (dataFile == missingFile) {
+                return null;
+            }
+            @SuppressWarnings("unchecked")
+            StorageIO<DataFile> storageIO = mock(StorageIO.class);
+            when(storageIO.getInputStream()).thenReturn(new ByteArrayInputStream(contents.get(dataFile)));
+            when(storageIO.getFileName()).thenReturn("file" + dataFile.getId());
+            when(storageIO.getMimeType()).thenReturn(contentTypes.get(dataFile));
+            when(storageIO.getVarHeader()).thenReturn(dataFile == tabularFile ? "var1\tvar2\n" : null);
+            return storageIO;
+        }
+    }
+
+    private Path zip(boolean prefetch) throws IOException {
+        Path zipPath = tempDir.resolve("dataverse_files.zip");
+        try (OutputStream out = Files.newOutputStream(zipPath)) {
+            DataFileZipper zipper = new TestZipper(out);
+            if (prefetch) {
+                zipper.prefetch(files, false, Executors.defaultThreadFactory());
+            }
+            for (DataFile file : files) {
+                // (one skipped, as if over the size limit)
+                if (file != files.get(10)) {
+                    zipper.addFileToZipStream(file);
+                }
+            }
+            zipper.finalizeZipStream();
+        }
+        return zipPath;
+    }
+
+    private void assertZipped(Path zipPath) throws IOException {
+        try (ZipFile zipFile = new ZipFile(zipPath.toFile())) {
+            List<String> names = new ArrayList<>();
+            for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements();) {
+                names.add(entries.nextElement().getName());
+            }
+            List<String> expected = new ArrayList<>();
+            for (DataFile file : files) {
+                if (file != missingFile && file != files.get(10)) {
+                    expected.add("file" + file.getId());
+                }
+            }
+            expected.add("MANIFEST.TXT");
+            assertEquals(expected, names);
+
+            for (DataFile file : files) {
+                if (file == missingFile || file == files.get(10)) {
+                    continue;
+                }
+                ZipEntry entry = zipFile.getEntry("file" + file.getId());
+                byte[] expectedContent = contents.get(file);
+                if (file == tabularFile) {
+                    byte[] header = "var1\tvar2\n".getBytes();
+                    byte[] withHeader = new byte[header.length + expectedContent.length];
+                    System.arraycopy(header, 0, withHeader, 0, header.length);
+                    System.arraycopy(expectedContent, 0, withHeader, header.length, expectedContent.length);
+                    expectedContent = withHeader;
+                }
+                assertArrayEquals(expectedContent, zipFile.getInputStream(entry).readAllBytes(), entry.getName());
+                if ("image/png".equals(contentTypes.get(file))) {
+                    // stored, or at least not deflated
+                    assertTrue(entry.getCompressedSize() >= entry.getSize(), entry.getName());
+                } else {
+                    assertTrue(entry.getCompressedSize() < entry.getSize() / 10, entry.getName());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testZipWithPrefetching() throws IOException {
+        assertZipped(zip(true));
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.ZIP_PREFETCH_FILES, value = "0")
+    public void testZipWithoutPrefetching() throws IOException {
+        assertZipped(zip(true));
+    }
+
+    @Test
+    public void testZipOneFileAtATime() throws IOException {
+        assertZipped(zip(false));
+    }
+
+    @Test
+    public void testDeterministicZipAfterTheFileChanged() throws IOException {
+        DataFile file = files.get(1);
+        byte[] content = contents.get(file);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        // a CRC-32 saved for what the file was before, e.g. before it was ingested
+        file.setFilesize(content.length + 100);
+        file.setCrc32(crc.getValue() ^ 0xffffL);
+
+        file.setFilesize(content.length);
+        assertNull(file.getCrc32());
+
+        List<Long> saved = new ArrayList<>();
+        DataFileZipper zipper = new TestZipper(null);
+        zipper.addFileToDeterministicZip(file, false, (dataFile, original, crc32) -> saved.add(crc32));
+        Path zipPath = tempDir.resolve("deterministic.zip");
+        try (OutputStream out = Files.newOutputStream(zipPath)) {
+            zipper.finalizeDeterministicZip().write(out);
+        }
+
+        assertEquals(List.of(crc.getValue()), saved);
+        try (ZipFile zipFile = new ZipFile(zipPath.toFile())) {
+            ZipEntry entry = zipFile.getEntry(file.getFileMetadata().getLabel());
+            assertEquals(crc.getValue(), entry.getCrc());
+            assertArrayEquals(content, zipFile.getInputStream(entry).readAllBytes());
+        }
+    }
+
+    @Test
+    public void testCrc32IsKeptForTheSameSize() {
+        DataFile file = files.get(1);
+        file.setFilesize(1000);
+        file.setCrc32(1234L);
+        file.setFilesize(1000);
+        assertEquals(1234L, file.getCrc32().longValue());
+
+        DataTable dataTable = new DataTable();
+        dataTable.setOriginalFileSize(2000L);
+        dataTable.setOriginalFileCrc32(5678L);
+        dataTable.setOriginalFileSize(2000L);
+        assertEquals(5678L, dataTable.getOriginalFileCrc32().longValue());
+        dataTable.setOriginalFileSize(2001L);
+        assertNull(dataTable.getOriginalFileCrc32());
+    }
+}
@@ -0,0 +1,204 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DeterministicZipTest {
+
+    private static final Date TIME = new Date(1600000000000L);
+
+    @TempDir
+    Path tempDir;
+
+    private final Map<String, byte[]> contents = new LinkedHashMap<>();
+    private final List<Long> savedCrcs = new ArrayList<>();
+    private final List<String> opened = new ArrayList<>();
+
+    /**
+     * A directory, 5 files (one with a header, one with a known CRC-32) and a 
+     * manifest; laid out anew each time, without the CRC-32s worked out by the 
+     * previous ones.
+     */
+    private DeterministicZip makeZip() {
+        Random random = new Random(42);
+        List<DeterministicZip.Entry> entries = new ArrayList<>();
+        entries.add(DeterministicZip.directory("dir/", TIME));
+        for (int i = 0; i < 5; i++) {
+            byte[] content = new byte[1000 * i + 7];
+            random.nextBytes(content);
+            byte[] header = (i == 2) ? "a\tb\n".getBytes(StandardCharsets.UTF_8) : new byte[0];
+            byte[] expected = new byte[header.length + content.length];
+            System.arraycopy(header, 0, expected, 0, header.length);
+            System.arraycopy(content, 0, expected, header.length, content.length);
+            contents.put("dir/file" + i, expected);
+            Long crc32 = null;
+            if (i == 3) {
+                CRC32 crc = new CRC32();
+                crc.update(content);
+                crc32 = crc.getValue();
+            }
+            String name = "dir/file" + i;
+            entries.add(DeterministicZip.file(name, "id" + i, TIME, header, new DeterministicZip.Source() {
+                @Override
+                public InputStream open(long offset, long length) {
+                    opened.add(name + "@" + offset);
+                    return new ByteArrayInputStream(content, (int) offset, content.length - (int) offset);
+                }
+
+                @Override
+                public void crcComputed(long crc) {
+                    savedCrcs.add(crc);
+                }
+            }, content.length, crc32));
+        }
+        byte[] manifest = "manifest\r\n".getBytes(StandardCharsets.UTF_8);
+        contents.put("MANIFEST.TXT", manifest);
+        entries.add(DeterministicZip.content("MANIFEST.TXT", TIME, manifest));
+        return new DeterministicZip(entries);
+    }
+
+    @Test
+    void testWrite() throws IOException {
+        DeterministicZip zip = makeZip();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        zip.write(out);
+        assertEquals(zip.getLength(), out.size());
+        // the CRC-32s worked out, all but the one known already:
+        assertEquals(4, savedCrcs.size());
+
+        Path zipPath = tempDir.resolve("files.zip");
+        Files.write(zipPath, out.toByteArray());
+        try (ZipFile zipFile = new ZipFile(zipPath.toFile())) {
+            assertEquals(contents.size() + 1, zipFile.size());
+            assertTrue(zipFile.getEntry("dir/").isDirectory());
+            for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+                ZipEntry entry = zipFile.getEntry(content.getKey());
+                assertEquals(ZipEntry.STORED, entry.getMethod());
+                assertArrayEquals(content.getValue(), zipFile.getInputStream(entry).readAllBytes(), content.getKey());
+            }
+        }
+    }
+
+    @Test
+    void testSameFilesSameZip() throws IOException {
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        makeZip().write(first);
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        makeZip().write(second);
+        assertArrayEquals(first.toByteArray(), second.toByteArray());
+        assertEquals(makeZip().getETag(), makeZip().getETag());
+        assertNotEquals(makeZip().getETag(), new DeterministicZip(List.of()).getETag());
+    }
+
+    @Test
+    void testWriteRange() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        makeZip().write(out);
+        byte[] full = out.toByteArray();
+
+        Random random = new Random(7);
+        for (int i = 0; i < 100; i++) {
+            int first = random.nextInt(full.length);
+            int last = first + random.nextInt(full.length - first);
+            // (the CRC-32s that the range needs, and aren't known yet, are worked out first)
+            DeterministicZip zip = makeZip();
+            if (zip.getMissingCrcBytes(first, last) > 0) {
+                zip.computeMissingCrcs(first, last);
+            }
+            assertEquals(0, zip.getMissingCrcBytes(first, last));
+            ByteArrayOutputStream range = new ByteArrayOutputStream();
+            zip.write(range, first, last);
+            assertArrayEquals(Arrays.copyOfRange(full, first, last + 1), range.toByteArray(), first + "-" + last);
+        }
+    }
+
+    @Test
+    void testWholeZipNeedsNoCrc() {
+        DeterministicZip zip = makeZip();
+        assertEquals(0, zip.getMissingCrcBytes(0, zip.getLength() - 1));
+    }
+
+    @Test
+    void testResumedRangeOnlyReadsFromWhereItStarts() throws IOException {
+        DeterministicZip zip = makeZip();
+        DeterministicZip.Entry file4 = zip.getEntries().get(5);
+        // from 1000 bytes before the end of the last file (whose CRC-32 is
+        // not known) to the end of its data descriptor
+        long first = file4.getEnd() - 16 - 1000;
+        long last = file4.getEnd() - 1;
+
+        assertEquals(4007, zip.getMissingCrcBytes(first, last));
+        assertThrows(IllegalStateException.class, () -> zip.write(new ByteArrayOutputStream(), first, last));
+
+        opened.clear();
+        zip.computeMissingCrcs(first, last);
+        assertEquals(List.of("dir/file4@0"), opened);
+        assertEquals(0, zip.getMissingCrcBytes(first, last));
+
+        opened.clear();
+        ByteArrayOutputStream range = new ByteArrayOutputStream();
+        zip.write(range, first, last);
+        assertEquals(List.of("dir/file4@3007"), opened);
+
+        ByteArrayOutputStream full = new ByteArrayOutputStream();
+        makeZip().write(full);
+        assertArrayEquals(Arrays.copyOfRange(full.toByteArray(), (int) first, (int) last + 1), range.toByteArray());
+    }
+
+    @Test
+    void testCentralDirectoryNeedsTheUnknownCrcs() {
+        DeterministicZip zip = makeZip();
+        long centralDirectory = zip.getEntries().get(6).getEnd();
+        // all but the one known already
+        assertEquals(7 + 1007 + 2007 + 4007, zip.getMissingCrcBytes(centralDirectory, zip.getLength() - 1));
+    }
+
+    @Test
+    void testWriteInvalidRange() {
+        DeterministicZip zip = makeZip();
+        assertThrows(IllegalArgumentException.class, () -> zip.write(new ByteArrayOutputStream(), 10, 5));
+        assertThrows(IllegalArgumentException.class, () -> zip.write(new ByteArrayOutputStream(), 0, zip.getLength()));
+    }
+
+    @Test
+    void testCrc32Combine() {
+        CRC32 first = new CRC32();
+        first.update("abc".getBytes(StandardCharsets.UTF_8));
+        CRC32 second = new CRC32();
+        second.update("defgh".getBytes(StandardCharsets.UTF_8));
+        CRC32 both = new CRC32();
+        both.update("abcdefgh".getBytes(StandardCharsets.UTF_8));
+        assertEquals(both.getValue(), DeterministicZip.crc32Combine(first.getValue(), second.getValue(), 5));
+        assertEquals(first.getValue(), DeterministicZip.crc32Combine(first.getValue(), 0, 0));
+    }
+
+    @Test
+    void testToDosTime() {
+        // before 1980: the earliest MS-DOS time
+        assertEquals((1L << 21) | (1L << 16), DeterministicZip.toDosTime(new Date(0)));
+        assertEquals(DeterministicZip.toDosTime(new Date(0)), DeterministicZip.toDosTime(null));
+    }
+}
@@ -0,0 +1,80 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.DataTable;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.testing.JvmSetting;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RotatedImageCacheTest {
+
+    private static final String FILES_DIRECTORY = "/tmp/rotatedImageCacheTest";
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(new File(FILES_DIRECTORY));
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.FILES_DIRECTORY, value = FILES_DIRECTORY)
+    public void testSharedImageIsCachedLocally() throws IOException {
+        StorageIO<DataFile> storageIO = mockRemoteStorageIO("first image");
+        DataFile datafile = mockDataFile(1L, storageIO);
+
+        File image = RotatedImageCache.getRotatedImage(datafile);
+        assertEquals("first image", new String(Files.readAllBytes(image.toPath()), StandardCharsets.UTF_8));
+        assertTrue(image.toPath().startsWith(Paths.get(FILES_DIRECTORY, "temp", "rotated")));
+
+        assertEquals(image, RotatedImageCache.getRotatedImage(datafile));
+        verify(storageIO, times(1)).getAuxFileAsInputStream(RotatedImageCache.AUX_TAG);
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.FILES_DIRECTORY, value = FILES_DIRECTORY)
+    @JvmSetting(key = JvmSettings.ROTATED_IMAGE_CACHE_SIZE, value = "0")
+    public void testLeastRecentlyUsedImageIsEvicted() throws IOException {
+        File first = RotatedImageCache.getRotatedImage(mockDataFile(1L, mockRemoteStorageIO("first image")));
+        File second = RotatedImageCache.getRotatedImage(mockDataFile(2L, mockRemoteStorageIO("second image")));
+
+        // (the image that was just added is kept, even if it doesn't fit)
+        assertFalse(first.exists());
+        assertTrue(second.exists());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StorageIO<DataFile> mockRemoteStorageIO(String image) throws IOException {
+        StorageIO<DataFile> storageIO = Mockito.mock(StorageIO.class);
+        when(storageIO.isLocalFile()).thenReturn(false);
+        when(storageIO.isAuxObjectCached(RotatedImageCache.AUX_TAG)).thenReturn(true);
+        when(storageIO.getAuxFileAsInputStream(RotatedImageCache.AUX_TAG))
+                .thenAnswer(invocation -> new ByteArrayInputStream(image.getBytes(StandardCharsets.UTF_8)));
+        return storageIO;
+    }
+
+    private static DataFile mockDataFile(Long id, StorageIO<DataFile> storageIO) throws IOException {
+        DataTable dataTable = new DataTable();
+        dataTable.setId(id);
+        DataFile datafile = Mockito.mock(DataFile.class);
+        when(datafile.getId()).thenReturn(id);
+        when(datafile.getDataTable()).thenReturn(dataTable);
+        when(datafile.getStorageIO()).thenReturn(storageIO);
+        return datafile;
+    }
+
+}
@@ -0,0 +1,81 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import edu.harvard.iq.dataverse.NonEssentialTests;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.logging.Logger;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Compares the time it takes to read (and checksum, as the validation of the
+ * files does) a 256 MB S3 object over a single connection and with
+ * S3RangedReader (8 MB chunks, 4 at a time). The store is the in-memory
+ * S3StandIn, with 5 ms of latency and 100 MB/s per connection.
+ */
+public class S3RangedReaderBenchmarkTest {
+
+    private static final Logger logger = Logger.getLogger(S3RangedReaderBenchmarkTest.class.getCanonicalName());
+
+    private static final int SIZE = 256 * 1024 * 1024;
+    private static final int ROUNDS = 3;
+
+    private static byte[] content;
+
+    @BeforeClass
+    public static void setUp() {
+        content = new byte[SIZE];
+        new Random(42).nextBytes(content);
+    }
+
+    private static byte[] md5(InputStream in) throws IOException, NoSuchAlgorithmException {
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            md5.update(buffer, 0, n);
+        }
+        return md5.digest();
+    }
+
+    @Category(NonEssentialTests.class)
+    @Test
+    public void testSingleAndRangedReads() throws IOException, NoSuchAlgorithmException {
+        S3StandIn store = new S3StandIn(5, 100 * 1024 * 1024);
+        store.objects.put("key", content);
+        AmazonS3 s3 = store.client();
+        S3RangedReader reader = new S3RangedReader(s3, S3RangedReader.DEFAULT_CHUNK_SIZE,
+                S3RangedReader.DEFAULT_CONCURRENCY, S3RangedReader.DEFAULT_THREADS);
+        byte[] expected = MessageDigest.getInstance("MD5").digest(content);
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            byte[] single;
+            try (InputStream in = s3.getObject(new GetObjectRequest("bucket", "key")).getObjectContent()) {
+                single = md5(in);
+            }
+            long singleMillis = (System.nanoTime() - start) / 1000000;
+
+            start = System.nanoTime();
+            byte[] ranged;
+            try (InputStream in = reader.open("bucket", "key", 0, SIZE).asInputStream()) {
+                ranged = md5(in);
+            }
+            long rangedMillis = (System.nanoTime() - start) / 1000000;
+
+            logger.info("Round " + round + ": single connection " + singleMillis + " ms, ranged reads "
+                    + rangedMillis + " ms (" + store.maxConcurrentRequests.get() + " requests at most at the same time)");
+            assertArrayEquals(expected, single);
+            assertArrayEquals(expected, ranged);
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import edu.harvard.iq.dataverse.dataaccess.S3RangedReader.RangedChannel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.verify;
+
+public class S3RangedReaderTest {
+
+    private static final int CHUNK_SIZE = 1000;
+    private static final int SIZE = 20 * CHUNK_SIZE + 345;
+
+    private final S3StandIn store = new S3StandIn();
+    private final S3RangedReader reader = new S3RangedReader(store.client(), CHUNK_SIZE, 4, 8);
+    private byte[] content;
+
+    @BeforeEach
+    void setUp() {
+        content = new byte[SIZE];
+        new Random(7).nextBytes(content);
+        store.objects.put("key", content);
+    }
+
+    private static byte[] readAll(InputStream in, int bufferSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[bufferSize];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void awaitBuffers(S3RangedReader rangedReader, int buffers) throws InterruptedException {
+        for (int i = 0; i < 100 && rangedReader.getAvailableBuffers() != buffers; i++) {
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    void testReadsTheObjectInOrder() throws IOException {
+        try (InputStream in = reader.open("bucket", "key", 0, SIZE).asInputStream()) {
+            assertArrayEquals(content, readAll(in, 777));
+        }
+        assertEquals(21, store.gets.get());
+    }
+
+    @Test
+    void testReadsTheChannel() throws IOException {
+        RangedChannel channel = reader.open("bucket", "key", 0, SIZE);
+        ByteBuffer all = ByteBuffer.allocate(SIZE);
+        while (channel.read(all) != -1) {
+            assertTrue(channel.isOpen());
+        }
+        assertArrayEquals(content, all.array());
+        channel.close();
+        assertFalse(channel.isOpen());
+        assertThrows(ClosedChannelException.class, () -> channel.read(ByteBuffer.allocate(1)));
+    }
+
+    @Test
+    void testSkipDoesNotFetchWhatIsSkipped() throws IOException {
+        int offset = 15 * CHUNK_SIZE + 10;
+        try (InputStream in = reader.open("bucket", "key", 0, SIZE).asInputStream()) {
+            assertEquals(offset, in.skip(offset));
+            assertArrayEquals(Arrays.copyOfRange(content, offset, SIZE), readAll(in, 4096));
+        }
+        // 5 chunks and a bit, from the offset:
+        assertEquals(6, store.gets.get());
+    }
+
+    @Test
+    void testSkipWithinAChunk() throws IOException {
+        try (InputStream in = reader.open("bucket", "key", 0, SIZE).asInputStream()) {
+            assertEquals(content[0] & 0xff, in.read());
+            assertEquals(100, in.skip(100));
+            assertEquals(content[101] & 0xff, in.read());
+            assertEquals(SIZE - 102, in.skip(Long.MAX_VALUE));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void testShortReadFetchesLittleMore() throws IOException {
+        try (InputStream in = reader.open("bucket", "key", 0, SIZE).asInputStream()) {
+            byte[] start = new byte[10];
+            assertEquals(10, in.read(start));
+            assertArrayEquals(Arrays.copyOf(content, 10), start);
+        }
+        // The first chunk, and the 2 of the next window at most:
+        assertTrue(store.gets.get() <= 3);
+    }
+
+    @Test
+    void testRange() throws IOException {
+        try (InputStream in = reader.open("bucket", "key", 2500, 4500).asInputStream()) {
+            assertArrayEquals(Arrays.copyOfRange(content, 2500, 4500), readAll(in, 512));
+        }
+    }
+
+    @Test
+    void testSmallRangeIsASingleBoundedGet() throws IOException {
+        // as for a download with a Range header, see S3AccessIO.setRange()
+        AmazonS3 s3 = store.client();
+        S3RangedReader rangedReader = new S3RangedReader(s3, CHUNK_SIZE, 4, 8);
+        RangedChannel channel = rangedReader.open("bucket", "key", 0, SIZE);
+        try (InputStream in = channel.asInputStream()) {
+            assertEquals(5500, in.skip(5500));
+            channel.limit(5600);
+            assertEquals(100, channel.remaining());
+            assertArrayEquals(Arrays.copyOfRange(content, 5500, 5600), readAll(in, 4096));
+        }
+        assertEquals(1, store.gets.get());
+        assertEquals(1, store.maxConcurrentRequests.get());
+        verify(s3).getObject(argThat((GetObjectRequest request) -> request.getRange()[0] == 5500 && request.getRange()[1] == 5599));
+    }
+
+    @Test
+    void testLimitOnlyBeforeReading() throws IOException {
+        try (RangedChannel channel = reader.open("bucket", "key", 0, SIZE)) {
+            channel.read(ByteBuffer.allocate(10));
+            assertThrows(IllegalStateException.class, () -> channel.limit(100));
+        }
+    }
+
+    @Test
+    void testReadsAtOnceWithoutBuffers() throws IOException {
+        S3RangedReader rangedReader = new S3RangedReader(store.client(), CHUNK_SIZE, 4, 8, 1);
+        try (InputStream first = rangedReader.open("bucket", "key", 0, SIZE).asInputStream();
+                InputStream second = rangedReader.open("bucket", "key", 0, SIZE).asInputStream()) {
+            byte[] start = new byte[10];
+            assertEquals(10, first.read(start));
+            // The first one holds the only buffer, so the second one reads
+            // all of it over one connection:
+            assertEquals(0, rangedReader.getAvailableBuffers());
+            int gets = store.gets.get();
+            assertArrayEquals(content, readAll(second, 4096));
+            assertEquals(gets + 1, store.gets.get());
+
+            // and the first one goes on a chunk at a time:
+            ByteArrayOutputStream rest = new ByteArrayOutputStream();
+            rest.write(start);
+            rest.write(readAll(first, 4096));
+            assertArrayEquals(content, rest.toByteArray());
+        }
+        assertEquals(1, rangedReader.getAvailableBuffers());
+    }
+
+    @Test
+    void testBuffersAreReleased() throws Exception {
+        try (InputStream in = reader.open("bucket", "key", 0, SIZE).asInputStream()) {
+            assertEquals(CHUNK_SIZE, in.skip(CHUNK_SIZE));
+            assertEquals(content[CHUNK_SIZE] & 0xff, in.read());
+            assertEquals(content[CHUNK_SIZE + 1] & 0xff, in.read());
+            assertTrue(reader.getAvailableBuffers() < S3RangedReader.DEFAULT_BUFFERS);
+            // far enough to drop the chunks being fetched:
+            in.skip(10 * CHUNK_SIZE);
+            assertEquals(content[11 * CHUNK_SIZE + 2] & 0xff, in.read());
+        }
+        // (once the fetches that were cancelled are over)
+        awaitBuffers(reader, S3RangedReader.DEFAULT_BUFFERS);
+        assertEquals(S3RangedReader.DEFAULT_BUFFERS, reader.getAvailableBuffers());
+    }
+
+    @Test
+    void testCancelledFetchKeepsItsBufferUntilItIsOver() throws Exception {
+        S3StandIn slowStore = new S3StandIn(500, 0);
+        slowStore.objects.put("key", content);
+        S3RangedReader slowReader = new S3RangedReader(slowStore.client(), CHUNK_SIZE, 4, 8);
+        try (InputStream in = slowReader.open("bucket", "key", 0, SIZE).asInputStream()) {
+            // the first two chunks are fetched together; reading the second
+            // one sends the next four
+            assertArrayEquals(Arrays.copyOf(content, CHUNK_SIZE + 1), in.readNBytes(CHUNK_SIZE + 1));
+        }
+        // still reading their bytes, despite being cancelled
+        assertEquals(S3RangedReader.DEFAULT_BUFFERS - 4, slowReader.getAvailableBuffers());
+        awaitBuffers(slowReader, S3RangedReader.DEFAULT_BUFFERS);
+        assertEquals(S3RangedReader.DEFAULT_BUFFERS, slowReader.getAvailableBuffers());
+    }
+
+    @Test
+    void testIsParallel() {
+        assertFalse(reader.isParallel(CHUNK_SIZE));
+        assertTrue(reader.isParallel(CHUNK_SIZE + 1));
+        assertFalse(new S3RangedReader(store.client(), CHUNK_SIZE, 1, 1).isParallel(SIZE));
+    }
+
+    @Test
+    void testTruncatedObjectFails() throws IOException {
+        RangedChannel channel = reader.open("bucket", "key", 0, SIZE + CHUNK_SIZE);
+        try (InputStream in = channel.asInputStream()) {
+            assertThrows(IOException.class, () -> readAll(in, 4096));
+        }
+    }
+
+}
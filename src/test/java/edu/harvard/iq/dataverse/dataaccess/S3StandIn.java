@@ -0,0 +1,190 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * An S3 store in memory, behind a mock AmazonS3 client, for the tests and
+ * benchmarks of the S3 transfers. Each request can be made to take a latency,
+ * and to move its bytes no faster than a bandwidth, like a connection to a
+ * real store would.
+ */
+class S3StandIn {
+
+    final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    final Map<String, SortedMap<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    final AtomicInteger puts = new AtomicInteger();
+    final AtomicInteger parts = new AtomicInteger();
+    final AtomicInteger aborted = new AtomicInteger();
+    final AtomicInteger gets = new AtomicInteger();
+    final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+
+    private final AtomicInteger concurrentRequests = new AtomicInteger();
+    private final long latencyMillis;
+    private final long bytesPerSecond;
+    private volatile int failPart = -1;
+
+    /**
+     * @param latencyMillis the time taken by each request.
+     * @param bytesPerSecond the bandwidth of a request, or 0 for no limit.
+     */
+    S3StandIn(long latencyMillis, long bytesPerSecond) {
+        this.latencyMillis = latencyMillis;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    S3StandIn() {
+        this(0, 0);
+    }
+
+    /**
+     * Makes the upload of a part fail.
+     */
+    void failPart(int partNumber) {
+        failPart = partNumber;
+    }
+
+    AmazonS3 client() {
+        AmazonS3 s3 = mock(AmazonS3.class);
+        when(s3.putObject(any(PutObjectRequest.class))).thenAnswer(invocation -> {
+            PutObjectRequest request = invocation.getArgument(0);
+            byte[] content = (request.getFile() != null) ? transfer(request.getFile()) : transfer(request.getInputStream());
+            objects.put(request.getKey(), content);
+            puts.incrementAndGet();
+            return new PutObjectResult();
+        });
+        when(s3.putObject(anyString(), anyString(), any(File.class))).thenAnswer(invocation -> {
+            objects.put(invocation.getArgument(1), transfer((File) invocation.getArgument(2)));
+            puts.incrementAndGet();
+            return new PutObjectResult();
+        });
+        when(s3.initiateMultipartUpload(any(InitiateMultipartUploadRequest.class))).thenAnswer(invocation -> {
+            String uploadId = UUID.randomUUID().toString();
+            uploads.put(uploadId, new ConcurrentSkipListMap<>());
+            InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+            result.setUploadId(uploadId);
+            return result;
+        });
+        when(s3.uploadPart(any(UploadPartRequest.class))).thenAnswer(invocation -> {
+            UploadPartRequest request = invocation.getArgument(0);
+            if (request.getPartNumber() == failPart) {
+                throw new SdkClientException("Part " + failPart + " failed");
+            }
+            byte[] content = transfer(request.getInputStream());
+            uploads.get(request.getUploadId()).put(request.getPartNumber(), content);
+            parts.incrementAndGet();
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag("etag-" + request.getPartNumber());
+            return result;
+        });
+        when(s3.completeMultipartUpload(any(CompleteMultipartUploadRequest.class))).thenAnswer(invocation -> {
+            CompleteMultipartUploadRequest request = invocation.getArgument(0);
+            SortedMap<Integer, byte[]> received = uploads.remove(request.getUploadId());
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            int expected = 1;
+            for (PartETag etag : request.getPartETags()) {
+                if (etag.getPartNumber() != expected++) {
+                    throw new IllegalStateException("Parts out of order: " + etag.getPartNumber());
+                }
+                content.write(received.get(etag.getPartNumber()));
+            }
+            objects.put(request.getKey(), content.toByteArray());
+            return new CompleteMultipartUploadResult();
+        });
+        when(s3.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+            GetObjectRequest request = invocation.getArgument(0);
+            byte[] content = objects.get(request.getKey());
+            int from = 0;
+            int to = content.length;
+            if (request.getRange() != null) {
+                from = (int) request.getRange()[0];
+                to = (int) Math.min(content.length, request.getRange()[1] + 1);
+            }
+            gets.incrementAndGet();
+            S3Object object = new S3Object();
+            object.setKey(request.getKey());
+            object.setObjectContent(new ByteArrayInputStream(transfer(new ByteArrayInputStream(content, from, to - from))));
+            return object;
+        });
+        doAnswer(invocation -> {
+            AbortMultipartUploadRequest request = invocation.getArgument(0);
+            uploads.remove(request.getUploadId());
+            aborted.incrementAndGet();
+            return null;
+        }).when(s3).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        return s3;
+    }
+
+    private byte[] transfer(File file) {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return transfer(in);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Reads what a request sends, taking the time the connection would.
+     */
+    byte[] transfer(InputStream in) {
+        int concurrent = concurrentRequests.incrementAndGet();
+        maxConcurrentRequests.accumulateAndGet(concurrent, Math::max);
+        try {
+            byte[] content = in.readAllBytes();
+            throttle(content.length);
+            return content;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            concurrentRequests.decrementAndGet();
+        }
+    }
+
+    /**
+     * Waits for the latency of a request, and the time it takes to move the
+     * bytes.
+     */
+    void throttle(long bytes) {
+        long millis = latencyMillis + ((bytesPerSecond > 0) ? bytes * 1000 / bytesPerSecond : 0);
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
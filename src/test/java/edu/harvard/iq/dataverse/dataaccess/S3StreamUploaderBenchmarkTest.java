@@ -0,0 +1,71 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import com.amazonaws.services.s3.AmazonS3;
+import edu.harvard.iq.dataverse.NonEssentialTests;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.logging.Logger;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Compares the time it takes to save a 256 MB stream of unknown length to an
+ * S3 store with a temp file (as S3AccessIO used to: the stream is written to
+ * disk, then sent in a single PUT) and with S3StreamUploader (8 MB parts, 4
+ * at a time). The store is the in-memory S3StandIn, with 5 ms of latency and
+ * 100 MB/s per connection.
+ */
+public class S3StreamUploaderBenchmarkTest {
+
+    private static final Logger logger = Logger.getLogger(S3StreamUploaderBenchmarkTest.class.getCanonicalName());
+
+    private static final int SIZE = 256 * 1024 * 1024;
+    private static final int ROUNDS = 3;
+
+    private static byte[] content;
+
+    @BeforeClass
+    public static void setUp() {
+        content = new byte[SIZE];
+        new Random(42).nextBytes(content);
+    }
+
+    @Category(NonEssentialTests.class)
+    @Test
+    public void testTempFileAndStreamUploads() throws IOException {
+        S3StandIn store = new S3StandIn(5, 100 * 1024 * 1024);
+        AmazonS3 s3 = store.client();
+        S3StreamUploader uploader = new S3StreamUploader(s3, S3StreamUploader.DEFAULT_PART_SIZE,
+                S3StreamUploader.DEFAULT_BUFFERS, S3StreamUploader.DEFAULT_CONCURRENCY);
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            File tempFile = File.createTempFile("s3-benchmark", null);
+            try (InputStream in = new ByteArrayInputStream(content)) {
+                Files.copy(in, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                s3.putObject("bucket", "tempfile", tempFile);
+            } finally {
+                tempFile.delete();
+            }
+            long tempFileMillis = (System.nanoTime() - start) / 1000000;
+
+            start = System.nanoTime();
+            uploader.upload("bucket", "stream", new ByteArrayInputStream(content));
+            long streamMillis = (System.nanoTime() - start) / 1000000;
+
+            logger.info("Round " + round + ": temp file and single PUT " + tempFileMillis + " ms, streamed in parts "
+                    + streamMillis + " ms (" + store.maxConcurrentRequests.get() + " requests at most at the same time)");
+        }
+        assertArrayEquals(content, store.objects.get("tempfile"));
+        assertArrayEquals(content, store.objects.get("stream"));
+    }
+
+}
@@ -0,0 +1,106 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class S3StreamUploaderTest {
+
+    private static final int PART_SIZE = 1024;
+    private static final int BUFFERS = 4;
+
+    private final S3StandIn store = new S3StandIn();
+    private final S3StreamUploader uploader = new S3StreamUploader(store.client(), PART_SIZE, BUFFERS, 3);
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    /*
+     * Returns the bytes a few at a time, as network streams do.
+     */
+    private static InputStream trickle(byte[] content) {
+        return new ByteArrayInputStream(content) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 100));
+            }
+        };
+    }
+
+    @Test
+    void testSmallStreamIsSavedInASinglePut() throws IOException {
+        byte[] content = content(PART_SIZE - 1);
+        assertEquals(content.length, uploader.upload("bucket", "small", trickle(content)));
+        assertArrayEquals(content, store.objects.get("small"));
+        assertEquals(1, store.puts.get());
+        assertEquals(0, store.parts.get());
+        assertEquals(BUFFERS, uploader.getAvailableBuffers());
+    }
+
+    @Test
+    void testEmptyStream() throws IOException {
+        assertEquals(0, uploader.upload("bucket", "empty", new ByteArrayInputStream(new byte[0])));
+        assertEquals(0, store.objects.get("empty").length);
+    }
+
+    @Test
+    void testLargeStreamIsSavedInParts() throws IOException {
+        byte[] content = content(20 * PART_SIZE + 123);
+        assertEquals(content.length, uploader.upload("bucket", "large", trickle(content)));
+        assertArrayEquals(content, store.objects.get("large"));
+        assertEquals(0, store.puts.get());
+        assertEquals(21, store.parts.get());
+        assertTrue(store.uploads.isEmpty());
+        assertEquals(BUFFERS, uploader.getAvailableBuffers());
+    }
+
+    @Test
+    void testStreamOfWholeParts() throws IOException {
+        byte[] content = content(3 * PART_SIZE);
+        assertEquals(content.length, uploader.upload("bucket", "whole", new ByteArrayInputStream(content)));
+        assertArrayEquals(content, store.objects.get("whole"));
+        // No empty part at the end:
+        assertEquals(3, store.parts.get());
+    }
+
+    @Test
+    void testFailedPartAbortsTheUpload() {
+        store.failPart(5);
+        byte[] content = content(20 * PART_SIZE);
+        assertThrows(IOException.class, () -> uploader.upload("bucket", "failed", new ByteArrayInputStream(content)));
+        assertFalse(store.objects.containsKey("failed"));
+        assertEquals(1, store.aborted.get());
+        assertTrue(store.uploads.isEmpty());
+        assertEquals(BUFFERS, uploader.getAvailableBuffers());
+    }
+
+    @Test
+    void testFailedStreamAbortsTheUpload() {
+        byte[] content = content(10 * PART_SIZE);
+        InputStream failing = new ByteArrayInputStream(content) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                if (available() < 4 * PART_SIZE) {
+                    throw new IllegalStateException("connection reset");
+                }
+                return super.read(b, off, len);
+            }
+        };
+        assertThrows(IllegalStateException.class, () -> uploader.upload("bucket", "failed", failing));
+        assertFalse(store.objects.containsKey("failed"));
+        assertEquals(1, store.aborted.get());
+        assertEquals(BUFFERS, uploader.getAvailableBuffers());
+    }
+
+}
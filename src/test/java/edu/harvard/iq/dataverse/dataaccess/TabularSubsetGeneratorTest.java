@@ -0,0 +1,127 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.util.SumStatCalculator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TabularSubsetGeneratorTest {
+
+    private static final String TAB_FILE = "1\t\"a\"\t10.5\t100\n"
+            + "2\t\"a much longer string value\"\t11.5\t200\n"
+            + "3\t\"\"\t\t300\n"
+            + "4\t\"d\"\t13.5\t400\n";
+
+    private Path tempDirectory;
+    private File tabfile;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        tempDirectory = Files.createTempDirectory("subset");
+        tabfile = tempDirectory.resolve("data.tab").toFile();
+        Files.write(tabfile.toPath(), TAB_FILE.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDirectory.toFile());
+    }
+
+    @Test
+    public void testWriteSubset() throws IOException {
+        assertEquals("\"a\"\t1\t100\n"
+                + "\"a much longer string value\"\t2\t200\n"
+                + "\"\"\t3\t300\n"
+                + "\"d\"\t4\t400\n", writeSubset(List.of(1, 0, 3)));
+    }
+
+    @Test
+    public void testWriteSingleColumnSubset() throws IOException {
+        assertEquals("10.5\n11.5\n\n13.5\n", writeSubset(List.of(2)));
+    }
+
+    @Test
+    public void testWriteRepeatedColumnSubset() throws IOException {
+        assertEquals("1\t1\n2\t2\n3\t3\n4\t4\n", writeSubset(List.of(0, 0)));
+    }
+
+    @Test
+    public void testReadSubsetInSmallChunks() throws IOException {
+        // Entries, and the delimiters after them, get split between reads:
+        TabularSubsetGenerator generator = new TabularSubsetGenerator(tabfile, 4, 4, List.of(3, 1, 2));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(3);
+        int bytesread;
+        while ((bytesread = generator.read(buffer)) != -1) {
+            out.write(buffer.array(), 0, bytesread);
+            buffer.clear();
+        }
+        generator.close();
+
+        assertEquals("100\t\"a\"\t10.5\n"
+                + "200\t\"a much longer string value\"\t11.5\n"
+                + "300\t\"\"\t\n"
+                + "400\t\"d\"\t13.5\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testColumnOutOfBounds() {
+        assertThrows(IOException.class, () -> new TabularSubsetGenerator(tabfile, 4, 4, List.of(4)));
+    }
+
+    @Test
+    public void testPrimitiveColumnsMatchBoxedVectors() {
+        String tab = "1.5\t10\n"
+                + "\t\n"
+                + "inf\t-3\n"
+                + "-Inf\tNA\n"
+                + "NaN\t7\n"
+                + "0.1\t" + Long.MAX_VALUE + "\n";
+
+        Double[] doubles = TabularSubsetGenerator.subsetDoubleVector(stream(tab), 0, 6);
+        DoubleColumnVector doubleColumn = TabularSubsetGenerator.subsetDoubleColumn(stream(tab), 0, 6);
+        assertArrayEquals(doubles, doubleColumn.toDoubleArray());
+        assertEquals(1, doubleColumn.getMissingCount());
+        assertArrayEquals(SumStatCalculator.calculateSummaryStatistics(doubles), SumStatCalculator.calculateSummaryStatistics(doubleColumn));
+
+        Float[] floats = TabularSubsetGenerator.subsetFloatVector(stream(tab), 0, 6);
+        DoubleColumnVector floatColumn = TabularSubsetGenerator.subsetFloatColumn(stream(tab), 0, 6);
+        assertArrayEquals(floats, floatColumn.toFloatArray());
+        assertArrayEquals(SumStatCalculator.calculateSummaryStatistics(floats), SumStatCalculator.calculateSummaryStatistics(floatColumn));
+
+        Long[] longs = TabularSubsetGenerator.subsetLongVector(stream(tab), 1, 6);
+        LongColumnVector longColumn = TabularSubsetGenerator.subsetLongColumn(stream(tab), 1, 6);
+        assertArrayEquals(longs, longColumn.toLongArray());
+        assertEquals(2, longColumn.getMissingCount());
+        assertArrayEquals(SumStatCalculator.calculateSummaryStatistics(longs), SumStatCalculator.calculateSummaryStatistics(longColumn));
+    }
+
+    private static InputStream stream(String tab) {
+        return new ByteArrayInputStream(tab.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String writeSubset(List<Integer> columns) throws IOException {
+        TabularSubsetGenerator generator = new TabularSubsetGenerator(tabfile, 4, 4, columns);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        generator.writeSubset(Channels.newChannel(out));
+        generator.close();
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,88 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.NonEssentialTests;
+import edu.harvard.iq.dataverse.util.SumStatCalculator;
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Compares the time and the heap allocated by the summary statistics of
+ * boxed (Double[], Long[]) and primitive (DoubleColumnVector,
+ * LongColumnVector) vectors of a synthetic 2-column tab file with 2,000,000
+ * cases, 1% of them missing.
+ */
+public class TabularSubsetGeneratorVectorBenchmarkTest {
+
+    private static final Logger logger = Logger.getLogger(TabularSubsetGeneratorVectorBenchmarkTest.class.getCanonicalName());
+
+    private static final int NUM_CASES = 2000000;
+    private static final int ROUNDS = 3;
+
+    private static byte[] tabfile;
+
+    @BeforeClass
+    public static void setUp() {
+        Random random = new Random(42);
+        StringBuilder tab = new StringBuilder();
+        for (int i = 0; i < NUM_CASES; i++) {
+            if (random.nextInt(100) == 0) {
+                tab.append("\t\n");
+            } else {
+                tab.append(random.nextGaussian() * 1000).append('\t').append(random.nextInt(1000000)).append('\n');
+            }
+        }
+        tabfile = tab.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Category(NonEssentialTests.class)
+    @Test
+    public void testDoubleVectors() {
+        double[] boxed = measure("Double[]", () -> SumStatCalculator.calculateSummaryStatistics(
+                TabularSubsetGenerator.subsetDoubleVector(new ByteArrayInputStream(tabfile), 0, NUM_CASES)));
+        double[] primitive = measure("DoubleColumnVector", () -> SumStatCalculator.calculateSummaryStatistics(
+                TabularSubsetGenerator.subsetDoubleColumn(new ByteArrayInputStream(tabfile), 0, NUM_CASES)));
+        assertArrayEquals(boxed, primitive, 0.0);
+    }
+
+    @Category(NonEssentialTests.class)
+    @Test
+    public void testLongVectors() {
+        double[] boxed = measure("Long[]", () -> SumStatCalculator.calculateSummaryStatistics(
+                TabularSubsetGenerator.subsetLongVector(new ByteArrayInputStream(tabfile), 1, NUM_CASES)));
+        double[] primitive = measure("LongColumnVector", () -> SumStatCalculator.calculateSummaryStatistics(
+                TabularSubsetGenerator.subsetLongColumn(new ByteArrayInputStream(tabfile), 1, NUM_CASES)));
+        assertArrayEquals(boxed, primitive, 0.0);
+    }
+
+    /*
+     * Runs the calculation a few times, to warm up, and logs the time and the
+     * bytes allocated by the last round.
+     */
+    private static double[] measure(String label, Supplier<double[]> calculation) {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        double[] result = null;
+        long elapsedMillis = 0;
+        long allocatedBytes = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            result = calculation.get();
+            elapsedMillis = (System.nanoTime() - start) / 1000000;
+            allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        }
+        logger.info(label + ": summary statistics of " + NUM_CASES + " cases in " + elapsedMillis + " ms, "
+                + (allocatedBytes / (1024 * 1024)) + " MB allocated");
+        return result;
+    }
+
+}
@@ -0,0 +1,99 @@
+package edu.harvard.iq.dataverse.dataaccess;
+
+import edu.harvard.iq.dataverse.DataFile;
+import edu.harvard.iq.dataverse.mocks.MocksFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ZipEntryPrefetcherTest {
+
+    private static final int THREADS = 2;
+    private static final int FILE_SIZE = 200_000;
+
+    private final List<DataFile> files = new ArrayList<>();
+    private final AtomicInteger opened = new AtomicInteger();
+    private ZipEntryPrefetcher prefetcher;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < 20; i++) {
+            files.add(MocksFactory.makeDataFile());
+        }
+        prefetcher = new ZipEntryPrefetcher(Executors.defaultThreadFactory(), THREADS, files, dataFile -> {
+            opened.incrementAndGet();
+            @SuppressWarnings("unchecked")
+            StorageIO<DataFile> storageIO = mock(StorageIO.class);
+            when(storageIO.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[FILE_SIZE]));
+            return storageIO;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        prefetcher.shutdown();
+    }
+
+    private void awaitOpened(int count) throws InterruptedException {
+        for (int i = 0; i < 100 && opened.get() < count; i++) {
+            Thread.sleep(20);
+        }
+        // (and in case any more are)
+        Thread.sleep(300);
+    }
+
+    private void awaitBuffered(long bytes) throws InterruptedException {
+        for (int i = 0; i < 100 && prefetcher.getBufferedBytes() < bytes; i++) {
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void testSlowConsumerBoundsTheBufferedFiles() throws Exception {
+        // nothing is taken for a while: the small files are read in full, but
+        // only as many of them as there are threads
+        awaitOpened(THREADS);
+        awaitBuffered(THREADS * FILE_SIZE);
+        assertEquals(THREADS, opened.get());
+        assertEquals(THREADS * FILE_SIZE, prefetcher.getBufferedBytes());
+
+        ZipEntryPrefetcher.Entry first = prefetcher.take(files.get(0));
+        assertEquals(FILE_SIZE, first.getInputStream().readAllBytes().length);
+        awaitOpened(THREADS + 1);
+        awaitBuffered(THREADS * FILE_SIZE);
+        assertEquals(THREADS + 1, opened.get());
+        assertEquals(THREADS * FILE_SIZE, prefetcher.getBufferedBytes());
+    }
+
+    @Test
+    public void testFilesPassedOverAreDropped() throws Exception {
+        awaitOpened(THREADS);
+
+        // (the first one is skipped, as if over the size limit of the zip)
+        ZipEntryPrefetcher.Entry second = prefetcher.take(files.get(1));
+        assertEquals(FILE_SIZE, second.getInputStream().readAllBytes().length);
+        awaitOpened(THREADS + 2);
+        assertEquals(THREADS + 2, opened.get());
+        assertTrue(prefetcher.getBufferedBytes() <= THREADS * FILE_SIZE);
+    }
+
+    @Test
+    public void testFileNotStartedYetIsReadWhenTaken() throws IOException {
+        // taken before its turn among the files read ahead
+        ZipEntryPrefetcher.Entry last = prefetcher.take(files.get(files.size() - 1));
+
+        assertEquals(FILE_SIZE, last.getInputStream().readAllBytes().length);
+        assertTrue(last.isComplete());
+    }
+}
@@ -81,7 +81,7 @@ public class DDIExporterTest {
         
         JsonObject datasetDtoJson = Json.createReader(new StringReader(datasetDtoJsonString)).readObject();
         
-        ExportDataProvider exportDataProviderStub = Mockito.mock(ExportDataProvider.class);
+        ExportDataProvider exportDataProviderStub = Mockito.mock(ExportDataProvider.class, Mockito.CALLS_REAL_METHODS);
         Mockito.when(exportDataProviderStub.getDatasetJson()).thenReturn(datasetDtoJson);
         Mockito.when(exportDataProviderStub.getDatasetFileDetails()).thenReturn(Json.createArrayBuilder().build());
         
@@ -104,7 +104,7 @@ public class DDIExporterTest {
 
         JsonObject json = JsonUtil.getJsonObject(datasetVersionAsJson);
         
-        ExportDataProvider exportDataProviderStub = Mockito.mock(ExportDataProvider.class);
+        ExportDataProvider exportDataProviderStub = Mockito.mock(ExportDataProvider.class, Mockito.CALLS_REAL_METHODS);
         Mockito.when(exportDataProviderStub.getDatasetJson()).thenReturn(json);
         Mockito.when(exportDataProviderStub.getDatasetFileDetails()).thenReturn(Json.createArrayBuilder().build());
         
@@ -124,7 +124,7 @@ public class DDIExporterTest {
 
         JsonObject json = JsonUtil.getJsonObject(datasetVersionAsJson);
         
-        ExportDataProvider exportDataProviderStub = Mockito.mock(ExportDataProvider.class);
+        ExportDataProvider exportDataProviderStub = Mockito.mock(ExportDataProvider.class, Mockito.CALLS_REAL_METHODS);
         Mockito.when(exportDataProviderStub.getDatasetJson()).thenReturn(json);
         Mockito.when(exportDataProviderStub.getDatasetFileDetails()).thenReturn(Json.createArrayBuilder().build());
         
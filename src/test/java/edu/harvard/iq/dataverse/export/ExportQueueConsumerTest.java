@@ -0,0 +1,207 @@
+package edu.harvard.iq.dataverse.export;
+
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.DatasetServiceBean;
+import edu.harvard.iq.dataverse.DatasetVersion;
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.testing.JvmSetting;
+import io.gdcc.spi.export.ExportException;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ExportQueueConsumerTest {
+
+    private ExportQueueConsumer consumer;
+    private ExportQueueServiceBean exportQueueService;
+    private DatasetServiceBean datasetService;
+    private ExportService exportService;
+    private ManagedExecutorService executor;
+
+    @BeforeEach
+    public void setUp() {
+        // (with the export service stubbed out, since it has to be the one
+        // of the application server)
+        consumer = Mockito.spy(new ExportQueueConsumer());
+        consumer.timerService = Mockito.mock(TimerService.class);
+        consumer.executor = executor = Mockito.mock(ManagedExecutorService.class);
+        consumer.exportQueueService = exportQueueService = Mockito.mock(ExportQueueServiceBean.class);
+        consumer.datasetService = datasetService = Mockito.mock(DatasetServiceBean.class);
+        exportService = Mockito.mock(ExportService.class);
+        doReturn(exportService).when(consumer).exportService();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        // init() hands the queue to the (static) on-demand exports
+        ExportService.injectQueueService(null, null, 0);
+    }
+
+    private void runJobsRightAway() {
+        when(executor.submit(any(Runnable.class))).thenAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        });
+    }
+
+    private String nodeName() {
+        return consumer.getStatistics().build().getString("node");
+    }
+
+    private Dataset released(long id) {
+        Dataset dataset = Mockito.mock(Dataset.class);
+        when(dataset.getReleasedVersion()).thenReturn(Mockito.mock(DatasetVersion.class));
+        when(datasetService.find(id)).thenReturn(dataset);
+        return dataset;
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.EXPORT_WORKERS, value = "2")
+    public void testInitReleasesClaimsOfThisNode() {
+        consumer.init();
+
+        verify(exportQueueService).releaseClaims(nodeName());
+        verify(consumer.timerService).createIntervalTimer(anyLong(), anyLong(), any(TimerConfig.class));
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.EXPORT_WORKERS, value = "0")
+    public void testNoWorkers() {
+        consumer.init();
+
+        verify(exportQueueService, never()).releaseClaims(anyString());
+        verify(consumer.timerService, never()).createIntervalTimer(anyLong(), anyLong(), any(TimerConfig.class));
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.EXPORT_WORKERS, value = "2")
+    @JvmSetting(key = JvmSettings.EXPORT_RETRY_DELAY, value = "5000")
+    public void testExportsAndCompletesClaimedJobs() throws Exception {
+        consumer.init();
+        runJobsRightAway();
+        Dataset dataset = released(1L);
+        ExportJob ddi = new ExportJob(1L, "ddi", 1, 1);
+        ExportJob dc = new ExportJob(1L, "oai_dc", 1, 1);
+        when(exportQueueService.claim(eq(nodeName()), eq(2), anyLong(), eq(5000L))).thenReturn(List.of(ddi, dc));
+
+        consumer.poll();
+
+        verify(exportService).exportFormat(dataset, "ddi");
+        verify(exportService).exportFormat(dataset, "oai_dc");
+        verify(exportQueueService).complete(ddi, nodeName());
+        verify(exportQueueService).complete(dc, nodeName());
+        JsonObject stats = consumer.getStatistics().build();
+        assertEquals(2, stats.getInt("exported"));
+        assertEquals(0, stats.getInt("failed"));
+        assertEquals(0, stats.getInt("inFlight"));
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.EXPORT_WORKERS, value = "2")
+    public void testFailedJobIsReleased() throws Exception {
+        consumer.init();
+        runJobsRightAway();
+        Dataset dataset = released(1L);
+        ExportJob job = new ExportJob(1L, "ddi", 1, 1);
+        when(exportQueueService.claim(anyString(), anyInt(), anyLong(), anyLong())).thenReturn(List.of(job));
+        doThrow(new ExportException("broken")).when(exportService).exportFormat(dataset, "ddi");
+        when(exportQueueService.fail(job, nodeName(), "broken")).thenReturn(true);
+
+        consumer.poll();
+
+        verify(exportQueueService, never()).complete(any(ExportJob.class), anyString());
+        verify(exportQueueService).fail(job, nodeName(), "broken");
+        JsonObject stats = consumer.getStatistics().build();
+        assertEquals(0, stats.getInt("exported"));
+        assertEquals(1, stats.getInt("failed"));
+        assertEquals(0, stats.getInt("inFlight"));
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.EXPORT_WORKERS, value = "2")
+    public void testJobOfAnUnreleasedDatasetIsDropped() throws Exception {
+        consumer.init();
+        runJobsRightAway();
+        Dataset dataset = Mockito.mock(Dataset.class);
+        when(datasetService.find(1L)).thenReturn(dataset);
+        ExportJob deaccessioned = new ExportJob(1L, "ddi", 1, 1);
+        ExportJob deleted = new ExportJob(2L, "ddi", 1, 1);
+        when(exportQueueService.claim(anyString(), anyInt(), anyLong(), anyLong())).thenReturn(List.of(deaccessioned, deleted));
+
+        consumer.poll();
+
+        verify(exportQueueService).drop(deaccessioned);
+        verify(exportQueueService).drop(deleted);
+        verify(exportService, never()).exportFormat(any(), anyString());
+        verify(exportQueueService, never()).complete(any(ExportJob.class), anyString());
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.EXPORT_WORKERS, value = "2")
+    public void testJobOfARemovedExporterIsDropped() throws Exception {
+        consumer.init();
+        runJobsRightAway();
+        released(1L);
+        ExportJob job = new ExportJob(1L, "gone", 1, 1);
+        when(exportQueueService.claim(anyString(), anyInt(), anyLong(), anyLong())).thenReturn(List.of(job));
+        when(exportService.getExporter("gone")).thenThrow(new ExportException("No such Exporter: gone"));
+
+        consumer.poll();
+
+        verify(exportQueueService).drop(job);
+        verify(exportService, never()).exportFormat(any(), anyString());
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.EXPORT_WORKERS, value = "2")
+    public void testOnlyClaimsWhatItCanExport() {
+        consumer.init();
+        // the jobs stay in flight
+        when(exportQueueService.claim(anyString(), anyInt(), anyLong(), anyLong()))
+                .thenReturn(List.of(new ExportJob(1L, "ddi", 1, 1)))
+                .thenReturn(List.of(new ExportJob(1L, "oai_dc", 1, 1)));
+
+        consumer.poll();
+        verify(exportQueueService).claim(eq(nodeName()), eq(2), anyLong(), anyLong());
+        consumer.poll();
+        verify(exportQueueService).claim(eq(nodeName()), eq(1), anyLong(), anyLong());
+        consumer.poll();
+
+        verify(exportQueueService, Mockito.times(2)).claim(anyString(), anyInt(), anyLong(), anyLong());
+        assertEquals(2, consumer.getStatistics().build().getInt("inFlight"));
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.EXPORT_WORKERS, value = "2")
+    public void testRejectedJobIsReleased() {
+        consumer.init();
+        ExportJob job = new ExportJob(1L, "ddi", 1, 1);
+        when(exportQueueService.claim(anyString(), anyInt(), anyLong(), anyLong())).thenReturn(List.of(job));
+        when(executor.submit(any(Runnable.class))).thenThrow(new RejectedExecutionException());
+
+        consumer.poll();
+
+        verify(exportQueueService).fail(job, nodeName(), "Rejected by the executor");
+        assertEquals(0, consumer.getStatistics().build().getInt("inFlight"));
+    }
+
+}
@@ -0,0 +1,291 @@
+package edu.harvard.iq.dataverse.export;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import javax.ejb.SessionContext;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ExportQueueServiceBeanTest {
+
+    private static final String NODE = "node1:server";
+
+    @Mock
+    private EntityManager em;
+    @Mock
+    private TransactionSynchronizationRegistry transactionRegistry;
+    @Mock
+    private ManagedExecutorService executor;
+    @Mock
+    private SessionContext sessionContext;
+    @InjectMocks
+    private ExportQueueServiceBean exportQueueService;
+
+    private Query query;
+    private Query jpql;
+
+    @BeforeEach
+    public void setUp() {
+        query = mock(Query.class, RETURNS_SELF);
+        jpql = mock(Query.class, RETURNS_SELF);
+        lenient().when(em.createNativeQuery(anyString())).thenReturn(query);
+        lenient().when(em.createQuery(anyString())).thenReturn(jpql);
+    }
+
+    private ExportQueueServiceBean self() {
+        ExportQueueServiceBean self = mock(ExportQueueServiceBean.class);
+        when(sessionContext.getBusinessObject(ExportQueueServiceBean.class)).thenReturn(self);
+        return self;
+    }
+
+    @Test
+    public void testScheduleBumpsTheGeneration() {
+        exportQueueService.schedule(42L, List.of("ddi", "oai_dc"));
+
+        verify(em).createQuery("UPDATE Dataset d SET d.lastExportTime = NULL WHERE d.id = :id");
+        verify(jpql).setParameter("id", 42L);
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(em, times(2)).createNativeQuery(sql.capture());
+        assertTrue(sql.getValue().contains("ON CONFLICT (dataset_id, formatname) DO UPDATE"));
+        assertTrue(sql.getValue().contains("generation = exportstatus.generation + 1, attempts = 0"));
+        verify(query, times(2)).setParameter(1, 42L);
+        verify(query).setParameter(2, "ddi");
+        verify(query).setParameter(2, "oai_dc");
+        verify(query, times(2)).executeUpdate();
+    }
+
+    @Test
+    public void testScheduleAfterCommit() {
+        ExportQueueServiceBean self = self();
+        when(transactionRegistry.getTransactionStatus()).thenReturn(Status.STATUS_ACTIVE);
+
+        exportQueueService.scheduleAfterCommit(42L, List.of("ddi"));
+
+        // nothing is written in the transaction of the publication
+        verify(self, never()).schedule(any(), any());
+        verify(em, never()).createNativeQuery(anyString());
+        ArgumentCaptor<Synchronization> synchronization = ArgumentCaptor.forClass(Synchronization.class);
+        verify(transactionRegistry).registerInterposedSynchronization(synchronization.capture());
+
+        synchronization.getValue().afterCompletion(Status.STATUS_COMMITTED);
+
+        ArgumentCaptor<Runnable> scheduling = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).submit(scheduling.capture());
+        scheduling.getValue().run();
+        verify(self).schedule(42L, List.of("ddi"));
+    }
+
+    @Test
+    public void testNothingIsScheduledAfterRollback() {
+        ExportQueueServiceBean self = self();
+        when(transactionRegistry.getTransactionStatus()).thenReturn(Status.STATUS_ACTIVE);
+
+        exportQueueService.scheduleAfterCommit(42L, List.of("ddi"));
+        ArgumentCaptor<Synchronization> synchronization = ArgumentCaptor.forClass(Synchronization.class);
+        verify(transactionRegistry).registerInterposedSynchronization(synchronization.capture());
+        synchronization.getValue().afterCompletion(Status.STATUS_ROLLEDBACK);
+
+        verify(executor, never()).submit(any(Runnable.class));
+        verify(self, never()).schedule(any(), any());
+    }
+
+    @Test
+    public void testScheduleRightAwayWithoutTransaction() {
+        ExportQueueServiceBean self = self();
+        when(transactionRegistry.getTransactionStatus()).thenReturn(Status.STATUS_NO_TRANSACTION);
+
+        exportQueueService.scheduleAfterCommit(42L, List.of("ddi"));
+
+        verify(self).schedule(42L, List.of("ddi"));
+        verify(transactionRegistry, never()).registerInterposedSynchronization(any());
+    }
+
+    @Test
+    public void testFailureToScheduleIsOnlyLogged() {
+        ExportQueueServiceBean self = self();
+        when(transactionRegistry.getTransactionStatus()).thenReturn(Status.STATUS_NO_TRANSACTION);
+        doThrow(new RuntimeException("database is down")).when(self).schedule(any(), any());
+
+        exportQueueService.scheduleAfterCommit(42L, List.of("ddi"));
+
+        verify(self).schedule(42L, List.of("ddi"));
+    }
+
+    @Test
+    public void testClaimWithBackoff() {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{7L, "ddi", 3L, 1});
+        rows.add(new Object[]{8, "oai_dc", 1, 2});
+        when(query.getResultList()).thenReturn(rows);
+
+        long before = System.currentTimeMillis();
+        List<ExportJob> jobs = exportQueueService.claim(NODE, 5, 60000, 1000);
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(em).createNativeQuery(sql.capture());
+        assertTrue(sql.getValue().contains("ORDER BY requesttime LIMIT ?3 FOR UPDATE SKIP LOCKED"));
+        assertTrue(sql.getValue().contains("OR (status = 'RUNNING' AND claimtime < ?2)"));
+        // failed exports are retried after a delay that doubles with each attempt
+        assertTrue(sql.getValue().contains("OR (status = 'FAILED' AND attempts < ?4 AND lastattempttime < now() - interval '1 millisecond' * ?5 * power(2, attempts - 1))"));
+        assertTrue(sql.getValue().contains("attempts = attempts + 1"));
+        verify(query).setParameter(1, NODE);
+        verify(query).setParameter(3, 5);
+        verify(query).setParameter(4, ExportQueueServiceBean.MAX_ATTEMPTS);
+        verify(query).setParameter(5, 1000L);
+        ArgumentCaptor<Timestamp> staleBefore = ArgumentCaptor.forClass(Timestamp.class);
+        verify(query).setParameter(eq(2), staleBefore.capture());
+        assertTrue(staleBefore.getValue().getTime() >= before - 60000);
+        assertTrue(staleBefore.getValue().getTime() <= System.currentTimeMillis() - 60000);
+
+        assertEquals(2, jobs.size());
+        assertEquals(7L, jobs.get(0).getDatasetId().longValue());
+        assertEquals("ddi", jobs.get(0).getFormatName());
+        assertEquals(3L, jobs.get(0).getGeneration());
+        assertEquals(1, jobs.get(0).getAttempts());
+        assertEquals(8L, jobs.get(1).getDatasetId().longValue());
+        assertEquals("oai_dc", jobs.get(1).getFormatName());
+        assertEquals(1L, jobs.get(1).getGeneration());
+        assertEquals(2, jobs.get(1).getAttempts());
+    }
+
+    @Test
+    public void testClaimOneFormat() {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{7L, "ddi", 3L, 1});
+        when(query.getResultList()).thenReturn(rows);
+
+        ExportJob job = exportQueueService.claim(7L, "ddi", NODE, 60000);
+
+        verify(em).createNativeQuery(startsWith("UPDATE exportstatus SET status = 'RUNNING', claimedby = ?3"));
+        verify(query).setParameter(1, 7L);
+        verify(query).setParameter(2, "ddi");
+        verify(query).setParameter(3, NODE);
+        assertEquals("ddi", job.getFormatName());
+        assertEquals(3L, job.getGeneration());
+    }
+
+    @Test
+    public void testClaimOneFormatThatIsNotQueued() {
+        when(query.getResultList()).thenReturn(new ArrayList<>());
+
+        assertNull(exportQueueService.claim(7L, "ddi", NODE, 60000));
+    }
+
+    @Test
+    public void testCompleteUpdatesTheLastExportTime() {
+        when(query.executeUpdate()).thenReturn(1);
+        // no format left to export
+        when(query.getResultList()).thenReturn(new ArrayList<>());
+
+        exportQueueService.complete(new ExportJob(7L, "ddi", 3L, 1), NODE);
+
+        verify(em).createNativeQuery(startsWith("UPDATE exportstatus SET status = 'DONE'"));
+        verify(query).setParameter(3, 3L);
+        verify(em, never()).createNativeQuery(startsWith("UPDATE exportstatus SET status = 'PENDING'"));
+        verify(em).createQuery("UPDATE Dataset d SET d.lastExportTime = :now WHERE d.id = :id");
+        verify(jpql).setParameter("id", 7L);
+    }
+
+    @Test
+    public void testCompleteRequeuesAJobScheduledAgain() {
+        // the generation changed while exporting, so nothing was marked as done
+        when(query.executeUpdate()).thenReturn(0);
+        when(query.getResultList()).thenReturn(List.of(1));
+
+        exportQueueService.complete(new ExportJob(7L, "ddi", 3L, 1), NODE);
+
+        verify(em).createNativeQuery(startsWith("UPDATE exportstatus SET status = 'DONE'"));
+        verify(em).createNativeQuery("UPDATE exportstatus SET status = 'PENDING', claimedby = NULL, claimtime = NULL, attempts = 0 "
+                + "WHERE dataset_id = ?1 AND formatname = ?2 AND claimedby = ?3");
+        verify(query, times(2)).executeUpdate();
+        // and the dataset isn't exported yet
+        verify(em, never()).createQuery(anyString());
+    }
+
+    @Test
+    public void testFailIsRetried() {
+        when(query.executeUpdate()).thenReturn(1);
+
+        assertTrue(exportQueueService.fail(new ExportJob(7L, "ddi", 3L, ExportQueueServiceBean.MAX_ATTEMPTS - 1), NODE, "broken"));
+
+        verify(em).createNativeQuery(startsWith("UPDATE exportstatus SET status = 'FAILED'"));
+        verify(query).setParameter(5, "broken");
+        verify(em, never()).createNativeQuery(startsWith("UPDATE exportstatus SET status = 'PENDING'"));
+    }
+
+    @Test
+    public void testFailGivesUpAfterMaxAttempts() {
+        when(query.executeUpdate()).thenReturn(1);
+
+        assertFalse(exportQueueService.fail(new ExportJob(7L, "ddi", 3L, ExportQueueServiceBean.MAX_ATTEMPTS), NODE, "broken"));
+
+        verify(em).createNativeQuery(startsWith("UPDATE exportstatus SET status = 'FAILED'"));
+        verify(em, never()).createNativeQuery(startsWith("UPDATE exportstatus SET status = 'PENDING'"));
+    }
+
+    @Test
+    public void testFailRequeuesAJobScheduledAgain() {
+        when(query.executeUpdate()).thenReturn(0);
+
+        // retried right away, whatever the attempts of the old generation
+        assertTrue(exportQueueService.fail(new ExportJob(7L, "ddi", 3L, ExportQueueServiceBean.MAX_ATTEMPTS), NODE, "broken"));
+
+        verify(em).createNativeQuery(startsWith("UPDATE exportstatus SET status = 'PENDING'"));
+    }
+
+    @Test
+    public void testReleaseClaims() {
+        when(query.executeUpdate()).thenReturn(4);
+
+        assertEquals(4, exportQueueService.releaseClaims(NODE));
+        verify(query).setParameter(1, NODE);
+    }
+
+    @Test
+    public void testMigrationHasOneRowPerFormat() throws IOException {
+        // ON CONFLICT (dataset_id, formatname) in schedule() needs them to be unique
+        String sql;
+        try (InputStream in = getClass().getResourceAsStream("/db/migration/V5.13.0.8__export-queue.sql")) {
+            assertNotNull(in);
+            sql = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertTrue(sql.contains("CONSTRAINT exportstatus_pkey PRIMARY KEY (DATASET_ID, FORMATNAME)"));
+        assertTrue(sql.contains("REFERENCES DATASET (ID) ON DELETE CASCADE"));
+        assertTrue(sql.contains("ON EXPORTSTATUS (STATUS, REQUESTTIME)"));
+    }
+
+}
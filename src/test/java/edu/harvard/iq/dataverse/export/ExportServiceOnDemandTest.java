@@ -0,0 +1,114 @@
+package edu.harvard.iq.dataverse.export;
+
+import edu.harvard.iq.dataverse.Dataset;
+import io.gdcc.spi.export.ExportException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The exports requested by getExport() before the ones scheduled on
+ * publication are made, see ExportService#exportFormatOnDemand().
+ */
+public class ExportServiceOnDemandTest {
+
+    private static final String NODE = "node1:server";
+    private static final long CLAIM_TIMEOUT = 60000;
+
+    private ExportService exportService;
+    private ExportQueueServiceBean queueService;
+    private Dataset dataset;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // (without loading the exporters, the export itself is stubbed out)
+        exportService = Mockito.mock(ExportService.class, CALLS_REAL_METHODS);
+        doNothing().when(exportService).exportFormat(any(), anyString());
+        queueService = Mockito.mock(ExportQueueServiceBean.class);
+        ExportService.injectQueueService(queueService, NODE, CLAIM_TIMEOUT);
+        dataset = new Dataset();
+        dataset.setId(42L);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        ExportService.injectQueueService(null, null, 0);
+    }
+
+    @Test
+    public void testQueuedExportIsClaimed() throws Exception {
+        ExportJob job = new ExportJob(42L, "ddi", 2, 1);
+        when(queueService.claim(42L, "ddi", NODE, CLAIM_TIMEOUT)).thenReturn(job);
+
+        exportService.exportFormatOnDemand(dataset, "ddi", 1000);
+
+        verify(exportService).exportFormat(dataset, "ddi");
+        verify(queueService).complete(job, NODE);
+        verify(queueService, never()).getStatus(any(), anyString());
+    }
+
+    @Test
+    public void testClaimedExportThatFails() throws Exception {
+        ExportJob job = new ExportJob(42L, "ddi", 2, 1);
+        when(queueService.claim(42L, "ddi", NODE, CLAIM_TIMEOUT)).thenReturn(job);
+        ExportException broken = new ExportException("broken");
+        doThrow(broken).when(exportService).exportFormat(dataset, "ddi");
+
+        assertSame(broken, assertThrows(ExportException.class, () -> exportService.exportFormatOnDemand(dataset, "ddi", 1000)));
+
+        // left to the queue to retry
+        verify(queueService).fail(job, NODE, "broken");
+        verify(queueService, never()).complete(any(), anyString());
+    }
+
+    @Test
+    public void testExportThatIsNotQueuedIsMadeRightAway() throws Exception {
+        when(queueService.getStatus(42L, "ddi")).thenReturn(null);
+
+        exportService.exportFormatOnDemand(dataset, "ddi", 1000);
+
+        verify(exportService).exportFormat(dataset, "ddi");
+        verify(queueService, never()).complete(any(), anyString());
+    }
+
+    @Test
+    public void testWaitsForTheExportBeingMade() throws Exception {
+        when(queueService.getStatus(42L, "ddi"))
+                .thenReturn(ExportQueueServiceBean.Status.RUNNING)
+                .thenReturn(ExportQueueServiceBean.Status.RUNNING)
+                .thenReturn(ExportQueueServiceBean.Status.DONE);
+
+        exportService.exportFormatOnDemand(dataset, "ddi", ExportService.ON_DEMAND_WAIT_MILLIS);
+
+        // made by the worker that had it; the caller reads what it cached
+        verify(queueService, times(3)).getStatus(42L, "ddi");
+        verify(exportService, never()).exportFormat(any(), anyString());
+    }
+
+    @Test
+    public void testGivesUpWaiting() {
+        when(queueService.getStatus(42L, "ddi")).thenReturn(ExportQueueServiceBean.Status.RUNNING);
+
+        long start = System.currentTimeMillis();
+        ExportException ex = assertThrows(ExportException.class, () -> exportService.exportFormatOnDemand(dataset, "ddi", 1));
+
+        assertTrue(ex.getMessage().contains("is still being made"));
+        assertTrue(System.currentTimeMillis() - start < ExportService.ON_DEMAND_WAIT_MILLIS);
+        verify(exportService, never()).exportFormat(any(), anyString());
+    }
+
+}
@@ -0,0 +1,257 @@
+package edu.harvard.iq.dataverse.export;
+
+import edu.harvard.iq.dataverse.NonEssentialTests;
+import edu.harvard.iq.dataverse.branding.BrandingUtilTest;
+import edu.harvard.iq.dataverse.export.ddi.DdiExportUtil;
+import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
+import io.gdcc.spi.export.ExportDataProvider;
+import io.gdcc.spi.export.ExportException;
+import io.gdcc.spi.export.Exporter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Compares the peak heap, the heap allocated and the time of exporting a
+ * synthetic dataset with 100,000 files, from a provider that has all of the
+ * files in memory (as the exports were made before) and from one that streams
+ * them (as the InternalExportDataProvider reads them from the database, a
+ * page at a time), and checks that both give the same export.
+ */
+public class ExportStreamingBenchmarkTest {
+
+    private static final Logger logger = Logger.getLogger(ExportStreamingBenchmarkTest.class.getCanonicalName());
+
+    private static final int NUM_FILES = 100000;
+
+    private static JsonObject datasetJsonWithoutFiles;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        BrandingUtilTest.setupMocks();
+        DdiExportUtil.injectSettingsService(Mockito.mock(SettingsServiceBean.class));
+        String datasetJson = Files.readString(Path.of("src/test/java/edu/harvard/iq/dataverse/export/ddi/dataset-finch1.json"), StandardCharsets.UTF_8);
+        JsonObject dataset = Json.createReader(new StringReader(datasetJson)).readObject();
+        JsonObject datasetVersion = Json.createObjectBuilder(dataset.getJsonObject("datasetVersion")).remove("files").build();
+        datasetJsonWithoutFiles = Json.createObjectBuilder(dataset).add("datasetVersion", datasetVersion).build();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        BrandingUtilTest.tearDownMocks();
+        DdiExportUtil.injectSettingsService(null);
+    }
+
+    @Category(NonEssentialTests.class)
+    @Test
+    public void testJsonExport() throws Exception {
+        compare(new JSONExporter());
+    }
+
+    @Category(NonEssentialTests.class)
+    @Test
+    public void testOaiDdiExport() throws Exception {
+        compare(new OAI_DDIExporter());
+    }
+
+    @Category(NonEssentialTests.class)
+    @Test
+    public void testDdiExport() throws Exception {
+        compare(new DDIExporter());
+    }
+
+    @Category(NonEssentialTests.class)
+    @Test
+    public void testJsonExportUnchanged() throws Exception {
+        // The streamed json is the same as the json the exporter used to write:
+        ExportDataProvider inMemory = new InMemoryDataProvider();
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(inMemory.getDatasetJson().toString().getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals(digest.digest(), export(new JSONExporter(), new StreamingDataProvider()));
+    }
+
+    private static void compare(Exporter exporter) throws Exception {
+        byte[] inMemory = measure(exporter.getFormatName() + ", files in memory", exporter, new InMemoryDataProvider());
+        byte[] streaming = measure(exporter.getFormatName() + ", files streamed", exporter, new StreamingDataProvider());
+        assertArrayEquals(inMemory, streaming);
+    }
+
+    /*
+     * Logs the peak heap (the sum of the peaks of the heap pools, with the
+     * garbage of earlier runs collected beforehand), the bytes allocated and
+     * the time of an export; returns the digest of the export, which itself
+     * isn't kept.
+     */
+    private static byte[] measure(String label, Exporter exporter, ExportDataProvider dataProvider) throws Exception {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        System.gc();
+        long usedBefore = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                usedBefore += pool.getUsage().getUsed();
+                pool.resetPeakUsage();
+            }
+        }
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        byte[] digest = export(exporter, dataProvider);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        logger.info(label + ": " + NUM_FILES + " files exported in " + elapsedMillis + " ms, "
+                + ((peak - usedBefore) / (1024 * 1024)) + " MB peak heap, "
+                + (allocatedBytes / (1024 * 1024)) + " MB allocated");
+        return digest;
+    }
+
+    private static byte[] export(Exporter exporter, ExportDataProvider dataProvider) throws ExportException, NoSuchAlgorithmException {
+        DigestOutputStream outputStream = new DigestOutputStream(OutputStream.nullOutputStream(), MessageDigest.getInstance("SHA-256"));
+        exporter.exportDataset(dataProvider, outputStream);
+        return outputStream.getMessageDigest().digest();
+    }
+
+    // An entry of the "files" of the dataset json, as JsonPrinter.json(FileMetadata) makes them:
+    private static JsonObject file(int i) {
+        return Json.createObjectBuilder()
+                .add("label", "file" + i + ".txt")
+                .add("restricted", false)
+                .add("directoryLabel", "dir" + (i % 100))
+                .add("version", 1)
+                .add("datasetVersionId", 1)
+                .add("dataFile", Json.createObjectBuilder()
+                        .add("id", 1000 + i)
+                        .add("persistentId", "")
+                        .add("filename", "file" + i + ".txt")
+                        .add("contentType", "text/plain")
+                        .add("filesize", 1024 + i)
+                        .add("description", "A synthetic file, number " + i)
+                        .add("storageIdentifier", "file://18a4c5f1e0d-" + Integer.toHexString(i))
+                        .add("rootDataFileId", -1)
+                        .add("md5", String.format("%032x", i))
+                        .add("checksum", Json.createObjectBuilder().add("type", "MD5").add("value", String.format("%032x", i)))
+                        .add("creationDate", "2023-04-01"))
+                .build();
+    }
+
+    // An entry of the file details, as JsonPrinter.json(DataFile, FileMetadata, true) makes them:
+    private static JsonObject fileDetails(int i) {
+        return Json.createObjectBuilder()
+                .add("id", 1000 + i)
+                .add("filename", "file" + i + ".txt")
+                .add("contentType", "text/plain")
+                .add("filesize", 1024 + i)
+                .add("description", "A synthetic file, number " + i)
+                .add("storageIdentifier", "file://18a4c5f1e0d-" + Integer.toHexString(i))
+                .add("md5", String.format("%032x", i))
+                .add("fileMetadataId", 2000 + i)
+                .build();
+    }
+
+    /*
+     * Has the json of the dataset with all of its files, and the details of
+     * all of them, in memory; the streaming methods are those of the SPI,
+     * that go through the in-memory json.
+     */
+    private static class InMemoryDataProvider implements ExportDataProvider {
+
+        private JsonObject datasetJson = null;
+        private JsonArray fileDetails = null;
+
+        @Override
+        public JsonObject getDatasetJson() {
+            if (datasetJson == null) {
+                JsonArrayBuilder files = Json.createArrayBuilder();
+                IntStream.range(0, NUM_FILES).forEach(i -> files.add(file(i)));
+                JsonObjectBuilder datasetVersion = Json.createObjectBuilder();
+                for (Map.Entry<String, JsonValue> entry : datasetJsonWithoutFiles.getJsonObject("datasetVersion").entrySet()) {
+                    if ("citation".equals(entry.getKey())) {
+                        datasetVersion.add("files", files);
+                    }
+                    datasetVersion.add(entry.getKey(), entry.getValue());
+                }
+                datasetJson = Json.createObjectBuilder(datasetJsonWithoutFiles).add("datasetVersion", datasetVersion).build();
+            }
+            return datasetJson;
+        }
+
+        @Override
+        public JsonObject getDatasetORE() {
+            return JsonValue.EMPTY_JSON_OBJECT;
+        }
+
+        @Override
+        public JsonArray getDatasetFileDetails() {
+            if (fileDetails == null) {
+                JsonArrayBuilder details = Json.createArrayBuilder();
+                IntStream.range(0, NUM_FILES).forEach(i -> details.add(fileDetails(i)));
+                fileDetails = details.build();
+            }
+            return fileDetails;
+        }
+
+        @Override
+        public JsonObject getDatasetSchemaDotOrg() {
+            return JsonValue.EMPTY_JSON_OBJECT;
+        }
+
+        @Override
+        public String getDataCiteXml() {
+            return "";
+        }
+    }
+
+    /*
+     * Makes the files as they're streamed, the way the InternalExportDataProvider
+     * reads them from the database; only the files-less json is kept.
+     */
+    private static class StreamingDataProvider extends InMemoryDataProvider {
+
+        @Override
+        public JsonObject getDatasetJsonWithoutFiles() {
+            return datasetJsonWithoutFiles;
+        }
+
+        @Override
+        public Stream<JsonObject> streamDatasetFiles() {
+            return IntStream.range(0, NUM_FILES).mapToObj(ExportStreamingBenchmarkTest::file);
+        }
+
+        @Override
+        public Stream<JsonObject> streamDatasetFileDetails() {
+            return IntStream.range(0, NUM_FILES).mapToObj(ExportStreamingBenchmarkTest::fileDetails);
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package edu.harvard.iq.dataverse.harvest.client;
+
+import java.util.Date;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ClientHarvestRunTest {
+
+    private static final long START = 1700000000000L;
+
+    private static ClientHarvestRun run(Long indexingMillis) {
+        ClientHarvestRun run = new ClientHarvestRun();
+        run.setStartTime(new Date(START));
+        run.setIndexingMillis(indexingMillis);
+        return run;
+    }
+
+    @Test
+    public void testImportMillisLeaveOutTheIndexing() {
+        ClientHarvestRun run = run(15000L);
+        assertNull(run.getImportMillis());
+
+        run.setFinishTime(new Date(START + 60000));
+
+        assertEquals(45000L, run.getImportMillis().longValue());
+    }
+
+    @Test
+    public void testImportMillisWithoutDeferredIndexing() {
+        ClientHarvestRun run = run(null);
+        run.setFinishTime(new Date(START + 60000));
+
+        assertEquals(60000L, run.getImportMillis().longValue());
+    }
+
+    @Test
+    public void testRecordsPerMinute() {
+        ClientHarvestRun run = run(null);
+
+        run.updateProgress(300, new Date(START + 120000));
+
+        assertEquals(300L, run.getProcessedRecordCount().longValue());
+        assertEquals(150.0, run.getRecordsPerMinute(), 0.0001);
+    }
+
+    @Test
+    public void testRecordsPerMinuteLeaveOutTheIndexing() {
+        ClientHarvestRun run = run(30000L);
+
+        run.updateProgress(300, new Date(START + 120000));
+
+        // 300 records in the 90 seconds spent harvesting
+        assertEquals(200.0, run.getRecordsPerMinute(), 0.0001);
+    }
+
+    @Test
+    public void testNoRateBeforeAnyTimeSpentHarvesting() {
+        ClientHarvestRun run = run(5000L);
+        run.setRecordsPerMinute(12.0);
+
+        // right at the start, or all the time so far spent indexing
+        run.updateProgress(10, new Date(START));
+        assertEquals(12.0, run.getRecordsPerMinute(), 0.0001);
+        run.updateProgress(20, new Date(START + 5000));
+        assertEquals(12.0, run.getRecordsPerMinute(), 0.0001);
+        assertEquals(20L, run.getProcessedRecordCount().longValue());
+
+        ClientHarvestRun notStarted = new ClientHarvestRun();
+        notStarted.updateProgress(10, new Date(START));
+        assertNull(notStarted.getRecordsPerMinute());
+        assertEquals(10L, notStarted.getProcessedRecordCount().longValue());
+    }
+
+}
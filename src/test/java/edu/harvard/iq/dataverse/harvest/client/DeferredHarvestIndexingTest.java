@@ -0,0 +1,161 @@
+package edu.harvard.iq.dataverse.harvest.client;
+
+import edu.harvard.iq.dataverse.Dataverse;
+import edu.harvard.iq.dataverse.search.IndexResponse;
+import edu.harvard.iq.dataverse.search.IndexServiceBean;
+import edu.harvard.iq.dataverse.search.SolrIndexBatch;
+import edu.harvard.iq.dataverse.search.SolrIndexServiceBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import javax.ejb.EJBException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.geq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DeferredHarvestIndexingTest {
+
+    private static final Logger hdLogger = Logger.getLogger(DeferredHarvestIndexingTest.class.getCanonicalName());
+
+    private HarvesterServiceBean harvester;
+    private IndexServiceBean indexService;
+    private SolrIndexServiceBean solrIndexService;
+    private SolrIndexBatch batch;
+    private HarvestingClient harvestingClient;
+
+    @BeforeEach
+    public void setUp() {
+        harvester = new HarvesterServiceBean();
+        harvester.indexService = indexService = Mockito.mock(IndexServiceBean.class);
+        harvester.solrIndexService = solrIndexService = Mockito.mock(SolrIndexServiceBean.class);
+        harvester.harvestingClientService = Mockito.mock(HarvestingClientServiceBean.class);
+        batch = Mockito.mock(SolrIndexBatch.class);
+        when(indexService.createIndexBatch()).thenReturn(batch);
+        when(solrIndexService.deleteMultipleSolrIds(anyList())).thenReturn(new IndexResponse("deleted"));
+
+        harvestingClient = new HarvestingClient();
+        harvestingClient.setId(7L);
+        harvestingClient.setDataverse(new Dataverse());
+    }
+
+    @Test
+    public void testTakePendingStartsOver() {
+        DeferredHarvestIndexing deferredIndexing = new DeferredHarvestIndexing();
+        deferredIndexing.indexLater(1L);
+        deferredIndexing.indexLater(2L);
+        // imported again by the same harvest: indexed once
+        deferredIndexing.indexLater(1L);
+        deferredIndexing.deleteLater(List.of("dataset_3", "datafile_4"));
+        assertEquals(4, deferredIndexing.getPendingCount());
+
+        DeferredHarvestIndexing.Pending pending = deferredIndexing.takePending();
+
+        assertEquals(List.of(1L, 2L), pending.datasetIds);
+        assertEquals(List.of("dataset_3", "datafile_4"), pending.solrIdsToDelete);
+        assertTrue(pending.dataverseToReindex);
+        assertFalse(pending.isEmpty());
+        assertEquals(0, deferredIndexing.getPendingCount());
+        assertTrue(deferredIndexing.takePending().isEmpty());
+    }
+
+    @Test
+    public void testIndexingTimeAddsUp() {
+        DeferredHarvestIndexing deferredIndexing = new DeferredHarvestIndexing();
+        deferredIndexing.addIndexingTime(120, 3);
+        deferredIndexing.addIndexingTime(80, 2);
+
+        assertEquals(200, deferredIndexing.getIndexingMillis());
+        assertEquals(5, deferredIndexing.getIndexedDatasetCount());
+    }
+
+    @Test
+    public void testFilledByConcurrentWorkers() throws InterruptedException {
+        DeferredHarvestIndexing deferredIndexing = new DeferredHarvestIndexing();
+        List<Thread> workers = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            long first = w * 1000L;
+            workers.add(new Thread(() -> {
+                for (long id = first; id < first + 500; id++) {
+                    deferredIndexing.indexLater(id);
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(2000, deferredIndexing.getPendingCount());
+        assertEquals(2000, deferredIndexing.takePending().datasetIds.size());
+    }
+
+    @Test
+    public void testFlushIndexesInOneBatch() throws Exception {
+        DeferredHarvestIndexing deferredIndexing = new DeferredHarvestIndexing();
+        deferredIndexing.indexLater(1L);
+        deferredIndexing.indexLater(2L);
+        deferredIndexing.deleteLater(List.of("dataset_3"));
+        doAnswer(invocation -> {
+            Thread.sleep(20);
+            return null;
+        }).when(indexService).indexDatasetInNewTransaction(eq(2L), any(SolrIndexBatch.class));
+
+        harvester.indexHarvestedDatasets(harvestingClient, deferredIndexing, hdLogger);
+
+        verify(solrIndexService).deleteMultipleSolrIds(List.of("dataset_3"));
+        InOrder inOrder = inOrder(indexService);
+        inOrder.verify(indexService).indexDatasetInNewTransaction(1L, batch);
+        inOrder.verify(indexService).indexDatasetInNewTransaction(2L, batch);
+        inOrder.verify(indexService).closeIndexBatchInNewTransaction(batch);
+        // the collection of the destroyed dataset
+        inOrder.verify(indexService).indexDataverse(harvestingClient.getDataverse());
+
+        assertEquals(0, deferredIndexing.getPendingCount());
+        assertTrue(deferredIndexing.getIndexingMillis() >= 20);
+        assertEquals(2, deferredIndexing.getIndexedDatasetCount());
+        verify(harvester.harvestingClientService).setHarvestIndexing(eq(7L), geq(20L), eq(2L));
+    }
+
+    @Test
+    public void testFlushGoesOnAfterAFailedDataset() throws Exception {
+        DeferredHarvestIndexing deferredIndexing = new DeferredHarvestIndexing();
+        deferredIndexing.indexLater(1L);
+        deferredIndexing.indexLater(2L);
+        doThrow(new EJBException("no such dataset")).when(indexService).indexDatasetInNewTransaction(eq(1L), any(SolrIndexBatch.class));
+
+        harvester.indexHarvestedDatasets(harvestingClient, deferredIndexing, hdLogger);
+
+        verify(indexService).indexDatasetInNewTransaction(2L, batch);
+        verify(indexService).closeIndexBatchInNewTransaction(batch);
+        // nothing was destroyed
+        verify(indexService, never()).indexDataverse(any(Dataverse.class));
+        verify(harvester.harvestingClientService).setHarvestIndexing(eq(7L), anyLong(), eq(2L));
+    }
+
+    @Test
+    public void testNothingToFlush() {
+        harvester.indexHarvestedDatasets(harvestingClient, new DeferredHarvestIndexing(), hdLogger);
+        // (or indexing isn't deferred for the client)
+        harvester.indexHarvestedDatasets(harvestingClient, null, hdLogger);
+
+        verify(indexService, never()).createIndexBatch();
+        verify(harvester.harvestingClientService, never()).setHarvestIndexing(anyLong(), anyLong(), anyLong());
+    }
+
+}
@@ -0,0 +1,259 @@
+package edu.harvard.iq.dataverse.harvest.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.harvard.iq.dataverse.harvest.client.oai.OaiHandler;
+import io.gdcc.xoai.model.oaipmh.results.record.Header;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Harvests the same set from a stand-in OAI server with ListRecords and with
+ * ListIdentifiers plus a GetRecord request per record, the way a harvest
+ * runs without {@link HarvestingClient#isUseListRecords()}, and checks that
+ * the same records come out.
+ */
+public class FastListRecordsTest {
+
+    private static final String SET = "harvestMe";
+    private static final String PREFIX = "oai_dc";
+    private static final int PAGE = 2;
+
+    private static final String DC_RECORD = "<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\""
+            + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+            + " xsi:schemaLocation=\"http://www.openarchives.org/OAI/2.0/oai_dc/ http://www.openarchives.org/OAI/2.0/oai_dc.xsd\">\n"
+            + "  <dc:title>%s</dc:title>\n"
+            + "  <dc:identifier>%s</dc:identifier>\n"
+            + "  <dc:description>Lengths &lt; 10 &amp; weights &gt; 5</dc:description>\n"
+            + "</oai_dc:dc>";
+
+    private static final class ServedRecord {
+        final String identifier;
+        final String dateStamp;
+        final boolean deleted;
+        final String metadata;
+
+        ServedRecord(String identifier, String dateStamp, boolean deleted, String metadata) {
+            this.identifier = identifier;
+            this.dateStamp = dateStamp;
+            this.deleted = deleted;
+            this.metadata = metadata;
+        }
+    }
+
+    private final List<ServedRecord> records = new ArrayList<>();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private HttpServer server;
+    private String baseUrl;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        records.add(new ServedRecord("doi:10.5072/FK2/AAAAAA", "2023-01-02T03:04:05Z", false,
+                String.format(DC_RECORD, "First", "https://doi.org/10.5072/FK2/AAAAAA")));
+        records.add(new ServedRecord("doi:10.5072/FK2/BBBBBB", "2023-02-03T04:05:06Z", true, null));
+        // a record with a comment before the metadata, in a default namespace
+        records.add(new ServedRecord("doi:10.5072/FK2/CCCCCC", "2023-03-04T05:06:07Z", false,
+                "<!-- exported by a test -->\n<record xmlns=\"urn:test:other\">\n  <title lang=\"en\">Third</title>\n</record>"));
+        records.add(new ServedRecord("doi:10.5072/FK2/DDDDDD", "2023-04-05T06:07:08Z", false,
+                String.format(DC_RECORD, "Fourth", "https://doi.org/10.5072/FK2/DDDDDD")));
+        records.add(new ServedRecord("doi:10.5072/FK2/EEEEEE", "2023-05-06T07:08:09Z", false,
+                String.format(DC_RECORD, "Fifth", "https://doi.org/10.5072/FK2/EEEEEE")));
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/oai", this::handle);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/oai";
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testSameRecordsAsListIdentifiersAndGetRecord() throws Exception {
+        HttpClient httpClient = HttpClient.newHttpClient();
+
+        List<String> standard = new ArrayList<>();
+        OaiHandler oaiHandler = oaiHandler();
+        for (Iterator<Header> idIter = oaiHandler.runListIdentifiers(); idIter.hasNext();) {
+            Header h = idIter.next();
+            if (h.isDeleted()) {
+                standard.add(describe(h.getIdentifier(), Date.from(h.getDatestamp()), true, null));
+                continue;
+            }
+            FastGetRecord record = oaiHandler.runGetRecord(h.getIdentifier(), httpClient);
+            assertNull(record.getErrorMessage());
+            standard.add(describe(h.getIdentifier(), Date.from(h.getDatestamp()), record.isDeleted(), record.getMetadataFile()));
+        }
+
+        List<String> listed = new ArrayList<>();
+        FastListRecords listRecords = new FastListRecords(oaiHandler(), httpClient);
+        try {
+            for (FastListRecords.Record record; (record = listRecords.next()) != null;) {
+                listed.add(describe(record.getIdentifier(), record.getDateStamp(), record.isDeleted(), record.getMetadataFile()));
+            }
+        } finally {
+            listRecords.close();
+        }
+
+        assertEquals(records.size(), standard.size());
+        assertEquals(standard, listed);
+        // a request per page, instead of one per record
+        assertEquals(3, listRecords.getRequests());
+        assertEquals(3, requests.get("ListRecords").get());
+        assertEquals(records.size() - 1, requests.get("GetRecord").get());
+    }
+
+    @Test
+    public void testNoRecordsMatch() throws Exception {
+        records.clear();
+
+        FastListRecords listRecords = new FastListRecords(oaiHandler(), HttpClient.newHttpClient());
+
+        assertNull(listRecords.next());
+        assertEquals(1, listRecords.getRequests());
+    }
+
+    private OaiHandler oaiHandler() {
+        OaiHandler oaiHandler = new OaiHandler(baseUrl, PREFIX);
+        oaiHandler.withSetName(SET);
+        return oaiHandler;
+    }
+
+    /**
+     * @return what a record comes down to for the importer; the metadata with
+     * its white space and namespace declarations left out, since the two
+     * clients write them out differently.
+     */
+    private static String describe(String identifier, Date dateStamp, boolean deleted, File metadataFile) throws Exception {
+        StringBuilder description = new StringBuilder(identifier).append(' ').append(dateStamp.toInstant()).append(' ').append(deleted);
+        if (deleted) {
+            assertNull(metadataFile);
+            return description.toString();
+        }
+        assertNotNull(metadataFile);
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            Element root = factory.newDocumentBuilder().parse(metadataFile).getDocumentElement();
+            describe(root, description.append(' '));
+        } finally {
+            assertTrue(metadataFile.delete());
+        }
+        return description.toString();
+    }
+
+    private static void describe(Element element, StringBuilder description) {
+        description.append('{').append(element.getNamespaceURI()).append('}').append(element.getLocalName());
+        NamedNodeMap attributes = element.getAttributes();
+        List<String> described = new ArrayList<>();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            if (!"http://www.w3.org/2000/xmlns/".equals(attribute.getNamespaceURI())) {
+                described.add("{" + attribute.getNamespaceURI() + "}" + attribute.getLocalName() + "=" + attribute.getValue());
+            }
+        }
+        described.sort(null);
+        description.append(described).append('(');
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                describe((Element) child, description);
+            } else if (child.getNodeType() == Node.TEXT_NODE && !child.getNodeValue().isBlank()) {
+                description.append('"').append(child.getNodeValue().trim()).append('"');
+            }
+        }
+        description.append(')');
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        for (String parameter : exchange.getRequestURI().getRawQuery().split("&")) {
+            String[] nameAndValue = parameter.split("=", 2);
+            parameters.put(nameAndValue[0], URLDecoder.decode(nameAndValue[1], StandardCharsets.UTF_8));
+        }
+        String verb = parameters.get("verb");
+        requests.computeIfAbsent(verb, v -> new AtomicInteger()).incrementAndGet();
+
+        StringBuilder response = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"")
+                .append(" xsi:schemaLocation=\"http://www.openarchives.org/OAI/2.0/ http://www.openarchives.org/OAI/2.0/OAI-PMH.xsd\">\n")
+                .append("<responseDate>2023-06-01T00:00:00Z</responseDate>\n")
+                .append("<request verb=\"").append(verb).append("\">").append(baseUrl).append("</request>\n");
+
+        if ("GetRecord".equals(verb)) {
+            ServedRecord record = records.stream().filter(r -> r.identifier.equals(parameters.get("identifier"))).findFirst().get();
+            response.append("<GetRecord>\n");
+            appendRecord(response, record, true);
+            response.append("</GetRecord>\n");
+        } else {
+            assertEquals(SET, parameters.getOrDefault("set", SET));
+            int from = parameters.containsKey("resumptionToken") ? Integer.parseInt(parameters.get("resumptionToken").substring("page-".length())) : 0;
+            if (records.isEmpty()) {
+                response.append("<error code=\"noRecordsMatch\">No records match</error>\n");
+            } else {
+                response.append('<').append(verb).append(">\n");
+                for (int i = from; i < Math.min(from + PAGE, records.size()); i++) {
+                    appendRecord(response, records.get(i), "ListRecords".equals(verb));
+                }
+                if (from + PAGE < records.size()) {
+                    response.append("<resumptionToken completeListSize=\"").append(records.size()).append("\" cursor=\"").append(from).append("\">")
+                            .append("page-").append(from + PAGE).append("</resumptionToken>\n");
+                }
+                response.append("</").append(verb).append(">\n");
+            }
+        }
+        response.append("</OAI-PMH>\n");
+
+        byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/xml;charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void appendRecord(StringBuilder response, ServedRecord record, boolean withMetadata) {
+        if (withMetadata) {
+            response.append("<record>\n");
+        }
+        response.append(record.deleted ? "<header status=\"deleted\">\n" : "<header>\n")
+                .append("<identifier>").append(record.identifier).append("</identifier>\n")
+                .append("<datestamp>").append(record.dateStamp).append("</datestamp>\n")
+                .append("<setSpec>").append(SET).append("</setSpec>\n")
+                .append("</header>\n");
+        if (withMetadata) {
+            if (!record.deleted) {
+                // (on lines of their own, as FastGetRecord expects)
+                response.append("<metadata>\n").append(record.metadata).append("\n</metadata>\n");
+            }
+            response.append("</record>\n");
+        }
+    }
+}
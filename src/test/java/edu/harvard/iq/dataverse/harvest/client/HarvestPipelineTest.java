@@ -0,0 +1,80 @@
+package edu.harvard.iq.dataverse.harvest.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HarvestPipelineTest {
+
+    @Test
+    public void testImportsEveryRecordInListedOrder() throws InterruptedException {
+        HarvestPipeline pipeline = new HarvestPipeline(Executors.defaultThreadFactory(), 4, 3, 0);
+        Map<String, List<Integer>> imported = new ConcurrentHashMap<>();
+
+        for (int i = 0; i < 200; i++) {
+            String identifier = "doi:10.5072/FK2/" + (i % 10);
+            int version = i;
+            if (i % 7 == 0) {
+                pipeline.importOnly(identifier, () -> imported.computeIfAbsent(identifier, k -> Collections.synchronizedList(new ArrayList<>())).add(-version));
+            } else {
+                pipeline.fetchAndImport(identifier, () -> {
+                    // (the later records come back sooner)
+                    Thread.sleep(version % 3);
+                    return version;
+                }, fetched -> imported.computeIfAbsent(identifier, k -> Collections.synchronizedList(new ArrayList<>())).add(fetched));
+            }
+        }
+        pipeline.finish();
+
+        assertEquals(10, imported.size());
+        for (List<Integer> versions : imported.values()) {
+            assertEquals(20, versions.size());
+            for (int i = 1; i < versions.size(); i++) {
+                assertTrue(Math.abs(versions.get(i - 1)) < Math.abs(versions.get(i)), "imported in order: " + versions);
+            }
+        }
+    }
+
+    @Test
+    public void testKeepsGoingAfterFailures() throws InterruptedException {
+        HarvestPipeline pipeline = new HarvestPipeline(Executors.defaultThreadFactory(), 2, 2, 0);
+        AtomicInteger imported = new AtomicInteger();
+
+        for (int i = 0; i < 20; i++) {
+            int n = i;
+            pipeline.fetchAndImport("record" + i, () -> {
+                if (n % 4 == 0) {
+                    throw new IllegalStateException("failed to fetch");
+                }
+                return n;
+            }, fetched -> {
+                if (fetched % 4 == 1) {
+                    throw new IllegalStateException("failed to import");
+                }
+                imported.incrementAndGet();
+            });
+        }
+        pipeline.finish();
+
+        assertEquals(10, imported.get());
+    }
+
+    @Test
+    public void testThrottlesRequests() throws InterruptedException {
+        HarvestPipeline.RequestThrottle throttle = new HarvestPipeline.RequestThrottle(50);
+        long start = System.nanoTime();
+        for (int i = 0; i < 11; i++) {
+            throttle.acquire();
+        }
+        // 10 intervals of 20 ms
+        assertTrue(System.nanoTime() - start >= 190_000_000L);
+    }
+}
@@ -0,0 +1,85 @@
+package edu.harvard.iq.dataverse.harvest.server;
+
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OAIRecordServiceBeanTest {
+
+    private OAIRecordServiceBean recordService;
+    private TypedQuery<OAIRecord> query;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        recordService = new OAIRecordServiceBean();
+        recordService.em = Mockito.mock(EntityManager.class);
+        query = Mockito.mock(TypedQuery.class, RETURNS_SELF);
+        when(recordService.em.createQuery(anyString(), eq(OAIRecord.class))).thenReturn(query);
+        when(query.getResultList()).thenReturn(List.of());
+    }
+
+    private String jpql() {
+        ArgumentCaptor<String> jpql = ArgumentCaptor.forClass(String.class);
+        verify(recordService.em).createQuery(jpql.capture(), eq(OAIRecord.class));
+        return jpql.getValue();
+    }
+
+    @Test
+    public void testKeysetPage() {
+        recordService.findOaiRecordsPageBySetName("set", null, null, "doi:10.5072/FK2/B", 3L, 40, 11);
+
+        String jpql = jpql();
+        // records sharing the global id of the last one served (and its
+        // export time) are told apart by their ids
+        assertTrue(jpql.contains("and (h.globalId > :afterGlobalId or (h.globalId = :afterGlobalId and h.id > :afterId))"));
+        assertTrue(jpql.endsWith(" order by h.globalId, h.id"));
+        assertFalse(jpql.contains(":from"));
+        verify(query).setParameter("setName", "set");
+        verify(query).setParameter("afterGlobalId", "doi:10.5072/FK2/B");
+        verify(query).setParameter("afterId", 3L);
+        verify(query).setMaxResults(11);
+        // the offset is only used without a cursor
+        verify(query, never()).setFirstResult(anyInt());
+    }
+
+    @Test
+    public void testOffsetPage() {
+        recordService.findOaiRecordsPageBySetName(null, null, null, null, null, 40, 11);
+
+        String jpql = jpql();
+        assertFalse(jpql.contains(":afterGlobalId"));
+        assertTrue(jpql.endsWith(" order by h.globalId, h.id"));
+        verify(query).setParameter("setName", "");
+        verify(query).setFirstResult(40);
+        verify(query).setMaxResults(11);
+        verify(query, never()).setParameter(eq("afterGlobalId"), Mockito.any());
+    }
+
+    @Test
+    public void testCountUsesTheSameFilter() {
+        @SuppressWarnings("unchecked")
+        TypedQuery<Long> count = Mockito.mock(TypedQuery.class, RETURNS_SELF);
+        when(recordService.em.createQuery(anyString(), eq(Long.class))).thenReturn(count);
+        when(count.getSingleResult()).thenReturn(7L);
+
+        assertEquals(7L, recordService.countOaiRecordsBySetName("set", null, null));
+        verify(count).setParameter("setName", "set");
+    }
+
+}
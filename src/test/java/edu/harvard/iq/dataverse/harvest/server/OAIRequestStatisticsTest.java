@@ -0,0 +1,69 @@
+package edu.harvard.iq.dataverse.harvest.server;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OAIRequestStatisticsTest {
+
+    // (the statistics are kept for the life of the server, so only what
+    // changes while a test runs is checked)
+    private static JsonObject verb(String verb) {
+        JsonArray stats = OAIRequestStatistics.getStatistics().build();
+        for (JsonObject stat : stats.getValuesAs(JsonObject.class)) {
+            if (verb.equals(stat.getString("verb"))) {
+                return stat;
+            }
+        }
+        throw new AssertionError("No statistics for " + verb);
+    }
+
+    private static long bucket(JsonObject stat, String bucket) {
+        return stat.getJsonObject("millis").getJsonNumber(bucket).longValue();
+    }
+
+    @Test
+    public void testListsAllVerbs() {
+        JsonArray stats = OAIRequestStatistics.getStatistics().build();
+        assertEquals(7, stats.size());
+        for (String verb : new String[]{"Identify", "ListMetadataFormats", "ListSets", "ListIdentifiers", "ListRecords", "GetRecord", "badVerb"}) {
+            verb(verb);
+        }
+    }
+
+    @Test
+    public void testRecordsRequestsAndLatencies() {
+        JsonObject before = verb("ListRecords");
+
+        OAIRequestStatistics.record("ListRecords", 5, false);
+        OAIRequestStatistics.record("ListRecords", 10, false);
+        OAIRequestStatistics.record("ListRecords", 700, true);
+        OAIRequestStatistics.record("ListRecords", 45000, false);
+
+        JsonObject after = verb("ListRecords");
+        assertEquals(4, after.getJsonNumber("requests").longValue() - before.getJsonNumber("requests").longValue());
+        assertEquals(1, after.getJsonNumber("failures").longValue() - before.getJsonNumber("failures").longValue());
+        assertTrue(after.getJsonNumber("maxMillis").longValue() >= 45000);
+        // the upper bounds of the buckets are inclusive
+        assertEquals(2, bucket(after, "le10") - bucket(before, "le10"));
+        assertEquals(0, bucket(after, "le50") - bucket(before, "le50"));
+        assertEquals(1, bucket(after, "le1000") - bucket(before, "le1000"));
+        assertEquals(1, bucket(after, "more") - bucket(before, "more"));
+    }
+
+    @Test
+    public void testUnknownVerbs() {
+        JsonObject before = verb("badVerb");
+
+        OAIRequestStatistics.record("ListEverything", 1, true);
+        OAIRequestStatistics.record(null, 1, true);
+
+        JsonObject after = verb("badVerb");
+        assertEquals(2, after.getJsonNumber("requests").longValue() - before.getJsonNumber("requests").longValue());
+        assertEquals(2, after.getJsonNumber("failures").longValue() - before.getJsonNumber("failures").longValue());
+    }
+
+}
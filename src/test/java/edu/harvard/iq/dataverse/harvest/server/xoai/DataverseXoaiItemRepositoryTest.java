@@ -0,0 +1,161 @@
+package edu.harvard.iq.dataverse.harvest.server.xoai;
+
+import edu.harvard.iq.dataverse.DatasetServiceBean;
+import edu.harvard.iq.dataverse.harvest.server.OAIRecord;
+import edu.harvard.iq.dataverse.harvest.server.OAIRecordServiceBean;
+import io.gdcc.xoai.dataprovider.model.ItemIdentifier;
+import io.gdcc.xoai.dataprovider.repository.ResultsPage;
+import io.gdcc.xoai.model.oaipmh.ResumptionToken;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Pages through a set with ListIdentifiers, the way a harvesting client
+ * does, with the records kept in memory by a stand-in for
+ * OAIRecordServiceBean that follows the keyset semantics of
+ * findOaiRecordsPageBySetName().
+ */
+public class DataverseXoaiItemRepositoryTest {
+
+    private static final int PAGE = 2;
+
+    private final KeysetResumptionTokenFormat format = new KeysetResumptionTokenFormat();
+    private final List<OAIRecord> records = new ArrayList<>();
+    private OAIRecordServiceBean recordService;
+    private DataverseXoaiItemRepository repository;
+
+    @BeforeEach
+    public void setUp() {
+        recordService = Mockito.mock(OAIRecordServiceBean.class);
+        repository = new DataverseXoaiItemRepository(recordService, Mockito.mock(DatasetServiceBean.class), "https://demo.dataverse.org");
+        when(recordService.findOaiRecordsPageBySetName(anyString(), any(), any(), any(), any(), anyInt(), anyInt())).thenAnswer(invocation -> {
+            String setName = invocation.getArgument(0);
+            String afterGlobalId = invocation.getArgument(3);
+            Long afterId = invocation.getArgument(4);
+            int offset = invocation.getArgument(5);
+            int maxResults = invocation.getArgument(6);
+            List<OAIRecord> inSet = records.stream()
+                    .filter(r -> r.getSetName().equals(setName))
+                    .filter(r -> afterGlobalId == null || r.getGlobalId().compareTo(afterGlobalId) > 0
+                            || (r.getGlobalId().equals(afterGlobalId) && r.getId() > afterId))
+                    .sorted(Comparator.comparing(OAIRecord::getGlobalId).thenComparing(OAIRecord::getId))
+                    .collect(Collectors.toList());
+            int from = Math.min(afterGlobalId == null ? offset : 0, inSet.size());
+            return new ArrayList<>(inSet.subList(from, Math.min(from + maxResults, inSet.size())));
+        });
+        when(recordService.countOaiRecordsBySetName(anyString(), any(), any())).thenAnswer(invocation ->
+                records.stream().filter(r -> r.getSetName().equals(invocation.getArgument(0))).count());
+    }
+
+    private void addRecord(String setName, long id, String globalId, Date lastUpdateTime) {
+        OAIRecord record = new OAIRecord(setName, globalId, lastUpdateTime);
+        record.setId(id);
+        records.add(record);
+    }
+
+    private static ResumptionToken.Value token(String setSpec, long offset) {
+        return new ResumptionToken.Value().withMetadataPrefix("oai_dc").withSetSpec(setSpec).withOffset(offset);
+    }
+
+    /**
+     * Requests the page at the offset with the resumption token that the
+     * previous page handed out, as a client would send it back.
+     */
+    private ResultsPage<ItemIdentifier> page(String setSpec, long offset) throws Exception {
+        ResumptionToken.Value value = token(setSpec, offset);
+        if (offset > 0) {
+            value = format.parse(format.stripCursor(format.format(value)));
+        }
+        return repository.getItemIdentifiers(new ArrayList<>(), null, PAGE, value);
+    }
+
+    private static List<Long> ids(ResultsPage<ItemIdentifier> page) {
+        return page.getList().stream().map(item -> ((DataverseXoaiItem) item).getOaiRecord().getId()).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testKeysetPagesWithEqualTimestamps() throws Exception {
+        // All records exported at the same time; two records share a global id.
+        Date exported = new Date(1700000000000L);
+        addRecord("equalTimes", 5, "doi:10.5072/FK2/C", exported);
+        addRecord("equalTimes", 1, "doi:10.5072/FK2/A", exported);
+        addRecord("equalTimes", 7, "doi:10.5072/FK2/B", exported);
+        addRecord("equalTimes", 3, "doi:10.5072/FK2/B", exported);
+        addRecord("equalTimes", 2, "doi:10.5072/FK2/E", exported);
+        addRecord("equalTimes", 9, "doi:10.5072/FK2/D", exported);
+        addRecord("otherSet", 4, "doi:10.5072/FK2/B", exported);
+
+        List<Long> seen = new ArrayList<>();
+        ResultsPage<ItemIdentifier> page = page("equalTimes", 0);
+        assertEquals(List.of(1L, 3L), ids(page));
+        seen.addAll(ids(page));
+        assertTrue(page.hasMore());
+
+        // a record added before the cursor doesn't shift the next pages
+        addRecord("equalTimes", 8, "doi:10.5072/FK2/0", exported);
+
+        page = page("equalTimes", PAGE);
+        assertEquals(List.of(7L, 5L), ids(page));
+        seen.addAll(ids(page));
+        assertTrue(page.hasMore());
+
+        page = page("equalTimes", 2 * PAGE);
+        assertEquals(List.of(9L, 2L), ids(page));
+        seen.addAll(ids(page));
+        assertFalse(page.hasMore());
+
+        assertEquals(List.of(1L, 3L, 7L, 5L, 9L, 2L), seen);
+        // the pages after the first are looked up after the last record served
+        verify(recordService).findOaiRecordsPageBySetName(eq("equalTimes"), any(), any(), eq("doi:10.5072/FK2/B"), eq(3L), anyInt(), eq(PAGE + 1));
+        verify(recordService).findOaiRecordsPageBySetName(eq("equalTimes"), any(), any(), eq("doi:10.5072/FK2/C"), eq(5L), anyInt(), eq(PAGE + 1));
+        // and the size of the set is only counted once
+        verify(recordService, times(1)).countOaiRecordsBySetName(anyString(), any(), any());
+    }
+
+    @Test
+    public void testFallsBackToTheOffsetWithoutCursor() throws Exception {
+        Date exported = new Date(1700000000000L);
+        for (long id = 1; id <= 5; id++) {
+            addRecord("noCursor", id, "doi:10.5072/FK2/" + id, exported);
+        }
+
+        // e.g. a resumption token with a malformed cursor, or from before keyset paging
+        ResultsPage<ItemIdentifier> page = repository.getItemIdentifiers(new ArrayList<>(), null, PAGE, token("noCursor", 2));
+
+        assertEquals(List.of(3L, 4L), ids(page));
+        assertTrue(page.hasMore());
+        verify(recordService).findOaiRecordsPageBySetName(eq("noCursor"), any(), any(), isNull(), isNull(), eq(2), eq(PAGE + 1));
+        verify(recordService).countOaiRecordsBySetName(eq("noCursor"), any(), any());
+    }
+
+    @Test
+    public void testSinglePageIsNotCounted() throws Exception {
+        addRecord("small", 1, "doi:10.5072/FK2/1", new Date());
+
+        ResultsPage<ItemIdentifier> page = page("small", 0);
+
+        assertEquals(List.of(1L), ids(page));
+        assertFalse(page.hasMore());
+        verify(recordService, never()).countOaiRecordsBySetName(anyString(), any(), any());
+    }
+
+}
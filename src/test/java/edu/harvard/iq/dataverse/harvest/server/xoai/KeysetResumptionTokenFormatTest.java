@@ -0,0 +1,86 @@
+package edu.harvard.iq.dataverse.harvest.server.xoai;
+
+import io.gdcc.xoai.model.oaipmh.ResumptionToken;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class KeysetResumptionTokenFormatTest {
+
+    private final KeysetResumptionTokenFormat format = new KeysetResumptionTokenFormat();
+
+    // (the cursors are kept in a static cache, so each test uses its own set)
+    private static ResumptionToken.Value token(String setSpec, long offset) {
+        return new ResumptionToken.Value().withMetadataPrefix("oai_dc").withSetSpec(setSpec).withOffset(offset);
+    }
+
+    private static String encode(String cursor) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTokenWithoutCursor() throws Exception {
+        ResumptionToken.Value value = token("noCursor", 10);
+        String xoaiToken = new KeysetResumptionTokenFormat().format(value);
+
+        assertEquals(xoaiToken, format.format(value));
+        assertEquals(xoaiToken, format.stripCursor(xoaiToken));
+        assertNull(KeysetResumptionTokenFormat.getCursor(format.parse(xoaiToken)));
+    }
+
+    @Test
+    public void testFormatAndStripRoundTrip() throws Exception {
+        ResumptionToken.Value first = token("roundTrip", 0);
+        // a global id with the separator and the line breaks of the encoding in it
+        KeysetResumptionTokenFormat.putNextCursor(first, 100, new KeysetResumptionTokenFormat.Cursor("doi:10.5072/FK2/A.B", 42L, 1234));
+
+        ResumptionToken.Value next = token("roundTrip", 100);
+        String token = format.format(next);
+        String xoaiToken = format.stripCursor(token);
+
+        assertTrue(token.startsWith(xoaiToken + "."));
+        ResumptionToken.Value parsed = format.parse(xoaiToken);
+        assertEquals(100, parsed.getOffset());
+        assertEquals("roundTrip", parsed.getSetSpec());
+        KeysetResumptionTokenFormat.Cursor cursor = KeysetResumptionTokenFormat.getCursor(parsed);
+        assertNotNull(cursor);
+        assertEquals("doi:10.5072/FK2/A.B", cursor.lastGlobalId);
+        assertEquals(42L, cursor.lastId.longValue());
+        assertEquals(1234, cursor.total);
+    }
+
+    @Test
+    public void testStripRestoresTheCursorOfTheToken() throws Exception {
+        // as sent by a client, e.g. after a restart, with nothing in the cache
+        String xoaiToken = format.format(token("fromClient", 50));
+        String token = xoaiToken + "." + encode("75\n7\ndoi:10.5072/FK2/XYZ");
+
+        assertEquals(xoaiToken, format.stripCursor(token));
+        KeysetResumptionTokenFormat.Cursor cursor = KeysetResumptionTokenFormat.getCursor(format.parse(xoaiToken));
+        assertEquals("doi:10.5072/FK2/XYZ", cursor.lastGlobalId);
+        assertEquals(7L, cursor.lastId.longValue());
+        assertEquals(75, cursor.total);
+        // and the same token comes out again for the following request
+        assertEquals(token, format.format(format.parse(xoaiToken)));
+    }
+
+    @Test
+    public void testMalformedCursorIsLeftToXoai() throws Exception {
+        String xoaiToken = format.format(token("malformed", 20));
+        for (String bad : new String[]{
+            xoaiToken + ".!!not base64!!",
+            xoaiToken + "." + encode("not a number\n7\ndoi:10.5072/FK2/XYZ"),
+            xoaiToken + "." + encode("75\n7"),
+            xoaiToken + "."}) {
+            // returned as it is, for XOAI to reject as a bad resumption token
+            assertEquals(bad, format.stripCursor(bad));
+        }
+        assertNull(KeysetResumptionTokenFormat.getCursor(format.parse(xoaiToken)));
+    }
+
+}
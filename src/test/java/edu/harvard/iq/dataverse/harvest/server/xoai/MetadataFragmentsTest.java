@@ -0,0 +1,164 @@
+package edu.harvard.iq.dataverse.harvest.server.xoai;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MetadataFragmentsTest {
+
+    private static final String PLACEHOLDER = "<dvoai:fragment xmlns:dvoai=\"urn:x-dataverse:oai-metadata-fragment\">%d</dvoai:fragment>";
+
+    private MetadataFragments fragments;
+
+    @BeforeEach
+    public void setUp() {
+        fragments = MetadataFragments.begin();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        fragments.end();
+    }
+
+    @Test
+    public void testSkipXmlDeclaration() {
+        assertEquals(0, MetadataFragments.skipXmlDeclaration(bytes("<oai_dc:dc/>")));
+        assertEquals(39, MetadataFragments.skipXmlDeclaration(bytes("<?xml version='1.0' encoding='UTF-8'?>\n<oai_dc:dc/>")));
+        assertEquals(41, MetadataFragments.skipXmlDeclaration(bytes("\uFEFF<?xml version=\"1.0\" encoding=\"UTF-8\"?><codeBook/>")));
+        // (a processing instruction that is not the declaration stays)
+        assertEquals(0, MetadataFragments.skipXmlDeclaration(bytes("<?xml-stylesheet href=\"a.xsl\"?><codeBook/>")));
+    }
+
+    @Test
+    public void testSplicesRecords() throws IOException {
+        String response = "<ListRecords><record><metadata>" + String.format(PLACEHOLDER, 0) + "</metadata></record>"
+                + "<record><metadata>" + String.format(PLACEHOLDER, 1) + "</metadata></record><dvoai:other/></ListRecords>";
+        String expected = "<ListRecords><record><metadata><oai_dc:dc>first</oai_dc:dc></metadata></record>"
+                + "<record><metadata><oai_dc:dc>second &amp; last</oai_dc:dc></metadata></record><dvoai:other/></ListRecords>";
+
+        // The writer may hand the response over in any pieces:
+        for (int chunk : new int[]{1, 3, 7, 16, 4096}) {
+            fragments.end();
+            fragments = MetadataFragments.begin();
+            fragments.add(export("<?xml version='1.0' encoding='UTF-8'?><oai_dc:dc>first</oai_dc:dc>"), "oai_dc");
+            fragments.add(export("<oai_dc:dc>second &amp; last</oai_dc:dc>"), "oai_dc");
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (OutputStream splicing = fragments.splice(out)) {
+                byte[] bytes = bytes(response);
+                for (int i = 0; i < bytes.length; i += chunk) {
+                    splicing.write(bytes, i, Math.min(chunk, bytes.length - i));
+                }
+            }
+            assertEquals(expected, out.toString(StandardCharsets.UTF_8), "written in pieces of " + chunk);
+        }
+    }
+
+    @Test
+    public void testStreamsLargeRecords() throws IOException {
+        StringBuilder large = new StringBuilder("<codeBook>");
+        while (large.length() <= MetadataFragments.MAX_CACHED_RECORD_SIZE) {
+            large.append("<var name=\"v").append(large.length()).append("\"/>");
+        }
+        large.append("</codeBook>");
+        fragments.add(export("<?xml version=\"1.0\"?>\n" + large), "ddi");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream splicing = fragments.splice(out)) {
+            splicing.write(bytes("<metadata>" + String.format(PLACEHOLDER, 0) + "</metadata>"));
+        }
+        assertEquals("<metadata>" + large + "</metadata>", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testDisablesOnlyTheFormatThatWasNotSpliced() throws IOException {
+        try {
+            fragments.add(export("<oai_dc:dc>first</oai_dc:dc>"), "oai_dc");
+            fragments.add(export("<codeBook>second</codeBook>"), "ddi");
+
+            // the placeholder of the ddi record went missing
+            assertFalse(fragments.checkSpliced(bytes("<metadata>" + String.format(PLACEHOLDER, 0) + "</metadata>")));
+
+            assertEquals(Set.of("ddi"), MetadataFragments.getDisabledFormats());
+            assertFalse(MetadataFragments.isEnabled("ddi"));
+            assertTrue(MetadataFragments.isEnabled("oai_dc"));
+
+            MetadataFragments.enableAll();
+            assertTrue(MetadataFragments.getDisabledFormats().isEmpty());
+            assertTrue(MetadataFragments.isEnabled("ddi"));
+        } finally {
+            MetadataFragments.enableAll();
+        }
+    }
+
+    @Test
+    public void testAllSplicedKeepsFormatsEnabled() throws IOException {
+        fragments.add(export("<oai_dc:dc>only</oai_dc:dc>"), "oai_dc");
+        byte[] response = bytes("<metadata>" + String.format(PLACEHOLDER, 0) + "</metadata>");
+
+        assertTrue(fragments.checkSpliced(response));
+        assertTrue(MetadataFragments.isEnabled("oai_dc"));
+        // (checking it does not use the record up)
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream splicing = fragments.splice(out)) {
+            splicing.write(response);
+        }
+        assertEquals("<metadata><oai_dc:dc>only</oai_dc:dc></metadata>", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testLargeRecordIsOpenedAgainWhenWritten() throws IOException {
+        String large = "<codeBook>" + "<var/>".repeat(MetadataFragments.MAX_CACHED_RECORD_SIZE / 6) + "</codeBook>";
+        List<TrackedStream> opened = new ArrayList<>();
+        fragments.add(() -> {
+            TrackedStream in = new TrackedStream(bytes("<?xml version=\"1.0\"?>\n" + large));
+            opened.add(in);
+            return in;
+        }, "ddi");
+
+        // not kept open until the response is written
+        assertEquals(1, opened.size());
+        assertTrue(opened.get(0).closed);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream splicing = fragments.splice(out)) {
+            splicing.write(bytes("<metadata>" + String.format(PLACEHOLDER, 0) + "</metadata>"));
+        }
+        assertEquals("<metadata>" + large + "</metadata>", out.toString(StandardCharsets.UTF_8));
+        assertEquals(2, opened.size());
+        assertTrue(opened.get(1).closed);
+    }
+
+    private static final class TrackedStream extends ByteArrayInputStream {
+        boolean closed = false;
+
+        TrackedStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static MetadataFragments.ExportOpener export(String xml) {
+        return () -> new ByteArrayInputStream(bytes(xml));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
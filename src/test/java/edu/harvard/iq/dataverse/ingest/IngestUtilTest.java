@@ -5,6 +5,8 @@ import edu.harvard.iq.dataverse.DataTable;
 import edu.harvard.iq.dataverse.Dataset;
 import edu.harvard.iq.dataverse.DatasetVersion;
 import edu.harvard.iq.dataverse.FileMetadata;
+import edu.harvard.iq.dataverse.dataaccess.DoubleColumnVector;
+import edu.harvard.iq.dataverse.dataaccess.LongColumnVector;
 import edu.harvard.iq.dataverse.mocks.MocksFactory;
 import static edu.harvard.iq.dataverse.mocks.MocksFactory.makeDataset;
 import java.io.IOException;
@@ -23,6 +25,7 @@ import javax.validation.ConstraintViolation;
 import org.dataverse.unf.UNFUtil;
 import org.dataverse.unf.UnfException;
 import org.junit.Test;
+import org.mockito.Mockito;
 import static org.junit.Assert.*;
 
 public class IngestUtilTest {
@@ -730,4 +733,44 @@ public class IngestUtilTest {
         assertTrue(IngestUtil.conflictsWithExistingFilenames(pathPlusFilename, fileMetadatas));
     }
 
+    @Test
+    public void testUnfOfPrimitiveVectorsWithoutBoxing() throws IOException, UnfException {
+        DoubleColumnVector doubles = Mockito.spy(new DoubleColumnVector(5));
+        LongColumnVector longs = Mockito.spy(new LongColumnVector(4));
+        double[] values = {1.5, 2.25, -3.0, 1e10, 0.1};
+        for (int i = 0; i < values.length; i++) {
+            doubles.set(i, values[i]);
+        }
+        for (int i = 0; i < 4; i++) {
+            longs.set(i, (i - 1) * 10000000000L);
+        }
+
+        assertEquals(UNFUtil.calculateUNF(new Double[]{1.5, 2.25, -3.0, 1e10, 0.1}), IngestUtil.calculateUNF(doubles));
+        assertEquals(UNFUtil.calculateUNF(new Float[]{1.5f, 2.25f, -3.0f, 1e10f, 0.1f}), IngestUtil.calculateFloatUNF(doubles));
+        assertEquals(UNFUtil.calculateUNF(new Long[]{-10000000000L, 0L, 10000000000L, 20000000000L}), IngestUtil.calculateUNF(longs));
+
+        // no boxed arrays are built for vectors without missing values:
+        Mockito.verify(doubles, Mockito.never()).toDoubleArray();
+        Mockito.verify(doubles, Mockito.never()).toFloatArray();
+        Mockito.verify(longs, Mockito.never()).toLongArray();
+    }
+
+    @Test
+    public void testUnfOfPrimitiveVectorsWithMissingValues() throws IOException, UnfException {
+        DoubleColumnVector doubles = new DoubleColumnVector(3);
+        doubles.set(0, 1.5);
+        doubles.setMissing(1);
+        doubles.set(2, 2.0);
+        LongColumnVector longs = new LongColumnVector(3);
+        longs.set(0, 1);
+        longs.setMissing(1);
+        longs.set(2, 2);
+
+        // missing values are not NaN (or 0) to the UNF
+        assertEquals(UNFUtil.calculateUNF(new Double[]{1.5, null, 2.0}), IngestUtil.calculateUNF(doubles));
+        assertNotEquals(UNFUtil.calculateUNF(doubles.getValues()), IngestUtil.calculateUNF(doubles));
+        assertEquals(UNFUtil.calculateUNF(new Float[]{1.5f, null, 2.0f}), IngestUtil.calculateFloatUNF(doubles));
+        assertEquals(UNFUtil.calculateUNF(new Long[]{1L, null, 2L}), IngestUtil.calculateUNF(longs));
+    }
+
 }
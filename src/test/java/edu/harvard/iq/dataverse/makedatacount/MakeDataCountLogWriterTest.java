@@ -0,0 +1,181 @@
+package edu.harvard.iq.dataverse.makedatacount;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static edu.harvard.iq.dataverse.makedatacount.MakeDataCountUtil.LOG_HEADER;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MakeDataCountLogWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final MakeDataCountLogWriter writer = new MakeDataCountLogWriter();
+
+    private List<String> logLines() throws IOException {
+        Path file = tempDir.resolve(MakeDataCountLogWriter.logFileName(System.currentTimeMillis()));
+        return Files.readAllLines(file, StandardCharsets.UTF_8);
+    }
+
+    private JsonObject statistics() {
+        return writer.getStatistics().build();
+    }
+
+    @Test
+    void testWritesHeaderOnceThenAllLinesOnClose() throws Exception {
+        writer.start(1024, Thread::new);
+        int threads = 4;
+        int perThread = 250;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    writer.log(tempDir.toString(), "line\t" + thread + "\t" + i + "\n");
+                }
+                done.countDown();
+            }).start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        writer.close();
+
+        List<String> lines = logLines();
+        assertEquals(LOG_HEADER.trim(), lines.get(0));
+        assertEquals(threads * perThread + 1, lines.size());
+        Set<String> distinct = new HashSet<>(lines.subList(1, lines.size()));
+        assertEquals(threads * perThread, distinct.size());
+        JsonObject stats = statistics();
+        assertEquals(threads * perThread, stats.getInt("written") + stats.getInt("dropped"));
+        assertEquals(0, stats.getInt("failed"));
+        assertEquals(0, stats.getInt("buffered"));
+    }
+
+    @Test
+    void testFullBufferDropsTheLine() throws Exception {
+        CountDownLatch go = new CountDownLatch(1);
+        ThreadFactory held = r -> new Thread(() -> {
+            try {
+                go.await();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            r.run();
+        });
+        writer.start(4, held);
+        for (int i = 0; i < 5; i++) {
+            writer.log(tempDir.toString(), "line " + i + "\n");
+        }
+        // The line that didn't fit is not written by the request:
+        assertFalse(Files.exists(tempDir.resolve(MakeDataCountLogWriter.logFileName(System.currentTimeMillis()))));
+        assertEquals(1, statistics().getInt("overflowed"));
+        assertEquals(1, statistics().getInt("dropped"));
+        assertEquals(4, statistics().getInt("buffered"));
+
+        go.countDown();
+        writer.close();
+        List<String> lines = logLines();
+        assertEquals(5, lines.size());
+        assertEquals(1, lines.stream().filter(l -> l.startsWith("#Fields")).count());
+        assertFalse(lines.contains("line 4"));
+        assertEquals(4, statistics().getInt("written"));
+    }
+
+    @Test
+    void testFullBufferWaitsForRoom() throws Exception {
+        writer.start(4, Thread::new);
+        // more lines than the buffer holds, faster than they're written
+        for (int i = 0; i < 64; i++) {
+            writer.log(tempDir.toString(), "line " + i + "\n");
+        }
+        writer.close();
+
+        JsonObject stats = statistics();
+        assertEquals(64, stats.getInt("written") + stats.getInt("dropped"));
+        assertEquals(stats.getInt("written") + 1, logLines().size());
+        assertTrue(stats.getInt("dropped") <= stats.getInt("overflowed"));
+    }
+
+    @Test
+    void testLineLoggedWhileClosingWaitsForTheAppender() throws Exception {
+        CountDownLatch go = new CountDownLatch(1);
+        ThreadFactory held = r -> new Thread(() -> {
+            try {
+                go.await();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            r.run();
+        });
+        writer.start(4, held);
+        writer.log(tempDir.toString(), "line 0\n");
+        Thread closing = new Thread(writer::close);
+        closing.start();
+        while (closing.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(10);
+        }
+
+        // The appender hasn't stopped yet: the line waits for it
+        Thread late = new Thread(() -> writer.log(tempDir.toString(), "line 1\n"));
+        late.start();
+        Thread.sleep(100);
+        assertTrue(late.isAlive());
+        assertFalse(Files.exists(tempDir.resolve(MakeDataCountLogWriter.logFileName(System.currentTimeMillis()))));
+
+        go.countDown();
+        late.join(5000);
+        closing.join(5000);
+        List<String> lines = logLines();
+        assertEquals(3, lines.size());
+        assertEquals(1, lines.stream().filter(l -> l.startsWith("#Fields")).count());
+        assertTrue(lines.containsAll(List.of("line 0", "line 1")));
+        assertEquals(2, statistics().getInt("written"));
+
+        // and after it stopped, the line is written right away
+        writer.log(tempDir.toString(), "line 2\n");
+        assertEquals(4, logLines().size());
+    }
+
+    @Test
+    void testWritesRightAwayWithoutBuffer() throws Exception {
+        writer.log(tempDir.toString(), "line\n");
+        assertEquals(2, logLines().size());
+        assertFalse(statistics().getBoolean("async"));
+        assertNull(statistics().get("capacity"));
+        writer.close();
+    }
+
+    @Test
+    void testRingBuffer() {
+        EventRingBuffer<Integer> ring = new EventRingBuffer<>(3);
+        assertEquals(4, ring.capacity());
+        assertNull(ring.poll());
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(ring.offer(i));
+            }
+            assertFalse(ring.offer(4));
+            assertEquals(4, ring.size());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(Integer.valueOf(i), ring.poll());
+            }
+            assertNull(ring.poll());
+            assertEquals(0, ring.size());
+        }
+    }
+
+}
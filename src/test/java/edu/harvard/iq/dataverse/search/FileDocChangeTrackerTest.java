@@ -0,0 +1,63 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FileDocChangeTrackerTest {
+
+    @Test
+    public void testNewDocumentIsFull() {
+        FileDocChangeTracker tracker = new FileDocChangeTracker(null);
+        SolrInputDocument doc = fileDoc("datafile_1", "data.csv", "Citation v1");
+
+        assertEquals(FileDocChangeTracker.Change.FULL, tracker.track(doc, "", true));
+        assertTrue(doc.containsKey(SearchFields.FILE_INDEX_FINGERPRINT));
+        assertTrue(doc.containsKey(SearchFields.FILE_PARENT_FINGERPRINT));
+        assertEquals(1, tracker.getFullDocs());
+    }
+
+    @Test
+    public void testDetectsUnchangedAndDatasetLevelChanges() {
+        SolrInputDocument indexed = fileDoc("datafile_1", "data.csv", "Citation v1");
+        new FileDocChangeTracker(null).track(indexed, "", true);
+        Map<String, String[]> fingerprints = new HashMap<>();
+        fingerprints.put("datafile_1", new String[]{
+            (String) indexed.getFieldValue(SearchFields.FILE_INDEX_FINGERPRINT),
+            (String) indexed.getFieldValue(SearchFields.FILE_PARENT_FINGERPRINT)});
+        fingerprints.put("datafile_2", new String[]{"a", "b"});
+
+        FileDocChangeTracker tracker = new FileDocChangeTracker(fingerprints);
+        assertEquals(FileDocChangeTracker.Change.NONE, tracker.track(fileDoc("datafile_1", "data.csv", "Citation v1"), "", true));
+        assertEquals(FileDocChangeTracker.Change.DATASET_FIELDS, tracker.track(fileDoc("datafile_1", "data.csv", "Citation v2"), "", true));
+        assertEquals(FileDocChangeTracker.Change.FULL, tracker.track(fileDoc("datafile_1", "data.csv", "Citation v2"), "", false));
+        assertEquals(FileDocChangeTracker.Change.FULL, tracker.track(fileDoc("datafile_1", "renamed.csv", "Citation v1"), "", true));
+        assertEquals(FileDocChangeTracker.Change.FULL, tracker.track(fileDoc("datafile_1", "data.csv", "Citation v1"), "fullText=true", true));
+        assertEquals(List.of("datafile_2"), tracker.getStaleSolrIds());
+    }
+
+    @Test
+    public void testDatasetFieldsUpdate() {
+        SolrInputDocument doc = fileDoc("datafile_1", "data.csv", "Citation v2");
+        new FileDocChangeTracker(null).track(doc, "", true);
+
+        SolrInputDocument update = FileDocChangeTracker.toDatasetFieldsUpdate(doc);
+        assertEquals("datafile_1", update.getFieldValue(SearchFields.ID));
+        assertEquals(Map.of("set", List.of("Citation v2")), update.getFieldValue(SearchFields.PARENT_CITATION));
+        assertEquals(null, update.getFieldValue(SearchFields.NAME));
+    }
+
+    private SolrInputDocument fileDoc(String id, String name, String parentCitation) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(SearchFields.ID, id);
+        doc.addField(SearchFields.NAME, name);
+        doc.addField(SearchFields.PARENT_CITATION, parentCitation);
+        return doc;
+    }
+
+}
@@ -0,0 +1,44 @@
+package edu.harvard.iq.dataverse.search;
+
+import javax.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class IndexBatchProgressTest {
+
+    @Test
+    public void testCountsAndJson() {
+        IndexBatchProgress progress = new IndexBatchProgress(4, 2, 3, true);
+        progress.setDataverseTotal(1);
+        progress.setDatasetTotal(3);
+        progress.dataverseDone(true);
+        progress.datasetDone(10L, true);
+        progress.datasetDone(14L, false);
+        progress.datasetDone(18L, true);
+        progress.finish(IndexBatchProgress.State.FINISHED);
+
+        JsonObject json = progress.toJson().build();
+        assertEquals("FINISHED", json.getString("state"));
+        assertEquals(4, json.getInt("numPartitions"));
+        assertEquals(2, json.getInt("partitionId"));
+        assertEquals(3, json.getInt("workers"));
+        assertEquals(1, json.getInt("dataversesIndexed"));
+        assertEquals(0, json.getInt("dataverseFailures"));
+        assertEquals(3, json.getInt("datasetsIndexed"));
+        assertEquals(1, json.getInt("datasetFailures"));
+        assertEquals(18, json.getInt("lastDatasetId"));
+    }
+
+    @Test
+    public void testElapsedStopsAtFinish() throws InterruptedException {
+        IndexBatchProgress progress = new IndexBatchProgress(1, 0, 1, false);
+        progress.finish(IndexBatchProgress.State.INTERRUPTED);
+        long elapsed = progress.getElapsedMillis();
+        Thread.sleep(5);
+        assertEquals(elapsed, progress.getElapsedMillis());
+        assertFalse(progress.toJson().build().containsKey("lastDatasetId"));
+    }
+
+}
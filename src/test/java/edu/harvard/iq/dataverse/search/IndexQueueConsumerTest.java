@@ -0,0 +1,146 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.settings.JvmSettings;
+import edu.harvard.iq.dataverse.util.testing.JvmSetting;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.json.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IndexQueueConsumerTest {
+
+    private IndexQueueConsumer consumer;
+    private IndexQueueServiceBean indexQueueService;
+    private IndexServiceBean indexService;
+    private ManagedExecutorService executor;
+
+    @BeforeEach
+    public void setUp() {
+        consumer = new IndexQueueConsumer();
+        consumer.timerService = Mockito.mock(TimerService.class);
+        consumer.executor = executor = Mockito.mock(ManagedExecutorService.class);
+        consumer.indexQueueService = indexQueueService = Mockito.mock(IndexQueueServiceBean.class);
+        consumer.indexService = indexService = Mockito.mock(IndexServiceBean.class);
+    }
+
+    private void runJobsRightAway() {
+        when(executor.submit(any(Runnable.class))).thenAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return null;
+        });
+    }
+
+    private String nodeName() {
+        return consumer.getStatistics().build().getString("node");
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.SOLR_INDEX_QUEUE_CONSUMERS, value = "2")
+    public void testInitReleasesClaimsOfThisNode() {
+        consumer.init();
+
+        verify(indexQueueService).releaseClaims(nodeName());
+        verify(consumer.timerService).createIntervalTimer(anyLong(), anyLong(), any(TimerConfig.class));
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.SOLR_INDEX_QUEUE_CONSUMERS, value = "0")
+    public void testNoConsumers() {
+        consumer.init();
+
+        verify(indexQueueService, never()).releaseClaims(anyString());
+        verify(consumer.timerService, never()).createIntervalTimer(anyLong(), anyLong(), any(TimerConfig.class));
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.SOLR_INDEX_QUEUE_CONSUMERS, value = "2")
+    public void testIndexesAndCompletesClaimedJobs() throws Exception {
+        consumer.init();
+        runJobsRightAway();
+        IndexJob first = new IndexJob(1L, 1, true, 1);
+        IndexJob second = new IndexJob(2L, 4, false, 1);
+        when(indexQueueService.claim(eq(nodeName()), eq(2), anyLong())).thenReturn(List.of(first, second));
+
+        consumer.poll();
+
+        verify(indexService).indexQueuedDataset(1L, true);
+        verify(indexService).indexQueuedDataset(2L, false);
+        verify(indexQueueService).complete(first, nodeName());
+        verify(indexQueueService).complete(second, nodeName());
+        JsonObject stats = consumer.getStatistics().build();
+        assertEquals(2, stats.getInt("indexed"));
+        assertEquals(0, stats.getInt("failed"));
+        assertEquals(0, stats.getInt("inFlight"));
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.SOLR_INDEX_QUEUE_CONSUMERS, value = "2")
+    public void testFailedJobIsRetried() throws Exception {
+        consumer.init();
+        runJobsRightAway();
+        IndexJob job = new IndexJob(1L, 1, true, 1);
+        when(indexQueueService.claim(anyString(), anyInt(), anyLong())).thenReturn(List.of(job));
+        doThrow(new RuntimeException("Solr is down")).when(indexService).indexQueuedDataset(1L, true);
+        when(indexQueueService.fail(job, nodeName())).thenReturn(true);
+
+        consumer.poll();
+
+        verify(indexQueueService, never()).complete(any(IndexJob.class), anyString());
+        verify(indexQueueService).fail(job, nodeName());
+        JsonObject stats = consumer.getStatistics().build();
+        assertEquals(0, stats.getInt("indexed"));
+        assertEquals(1, stats.getInt("failed"));
+        assertEquals(0, stats.getInt("inFlight"));
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.SOLR_INDEX_QUEUE_CONSUMERS, value = "2")
+    public void testOnlyClaimsWhatItCanIndex() {
+        consumer.init();
+        // the jobs stay in flight
+        when(indexQueueService.claim(anyString(), anyInt(), anyLong()))
+                .thenReturn(List.of(new IndexJob(1L, 1, true, 1)))
+                .thenReturn(List.of(new IndexJob(2L, 1, true, 1)));
+
+        consumer.poll();
+        verify(indexQueueService).claim(eq(nodeName()), eq(2), anyLong());
+        consumer.poll();
+        verify(indexQueueService).claim(eq(nodeName()), eq(1), anyLong());
+        consumer.poll();
+
+        verify(indexQueueService, times(2)).claim(anyString(), anyInt(), anyLong());
+        assertEquals(2, consumer.getStatistics().build().getInt("inFlight"));
+    }
+
+    @Test
+    @JvmSetting(key = JvmSettings.SOLR_INDEX_QUEUE_CONSUMERS, value = "2")
+    public void testRejectedJobIsReleased() {
+        consumer.init();
+        IndexJob job = new IndexJob(1L, 1, true, 1);
+        when(indexQueueService.claim(anyString(), anyInt(), anyLong())).thenReturn(List.of(job));
+        when(executor.submit(any(Runnable.class))).thenThrow(new RejectedExecutionException());
+
+        consumer.poll();
+
+        verify(indexQueueService).fail(job, nodeName());
+        assertEquals(0, consumer.getStatistics().build().getInt("inFlight"));
+    }
+
+}
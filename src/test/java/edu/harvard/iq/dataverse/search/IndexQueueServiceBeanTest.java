@@ -0,0 +1,179 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class IndexQueueServiceBeanTest {
+
+    private static final String NODE = "node1:server";
+
+    @Mock
+    private EntityManager em;
+    @InjectMocks
+    private IndexQueueServiceBean indexQueueService;
+
+    private Query query;
+
+    @BeforeEach
+    public void setUp() {
+        query = mock(Query.class, RETURNS_SELF);
+        lenient().when(em.createNativeQuery(anyString())).thenReturn(query);
+    }
+
+    @Test
+    public void testEnqueueMergesWithQueuedJob() {
+        indexQueueService.enqueue(42L, IndexQueueServiceBean.Priority.BULK, false);
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(em).createNativeQuery(sql.capture());
+        // one row per object: a new request bumps the generation, keeps the
+        // most urgent priority and any requested clean up
+        assertTrue(sql.getValue().contains("ON CONFLICT (dvobject_id) DO UPDATE"));
+        assertTrue(sql.getValue().contains("priority = LEAST(indexqueue.priority, EXCLUDED.priority)"));
+        assertTrue(sql.getValue().contains("docleanup = indexqueue.docleanup OR EXCLUDED.docleanup"));
+        assertTrue(sql.getValue().contains("generation = indexqueue.generation + 1"));
+        verify(query).setParameter(1, 42L);
+        verify(query).setParameter(2, IndexQueueServiceBean.Priority.BULK.getValue());
+        verify(query).setParameter(3, false);
+        verify(query).executeUpdate();
+    }
+
+    @Test
+    public void testInteractiveComesBeforeBulk() {
+        assertTrue(IndexQueueServiceBean.Priority.INTERACTIVE.getValue() < IndexQueueServiceBean.Priority.BULK.getValue());
+    }
+
+    @Test
+    public void testEnqueueList() {
+        indexQueueService.enqueue(List.of(1L, 2L, 3L), IndexQueueServiceBean.Priority.INTERACTIVE, true);
+
+        verify(em, times(3)).createNativeQuery(anyString());
+        verify(query).setParameter(1, 1L);
+        verify(query).setParameter(1, 2L);
+        verify(query).setParameter(1, 3L);
+        verify(query, times(3)).setParameter(2, IndexQueueServiceBean.Priority.INTERACTIVE.getValue());
+        verify(query, times(3)).executeUpdate();
+    }
+
+    @Test
+    public void testClaim() {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{7L, 3L, true, 1});
+        rows.add(new Object[]{8, 1, false, 2});
+        when(query.getResultList()).thenReturn(rows);
+
+        long before = System.currentTimeMillis();
+        List<IndexJob> jobs = indexQueueService.claim(NODE, 5, 60000);
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(em).createNativeQuery(sql.capture());
+        assertTrue(sql.getValue().contains("ORDER BY priority, requesttime LIMIT ?3 FOR UPDATE SKIP LOCKED"));
+        assertTrue(sql.getValue().contains("WHERE claimedby IS NULL OR claimtime < ?2"));
+        assertTrue(sql.getValue().contains("attempts = attempts + 1"));
+        verify(query).setParameter(1, NODE);
+        verify(query).setParameter(3, 5);
+        ArgumentCaptor<Timestamp> staleBefore = ArgumentCaptor.forClass(Timestamp.class);
+        verify(query).setParameter(eq(2), staleBefore.capture());
+        assertTrue(staleBefore.getValue().getTime() >= before - 60000);
+        assertTrue(staleBefore.getValue().getTime() <= System.currentTimeMillis() - 60000);
+
+        assertEquals(2, jobs.size());
+        assertEquals(7L, jobs.get(0).getDvObjectId().longValue());
+        assertEquals(3L, jobs.get(0).getGeneration());
+        assertTrue(jobs.get(0).isDoNormalSolrDocCleanUp());
+        assertEquals(1, jobs.get(0).getAttempts());
+        assertEquals(8L, jobs.get(1).getDvObjectId().longValue());
+        assertEquals(1L, jobs.get(1).getGeneration());
+        assertFalse(jobs.get(1).isDoNormalSolrDocCleanUp());
+        assertEquals(2, jobs.get(1).getAttempts());
+    }
+
+    @Test
+    public void testCompleteRemovesTheJob() {
+        when(query.executeUpdate()).thenReturn(1);
+
+        indexQueueService.complete(new IndexJob(7L, 3L, true, 1), NODE);
+
+        verify(em, times(1)).createNativeQuery(startsWith("DELETE FROM indexqueue WHERE dvobject_id = ?1 AND generation = ?2"));
+        verify(em, never()).createNativeQuery(startsWith("UPDATE"));
+        verify(query).setParameter(2, 3L);
+    }
+
+    @Test
+    public void testCompleteReleasesAJobRequestedAgain() {
+        // the generation changed while indexing, so nothing was deleted
+        when(query.executeUpdate()).thenReturn(0);
+
+        indexQueueService.complete(new IndexJob(7L, 3L, true, 1), NODE);
+
+        verify(em).createNativeQuery(startsWith("DELETE"));
+        verify(em).createNativeQuery("UPDATE indexqueue SET claimedby = NULL, claimtime = NULL, attempts = 0 WHERE dvobject_id = ?1 AND claimedby = ?2");
+        verify(query, times(2)).executeUpdate();
+    }
+
+    @Test
+    public void testFailRequeues() {
+        assertTrue(indexQueueService.fail(new IndexJob(7L, 3L, true, IndexQueueServiceBean.MAX_ATTEMPTS - 1), NODE));
+
+        verify(em).createNativeQuery(startsWith("UPDATE indexqueue SET claimedby = NULL, claimtime = NULL, requesttime = now()"));
+        verify(em, never()).createNativeQuery(startsWith("DELETE"));
+    }
+
+    @Test
+    public void testFailDropsAfterMaxAttempts() {
+        assertFalse(indexQueueService.fail(new IndexJob(7L, 3L, true, IndexQueueServiceBean.MAX_ATTEMPTS), NODE));
+
+        verify(em).createNativeQuery(startsWith("DELETE FROM indexqueue"));
+        verify(em, never()).createNativeQuery(startsWith("UPDATE"));
+    }
+
+    @Test
+    public void testReleaseClaims() {
+        when(query.executeUpdate()).thenReturn(4);
+
+        assertEquals(4, indexQueueService.releaseClaims(NODE));
+        verify(query).setParameter(1, NODE);
+    }
+
+    @Test
+    public void testMigrationHasOneRowPerObject() throws IOException {
+        // ON CONFLICT (dvobject_id) in enqueue() needs a unique dvobject_id
+        String sql;
+        try (InputStream in = getClass().getResourceAsStream("/db/migration/V5.13.0.3__index-queue.sql")) {
+            assertNotNull(in);
+            sql = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertTrue(sql.contains("CONSTRAINT indexqueue_pkey PRIMARY KEY (DVOBJECT_ID)"));
+        assertTrue(sql.contains("ON INDEXQUEUE (PRIORITY, REQUESTTIME)"));
+    }
+
+}
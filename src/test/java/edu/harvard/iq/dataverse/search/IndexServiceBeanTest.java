@@ -6,6 +6,7 @@ import edu.harvard.iq.dataverse.Dataset;
 import edu.harvard.iq.dataverse.DatasetField;
 import edu.harvard.iq.dataverse.DatasetFieldServiceBean;
 import edu.harvard.iq.dataverse.DatasetFieldType;
+import edu.harvard.iq.dataverse.DatasetServiceBean;
 import edu.harvard.iq.dataverse.DatasetVersion;
 import edu.harvard.iq.dataverse.Dataverse;
 import edu.harvard.iq.dataverse.Dataverse.DataverseType;
@@ -18,6 +19,7 @@ import edu.harvard.iq.dataverse.settings.JvmSettings;
 import edu.harvard.iq.dataverse.settings.SettingsServiceBean;
 import edu.harvard.iq.dataverse.util.SystemConfig;
 import edu.harvard.iq.dataverse.util.testing.JvmSetting;
+import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
 import org.junit.jupiter.api.BeforeEach;
@@ -35,6 +37,7 @@ import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @ExtendWith(MockitoExtension.class)
@@ -106,6 +109,25 @@ public class IndexServiceBeanTest {
         assertTrue(indexedFields.contains("language"));
     }
 
+    @Test
+    public void testQueuedDatasetThatFailsIsThrown() throws Exception {
+        final Dataset dataset = createIndexableDataset().getDatasetVersion().getDataset();
+        indexService.datasetService = Mockito.mock(DatasetServiceBean.class);
+        Mockito.when(indexService.datasetService.find(dataset.getId())).thenReturn(dataset);
+        Mockito.when(indexService.datasetService.findDeep(dataset.getId())).thenReturn(dataset);
+        final SolrClient solrClient = Mockito.mock(SolrClient.class);
+        indexService.solrClientService = Mockito.mock(SolrClientService.class);
+        Mockito.when(indexService.solrClientService.getSolrClient()).thenReturn(solrClient);
+        Mockito.when(solrClient.add(Mockito.anyCollection()))
+                .thenThrow(new SolrServerException("Server refused connection", new IOException("Connection refused")));
+
+        // (so that the index queue retries the job)
+        assertThrows(IOException.class, () -> indexService.indexQueuedDataset(dataset.getId(), false));
+        // the failed job does not keep the dataset from being indexed again
+        assertThrows(IOException.class, () -> indexService.indexQueuedDataset(dataset.getId(), false));
+        Mockito.verify(solrClient, Mockito.times(2)).add(Mockito.anyCollection());
+    }
+
     private IndexableDataset createIndexableDataset() {
         final Dataset dataset = MocksFactory.makeDataset();
         dataset.setGlobalId(new GlobalId(DOIServiceBean.DOI_PROTOCOL,"10.666", "FAKE/fake", "/", DOIServiceBean.DOI_RESOLVER_URL, null));
@@ -0,0 +1,103 @@
+package edu.harvard.iq.dataverse.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import javax.json.JsonObject;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class SolrIndexBatchTest {
+
+    private SolrClient solrClient;
+
+    @BeforeEach
+    public void setUp() {
+        solrClient = Mockito.mock(SolrClient.class);
+    }
+
+    @Test
+    public void testSendsWhenFull() throws SolrServerException, IOException {
+        SolrIndexBatch batch = new SolrIndexBatch(solrClient, 5, Long.MAX_VALUE, 1000);
+
+        batch.add(docsFor(1L, 3));
+        verify(solrClient, never()).add(anyCollection(), anyInt());
+        assertTrue(batch.takeFlushedDatasetIds().isEmpty());
+
+        batch.add(docsFor(2L, 3));
+        verify(solrClient, times(1)).add(anyCollection(), eq(1000));
+        assertEquals(List.of(1L, 2L), batch.takeFlushedDatasetIds());
+        assertTrue(batch.takeFlushedDatasetIds().isEmpty());
+
+        JsonObject stats = batch.getStatistics().build();
+        assertEquals(1, stats.getInt("batchesSent"));
+        assertEquals(6, stats.getInt("docsSent"));
+        assertEquals(0, stats.getInt("pendingDocs"));
+    }
+
+    @Test
+    public void testCloseSendsRemainderAndCommits() throws SolrServerException, IOException {
+        SolrIndexBatch batch = new SolrIndexBatch(solrClient, 100, Long.MAX_VALUE, 1000);
+        batch.add(docsFor(7L, 2));
+
+        batch.close();
+
+        verify(solrClient, times(1)).add(anyCollection(), eq(1000));
+        verify(solrClient, times(1)).commit(true, true, true);
+        assertEquals(List.of(7L), batch.takeFlushedDatasetIds());
+    }
+
+    @Test
+    public void testFailedBatchIsNotReportedAsFlushed() throws SolrServerException, IOException {
+        Mockito.when(solrClient.add(anyCollection(), anyInt())).thenThrow(new SolrServerException("down"));
+        SolrIndexBatch batch = new SolrIndexBatch(solrClient, 3, Long.MAX_VALUE, 1000);
+
+        batch.add(docsFor(3L, 1));
+        // fills the batch, but the whole batch fails, not just this dataset:
+        batch.add(docsFor(4L, 2));
+
+        assertTrue(batch.takeFlushedDatasetIds().isEmpty());
+        assertEquals(List.of(3L, 4L), batch.takeFailedDatasetIds());
+        assertTrue(batch.takeFailedDatasetIds().isEmpty());
+        assertEquals(List.of(3L, 4L), batch.getFailedDatasetIds());
+        assertEquals(2, batch.getStatistics().build().getInt("failedDatasets"));
+    }
+
+    @Test
+    public void testCloseFailsWhenTheLastBatchFails() throws SolrServerException, IOException {
+        Mockito.when(solrClient.add(anyCollection(), anyInt())).thenThrow(new SolrServerException("down"));
+        SolrIndexBatch batch = new SolrIndexBatch(solrClient, 100, Long.MAX_VALUE, 1000);
+        batch.add(docsFor(5L, 1));
+
+        assertThrows(SolrServerException.class, () -> batch.close());
+
+        verify(solrClient, never()).commit(true, true, true);
+        assertEquals(List.of(5L), batch.takeFailedDatasetIds());
+    }
+
+    private SolrInputDocuments docsFor(Long datasetId, int numDocs) {
+        Collection<SolrInputDocument> docs = new ArrayList<>();
+        for (int i = 0; i < numDocs; i++) {
+            SolrInputDocument doc = new SolrInputDocument();
+            doc.addField(SearchFields.ID, "datafile_" + datasetId + "_" + i);
+            docs.add(doc);
+        }
+        return new SolrInputDocuments(docs, "", datasetId);
+    }
+
+}
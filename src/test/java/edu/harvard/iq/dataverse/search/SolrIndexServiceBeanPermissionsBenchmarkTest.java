@@ -0,0 +1,145 @@
+package edu.harvard.iq.dataverse.search;
+
+import edu.harvard.iq.dataverse.DataFileServiceBean;
+import edu.harvard.iq.dataverse.Dataset;
+import edu.harvard.iq.dataverse.DatasetServiceBean;
+import edu.harvard.iq.dataverse.DatasetVersion;
+import edu.harvard.iq.dataverse.Dataverse;
+import edu.harvard.iq.dataverse.DataverseRoleServiceBean;
+import edu.harvard.iq.dataverse.DataverseServiceBean;
+import edu.harvard.iq.dataverse.DvObject;
+import edu.harvard.iq.dataverse.DvObjectServiceBean;
+import edu.harvard.iq.dataverse.NonEssentialTests;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the wall time of reindexing the permissions of a synthetic
+ * collection with 1,000 datasets of 1,000 files each, with the database and
+ * Solr replaced by stubs, i.e. the cost of paging through the tree and
+ * building and batching the permission documents.
+ */
+public class SolrIndexServiceBeanPermissionsBenchmarkTest {
+
+    private static final Logger logger = Logger.getLogger(SolrIndexServiceBeanPermissionsBenchmarkTest.class.getCanonicalName());
+
+    private static final int NUM_DATASETS = 1000;
+    private static final int FILES_PER_DATASET = 1000;
+
+    private SolrIndexServiceBean solrIndexService;
+    private CountingSolrClient solrClient;
+    private Dataverse collection;
+
+    @Before
+    public void setUp() {
+        collection = new Dataverse();
+        collection.setId(1L);
+        Dataverse root = new Dataverse();
+        root.setId(0L);
+
+        Map<Long, Dataset> datasets = new HashMap<>();
+        for (long id = 2; id < 2 + NUM_DATASETS; id++) {
+            Dataset dataset = new Dataset();
+            dataset.setId(id);
+            dataset.setOwner(collection);
+            DatasetVersion version = dataset.getLatestVersion();
+            version.setId(id);
+            version.setVersionState(DatasetVersion.VersionState.RELEASED);
+            datasets.put(id, dataset);
+        }
+
+        solrIndexService = new SolrIndexServiceBean();
+        solrIndexService.dvObjectService = Mockito.mock(DvObjectServiceBean.class);
+        solrIndexService.dataverseService = Mockito.mock(DataverseServiceBean.class);
+        solrIndexService.datasetService = Mockito.mock(DatasetServiceBean.class);
+        solrIndexService.dataFileService = Mockito.mock(DataFileServiceBean.class);
+        solrIndexService.rolesSvc = Mockito.mock(DataverseRoleServiceBean.class);
+        solrIndexService.searchPermissionsService = Mockito.mock(SearchPermissionsServiceBean.class);
+        solrIndexService.solrClientService = Mockito.mock(SolrClientService.class);
+        solrClient = new CountingSolrClient();
+
+        when(solrIndexService.dataverseService.findRootDataverse()).thenReturn(root);
+        when(solrIndexService.solrClientService.getSolrClient()).thenReturn(solrClient);
+        when(solrIndexService.dvObjectService.findIdsByDtype(eq(DvObject.DType.Dataset), eq(collection.getId()), anyLong(), anyInt()))
+                .thenAnswer(invocation -> range((Long) invocation.getArgument(2), 2 + NUM_DATASETS - 1, (Integer) invocation.getArgument(3)));
+        when(solrIndexService.datasetService.find(any())).thenAnswer(invocation -> datasets.get((Long) invocation.getArgument(0)));
+        when(solrIndexService.dataFileService.findFileIdsByDatasetVersionId(any(), anyLong(), anyInt())).thenAnswer(invocation -> {
+            long firstFileId = (Long) invocation.getArgument(0) * 10000;
+            long afterId = Math.max((Long) invocation.getArgument(1), firstFileId - 1);
+            return range(afterId, firstFileId + FILES_PER_DATASET - 1, (Integer) invocation.getArgument(2));
+        });
+        when(solrIndexService.rolesSvc.directRoleAssignments(anyCollection())).thenReturn(new HashMap<>());
+        when(solrIndexService.rolesSvc.rolesAssignments(any())).thenReturn(new HashSet<>());
+        when(solrIndexService.searchPermissionsService.findDvObjectPerms(any(), anyCollection())).thenReturn(List.of("group_user1"));
+        Map<DatasetVersion.VersionState, Boolean> desiredCards = new LinkedHashMap<>();
+        desiredCards.put(DatasetVersion.VersionState.RELEASED, true);
+        desiredCards.put(DatasetVersion.VersionState.DRAFT, false);
+        desiredCards.put(DatasetVersion.VersionState.DEACCESSIONED, false);
+        when(solrIndexService.searchPermissionsService.getDesiredCards(any())).thenReturn(desiredCards);
+        when(solrIndexService.dvObjectService.updatePermissionIndexTime(anyList())).thenReturn(0);
+    }
+
+    @Category(NonEssentialTests.class)
+    @Test
+    public void testIndexPermissionsOfOneMillionFiles() {
+        long start = System.nanoTime();
+        solrIndexService.indexPermissionsOnSelfAndChildren(collection);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        logger.info("indexed the permissions of " + NUM_DATASETS + " datasets and " + (NUM_DATASETS * FILES_PER_DATASET)
+                + " files in " + elapsedMillis + " ms, " + solrClient.updates + " update requests");
+        // the collection itself, the datasets and their files
+        assertEquals(1 + NUM_DATASETS + NUM_DATASETS * FILES_PER_DATASET, solrClient.docs);
+    }
+
+    private static List<Long> range(long afterId, long lastId, int maxResults) {
+        List<Long> ids = new ArrayList<>();
+        for (long id = afterId + 1; id <= lastId && ids.size() < maxResults; id++) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static class CountingSolrClient extends SolrClient {
+
+        long docs = 0;
+        long updates = 0;
+
+        @Override
+        public NamedList<Object> request(SolrRequest request, String collection) {
+            if (request instanceof UpdateRequest && ((UpdateRequest) request).getDocuments() != null) {
+                docs += ((UpdateRequest) request).getDocuments().size();
+                updates++;
+            }
+            return new NamedList<>();
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
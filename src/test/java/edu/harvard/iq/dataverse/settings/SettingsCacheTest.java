@@ -0,0 +1,96 @@
+package edu.harvard.iq.dataverse.settings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import javax.ejb.TimerService;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SettingsCacheTest {
+
+    private final Supplier<String> noQuery = () -> {
+        throw new AssertionError("The settings should have been served from memory");
+    };
+
+    private SettingsCache settingsCache;
+    private TypedQuery<Setting> findAll;
+    private Query version;
+    private List<Setting> settings;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        settings = new ArrayList<>();
+        settings.add(new Setting(":SiteUrl", "https://demo.example.edu"));
+        settings.add(new Setting(":FooterCopyright", "fr", "Tous droits réservés"));
+
+        findAll = Mockito.mock(TypedQuery.class);
+        when(findAll.getResultList()).thenAnswer(invocation -> new ArrayList<>(settings));
+        version = Mockito.mock(Query.class);
+        when(version.getSingleResult()).thenReturn("v1");
+
+        settingsCache = new SettingsCache();
+        settingsCache.em = Mockito.mock(EntityManager.class);
+        settingsCache.timerService = Mockito.mock(TimerService.class);
+        when(settingsCache.em.createNamedQuery("Setting.findAll", Setting.class)).thenReturn(findAll);
+        when(settingsCache.em.createNativeQuery(anyString())).thenReturn(version);
+        settingsCache.init();
+    }
+
+    @Test
+    public void testServesLoadedSettings() {
+        assertEquals("https://demo.example.edu", settingsCache.get(SettingsCache.key(":SiteUrl", null), noQuery));
+        assertEquals("Tous droits réservés", settingsCache.get(SettingsCache.key(":FooterCopyright", "fr"), noQuery));
+        assertNull(settingsCache.get(SettingsCache.key(":FooterCopyright", null), noQuery));
+        verify(findAll, times(1)).getResultList();
+    }
+
+    @Test
+    public void testAppliesLocalChanges() {
+        settingsCache.put(":SiteUrl", "https://dataverse.example.edu");
+        settingsCache.remove(SettingsCache.key(":FooterCopyright", "fr"));
+
+        assertEquals("https://dataverse.example.edu", settingsCache.get(":SiteUrl", noQuery));
+        assertNull(settingsCache.get(SettingsCache.key(":FooterCopyright", "fr"), noQuery));
+    }
+
+    @Test
+    public void testPollReloadsOnlyChangedSettings() {
+        settingsCache.poll();
+        verify(findAll, times(1)).getResultList();
+
+        // changed on another node:
+        settings.set(0, new Setting(":SiteUrl", "https://dataverse.example.edu"));
+        when(version.getSingleResult()).thenReturn("v2");
+        settingsCache.poll();
+
+        verify(findAll, times(2)).getResultList();
+        assertEquals("https://dataverse.example.edu", settingsCache.get(":SiteUrl", noQuery));
+    }
+
+    @Test
+    public void testQueriesUntilLoaded() {
+        SettingsCache unloaded = new SettingsCache();
+        unloaded.em = Mockito.mock(EntityManager.class);
+        unloaded.timerService = Mockito.mock(TimerService.class);
+        when(unloaded.em.createNativeQuery(anyString())).thenThrow(new IllegalStateException("no database"));
+        unloaded.init();
+
+        assertEquals("from the database", unloaded.get(":SiteUrl", () -> "from the database"));
+        verify(unloaded.em, never()).createNamedQuery("Setting.findAll", Setting.class);
+    }
+
+}
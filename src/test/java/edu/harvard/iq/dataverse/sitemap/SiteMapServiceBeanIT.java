@@ -0,0 +1,168 @@
+package edu.harvard.iq.dataverse.sitemap;
+
+import edu.harvard.iq.dataverse.DOIServiceBean;
+import edu.harvard.iq.dataverse.GlobalId;
+import edu.harvard.iq.dataverse.util.xml.XmlValidator;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the page query of SiteMapServiceBean against PostgreSQL, on the columns
+ * of the tables it reads, to check which collections and datasets end up in
+ * the sitemap.
+ */
+@Tag("end2end")
+@Testcontainers
+public class SiteMapServiceBeanIT {
+
+    private static final Pattern POSITIONAL_PARAMETER = Pattern.compile("\\?(\\d+)");
+
+    @Container
+    static PostgreSQLContainer<?> db = new PostgreSQLContainer<>("postgres:" + System.getProperty("postgresql.server.version", "13"));
+
+    private Path tmpDirPath;
+    private SiteMapServiceBean siteMapService;
+
+    @BeforeAll
+    static void createTables() throws SQLException {
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE dvobject (id BIGINT PRIMARY KEY, protocol VARCHAR(255), authority VARCHAR(255),"
+                    + " identifier VARCHAR(255), publicationdate TIMESTAMP, modificationtime TIMESTAMP)");
+            statement.execute("CREATE TABLE dataverse (id BIGINT PRIMARY KEY, alias VARCHAR(255))");
+            statement.execute("CREATE TABLE dataset (id BIGINT PRIMARY KEY, harvestingclient_id BIGINT)");
+            statement.execute("CREATE TABLE datasetversion (id BIGINT PRIMARY KEY, dataset_id BIGINT, versionstate VARCHAR(255))");
+
+            statement.execute("INSERT INTO dvobject (id, publicationdate, modificationtime) VALUES"
+                    + " (1, '1955-11-12 22:04:00', '1955-11-12 22:04:00'), (2, NULL, now())");
+            statement.execute("INSERT INTO dataverse VALUES (1, 'publishedDv1'), (2, 'unpublishedDv1')");
+
+            statement.execute("INSERT INTO dvobject VALUES"
+                    + " (11, 'doi', '10.666', 'FAKE/published1', now(), now()),"
+                    + " (12, 'doi', '10.666', 'FAKE/unpublished1', NULL, now()),"
+                    + " (13, 'doi', '10.666', 'FAKE/harvested1', now(), now()),"
+                    + " (14, 'doi', '10.666', 'FAKE/deaccessioned1', now(), now()),"
+                    + " (15, 'doi', '10.666', 'FAKE/republished1', now(), now())");
+            statement.execute("INSERT INTO dataset VALUES (11, NULL), (12, NULL), (13, 1), (14, NULL), (15, NULL)");
+            statement.execute("INSERT INTO datasetversion VALUES"
+                    + " (21, 11, 'RELEASED'), (22, 12, 'DRAFT'), (23, 13, 'RELEASED'), (24, 14, 'DEACCESSIONED'),"
+                    + " (25, 15, 'DEACCESSIONED'), (26, 15, 'RELEASED')");
+        }
+    }
+
+    private static Connection connect() throws SQLException {
+        return DriverManager.getConnection(db.getJdbcUrl(), db.getUsername(), db.getPassword());
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        siteMapService = new SiteMapServiceBean();
+        siteMapService.em = Mockito.mock(EntityManager.class);
+        when(siteMapService.em.createNativeQuery(anyString())).thenAnswer(invocation -> nativeQuery(invocation.getArgument(0)));
+
+        tmpDirPath = Files.createTempDirectory(null);
+        new File(tmpDirPath + File.separator + "docroot").mkdirs();
+        System.setProperty("com.sun.aas.instanceRoot", tmpDirPath.toString());
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.clearProperty("com.sun.aas.instanceRoot");
+    }
+
+    /**
+     * A native query run over JDBC, with its JPA positional parameters
+     * ({@code ?1}, {@code ?2}...) bound in the order they appear.
+     */
+    private static Query nativeQuery(String sql) {
+        Map<Integer, Object> parameters = new HashMap<>();
+        Query query = Mockito.mock(Query.class, Mockito.RETURNS_SELF);
+        when(query.setParameter(anyInt(), any())).thenAnswer(invocation -> {
+            parameters.put(invocation.getArgument(0), invocation.getArgument(1));
+            return query;
+        });
+        when(query.getResultList()).thenAnswer(invocation -> {
+            List<Integer> positions = new ArrayList<>();
+            Matcher matcher = POSITIONAL_PARAMETER.matcher(sql);
+            while (matcher.find()) {
+                positions.add(Integer.valueOf(matcher.group(1)));
+            }
+            List<Object[]> rows = new ArrayList<>();
+            try (Connection connection = connect();
+                    PreparedStatement statement = connection.prepareStatement(matcher.replaceAll("?"))) {
+                for (int i = 0; i < positions.size(); i++) {
+                    statement.setObject(i + 1, parameters.get(positions.get(i)));
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    int columns = resultSet.getMetaData().getColumnCount();
+                    while (resultSet.next()) {
+                        Object[] row = new Object[columns];
+                        for (int i = 0; i < columns; i++) {
+                            row[i] = resultSet.getObject(i + 1);
+                        }
+                        rows.add(row);
+                    }
+                }
+            }
+            return rows;
+        });
+        return query;
+    }
+
+    private static String pid(String identifier) {
+        return new GlobalId(DOIServiceBean.DOI_PROTOCOL, "10.666", identifier, null, DOIServiceBean.DOI_RESOLVER_URL, null).asString();
+    }
+
+    @Test
+    public void testUpdateSiteMap() throws Exception {
+        siteMapService.updateSiteMap(false);
+
+        Path pathToSiteMap = Paths.get(tmpDirPath.toString(), "docroot", "sitemap", "sitemap.xml");
+        assertTrue(XmlValidator.validateXmlSchema(pathToSiteMap.toString(), new URL("https://www.sitemaps.org/schemas/sitemap/0.9/sitemap.xsd")));
+        String sitemapString = new String(Files.readAllBytes(pathToSiteMap));
+
+        assertTrue(sitemapString.contains("/dataverse/publishedDv1"));
+        assertTrue(sitemapString.contains("1955-11-12"));
+        assertTrue(sitemapString.contains(pid("FAKE/published1")));
+        // (deaccessioned, then published again)
+        assertTrue(sitemapString.contains(pid("FAKE/republished1")));
+        assertFalse(sitemapString.contains("/dataverse/unpublishedDv1"));
+        assertFalse(sitemapString.contains(pid("FAKE/unpublished1")));
+        assertFalse(sitemapString.contains(pid("FAKE/harvested1")));
+        assertFalse(sitemapString.contains(pid("FAKE/deaccessioned1")));
+    }
+
+}
@@ -1,11 +1,7 @@
 package edu.harvard.iq.dataverse.sitemap;
 
 import edu.harvard.iq.dataverse.DOIServiceBean;
-import edu.harvard.iq.dataverse.Dataset;
-import edu.harvard.iq.dataverse.DatasetVersion;
-import edu.harvard.iq.dataverse.Dataverse;
 import edu.harvard.iq.dataverse.GlobalId;
-import edu.harvard.iq.dataverse.harvest.client.HarvestingClient;
 import edu.harvard.iq.dataverse.util.xml.XmlPrinter;
 import edu.harvard.iq.dataverse.util.xml.XmlValidator;
 import java.io.File;
@@ -21,10 +17,18 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Test;
+import org.mockito.Mockito;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
 import org.xml.sax.SAXException;
 
 public class SiteMapUtilTest {
@@ -32,51 +36,21 @@ public class SiteMapUtilTest {
     @Test
     public void testUpdateSiteMap() throws IOException, ParseException {
 
-        List<Dataverse> dataverses = new ArrayList<>();
-        String publishedDvString = "publishedDv1";
-        Dataverse publishedDataverse = new Dataverse();
-        publishedDataverse.setAlias(publishedDvString);
         SimpleDateFormat dateFmt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
         Date dvModifiedDate = dateFmt.parse("1955-11-12 22:04:00");
-        publishedDataverse.setModificationTime(new Timestamp(dvModifiedDate.getTime()));
-        publishedDataverse.setPublicationDate(new Timestamp(dvModifiedDate.getTime()));
-        dataverses.add(publishedDataverse);
-
-        List<Dataset> datasets = new ArrayList<>();
-
-        Dataset published = new Dataset();
-        published.setGlobalId(new GlobalId(DOIServiceBean.DOI_PROTOCOL, "10.666", "FAKE/published1", null, DOIServiceBean.DOI_RESOLVER_URL, null));
-        String publishedPid = published.getGlobalId().asString();
-        published.setPublicationDate(new Timestamp(new Date().getTime()));
-        published.setModificationTime(new Timestamp(new Date().getTime()));
-        datasets.add(published);
-
-        Dataset unpublished = new Dataset();
-        unpublished.setGlobalId(new GlobalId(DOIServiceBean.DOI_PROTOCOL, "10.666", "FAKE/unpublished1", null, DOIServiceBean.DOI_RESOLVER_URL, null));
-        String unpublishedPid = unpublished.getGlobalId().asString();
-
-        Timestamp nullPublicationDateToIndicateNotPublished = null;
-        unpublished.setPublicationDate(nullPublicationDateToIndicateNotPublished);
-        datasets.add(unpublished);
-
-        Dataset harvested = new Dataset();
-        harvested.setGlobalId(new GlobalId(DOIServiceBean.DOI_PROTOCOL, "10.666", "FAKE/harvested1", null, DOIServiceBean.DOI_RESOLVER_URL, null));
-        String harvestedPid = harvested.getGlobalId().asString();
-        harvested.setPublicationDate(new Timestamp(new Date().getTime()));
-        harvested.setHarvestedFrom(new HarvestingClient());
-        datasets.add(harvested);
-
-        Dataset deaccessioned = new Dataset();
-        deaccessioned.setGlobalId(new GlobalId(DOIServiceBean.DOI_PROTOCOL, "10.666", "FAKE/deaccessioned1", null, DOIServiceBean.DOI_RESOLVER_URL, null));
-        String deaccessionedPid = deaccessioned.getGlobalId().asString();
-
-        deaccessioned.setPublicationDate(new Timestamp(new Date().getTime()));
-        List<DatasetVersion> datasetVersions = new ArrayList<>();
-        DatasetVersion datasetVersion = new DatasetVersion();
-        datasetVersion.setVersionState(DatasetVersion.VersionState.DEACCESSIONED);
-        datasetVersions.add(datasetVersion);
-        deaccessioned.setVersions(datasetVersions);
-        datasets.add(deaccessioned);
+        String publishedPid = new GlobalId(DOIServiceBean.DOI_PROTOCOL, "10.666", "FAKE/published1", null, DOIServiceBean.DOI_RESOLVER_URL, null).asString();
+
+        // The rows of the query of SiteMapServiceBean: the unpublished, harvested
+        // and deaccessioned datasets are left out by the query itself, see
+        // SiteMapServiceBeanIT.
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{1L, "publishedDv1", null, null, null, new Timestamp(dvModifiedDate.getTime())});
+        rows.add(new Object[]{2L, null, DOIServiceBean.DOI_PROTOCOL, "10.666", "FAKE/published1", new Timestamp(new Date().getTime())});
+        SiteMapServiceBean siteMapService = new SiteMapServiceBean();
+        siteMapService.em = Mockito.mock(EntityManager.class);
+        Query query = Mockito.mock(Query.class, Mockito.RETURNS_SELF);
+        when(siteMapService.em.createNativeQuery(anyString())).thenReturn(query);
+        when(query.getResultList()).thenReturn(rows);
 
         Path tmpDirPath = Files.createTempDirectory(null);
         String tmpDir = tmpDirPath.toString();
@@ -84,7 +58,7 @@ public class SiteMapUtilTest {
         docroot.mkdirs();
         System.setProperty("com.sun.aas.instanceRoot", tmpDir);
 
-        SiteMapUtil.updateSiteMap(dataverses, datasets);
+        siteMapService.updateSiteMap(false);
 
         String pathToTest = tmpDirPath + File.separator + "docroot" + File.separator + "sitemap";
         String pathToSiteMap = pathToTest + File.separator + "sitemap.xml";
@@ -111,14 +85,103 @@ public class SiteMapUtilTest {
         String sitemapString = XmlPrinter.prettyPrintXml(new String(Files.readAllBytes(Paths.get(sitemapFile.getAbsolutePath()))));
         System.out.println("sitemap: " + sitemapString);
 
+        assertTrue(sitemapString.contains("/dataverse/publishedDv1"));
         assertTrue(sitemapString.contains("1955-11-12"));
         assertTrue(sitemapString.contains(publishedPid));
-        assertFalse(sitemapString.contains(unpublishedPid));
-        assertFalse(sitemapString.contains(harvestedPid));
-        assertFalse(sitemapString.contains(deaccessionedPid));
 
         System.clearProperty("com.sun.aas.instanceRoot");
 
     }
 
+    @Test
+    public void testShardedAndIncrementalUpdates() throws IOException, ParseException {
+        Date lastMod = new SimpleDateFormat("yyyy-MM-dd").parse("2023-04-01");
+        List<SiteMapUtil.Entry> entries = new ArrayList<>();
+        for (long id = 1; id <= 7; id++) {
+            entries.add(SiteMapUtil.Entry.forDataset(id, "doi:10.666/FAKE/sharded" + id, lastMod));
+        }
+        SiteMapUtil.EntrySource source = (afterId, upToId) -> new ArrayList<>(entries).stream()
+                .filter(e -> e.id > afterId && (upToId == null || e.id <= upToId));
+
+        Path tmpDirPath = Files.createTempDirectory(null);
+        new File(tmpDirPath + File.separator + "docroot").mkdirs();
+        System.setProperty("com.sun.aas.instanceRoot", tmpDirPath.toString());
+        Path sitemapDir = Paths.get(tmpDirPath.toString(), "docroot", "sitemap");
+        try {
+            // 7 URLs, 3 to a file:
+            assertEquals(3, SiteMapUtil.updateSiteMap(source, false, 3));
+            String index = new String(Files.readAllBytes(sitemapDir.resolve("sitemap.xml")));
+            assertTrue(index.contains("<sitemapindex"));
+            assertTrue(index.contains("/sitemap/sitemap3.xml"));
+            assertTrue(XmlValidator.validateXmlSchema(sitemapDir.resolve("sitemap.xml").toString(), new URL("https://www.sitemaps.org/schemas/sitemap/0.9/siteindex.xsd")));
+            assertTrue(new String(Files.readAllBytes(sitemapDir.resolve("sitemap1.xml"))).contains("FAKE/sharded3"));
+            assertTrue(new String(Files.readAllBytes(sitemapDir.resolve("sitemap3.xml"))).contains("FAKE/sharded7"));
+
+            // Nothing changed:
+            assertEquals(0, SiteMapUtil.updateSiteMap(source, true, 3));
+
+            // A dataset of the first file is modified, three are added after the last one:
+            entries.set(1, SiteMapUtil.Entry.forDataset(2, "doi:10.666/FAKE/sharded2", new Date()));
+            for (long id = 8; id <= 10; id++) {
+                entries.add(SiteMapUtil.Entry.forDataset(id, "doi:10.666/FAKE/sharded" + id, lastMod));
+            }
+            assertEquals(3, SiteMapUtil.updateSiteMap(source, true, 3));
+            assertTrue(new String(Files.readAllBytes(sitemapDir.resolve("sitemap.xml"))).contains("/sitemap/sitemap4.xml"));
+            assertTrue(new String(Files.readAllBytes(sitemapDir.resolve("sitemap4.xml"))).contains("FAKE/sharded10"));
+
+            // A dataset of the second file is removed:
+            entries.remove(4);
+            assertEquals(1, SiteMapUtil.updateSiteMap(source, true, 3));
+            assertFalse(new String(Files.readAllBytes(sitemapDir.resolve("sitemap2.xml"))).contains("FAKE/sharded5"));
+
+            // Back to a single file:
+            entries.subList(2, entries.size()).clear();
+            assertEquals(1, SiteMapUtil.updateSiteMap(source, false, 3));
+            String sitemap = new String(Files.readAllBytes(sitemapDir.resolve("sitemap.xml")));
+            assertTrue(sitemap.contains("<urlset"));
+            assertTrue(sitemap.contains("FAKE/sharded2"));
+            assertFalse(Files.exists(sitemapDir.resolve("sitemap1.xml")));
+            assertFalse(Files.exists(sitemapDir.resolve("sitemap4.xml")));
+        } catch (SAXException ex) {
+            fail("Exception caught validating XML against the sitemap index schema: " + ex);
+        } finally {
+            System.clearProperty("com.sun.aas.instanceRoot");
+        }
+    }
+
+    @Test
+    public void testBadIndexLeavesTheSitemapAsItWas() throws IOException, ParseException {
+        Date lastMod = new SimpleDateFormat("yyyy-MM-dd").parse("2023-04-01");
+        List<SiteMapUtil.Entry> entries = new ArrayList<>();
+        for (long id = 1; id <= 7; id++) {
+            entries.add(SiteMapUtil.Entry.forDataset(id, "doi:10.666/FAKE/indexed" + id, lastMod));
+        }
+        SiteMapUtil.EntrySource source = (afterId, upToId) -> new ArrayList<>(entries).stream()
+                .filter(e -> e.id > afterId && (upToId == null || e.id <= upToId));
+
+        Path tmpDirPath = Files.createTempDirectory(null);
+        new File(tmpDirPath + File.separator + "docroot").mkdirs();
+        System.setProperty("com.sun.aas.instanceRoot", tmpDirPath.toString());
+        Path sitemapDir = Paths.get(tmpDirPath.toString(), "docroot", "sitemap");
+        try {
+            assertEquals(3, SiteMapUtil.updateSiteMap(source, false, 3));
+            byte[] index = Files.readAllBytes(sitemapDir.resolve("sitemap.xml"));
+            byte[] firstShard = Files.readAllBytes(sitemapDir.resolve("sitemap1.xml"));
+
+            // The date of a file that is kept, as recorded by the last run, makes
+            // the new index invalid:
+            Path statePath = sitemapDir.resolve(SiteMapUtil.SITEMAP_STATE_FILENAME);
+            String state = new String(Files.readAllBytes(statePath));
+            Files.write(statePath, state.replaceAll("shard\\.2\\.lastmod=.*", "shard.2.lastmod=yesterday").getBytes());
+            entries.set(1, SiteMapUtil.Entry.forDataset(2, "doi:10.666/FAKE/indexed2", new Date()));
+
+            assertEquals(-1, SiteMapUtil.updateSiteMap(source, true, 3));
+            assertArrayEquals(index, Files.readAllBytes(sitemapDir.resolve("sitemap.xml")));
+            assertArrayEquals(firstShard, Files.readAllBytes(sitemapDir.resolve("sitemap1.xml")));
+            assertTrue(SiteMapUtil.stageFileExists());
+        } finally {
+            System.clearProperty("com.sun.aas.instanceRoot");
+        }
+    }
+
 }
@@ -1,5 +1,9 @@
 package edu.harvard.iq.dataverse.util;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -105,4 +109,97 @@ public class LruCacheTest {
         assertEquals("verify that value 1 is no longer here", null, sut.get(key1));
         assertEquals("verify that value 2 still exists", value2, sut.get(key2));
     }
+
+    @Test
+    public void testInvalidateAfterCompletionOutsideOfATransaction() {
+        sut.put(0l, "x");
+        sut.put(1l, "y");
+
+        // (no transaction to wait for: invalidated right away)
+        sut.invalidateAfterCompletion(0l);
+        assertNull(sut.get(0l));
+        assertEquals("y", sut.get(1l));
+
+        sut.invalidateAfterCompletion();
+        assertEquals(0, sut.size());
+    }
+
+    @Test
+    public void testLRUAfterGet() {
+        sut.setMaxSize(10);
+        for ( long l=0; l<10; l++ ) {
+            sut.put(l, "filler" + l);
+        }
+        // 0 becomes the most recently used, so 1 is evicted instead
+        assertEquals("filler0", sut.get(0l));
+        sut.put(10l, "filler10");
+
+        assertEquals(10, sut.size());
+        assertEquals("filler0", sut.get(0l));
+        assertNull(sut.get(1l));
+    }
+
+    @Test
+    public void testEvictionsGoAroundTheWholeCache() {
+        sut.setMaxSize(100);
+        for ( long l=0; l<100; l++ ) {
+            sut.put(l, "old" + l);
+        }
+        // (the samples are not always of the same part of the cache)
+        for ( long l=100; l<1100; l++ ) {
+            sut.put(l, "new" + l);
+        }
+
+        for ( long l=0; l<100; l++ ) {
+            assertNull("old entry " + l, sut.get(l));
+        }
+    }
+
+    @Test
+    public void testGetWithLoaderCachesNullValues() {
+        AtomicInteger loads = new AtomicInteger();
+
+        assertNull(sut.get(1l, k -> { loads.incrementAndGet(); return null; }));
+        assertNull(sut.get(1l, k -> { loads.incrementAndGet(); return null; }));
+        assertEquals(1, loads.get());
+
+        sut.invalidate(1l);
+        assertEquals("x", sut.get(1l, k -> { loads.incrementAndGet(); return "x"; }));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testTimeToLive() throws InterruptedException {
+        LruCache<Long, String> expiring = new LruCache<>(null, 10, Duration.ofMillis(1));
+        expiring.put(1l, "x");
+        Thread.sleep(10);
+
+        assertNull(expiring.get(1l));
+        assertEquals(0, expiring.size());
+    }
+
+    @Test
+    public void testInvalidationListeners() {
+        List<String> invalidations = new ArrayList<>();
+        CacheRegistry.InvalidationListener listener = (cacheName, key) -> invalidations.add(cacheName + ":" + key);
+        CacheRegistry.addInvalidationListener(listener);
+        try {
+            LruCache<Long, String> named = new LruCache<>("lruCacheTest", 10, null);
+            named.put(1l, "x");
+            named.put(2l, "y");
+
+            named.invalidate(1l);
+            named.invalidate();
+            assertEquals(List.of("lruCacheTest:1", "lruCacheTest:null"), invalidations);
+
+            // invalidations coming from other nodes are not passed on again
+            named.put(2l, "y");
+            assertTrue(CacheRegistry.invalidateLocally("lruCacheTest", 2l));
+            assertNull(named.get(2l));
+            assertEquals(2, invalidations.size());
+            assertFalse(CacheRegistry.invalidateLocally("noSuchCache", null));
+        } finally {
+            CacheRegistry.removeInvalidationListener(listener);
+        }
+    }
 }